@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.vysper.xmpp.addressing.EntityFormatException;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.addressing.stringprep.NodePrep;
+import org.apache.vysper.xmpp.addressing.stringprep.ResourcePrep;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * compares parsing JIDs the way {@link EntityImpl#parse(String)} did before (splitting, then
+ * running stringprep on every call) with the single pass parser and the cached parse.
+ * the cached parse also returns the cached hash code and bare JID.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityParseBenchmark {
+
+    @Param({ "vysper.org", "romeo@montague.lit", "romeo@montague.lit/orchard",
+            "coven@chat.shakespeare.lit/thirdwitch" })
+    public String jid;
+
+    @Benchmark
+    public void splitAndPrep(Blackhole blackhole) throws EntityFormatException {
+        String entity = jid;
+        String node = null;
+        String resource = null;
+        if (entity.contains(EntityImpl.CHAR_AT)) {
+            String[] parts = entity.split(EntityImpl.CHAR_AT);
+            node = NodePrep.prepare(parts[0]);
+            entity = parts[1];
+        }
+        String domain = entity;
+        if (entity.contains(EntityImpl.CHAR_SLASH)) {
+            int indexOfSlash = entity.indexOf(EntityImpl.CHAR_SLASH);
+            domain = entity.substring(0, indexOfSlash);
+            resource = ResourcePrep.prepare(entity.substring(indexOfSlash + 1));
+        }
+        blackhole.consume(node);
+        blackhole.consume(domain);
+        blackhole.consume(resource);
+    }
+
+    @Benchmark
+    public void parseUncached(Blackhole blackhole) throws EntityFormatException {
+        EntityImpl entity = EntityImpl.parseUncached(jid);
+        blackhole.consume(entity.hashCode());
+        blackhole.consume(entity.getBareJID());
+    }
+
+    @Benchmark
+    public void parseCached(Blackhole blackhole) throws EntityFormatException {
+        EntityImpl entity = EntityImpl.parse(jid);
+        blackhole.consume(entity.hashCode());
+        blackhole.consume(entity.getBareJID());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.vysper.stanzasession.StanzaSessionContext;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.StanzaReceiverRelay;
+import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
+import org.apache.vysper.xmpp.protocol.ProtocolWorker;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.SimpleStanzaHandlerExecutorFactory;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.protocol.StanzaHandler;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.state.resourcebinding.BindException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * measures the per-stanza overhead of {@link ProtocolWorker#processStanza} for an authenticated client session,
+ * with a handler doing nothing.
+ * the session either knows its bound resources, or has to ask the resource registry for every stanza as before.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolWorkerBenchmark {
+
+    private static final String NAMESPACE_URI = "urn:vysper:benchmark";
+
+    @Param({ "true", "false" })
+    public boolean sessionResources;
+
+    @Param({ "true", "false" })
+    public boolean fullFrom;
+
+    private ProtocolWorker protocolWorker;
+
+    private ServerRuntimeContext serverRuntimeContext;
+
+    private StanzaSessionContext sessionContext;
+
+    private SessionStateHolder sessionStateHolder;
+
+    private Stanza stanza;
+
+    @Setup
+    public void setUp() throws BindException {
+        Entity serverEntity = EntityImpl.parseUnchecked("vysper.org");
+        StanzaReceiverRelay relay = new StanzaReceiverRelay();
+        DefaultServerRuntimeContext runtimeContext = new DefaultServerRuntimeContext(serverEntity, relay);
+        relay.setServerRuntimeContext(runtimeContext);
+        runtimeContext.addDictionary(new NamespaceHandlerDictionary(NAMESPACE_URI, new StanzaHandler() {
+            public String getName() {
+                return "iq";
+            }
+
+            public boolean verify(Stanza stanza) {
+                return true;
+            }
+
+            public boolean isSessionRequired() {
+                return true;
+            }
+
+            public void execute(Stanza stanza, ServerRuntimeContext serverRuntimeContext, boolean isOutboundStanza,
+                    SessionContext sessionContext, SessionStateHolder sessionStateHolder, StanzaBroker stanzaBroker) {
+                // nothing to do
+            }
+        }));
+        serverRuntimeContext = runtimeContext;
+        protocolWorker = new ProtocolWorker(new SimpleStanzaHandlerExecutorFactory(relay));
+
+        sessionStateHolder = new SessionStateHolder();
+        sessionStateHolder.setState(SessionState.AUTHENTICATED);
+        sessionContext = new StanzaSessionContext(serverRuntimeContext, protocolWorker, sessionStateHolder);
+        Entity user = EntityImpl.parseUnchecked("romeo@vysper.org");
+        sessionContext.setInitiatingEntity(user);
+        String resource = sessionContext.bindResource();
+        if (!sessionResources) sessionContext.setBoundResources(null);
+
+        Entity from = fullFrom ? new EntityImpl(user, resource) : user;
+        stanza = StanzaBuilder.createIQStanza(from, serverEntity, IQStanzaType.GET, "1")
+                .startInnerElement("query", NAMESPACE_URI).endInnerElement().build();
+    }
+
+    @Benchmark
+    public void processStanza() {
+        protocolWorker.processStanza(serverRuntimeContext, sessionContext, stanza, sessionStateHolder);
+    }
+}
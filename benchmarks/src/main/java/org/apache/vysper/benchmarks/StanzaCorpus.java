@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * a fixed corpus of realistic stanzas, shared by the parser and decoder benchmarks.
+ * the content must not change between runs, or results cannot be compared anymore.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public final class StanzaCorpus {
+
+    public static final String STREAM_OPENING = "<?xml version='1.0'?><stream:stream to='capulet.lit' "
+            + "xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' version='1.0'>";
+
+    public static final String CHAT = "<message from='romeo@montague.lit/orchard' to='juliet@capulet.lit/balcony' "
+            + "type='chat' id='ktx72v49' xml:lang='en'>"
+            + "<body>Art thou not Romeo, and a Montague? Neither, fair saint, if either thee dislike.</body>"
+            + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+            + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+            + "<request xmlns='urn:xmpp:receipts'/></message>";
+
+    public static final String PRESENCE_CAPS = "<presence from='romeo@montague.lit/orchard' id='pres1'>"
+            + "<show>away</show><status>in the orchard &amp; dreaming</status><priority>5</priority>"
+            + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='http://code.google.com/p/exodus' "
+            + "ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>"
+            + "<x xmlns='vcard-temp:x:update'><photo>01b87fcd030b72895ff8e88db57ec525450f000d</photo></x>"
+            + "</presence>";
+
+    public static final String PUBSUB_ITEMS = "<message from='pubsub.shakespeare.lit' to='francisco@denmark.lit' "
+            + "id='foo'><event xmlns='http://jabber.org/protocol/pubsub#event'>"
+            + "<items node='princely_musings'><item id='ae890ac52d0df67ed7cfdf51b644e901'>"
+            + "<entry xmlns='http://www.w3.org/2005/Atom'><title>Soliloquy</title>"
+            + "<summary>To be, or not to be: that is the question: Whether &apos;tis nobler in the mind to suffer "
+            + "The slings and arrows of outrageous fortune, Or to take arms against a sea of troubles, "
+            + "And by opposing end them?</summary>"
+            + "<link rel='alternate' type='text/html' href='http://denmark.lit/2003/12/13/atom03'/>"
+            + "<id>tag:denmark.lit,2003:entry-32397</id><published>2003-12-13T18:30:02Z</published>"
+            + "<updated>2003-12-13T18:30:02Z</updated></entry></item></items></event>"
+            + "<headers xmlns='http://jabber.org/protocol/shim'><header name='Collection'>urn:xmpp:mam</header>"
+            + "</headers></message>";
+
+    public static final String MAM_RESULT = "<message id='aeb213' to='juliet@capulet.lit/chamber'>"
+            + "<result xmlns='urn:xmpp:mam:2' queryid='f27' id='28482-98726-73623'>"
+            + "<forwarded xmlns='urn:xmpp:forward:0'><delay xmlns='urn:xmpp:delay' stamp='2010-07-10T23:08:25Z'/>"
+            + "<message xmlns='jabber:client' from='witch@shakespeare.lit' to='macbeth@shakespeare.lit' "
+            + "type='chat'><body>Hail to thee, Thane of Cawdor &#x2014; all hail, Macbeth! "
+            + "that shalt be king hereafter.</body></message></forwarded></result></message>";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private StanzaCorpus() {
+        // static only
+    }
+
+    /**
+     * @param name - one of chat, presence, pubsub, mam
+     */
+    public static String stanza(String name) {
+        if ("chat".equals(name)) return CHAT;
+        if ("presence".equals(name)) return PRESENCE_CAPS;
+        if ("pubsub".equals(name)) return PUBSUB_ITEMS;
+        if ("mam".equals(name)) return MAM_RESULT;
+        throw new IllegalArgumentException("unknown stanza " + name);
+    }
+
+    public static byte[] bytes(String xml) {
+        return xml.getBytes(UTF8);
+    }
+
+    /**
+     * splits the bytes into fragments of the given size, like they arrive from the network
+     * @param fragmentSize - 0 for a single fragment
+     */
+    public static byte[][] fragment(byte[] bytes, int fragmentSize) {
+        if (fragmentSize <= 0 || fragmentSize >= bytes.length) return new byte[][] { bytes };
+        List<byte[]> fragments = new ArrayList<byte[]>();
+        for (int offset = 0; offset < bytes.length; offset += fragmentSize) {
+            byte[] fragment = new byte[Math.min(fragmentSize, bytes.length - offset)];
+            System.arraycopy(bytes, offset, fragment, 0, fragment.length);
+            fragments.add(fragment);
+        }
+        return fragments.toArray(new byte[fragments.size()][]);
+    }
+
+    /**
+     * @return a new buffer over the shared bytes, ready to be read
+     */
+    public static IoBuffer buffer(byte[] bytes) {
+        return IoBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.vysper.charset.CharsetUtil;
+import org.apache.vysper.mina.codec.StanzaWriteInfo;
+import org.apache.vysper.mina.codec.StanzaWriterProtocolEncoder;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.writer.StanzaWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * compares the string based rendering previously used for writing stanzas with the
+ * {@link StanzaWriterProtocolEncoder} rendering directly into the buffer.
+ * run with <code>-prof gc</code> to compare allocation rates.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StanzaEncoderBenchmark {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("romeo@montague.lit/orchard");
+
+    private static final Entity TO = EntityImpl.parseUnchecked("juliet@capulet.lit/balcony");
+
+    @Param({ "message", "presence" })
+    public String stanzaType;
+
+    @Param({ "false", "true" })
+    public boolean direct;
+
+    private Stanza stanza;
+
+    private StanzaWriterProtocolEncoder encoder;
+
+    private BlackholeEncoderOutput output;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        if ("message".equals(stanzaType)) {
+            stanza = StanzaBuilder.createMessageStanza(FROM, TO, "en",
+                    "Art thou not Romeo, and a Montague? Neither, fair saint, if either thee dislike. "
+                            + "Wie schön du bist, Julia – 💕").build();
+        } else {
+            stanza = new StanzaBuilder("presence", "jabber:client").addAttribute("from", FROM.getFullQualifiedName())
+                    .addAttribute("to", TO.getFullQualifiedName()).startInnerElement("show", "jabber:client")
+                    .addText("away").endInnerElement().startInnerElement("status", "jabber:client")
+                    .addText("in the orchard").endInnerElement().startInnerElement("c", "http://jabber.org/protocol/caps")
+                    .addAttribute("hash", "sha-1").addAttribute("node", "http://vysper.apache.org")
+                    .addAttribute("ver", "QgayPKawpkPSDYmwT/WM94uAlu0=").endInnerElement().build();
+        }
+        encoder = new StanzaWriterProtocolEncoder(direct);
+        output = new BlackholeEncoderOutput(blackhole);
+    }
+
+    @Benchmark
+    public void renderToString(Blackhole blackhole) throws Exception {
+        // the way stanzas were encoded before rendering directly into the buffer
+        Renderer renderer = new Renderer(stanza);
+        IoBuffer byteBuffer = IoBuffer.allocate(16, direct).setAutoExpand(true);
+        byteBuffer.putString(renderer.getOpeningElement(), CharsetUtil.getEncoder());
+        byteBuffer.putString(renderer.getElementContent(), CharsetUtil.getEncoder());
+        byteBuffer.putString(renderer.getClosingElement(), CharsetUtil.getEncoder());
+        byteBuffer.flip();
+        blackhole.consume(byteBuffer);
+    }
+
+    @Benchmark
+    public void renderToStringWithProlog(Blackhole blackhole) throws Exception {
+        Renderer renderer = new Renderer(stanza);
+        IoBuffer byteBuffer = IoBuffer.allocate(16, direct).setAutoExpand(true);
+        byteBuffer.putString(StanzaWriter.XML_PROLOG, CharsetUtil.getEncoder());
+        byteBuffer.putString(renderer.getOpeningElement(), CharsetUtil.getEncoder());
+        byteBuffer.putString(renderer.getElementContent(), CharsetUtil.getEncoder());
+        byteBuffer.flip();
+        blackhole.consume(byteBuffer);
+    }
+
+    @Benchmark
+    public void encode() throws Exception {
+        encoder.encode(null, new StanzaWriteInfo(stanza), output);
+    }
+
+    @Benchmark
+    public void encodeStreamOpening() throws Exception {
+        encoder.encode(null, new StanzaWriteInfo(stanza, true), output);
+    }
+
+    private static class BlackholeEncoderOutput implements ProtocolEncoderOutput {
+
+        private final Blackhole blackhole;
+
+        public BlackholeEncoderOutput(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        public void write(Object encodedMessage) {
+            blackhole.consume(encodedMessage);
+        }
+
+        public void mergeAll() {
+            // nothing to merge
+        }
+
+        public WriteFuture flush() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.vysper.xmpp.modules.core.base.handler.DefaultIQHandler;
+import org.apache.vysper.xmpp.protocol.HandlerDictionary;
+import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
+import org.apache.vysper.xmpp.protocol.StanzaHandler;
+import org.apache.vysper.xmpp.protocol.StanzaHandlerLookup;
+import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * compares finding the handler for an IQ by asking every module's dictionary in turn, as the lookup did before,
+ * with the lookup's dispatch index. the IQ is handled by the module registered last.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StanzaHandlerLookupBenchmark {
+
+    @Param({ "1", "10", "50" })
+    public int modules;
+
+    private List<HandlerDictionary> dictionaries;
+
+    private StanzaHandlerLookup lookup;
+
+    private Stanza stanza;
+
+    @Setup
+    public void setUp() {
+        dictionaries = new ArrayList<HandlerDictionary>();
+        lookup = new StanzaHandlerLookup(null);
+        for (int i = 0; i < modules; i++) {
+            final String namespaceURI = "urn:vysper:benchmark:" + i;
+            StanzaHandler handler = new DefaultIQHandler() {
+                @Override
+                protected boolean verifyInnerElement(Stanza stanza) {
+                    return verifyInnerElementWorker(stanza, "query") && verifyInnerNamespace(stanza, namespaceURI);
+                }
+            };
+            NamespaceHandlerDictionary dictionary = new NamespaceHandlerDictionary(namespaceURI, handler);
+            dictionaries.add(dictionary);
+            lookup.addDictionary(dictionary);
+        }
+
+        stanza = StanzaBuilder.createIQStanza(null, null, IQStanzaType.GET, "1")
+                .startInnerElement("query", "urn:vysper:benchmark:" + (modules - 1)).endInnerElement().build();
+        if (linearScan() != lookup.getHandler(stanza)) throw new IllegalStateException("lookups differ");
+    }
+
+    @Benchmark
+    public StanzaHandler linearScan() {
+        for (HandlerDictionary dictionary : dictionaries) {
+            StanzaHandler stanzaHandler = dictionary.get(stanza);
+            if (stanzaHandler != null) return stanzaHandler;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public StanzaHandler dispatchIndex() {
+        return lookup.getHandler(stanza);
+    }
+}
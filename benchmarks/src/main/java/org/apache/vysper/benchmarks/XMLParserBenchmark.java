@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.vysper.charset.CharsetUtil;
+import org.apache.vysper.xml.decoder.XMLElementListener;
+import org.apache.vysper.xml.decoder.XMPPContentHandler;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.sax.impl.DefaultNonBlockingXMLReader;
+import org.apache.vysper.xml.sax.impl.XMLParser;
+import org.apache.vysper.xml.sax.impl.XMLTokenizer;
+import org.apache.vysper.xml.sax.impl.XMLTokenizer.TokenListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * measures the stages of the non-blocking XML parser, one stanza of the {@link StanzaCorpus} per operation:
+ * <ul>
+ * <li>tokenize - bytes to tokens, {@link XMLTokenizer#parse}</li>
+ * <li>parseTokens - pre-recorded tokens to SAX events, {@link XMLParser#token}</li>
+ * <li>parse - bytes to SAX events</li>
+ * <li>buildElement - bytes to {@link XMLElement}, what the server does for every stanza received</li>
+ * </ul>
+ * like on a real connection, the stanzas are parsed inside an already opened stream.
+ * run with <code>-prof gc</code> to see the allocation per stanza.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class XMLParserBenchmark {
+
+    @Param({ "chat", "presence", "pubsub", "mam" })
+    public String stanza;
+
+    private byte[] bytes;
+
+    private CharsetDecoder decoder;
+
+    private XMLTokenizer tokenizer;
+
+    private XMLParser tokenParser;
+
+    private char[] recordedChars;
+
+    private String[] recordedTokens;
+
+    private XMLParser parser;
+
+    private DefaultNonBlockingXMLReader reader;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) throws Exception {
+        bytes = StanzaCorpus.bytes(StanzaCorpus.stanza(stanza));
+        decoder = CharsetUtil.getDecoder();
+
+        tokenizer = new XMLTokenizer(new TokenListener() {
+            public void token(char c, String token) {
+                blackhole.consume(c);
+                blackhole.consume(token);
+            }
+
+            public void limitExceeded() {
+                throw new IllegalStateException("no limit set");
+            }
+        });
+
+        // record the tokens once, to measure the parser alone
+        final List<Character> chars = new ArrayList<Character>();
+        final List<String> tokens = new ArrayList<String>();
+        new XMLTokenizer(new TokenListener() {
+            public void token(char c, String token) {
+                chars.add(c);
+                tokens.add(token);
+            }
+
+            public void limitExceeded() {
+                throw new IllegalStateException("no limit set");
+            }
+        }).parse(StanzaCorpus.buffer(bytes), decoder);
+        recordedChars = new char[chars.size()];
+        for (int i = 0; i < recordedChars.length; i++) {
+            recordedChars[i] = chars.get(i);
+        }
+        recordedTokens = tokens.toArray(new String[tokens.size()]);
+
+        Map<String, Boolean> features = new HashMap<String, Boolean>();
+        features.put(DefaultNonBlockingXMLReader.FEATURE_NAMESPACE_PREFIXES, true);
+        Map<String, Object> properties = new HashMap<String, Object>();
+
+        tokenParser = new XMLParser(new DefaultHandler(), new DefaultHandler(), features, properties);
+        tokenParser.parse(StanzaCorpus.buffer(StanzaCorpus.bytes(StanzaCorpus.STREAM_OPENING)), decoder);
+
+        parser = new XMLParser(new DefaultHandler(), new DefaultHandler(), features, properties);
+        parser.parse(StanzaCorpus.buffer(StanzaCorpus.bytes(StanzaCorpus.STREAM_OPENING)), decoder);
+
+        reader = new DefaultNonBlockingXMLReader();
+        reader.setFeature(DefaultNonBlockingXMLReader.FEATURE_NAMESPACE_PREFIXES, true);
+        XMPPContentHandler contentHandler = new XMPPContentHandler();
+        contentHandler.setListener(new XMLElementListener() {
+            public void element(XMLElement element) {
+                blackhole.consume(element);
+            }
+
+            public void close() {
+                throw new IllegalStateException("stream must not be closed while benchmarking");
+            }
+        });
+        reader.setContentHandler(contentHandler);
+        reader.parse(StanzaCorpus.buffer(StanzaCorpus.bytes(StanzaCorpus.STREAM_OPENING)), decoder);
+    }
+
+    @Benchmark
+    public void tokenize() throws Exception {
+        tokenizer.parse(StanzaCorpus.buffer(bytes), decoder);
+    }
+
+    @Benchmark
+    public void parseTokens() throws Exception {
+        for (int i = 0; i < recordedChars.length; i++) {
+            tokenParser.token(recordedChars[i], recordedTokens[i]);
+        }
+    }
+
+    @Benchmark
+    public void parse() throws Exception {
+        parser.parse(StanzaCorpus.buffer(bytes), decoder);
+    }
+
+    @Benchmark
+    public void buildElement() throws Exception {
+        reader.parse(StanzaCorpus.buffer(bytes), decoder);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.vysper.xml.decoder.XMPPDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * measures the {@link XMPPDecoder} as it is used on a connection: stanzas of the {@link StanzaCorpus} arrive in
+ * fragments of the given size (0 meaning the whole stanza at once) inside an already opened stream.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class XMPPDecoderBenchmark {
+
+    @Param({ "chat", "presence", "pubsub", "mam" })
+    public String stanza;
+
+    @Param({ "0", "128", "16" })
+    public int fragmentSize;
+
+    private byte[][] fragments;
+
+    private XMPPDecoder decoder;
+
+    private IoSession session;
+
+    private ProtocolDecoderOutput output;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) throws Exception {
+        fragments = StanzaCorpus.fragment(StanzaCorpus.bytes(StanzaCorpus.stanza(stanza)), fragmentSize);
+
+        decoder = new XMPPDecoder();
+        session = new DummySession();
+        output = new ProtocolDecoderOutput() {
+            public void write(Object message) {
+                blackhole.consume(message);
+            }
+
+            public void flush(NextFilter nextFilter, IoSession session) {
+                // nothing to flush
+            }
+        };
+        decoder.decode(session, StanzaCorpus.buffer(StanzaCorpus.bytes(StanzaCorpus.STREAM_OPENING)), output);
+    }
+
+    @Benchmark
+    public void decode() throws Exception {
+        for (byte[] fragment : fragments) {
+            decoder.decode(session, StanzaCorpus.buffer(fragment), output);
+        }
+    }
+}
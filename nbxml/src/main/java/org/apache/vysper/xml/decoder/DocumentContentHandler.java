@@ -59,9 +59,8 @@ public class DocumentContentHandler implements ContentHandler {
      * {@inheritDoc}
      */
     public void characters(char[] ch, int start, int length) throws SAXException {
-        // TODO handle start and length
         if (builder != null) {
-            builder.addText(new String(ch));
+            builder.addText(new String(ch, start, length));
         }
     }
 
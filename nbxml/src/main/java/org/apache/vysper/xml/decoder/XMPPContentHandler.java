@@ -46,6 +46,11 @@ public class XMPPContentHandler implements ContentHandler {
 
     private int depth = 0;
 
+    // text reported since the last element event, large text arrives in several chunks
+    private String text;
+
+    private StringBuilder textBuilder;
+
     private XMLElementListener listener;
 
     public XMLElementListener getListener() {
@@ -67,17 +72,36 @@ public class XMPPContentHandler implements ContentHandler {
      * {@inheritDoc}
      */
     public void characters(char[] ch, int start, int length) throws SAXException {
-        // TODO handle start and length
-        if (builder != null) {
-            builder.addText(new String(ch));
+        if (builder == null) {
+            return;
+        }
+
+        if (text == null && textBuilder == null) {
+            text = new String(ch, start, length);
+        } else {
+            if (textBuilder == null) {
+                textBuilder = new StringBuilder(2 * text.length() + length).append(text);
+                text = null;
+            }
+            textBuilder.append(ch, start, length);
         }
+    }
 
+    private void flushText() {
+        if (text != null) {
+            builder.addText(text);
+        } else if (textBuilder != null) {
+            builder.addText(textBuilder.toString());
+        }
+        text = null;
+        textBuilder = null;
     }
 
     /**
      * {@inheritDoc}
      */
     public void endElement(String uri, String localName, String qName) throws SAXException {
+        flushText();
         depth--;
         if (depth == 1) {
             // complete stanza, emit
@@ -99,6 +123,7 @@ public class XMPPContentHandler implements ContentHandler {
         if (builder == null) {
             builder = builderFactory.createBuilder(localName, uri, extractPrefix(qName), null, null);
         } else {
+            flushText();
             builder.startInnerElement(localName, uri);
         }
 
@@ -184,5 +209,7 @@ public class XMPPContentHandler implements ContentHandler {
     public void startDocument() throws SAXException {
         depth = 0;
         builder = null;
+        text = null;
+        textBuilder = null;
     }
 }
@@ -41,8 +41,14 @@ public class XMPPDecoder extends CumulativeProtocolDecoder {
 
     public static final String SESSION_ATTRIBUTE_NAME = "xmppParser";
 
+    public static final int DEFAULT_TEXT_CHUNK_SIZE = 8 * 1024;
+
     private XMLElementBuilderFactory builderFactory = new XMLElementBuilderFactory();
 
+    private int maxStanzaSize = 0;
+
+    private int textChunkSize = DEFAULT_TEXT_CHUNK_SIZE;
+
     public XMPPDecoder() {
         // default constructor
     }
@@ -51,6 +57,32 @@ public class XMPPDecoder extends CumulativeProtocolDecoder {
         this.builderFactory = builderFactory;
     }
 
+    /**
+     * @param maxStanzaSize maximum size of a stanza in bytes, 0 for no limit.
+     * larger stanzas are reported as {@link org.apache.vysper.xml.sax.StanzaSizeLimitExceededException} 
+     * as soon as the limit is reached.
+     */
+    public void setMaxStanzaSize(int maxStanzaSize) {
+        if (maxStanzaSize < 0) throw new IllegalArgumentException("max stanza size must not be negative");
+        this.maxStanzaSize = maxStanzaSize;
+    }
+
+    public int getMaxStanzaSize() {
+        return maxStanzaSize;
+    }
+
+    /**
+     * @param textChunkSize text larger than this many bytes is decoded in chunks, 0 to decode text in one go
+     */
+    public void setTextChunkSize(int textChunkSize) {
+        if (textChunkSize < 0) throw new IllegalArgumentException("text chunk size must not be negative");
+        this.textChunkSize = textChunkSize;
+    }
+
+    public int getTextChunkSize() {
+        return textChunkSize;
+    }
+
     public static class MinaStanzaListener implements XMLElementListener {
         private ProtocolDecoderOutput protocolDecoder;
         private boolean closed = false;
@@ -93,6 +125,9 @@ public class XMPPDecoder extends CumulativeProtocolDecoder {
             reader.setFeature(DefaultNonBlockingXMLReader.FEATURE_RESTART_ALLOWED, true);
             reader.setProperty(DefaultNonBlockingXMLReader.PROPERTY_RESTART_QNAME, "stream:stream");
 
+            reader.setProperty(DefaultNonBlockingXMLReader.PROPERTY_MAX_STANZA_SIZE, maxStanzaSize);
+            reader.setProperty(DefaultNonBlockingXMLReader.PROPERTY_TEXT_CHUNK_SIZE, textChunkSize);
+
             reader.setContentHandler(new XMPPContentHandler(builderFactory));
 
             session.setAttribute(SESSION_ATTRIBUTE_NAME, reader);
@@ -0,0 +1,234 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.fragment;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * renders an element as UTF-8 directly into a byte buffer, the output is the same as the one of
+ * {@link Renderer}. no intermediate strings are created, every character is encoded (and escaped) once,
+ * right into the buffer.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class Utf8Renderer {
+
+    private static final int NO_ESCAPE = 0;
+
+    private static final int ESCAPE_TEXT = 1;
+
+    private static final int ESCAPE_ATTRIBUTE = 2;
+
+    private static final byte[] AMP = ascii("&amp;");
+
+    private static final byte[] LT = ascii("&lt;");
+
+    private static final byte[] GT = ascii("&gt;");
+
+    private static final byte[] QUOT = ascii("&quot;");
+
+    private static final byte[] XMLNS = ascii("xmlns");
+
+    private Utf8Renderer() {
+        // static only
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * renders the complete element
+     * @param buffer - must either have enough room or be auto-expanding
+     */
+    public static void render(XMLElement element, IoBuffer buffer) {
+        render(element, true, true, true, buffer);
+    }
+
+    /**
+     * renders selected parts of the element
+     * @param opening - render the opening tag, see {@link Renderer#getOpeningElement()}
+     * @param content - render all inner fragments, see {@link Renderer#getElementContent()}
+     * @param closing - render the closing tag, see {@link Renderer#getClosingElement()}
+     * @param buffer - must either have enough room or be auto-expanding
+     */
+    public static void render(XMLElement element, boolean opening, boolean content, boolean closing,
+            IoBuffer buffer) {
+        ResolverNamespaceResolver nsResolver = new ResolverNamespaceResolver();
+        nsResolver.push(element);
+        if (opening) renderOpeningElement(element, nsResolver, buffer);
+        if (content) renderElementContent(element, nsResolver, buffer);
+        if (closing) renderClosingElement(element, nsResolver, buffer);
+        nsResolver.pop();
+    }
+
+    /**
+     * renders an attribute value, without the enclosing quotes
+     * @param buffer - must either have enough room or be auto-expanding
+     */
+    public static void renderAttributeValueContent(String value, IoBuffer buffer) {
+        put(value, ESCAPE_ATTRIBUTE, buffer);
+    }
+
+    private static void renderXMLElement(XMLElement element, ResolverNamespaceResolver nsResolver, IoBuffer buffer) {
+        nsResolver.push(element);
+        renderOpeningElement(element, nsResolver, buffer);
+        renderElementContent(element, nsResolver, buffer);
+        renderClosingElement(element, nsResolver, buffer);
+        // remove this element from the NS resolver stack
+        nsResolver.pop();
+    }
+
+    private static void renderOpeningElement(XMLElement element, ResolverNamespaceResolver nsResolver,
+            IoBuffer buffer) {
+        buffer.put((byte) '<');
+        renderElementName(element, nsResolver, buffer);
+
+        // render namespace declarations
+        Map<String, String> nsAttrs = nsResolver.getNamespaceDeclarations();
+        for (Entry<String, String> nsAttr : nsAttrs.entrySet()) {
+            buffer.put((byte) ' ');
+            buffer.put(XMLNS);
+            if (nsAttr.getKey().length() > 0) {
+                buffer.put((byte) ':');
+                put(nsAttr.getKey(), NO_ESCAPE, buffer);
+            }
+            renderAttributeValue(nsAttr.getValue(), buffer);
+        }
+
+        for (Attribute attribute : element.getAttributes()) {
+            // like the Renderer, never render namespace attributes
+            if (attribute.getName().startsWith("xmlns")) continue;
+
+            buffer.put((byte) ' ');
+            if (!attribute.getNamespaceUri().equals("")) {
+                // attribute is in a namespace, resolve prefix
+                put(String.valueOf(nsResolver.resolvePrefix(attribute.getNamespaceUri())), NO_ESCAPE, buffer);
+                buffer.put((byte) ':');
+            }
+            put(attribute.getName(), NO_ESCAPE, buffer);
+            renderAttributeValue(attribute.getValue(), buffer);
+        }
+        buffer.put((byte) '>');
+    }
+
+    private static void renderElementContent(XMLElement element, ResolverNamespaceResolver nsResolver,
+            IoBuffer buffer) {
+        for (XMLFragment xmlFragment : element.getInnerFragments()) {
+            if (xmlFragment instanceof XMLElement) {
+                renderXMLElement((XMLElement) xmlFragment, nsResolver, buffer);
+            } else if (xmlFragment instanceof XMLText) {
+                put(((XMLText) xmlFragment).getText(), ESCAPE_TEXT, buffer);
+            } else if (xmlFragment == null) {
+                // ignore
+            } else {
+                throw new UnsupportedOperationException("cannot render XML fragment of type "
+                        + xmlFragment.getClass().getName());
+            }
+        }
+    }
+
+    private static void renderClosingElement(XMLElement element, ResolverNamespaceResolver nsResolver,
+            IoBuffer buffer) {
+        buffer.put((byte) '<').put((byte) '/');
+        renderElementName(element, nsResolver, buffer);
+        buffer.put((byte) '>');
+    }
+
+    private static void renderElementName(XMLElement element, ResolverNamespaceResolver nsResolver,
+            IoBuffer buffer) {
+        // if the element has a namespace prefix, retrieves the prefix from the defining attribute
+        if (element.getNamespacePrefix() != null && element.getNamespacePrefix().length() > 0) {
+            put(element.getNamespacePrefix(), NO_ESCAPE, buffer);
+            buffer.put((byte) ':');
+        } else if (element.getNamespaceURI().length() > 0) {
+            // element is in a namespace, but without a declared prefix, we need to resolve the prefix
+            String prefix = nsResolver.resolvePrefix(element.getNamespaceURI());
+            if (prefix != null && prefix.length() > 0) {
+                put(prefix, NO_ESCAPE, buffer);
+                buffer.put((byte) ':');
+            }
+        }
+
+        put(element.getName(), NO_ESCAPE, buffer);
+    }
+
+    private static void renderAttributeValue(String value, IoBuffer buffer) {
+        buffer.put((byte) '=').put((byte) '"');
+        put(value, ESCAPE_ATTRIBUTE, buffer);
+        buffer.put((byte) '"');
+    }
+
+    /**
+     * encodes the value as UTF-8, escaping markup characters on the fly
+     */
+    private static void put(String value, int escape, IoBuffer buffer) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escape != NO_ESCAPE) {
+                    switch (c) {
+                    case '&':
+                        buffer.put(AMP);
+                        continue;
+                    case '<':
+                        buffer.put(LT);
+                        continue;
+                    case '>':
+                        buffer.put(GT);
+                        continue;
+                    case '"':
+                        if (escape == ESCAPE_ATTRIBUTE) {
+                            buffer.put(QUOT);
+                            continue;
+                        }
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, cannot be encoded
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.sax;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * reported as fatal error when a stanza grows beyond the configured maximum size.
+ * the limit is enforced while the stanza is being read, so that oversized stanzas
+ * are never buffered completely.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class StanzaSizeLimitExceededException extends SAXParseException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StanzaSizeLimitExceededException(String message) {
+        super(message, null);
+    }
+}
@@ -48,8 +48,26 @@ public class DefaultNonBlockingXMLReader implements NonBlockingXMLReader {
 
     public static final String FEATURE_RESTART_ALLOWED = "http://mina.apache.org/vysper/features/restart-allowed";
 
+    /**
+     * if true, every token is copied into an intermediate buffer before being decoded,
+     * by default tokens are decoded straight from the buffer being parsed
+     */
+    public static final String FEATURE_COPY_TOKENS = "http://mina.apache.org/vysper/features/copy-tokens";
+
     public static final String PROPERTY_RESTART_QNAME = "http://mina.apache.org/vysper/properties/restart-qname";
 
+    /**
+     * maximum size in bytes of a child element of the document element (a stanza),
+     * enforced while parsing. an Integer, 0 or not set for no limit
+     */
+    public static final String PROPERTY_MAX_STANZA_SIZE = "http://mina.apache.org/vysper/properties/max-stanza-size";
+
+    /**
+     * text longer than this many bytes is reported in several calls to
+     * {@link ContentHandler#characters(char[], int, int)}. an Integer, 0 or not set to never split text
+     */
+    public static final String PROPERTY_TEXT_CHUNK_SIZE = "http://mina.apache.org/vysper/properties/text-chunk-size";
+
     private ErrorHandler errorHandler = new DefaultHandler();
 
     private ContentHandler contentHandler = new DefaultHandler();
@@ -66,6 +84,7 @@ public class DefaultNonBlockingXMLReader implements NonBlockingXMLReader {
         features.put(FEATURE_NAMESPACE_PREFIXES, false);
         features.put(FEATURE_COMMENTS_ALLOWED, true);
         features.put(FEATURE_RESTART_ALLOWED, false);
+        features.put(FEATURE_COPY_TOKENS, false);
     }
 
     /**
@@ -99,6 +118,8 @@ public class DefaultNonBlockingXMLReader implements NonBlockingXMLReader {
                 features.put(FEATURE_COMMENTS_ALLOWED, value);
             } else if (name.equals(FEATURE_RESTART_ALLOWED)) {
                 features.put(FEATURE_RESTART_ALLOWED, value);
+            } else if (name.equals(FEATURE_COPY_TOKENS)) {
+                features.put(FEATURE_COPY_TOKENS, value);
             } else {
                 throw new SAXNotSupportedException("Not supported");
             }
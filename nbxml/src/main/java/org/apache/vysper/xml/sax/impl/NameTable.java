@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.sax.impl;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * read-only table of element and attribute names commonly found in XMPP streams.
+ * the tokenizer looks names up by their raw bytes, so that for the common
+ * case no decoding takes place and the same interned string is handed out for every
+ * occurrence.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public final class NameTable {
+
+    private static final String[] NAMES = {
+            // stream level
+            "stream:stream", "stream:features", "stream:error", "xmlns", "xmlns:stream", "xml:lang", "version",
+            "starttls", "proceed", "required", "auth", "mechanisms", "mechanism", "challenge", "response", "success",
+            "failure", "bind", "session", "resource", "jid", "enable", "enabled", "sm", "r", "a",
+            // stanzas
+            "message", "presence", "iq", "to", "from", "id", "type", "body", "subject", "thread", "show", "status",
+            "priority", "error", "text", "code", "by", "html",
+            // common payloads
+            "query", "item", "items", "x", "c", "hash", "node", "ver", "ext", "delay", "stamp", "name", "var",
+            "category", "identity", "feature", "field", "value", "group", "ask", "subscription", "ping", "pubsub",
+            "publish", "event", "retract", "subscribe", "subscriptions", "affiliation", "role", "nick", "result",
+            "queryid", "forwarded", "fin", "set", "first", "last", "count", "max", "before", "after", "index",
+            "active", "composing", "paused", "inactive", "gone", "request", "received" };
+
+    private static final int MAX_LENGTH;
+
+    private static final int MASK;
+
+    private static final String[] TABLE;
+
+    static {
+        int size = Integer.highestOneBit(NAMES.length * 4);
+        String[] table = new String[size];
+        int maxLength = 0;
+        for (String name : NAMES) {
+            String interned = name.intern();
+            int slot = interned.hashCode() & (size - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+            table[slot] = interned;
+            maxLength = Math.max(maxLength, interned.length());
+        }
+        TABLE = table;
+        MASK = size - 1;
+        MAX_LENGTH = maxLength;
+    }
+
+    private NameTable() {
+        // static helpers only
+    }
+
+    /**
+     * looks up the name made up by the bytes between start (inclusive) and end (exclusive),
+     * reading the buffer by absolute index only.
+     * @return the interned name, or null if the bytes are not a known name
+     */
+    public static String lookup(IoBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > MAX_LENGTH)
+            return null;
+
+        // all names are ASCII, so this is the same hash as String.hashCode()
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < 0)
+                return null;
+            hash = 31 * hash + b;
+        }
+
+        for (int slot = hash & MASK;; slot = (slot + 1) & MASK) {
+            String candidate = TABLE[slot];
+            if (candidate == null)
+                return null;
+            if (candidate.length() == length && matches(candidate, buffer, start)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static boolean matches(String candidate, IoBuffer buffer, int start) {
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != buffer.get(start + i))
+                return false;
+        }
+        return true;
+    }
+}
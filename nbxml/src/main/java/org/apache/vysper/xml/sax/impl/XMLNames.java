@@ -0,0 +1,88 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.sax.impl;
+
+/**
+ * character class lookups for XML names, backed by a precomputed table over the
+ * basic multilingual plane instead of a regular expression.
+ * the classes are the same as matched by {@link XMLParser#NAME_PATTERN}.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public final class XMLNames {
+
+    private static final byte NAME_START_CHAR = 1;
+
+    private static final byte NAME_CHAR = 2;
+
+    private static final int[] NAME_START_CHAR_RANGES = { ':', ':', 'A', 'Z', '_', '_', 'a', 'z', 0xC0, 0xD6, 0xD8,
+            0xF6, 0xF8, 0x2FF, 0x370, 0x37D, 0x37F, 0x1FFF, 0x200C, 0x200D, 0x2070, 0x218F, 0x2C00, 0x2FEF, 0x3001,
+            0xD7FF, 0xF900, 0xFDCF, 0xFDF0, 0xFFFD };
+
+    private static final int[] NAME_CHAR_RANGES = { '-', '.', '0', '9', 0xB7, 0xB7, 0x300, 0x36F, 0x203F, 0x2040 };
+
+    private static final byte[] CHAR_CLASSES = new byte[Character.MAX_VALUE + 1];
+
+    static {
+        mark(NAME_START_CHAR_RANGES, (byte) (NAME_START_CHAR | NAME_CHAR));
+        mark(NAME_CHAR_RANGES, NAME_CHAR);
+    }
+
+    private static void mark(int[] ranges, byte charClass) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+                CHAR_CLASSES[c] |= charClass;
+            }
+        }
+    }
+
+    private XMLNames() {
+        // static helpers only
+    }
+
+    public static boolean isNameStartChar(char c) {
+        return (CHAR_CLASSES[c] & NAME_START_CHAR) != 0;
+    }
+
+    public static boolean isNameChar(char c) {
+        return (CHAR_CLASSES[c] & NAME_CHAR) != 0;
+    }
+
+    /**
+     * @return true if the name only contains valid name characters
+     */
+    public static boolean isName(String name) {
+        int length = name.length();
+        if (length == 0 || !isNameStartChar(name.charAt(0)))
+            return false;
+        for (int i = 1; i < length; i++) {
+            if (!isNameChar(name.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * element names must be valid names and must not begin with "xml" in any casing
+     */
+    public static boolean isValidElementName(String name) {
+        return isName(name) && !name.regionMatches(true, 0, "xml", 0, 3);
+    }
+}
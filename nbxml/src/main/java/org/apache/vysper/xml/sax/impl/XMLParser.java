@@ -21,15 +21,16 @@ package org.apache.vysper.xml.sax.impl;
 
 import java.nio.charset.CharsetDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Stack;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.sax.StanzaSizeLimitExceededException;
 import org.apache.vysper.xml.sax.impl.XMLTokenizer.TokenListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,14 +73,19 @@ public class XMLParser implements TokenListener {
 
     private String qname;
 
-    // qname/value map
-    private Map<String, String> attributes;
+    // qname/value map, reused for every start tag
+    private Map<String, String> attributes = new HashMap<String, String>();
 
     private String attributeName;
 
-    // element names as {uri}qname
+    // element qnames and their namespace URIs
     private Stack<String> elements = new Stack<String>();
 
+    private Stack<String> elementUris = new Stack<String>();
+
+    // reused for reporting characters
+    private char[] characters = new char[64];
+
     private boolean sentStartDocument = false;
 
     // features
@@ -91,6 +97,9 @@ public class XMLParser implements TokenListener {
 
     private String restartQname = null;
 
+    // properties
+    private int maxStanzaSize = 0;
+
     public XMLParser(ContentHandler contentHandler, ErrorHandler errorHandler, Map<String, Boolean> features,
             Map<String, Object> properties) {
         this.contentHandler = contentHandler;
@@ -102,7 +111,11 @@ public class XMLParser implements TokenListener {
         restartsAllowed = feature(features, DefaultNonBlockingXMLReader.FEATURE_RESTART_ALLOWED, false);
         restartQname = (String) properties.get(DefaultNonBlockingXMLReader.PROPERTY_RESTART_QNAME);
 
-        this.tokenizer = new XMLTokenizer(this);
+        boolean copyTokens = feature(features, DefaultNonBlockingXMLReader.FEATURE_COPY_TOKENS, false);
+        this.tokenizer = new XMLTokenizer(this, copyTokens);
+
+        maxStanzaSize = intProperty(properties, DefaultNonBlockingXMLReader.PROPERTY_MAX_STANZA_SIZE);
+        tokenizer.setTextChunkSize(intProperty(properties, DefaultNonBlockingXMLReader.PROPERTY_TEXT_CHUNK_SIZE));
     }
 
     private boolean feature(Map<String, Boolean> features, String name, boolean defaultValue) {
@@ -113,6 +126,11 @@ public class XMLParser implements TokenListener {
         }
     }
 
+    private int intProperty(Map<String, Object> properties, String name) {
+        Integer value = (Integer) properties.get(name);
+        return (value == null) ? 0 : value;
+    }
+
     public void parse(IoBuffer byteBuffer, CharsetDecoder charsetDecoder) throws SAXException {
         if (state == State.CLOSED)
             throw new SAXException("Parser is closed");
@@ -135,7 +153,11 @@ public class XMLParser implements TokenListener {
         case START:
             if (c == '<') {
                 state = State.IN_TAG;
-                attributes = new HashMap<String, String>();
+                attributes.clear();
+                if (maxStanzaSize > 0 && elements.size() <= 1) {
+                    // might be the start of a stanza or the stream element
+                    tokenizer.limit(maxStanzaSize);
+                }
             } else {
                 characters(token);
             }
@@ -180,7 +202,6 @@ public class XMLParser implements TokenListener {
                 if (state == State.AFTER_START_NAME) {
                     startElement();
                     state = State.START;
-                    attributes = null;
                 } else if (state == State.AFTER_END_NAME) {
                     state = State.START;
                     endElement();
@@ -231,7 +252,6 @@ public class XMLParser implements TokenListener {
             // token must be >
             if (c == '>') {
                 startElement();
-                attributes = null;
 
                 if (state != State.CLOSED) {
                     state = State.START;
@@ -303,12 +323,22 @@ public class XMLParser implements TokenListener {
         }
     }
 
+    public void limitExceeded() throws SAXException {
+        fatalError(new StanzaSizeLimitExceededException("Stanza exceeds the maximum size of " + maxStanzaSize
+                + " bytes"));
+    }
+
     private void characters(String s) throws SAXException {
         // text only allowed in element
         if (!elements.isEmpty()) {
             String unescaped = unescape(s);
             log.trace("Parser emitting characters \"{}\"", unescaped);
-            contentHandler.characters(unescaped.toCharArray(), 0, unescaped.length());
+            int length = unescaped.length();
+            if (characters.length < length) {
+                characters = new char[Math.max(length, characters.length * 2)];
+            }
+            unescaped.getChars(0, length, characters, 0);
+            contentHandler.characters(characters, 0, length);
         } else if (s.trim().length() > 0) {
             // must start document, even that document is not wellformed
             startDocument();
@@ -322,7 +352,7 @@ public class XMLParser implements TokenListener {
     private boolean isValidName(String name) {
         // element names must only contain valid characters
         // element names must not begin with "xml" in any casing
-        return NAME_PATTERN.matcher(name).find() && !NAME_PREFIX_PATTERN.matcher(name).find();
+        return XMLNames.isValidElementName(name);
     }
 
     private boolean needsRestart() {
@@ -333,6 +363,7 @@ public class XMLParser implements TokenListener {
         log.trace("Restarting XML stream");
 
         elements.clear();
+        elementUris.clear();
         nsResolver = new ParserNamespaceResolver();
         sentStartDocument = false;
         tokenizer.restart();
@@ -371,19 +402,26 @@ public class XMLParser implements TokenListener {
         }
 
         // find all namespace declarations so we can populate the NS resolver
-        Map<String, String> nsDeclarations = new HashMap<String, String>();
+        Map<String, String> nsDeclarations = null;
         for (Entry<String, String> attribute : attributes.entrySet()) {
             if (attribute.getKey().equals("xmlns")) {
                 // is namespace attribute
+                if (nsDeclarations == null)
+                    nsDeclarations = new HashMap<String, String>();
                 nsDeclarations.put("", attribute.getValue());
             } else if (attribute.getKey().startsWith("xmlns:")) {
+                if (nsDeclarations == null)
+                    nsDeclarations = new HashMap<String, String>();
                 nsDeclarations.put(attribute.getKey().substring(6), attribute.getValue());
             }
         }
+        if (nsDeclarations == null) {
+            nsDeclarations = Collections.emptyMap();
+        }
         nsResolver.push(nsDeclarations);
 
         // find all non-namespace attributes
-        List<Attribute> nonNsAttributes = new ArrayList<Attribute>();
+        List<Attribute> nonNsAttributes = new ArrayList<Attribute>(attributes.size());
         for (Entry<String, String> attribute : attributes.entrySet()) {
             String attQname = attribute.getKey();
 
@@ -425,7 +463,13 @@ public class XMLParser implements TokenListener {
 
         String localName = extractLocalName(qname);
 
-        elements.add(fullyQualifiedName(uri, qname));
+        elements.push(qname);
+        elementUris.push(uri);
+
+        if (elements.size() == 1) {
+            // the stream element itself is not limited
+            tokenizer.clearLimit();
+        }
 
         contentHandler.startElement(uri, localName, qname, new DefaultAttributes(nonNsAttributes));
     }
@@ -450,10 +494,6 @@ public class XMLParser implements TokenListener {
         }
     }
 
-    private String fullyQualifiedName(String uri, String qname) {
-        return "{" + uri + "}" + qname;
-    }
-
     private void endElement() throws SAXException {
         log.trace("EndElement {}", qname);
 
@@ -475,10 +515,16 @@ public class XMLParser implements TokenListener {
 
         String localName = extractLocalName(qname);
 
-        String fqn = elements.pop();
-        if (fqn.equals(fullyQualifiedName(uri, qname))) {
+        String startQname = elements.pop();
+        String startUri = elementUris.pop();
+        if (startQname.equals(qname) && startUri.equals(uri)) {
             contentHandler.endElement(uri, localName, qname);
 
+            if (elements.size() == 1) {
+                // end of stanza
+                tokenizer.clearLimit();
+            }
+
             if (elements.isEmpty()) {
                 contentHandler.endDocument();
                 state = State.CLOSED;
@@ -489,37 +535,85 @@ public class XMLParser implements TokenListener {
     }
 
     private void fatalError(String message) throws SAXException {
-        log.debug("Fatal error: {}", message);
+        fatalError(new SAXParseException(message, null));
+    }
+
+    private void fatalError(SAXParseException exception) throws SAXException {
+        log.debug("Fatal error: {}", exception.getMessage());
         state = State.CLOSED;
         tokenizer.close();
 
         // make sure we send a start document event
         startDocument();
 
-        errorHandler.fatalError(new SAXParseException(message, null));
+        errorHandler.fatalError(exception);
     }
 
     private String unescape(String s) {
-        s = s.replace("&amp;", "&").replace("&gt;", ">").replace("&lt;", "<").replace("&apos;", "'").replace("&quot;",
-                "\"");
-
-        StringBuffer sb = new StringBuffer();
+        int index = s.indexOf('&');
+        if (index == -1) {
+            // nothing to unescape
+            return s;
+        }
 
-        Matcher matcher = UNESCAPE_UNICODE_PATTERN.matcher(s);
+        StringBuilder sb = new StringBuilder(s.length());
         int end = 0;
-        while (matcher.find()) {
-            boolean isHex = matcher.group(1).equals("x");
-            String unicodeCode = matcher.group(2);
-
-            int base = isHex ? 16 : 10;
-            int i = Integer.valueOf(unicodeCode, base).intValue();
-            char[] c = Character.toChars(i);
-            sb.append(s.substring(end, matcher.start()));
-            end = matcher.end();
-            sb.append(c);
+        while (index > -1) {
+            int semicolon = s.indexOf(';', index + 1);
+            if (semicolon == -1) {
+                break;
+            }
+
+            sb.append(s, end, index);
+            if (appendReference(s, index + 1, semicolon, sb)) {
+                end = semicolon + 1;
+            } else {
+                // unknown reference, keep the ampersand as is
+                sb.append('&');
+                end = index + 1;
+            }
+            index = s.indexOf('&', end);
         }
-        sb.append(s.substring(end, s.length()));
+        sb.append(s, end, s.length());
 
         return sb.toString();
     }
+
+    /**
+     * appends the character referenced by the entity or character reference between start and end
+     * @return false if the reference is not known
+     */
+    private boolean appendReference(String s, int start, int end, StringBuilder sb) {
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        } else if (s.charAt(start) == '#') {
+            boolean isHex = length > 1 && s.charAt(start + 1) == 'x';
+            int digitsStart = isHex ? start + 2 : start + 1;
+            if (digitsStart == end) {
+                return false;
+            }
+            for (int i = digitsStart; i < end; i++) {
+                if (Character.digit(s.charAt(i), 16) == -1) {
+                    return false;
+                }
+            }
+            int i = Integer.parseInt(s.substring(digitsStart, end), isHex ? 16 : 10);
+            sb.append(Character.toChars(i));
+            return true;
+        } else if (s.startsWith("amp", start) && length == 3) {
+            sb.append('&');
+        } else if (s.startsWith("lt", start) && length == 2) {
+            sb.append('<');
+        } else if (s.startsWith("gt", start) && length == 2) {
+            sb.append('>');
+        } else if (s.startsWith("apos", start) && length == 4) {
+            sb.append('\'');
+        } else if (s.startsWith("quot", start) && length == 4) {
+            sb.append('"');
+        } else {
+            return false;
+        }
+        return true;
+    }
 }
@@ -22,6 +22,7 @@ package org.apache.vysper.xml.sax.impl;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 
 import org.apache.mina.core.buffer.IoBuffer;
@@ -29,6 +30,15 @@ import org.apache.vysper.charset.CharsetUtil;
 import org.xml.sax.SAXException;
 
 /**
+ * splits the incoming bytes into tokens.
+ * 
+ * by default, tokens which start and end within the same buffer are decoded directly
+ * from that buffer, only tokens spanning buffers are accumulated in an internal buffer.
+ * element and attribute names are looked up in the {@link NameTable} before decoding.
+ * 
+ * text longer than the text chunk size is emitted as several consecutive text tokens,
+ * split so that neither a character nor a reference is broken up. the number of bytes
+ * read can be limited, see {@link #limit(int)}.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -36,6 +46,8 @@ public class XMLTokenizer {
 
     private static final char NO_CHAR = (char) -1;
 
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
     private enum State {
         START, IN_TAG, IN_STRING, IN_DOUBLE_ATTRIBUTE_VALUE, IN_SINGLE_ATTRIBUTE_VALUE, IN_TEXT, CLOSED
     }
@@ -44,14 +56,45 @@ public class XMLTokenizer {
 
     private State state = State.START;
 
+    // position of the current token in the buffer being parsed,
+    // -1 if there is no such token or it is accumulated in the internal buffer
+    private int tokenStart = -1;
+
+    private final boolean copyTokens;
+
+    // text tokens are split after this many bytes, 0 to never split
+    private int textChunkSize = 0;
+
+    private int textLength = 0;
+
+    // length of the reference currently being read in text, -1 if not in a reference
+    private int referenceLength = -1;
+
+    // bytes left until the limit is exceeded
+    private long remaining = Long.MAX_VALUE;
+
     public static interface TokenListener {
         void token(char c, String token) throws SAXException;
+
+        /**
+         * called when more bytes than allowed by {@link XMLTokenizer#limit(int)} have been read
+         */
+        void limitExceeded() throws SAXException;
     }
 
     private TokenListener listener;
 
     public XMLTokenizer(TokenListener listeners) {
+        this(listeners, false);
+    }
+
+    /**
+     * @param listeners
+     * @param copyTokens if true, every token is copied into the internal buffer before decoding
+     */
+    public XMLTokenizer(TokenListener listeners, boolean copyTokens) {
         this.listener = listeners;
+        this.copyTokens = copyTokens;
     }
 
     /**
@@ -63,6 +106,11 @@ public class XMLTokenizer {
         while (byteBuffer.hasRemaining() && state != State.CLOSED) {
             byte c = byteBuffer.get();
 
+            if (--remaining < 0) {
+                listener.limitExceeded();
+                break;
+            }
+
             if (state == State.START) {
                 if (c == '<') {
                     emit(c);
@@ -71,15 +119,22 @@ public class XMLTokenizer {
                     // ignore
                 } else {
                     state = State.IN_TEXT;
-                    buffer.put(c);
+                    startToken(byteBuffer, c);
+                    startText(c);
                 }
             } else if (state == State.IN_TEXT) {
                 if (c == '<') {
-                    emit(decoder);
+                    emit(byteBuffer, decoder, false);
                     emit(c);
                     state = State.IN_TAG;
+                } else if (textChunkSize > 0 && textLength >= textChunkSize && isChunkBoundary(c)) {
+                    // emit what we got so far, continue with a new text token
+                    emit(byteBuffer, decoder, false);
+                    startToken(byteBuffer, c);
+                    startText(c);
                 } else {
-                    buffer.put(c);
+                    append(c);
+                    appendText(c);
                 }
             } else if (state == State.IN_TAG) {
                 if (c == '>') {
@@ -88,9 +143,11 @@ public class XMLTokenizer {
                 } else if (c == '"') {
                     emit(c);
                     state = State.IN_DOUBLE_ATTRIBUTE_VALUE;
+                    startEmptyToken(byteBuffer);
                 } else if (c == '\'') {
                     emit(c);
                     state = State.IN_SINGLE_ATTRIBUTE_VALUE;
+                    startEmptyToken(byteBuffer);
                 } else if (c == '-') {
                     emit(c);
                 } else if (isControlChar(c)) {
@@ -99,69 +156,181 @@ public class XMLTokenizer {
                     buffer.clear();
                 } else {
                     state = State.IN_STRING;
-                    buffer.put(c);
+                    startToken(byteBuffer, c);
                 }
             } else if (state == State.IN_STRING) {
                 if (c == '>') {
-                    emit(CharsetUtil.getDecoder());
+                    emit(byteBuffer, CharsetUtil.getDecoder(), true);
                     emit(c);
                     state = State.START;
                 } else if (isControlChar(c)) {
-                    emit(CharsetUtil.getDecoder());
+                    emit(byteBuffer, CharsetUtil.getDecoder(), true);
                     emit(c);
                     state = State.IN_TAG;
                 } else if (Character.isWhitespace(c)) {
-                    emit(CharsetUtil.getDecoder());
+                    emit(byteBuffer, CharsetUtil.getDecoder(), true);
                     state = State.IN_TAG;
                 } else {
-                    buffer.put(c);
+                    append(c);
                 }
             } else if (state == State.IN_DOUBLE_ATTRIBUTE_VALUE) {
                 if (c == '"') {
-                    emit(decoder);
+                    emit(byteBuffer, decoder, false);
                     emit(c);
                     state = State.IN_TAG;
                 } else {
-                    buffer.put(c);
+                    append(c);
                 }
             } else if (state == State.IN_SINGLE_ATTRIBUTE_VALUE) {
                 if (c == '\'') {
-                    emit(decoder);
+                    emit(byteBuffer, decoder, false);
                     emit(c);
                     state = State.IN_TAG;
                 } else {
-                    buffer.put(c);
+                    append(c);
                 }
             }
         }
+
+        if (tokenStart > -1) {
+            // the current token continues in the next buffer, keep what we got so far
+            ByteBuffer buf = byteBuffer.buf();
+            int limit = buf.limit();
+            int position = buf.position();
+            buf.position(tokenStart);
+            buf.limit(position);
+            buffer.put(buf);
+            buf.limit(limit);
+            buf.position(position);
+            tokenStart = -1;
+        }
+    }
+
+    /**
+     * @param textChunkSize text tokens are split after this many bytes, 0 to never split
+     */
+    public void setTextChunkSize(int textChunkSize) {
+        this.textChunkSize = textChunkSize;
+    }
+
+    /**
+     * limits the number of bytes read from now on, including the last byte read
+     * @param maxBytes
+     */
+    public void limit(int maxBytes) {
+        remaining = maxBytes - 1;
+    }
+
+    public void clearLimit() {
+        remaining = Long.MAX_VALUE;
     }
 
     public void close() {
         state = State.CLOSED;
         buffer.clear();
+        tokenStart = -1;
     }
 
     public void restart() {
         buffer.clear();
+        tokenStart = -1;
     }
 
     private boolean isControlChar(byte c) {
         return c == '<' || c == '>' || c == '!' || c == '/' || c == '?' || c == '=';
     }
 
+    private void startText(byte c) {
+        textLength = 1;
+        referenceLength = (c == '&') ? 0 : -1;
+    }
+
+    private void appendText(byte c) {
+        textLength++;
+        if (c == '&') {
+            referenceLength = 0;
+        } else if (referenceLength > -1) {
+            // give up on unterminated references, they will not be unescaped anyway
+            referenceLength = (c == ';' || referenceLength > 32) ? -1 : referenceLength + 1;
+        }
+    }
+
+    private boolean isChunkBoundary(byte c) {
+        // must neither split a multi-byte character nor a reference
+        return (c & 0xC0) != 0x80 && referenceLength == -1;
+    }
+
+    private void startToken(IoBuffer byteBuffer, byte c) {
+        if (copyTokens) {
+            buffer.put(c);
+        } else {
+            tokenStart = byteBuffer.position() - 1;
+        }
+    }
+
+    private void startEmptyToken(IoBuffer byteBuffer) {
+        if (!copyTokens) {
+            tokenStart = byteBuffer.position();
+        }
+    }
+
+    private void append(byte c) {
+        if (tokenStart == -1) {
+            buffer.put(c);
+        }
+    }
+
     private void emit(byte token) throws SAXException {
         // method will only be called for control chars, thus the cast to char should be safe
         listener.token((char)token, null);
     }
 
-    private void emit(CharsetDecoder decoder) throws SAXException {
-        try {
-            buffer.flip();
-            CharBuffer charBuffer = decoder.decode(buffer.buf());
-            listener.token(NO_CHAR, charBuffer.toString());
+    private void emit(IoBuffer byteBuffer, CharsetDecoder decoder, boolean isName) throws SAXException {
+        String token;
+        if (tokenStart > -1) {
+            // the token is complete within the buffer being parsed, the last byte read is the delimiter
+            token = decode(byteBuffer, tokenStart, byteBuffer.position() - 1, decoder, isName);
+            tokenStart = -1;
+        } else {
+            token = decode(buffer, 0, buffer.position(), decoder, isName);
             buffer.clear();
+        }
+        listener.token(NO_CHAR, token);
+    }
+
+    private String decode(IoBuffer source, int start, int end, CharsetDecoder decoder, boolean isName)
+            throws SAXException {
+        if (isName) {
+            String name = NameTable.lookup(source, start, end);
+            if (name != null)
+                return name;
+        }
+
+        if (source.hasArray() && isAscii(source, start, end)) {
+            return new String(source.array(), source.arrayOffset() + start, end - start, ASCII);
+        }
+
+        ByteBuffer buf = source.buf();
+        int limit = buf.limit();
+        int position = buf.position();
+        try {
+            buf.limit(end);
+            buf.position(start);
+            CharBuffer charBuffer = decoder.decode(buf);
+            return charBuffer.toString();
         } catch (CharacterCodingException e) {
             throw new SAXException(e);
+        } finally {
+            buf.limit(limit);
+            buf.position(position);
+        }
+    }
+
+    private boolean isAscii(IoBuffer source, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (source.get(i) < 0)
+                return false;
         }
+        return true;
     }
 }
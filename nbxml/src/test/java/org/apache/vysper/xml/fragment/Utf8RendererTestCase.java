@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.fragment;
+
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * makes sure the {@link Utf8Renderer} renders exactly what the {@link Renderer} renders
+ */
+public class Utf8RendererTestCase extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public void testRenderSimpleElement() {
+        assertSameRendering(new XMLElement(null, "foo", null, (Attribute[]) null, null));
+    }
+
+    public void testRenderEscapedAttributes() {
+        XMLElement elm = new XMLElementBuilder("foo").addAttribute("attr1", "v&a\"l<u>e'1").build();
+        assertSameRendering(elm);
+    }
+
+    public void testRenderEscapedText() {
+        XMLElement elm = new XMLElementBuilder("foo").addText("t&e<x>t\"'").build();
+        assertSameRendering(elm);
+    }
+
+    public void testRenderNamespaces() {
+        XMLElementBuilder builder = new XMLElementBuilder("foo", "http://example.com");
+        builder.declareNamespace("pr", "http://other.com");
+        builder.addAttribute(Namespaces.XML, "lang", "sv");
+        builder.addAttribute("http://undeclared.com", "attr", "value");
+        builder.startInnerElement("bar", "http://other.com").endInnerElement();
+        builder.startInnerElement("baz", "http://third.com").startInnerElement("inner").endInnerElement()
+                .endInnerElement();
+        builder.startInnerElement("qux").endInnerElement();
+        assertSameRendering(builder.build());
+    }
+
+    public void testRenderPrefixedNamespaceElement() {
+        XMLElement elm = new XMLElementBuilder("foo", "http://example.com", "pr").startInnerElement("bar",
+                "http://example.com").build();
+        assertSameRendering(elm);
+    }
+
+    public void testRenderNonAscii() {
+        // two, three and four byte sequences (the latter being a surrogate pair)
+        String text = "åäö € 日本 😀";
+        XMLElement elm = new XMLElementBuilder("foo").addAttribute("attr", text).addText(text).build();
+        assertSameRendering(elm);
+    }
+
+    public void testRenderParts() {
+        XMLElement elm = new XMLElementBuilder("foo", "http://example.com").addAttribute("attr", "value")
+                .startInnerElement("bar").addText("text").build();
+        Renderer renderer = new Renderer(elm);
+
+        assertEquals(renderer.getOpeningElement(), render(elm, true, false, false));
+        assertEquals(renderer.getElementContent(), render(elm, false, true, false));
+        assertEquals(renderer.getClosingElement(), render(elm, false, false, true));
+        assertEquals(renderer.getOpeningElement() + renderer.getElementContent(), render(elm, true, true, false));
+    }
+
+    public void testRenderIntoDirectBuffer() {
+        XMLElement elm = new XMLElementBuilder("foo").addText("åäö").build();
+        IoBuffer buffer = IoBuffer.allocate(1, true).setAutoExpand(true);
+        Utf8Renderer.render(elm, buffer);
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertEquals(new Renderer(elm).getComplete(), new String(bytes, UTF8));
+    }
+
+    private void assertSameRendering(XMLElement elm) {
+        String expected = new Renderer(elm).getComplete();
+        assertEquals(expected, render(elm, true, true, true));
+    }
+
+    private String render(XMLElement elm, boolean opening, boolean content, boolean closing) {
+        IoBuffer buffer = IoBuffer.allocate(16).setAutoExpand(true);
+        Utf8Renderer.render(elm, opening, content, closing, buffer);
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
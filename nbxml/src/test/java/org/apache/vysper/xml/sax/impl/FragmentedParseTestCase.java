@@ -0,0 +1,122 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.sax.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.charset.CharsetUtil;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * parses the same document split at every possible position, tokens then either
+ * span buffers or are decoded directly from the buffer being parsed
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class FragmentedParseTestCase extends TestCase {
+
+    private static final String XML = "<?xml version='1.0'?><stream:stream xmlns='jabber:client' "
+            + "xmlns:stream='http://etherx.jabber.org/streams' to='vysper.org' version=\"1.0\">"
+            + "<message to='juliet@vysper.org/balcony' from=\"romeo@vysper.org/orchard\" type='chat' id=''>"
+            + "<body>Wherefore art thou, Römeo? &amp; &lt;€&gt; &#x1251;</body>"
+            + "<thread xml:lang='én'>e0ffe42b28561960c6b12b944a092794b9683a38</thread></message>"
+            + "<presence><show>away</show><priority>5</priority></presence>";
+
+    private static class RecordingHandler extends DefaultHandler {
+
+        private List<String> events = new ArrayList<String>();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            StringBuilder sb = new StringBuilder("start {" + uri + "}" + qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                sb.append(" {").append(atts.getURI(i)).append("}").append(atts.getQName(i)).append("=").append(
+                        atts.getValue(i));
+            }
+            events.add(sb.toString());
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            events.add("end {" + uri + "}" + qName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            events.add("text " + new String(ch, start, length));
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) {
+            events.add("fatal " + e.getMessage());
+        }
+    }
+
+    private List<String> parse(byte[] bytes, int split, boolean copyTokens, boolean direct) throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        DefaultNonBlockingXMLReader reader = new DefaultNonBlockingXMLReader();
+        reader.setFeature(DefaultNonBlockingXMLReader.FEATURE_COPY_TOKENS, copyTokens);
+        reader.setContentHandler(handler);
+        reader.setErrorHandler(handler);
+
+        reader.parse(buffer(bytes, 0, split, direct), CharsetUtil.getDecoder());
+        reader.parse(buffer(bytes, split, bytes.length, direct), CharsetUtil.getDecoder());
+        return handler.events;
+    }
+
+    private IoBuffer buffer(byte[] bytes, int start, int end, boolean direct) {
+        IoBuffer buffer = IoBuffer.allocate(end - start, direct);
+        buffer.put(bytes, start, end - start);
+        buffer.flip();
+        return buffer;
+    }
+
+    public void testCopyingAndNonCopyingTokenizerAgree() throws Exception {
+        byte[] bytes = XML.getBytes("UTF-8");
+        List<String> expected = parse(bytes, bytes.length, true, false);
+        assertTrue(expected.contains("text Wherefore art thou, Römeo? & <€> ቑ"));
+        assertTrue(expected.contains("start {jabber:client}thread {http://www.w3.org/XML/1998/namespace}xml:lang=én"));
+
+        for (int split = 0; split <= bytes.length; split++) {
+            assertEquals("split at " + split, expected, parse(bytes, split, false, false));
+            assertEquals("split at " + split, expected, parse(bytes, split, false, true));
+            assertEquals("split at " + split, expected, parse(bytes, split, true, false));
+        }
+    }
+
+    public void testInvalidUtf8() throws Exception {
+        byte[] bytes = "<root>t\u00F6xt</root>".getBytes("UTF-8");
+        // break the multi-byte sequence
+        bytes[8] = 'x';
+        try {
+            parse(bytes, bytes.length, false, false);
+            fail("Must throw SAXException");
+        } catch (SAXException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.sax.impl;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class NameTableTestCase extends TestCase {
+
+    private static IoBuffer buffer(String s) throws Exception {
+        return IoBuffer.wrap(s.getBytes("UTF-8"));
+    }
+
+    public void testLookupKnownName() throws Exception {
+        IoBuffer buffer = buffer("<message to");
+        String name = NameTable.lookup(buffer, 1, 8);
+        assertEquals("message", name);
+        assertSame(name, NameTable.lookup(buffer("message"), 0, 7));
+        assertSame("to", NameTable.lookup(buffer, 9, 11));
+    }
+
+    public void testLookupPrefixedName() throws Exception {
+        assertEquals("stream:stream", NameTable.lookup(buffer("stream:stream"), 0, 13));
+        assertEquals("xml:lang", NameTable.lookup(buffer("xml:lang"), 0, 8));
+    }
+
+    public void testLookupUnknownName() throws Exception {
+        assertNull(NameTable.lookup(buffer("messages"), 0, 8));
+        assertNull(NameTable.lookup(buffer("messag"), 0, 6));
+        assertNull(NameTable.lookup(buffer("fooooooooooooooooooooooooooooo"), 0, 30));
+        assertNull(NameTable.lookup(buffer("bödy"), 0, 5));
+        assertNull(NameTable.lookup(buffer("body"), 0, 0));
+    }
+
+    public void testLookupDirectBuffer() throws Exception {
+        IoBuffer buffer = IoBuffer.allocate(16, true);
+        buffer.put("presence".getBytes("UTF-8")).flip();
+        assertEquals("presence", NameTable.lookup(buffer, 0, 8));
+    }
+}
@@ -38,7 +38,26 @@ public class NameTestCase extends TestCase {
         assertTrue(XMLParser.NAME_PATTERN.matcher("a3bc").find());
         assertFalse(XMLParser.NAME_PATTERN.matcher("-abc").find());
         assertTrue(XMLParser.NAME_PATTERN.matcher("ab-c").find());
+    }
+
+    public void testCharacterClassesMatchPattern() {
+        for (char c = 0; c < Character.MAX_VALUE; c++) {
+            String s = Character.toString(c);
+            assertEquals("name start char " + (int) c, XMLParser.NAME_PATTERN.matcher(s).matches(), XMLNames
+                    .isNameStartChar(c));
+            assertEquals("name char " + (int) c, XMLParser.NAME_PATTERN.matcher("a" + s).matches(), XMLNames
+                    .isNameChar(c));
+        }
+    }
 
+    public void testValidElementName() {
+        assertTrue(XMLNames.isValidElementName("stream:stream"));
+        assertTrue(XMLNames.isValidElementName("ab-c"));
+        assertFalse(XMLNames.isValidElementName(""));
+        assertFalse(XMLNames.isValidElementName("3abc"));
+        assertFalse(XMLNames.isValidElementName("xmlfoo"));
+        assertFalse(XMLNames.isValidElementName("XmLfoo"));
+        assertTrue(XMLNames.isValidElementName("xm"));
     }
 
-}
\ No newline at end of file
+}
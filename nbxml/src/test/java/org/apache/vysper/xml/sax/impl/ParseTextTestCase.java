@@ -64,6 +64,30 @@ public class ParseTextTestCase extends AbstractAsyncXMLReaderTestCase {
         assertFalse(events.hasNext());
     }
 
+    public void testEscapedCharacterReference() throws Exception {
+        Iterator<TestEvent> events = parse("<root>&amp;lt;&amp;#65;</root>").iterator();
+
+        assertStartDocument(events.next());
+        assertStartElement("", "root", "root", events.next());
+        assertText("&lt;&#65;", events.next());
+        assertEndElement("", "root", "root", events.next());
+        assertEndDocument(events.next());
+
+        assertFalse(events.hasNext());
+    }
+
+    public void testUnknownEntity() throws Exception {
+        Iterator<TestEvent> events = parse("<root>&foo &amp; bar;</root>").iterator();
+
+        assertStartDocument(events.next());
+        assertStartElement("", "root", "root", events.next());
+        assertText("&foo & bar;", events.next());
+        assertEndElement("", "root", "root", events.next());
+        assertEndDocument(events.next());
+
+        assertFalse(events.hasNext());
+    }
+
     public void testUnicodeEscape() throws Exception {
         Iterator<TestEvent> events = parse("<root>t&#4689;ext</root>").iterator();
 
@@ -31,6 +31,7 @@ import org.apache.vysper.xml.decoder.XMLElementListener;
 import org.apache.vysper.xml.decoder.XMPPContentHandler;
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xml.sax.NonBlockingXMLReader;
+import org.apache.vysper.xml.sax.StanzaSizeLimitExceededException;
 
 /**
  * @author The Apache MINA Project (dev@mina.apache.org)
@@ -75,6 +76,56 @@ public class XMPPContentHandlerTestCase extends TestCase {
         assertEquals(true, listener.isClosed());
     }
 
+    public void testTextInChunks() throws Exception {
+        String text = "Wherefore art thou, R\u00F6meo? &amp; &lt;\u20AC&gt; &#x1251; &unknown; & more text";
+        String expected = "Wherefore art thou, R\u00F6meo? & <\u20AC> \u1251 &unknown; & more text";
+
+        for (int chunkSize = 1; chunkSize < 20; chunkSize++) {
+            NonBlockingXMLReader reader = new DefaultNonBlockingXMLReader();
+            reader.setProperty(DefaultNonBlockingXMLReader.PROPERTY_TEXT_CHUNK_SIZE, chunkSize);
+            XMPPContentHandler handler = new XMPPContentHandler();
+            TestListener listener = new TestListener();
+            handler.setListener(listener);
+            reader.setContentHandler(handler);
+
+            parse(reader, "<stream:stream xmlns:stream='http://etherx.jabber.org/streams'>");
+            parse(reader, "<message><body>" + text + "</body><x>" + text + "<y/>" + text + "</x></message>");
+
+            XMLElement message = listener.elements.get(1);
+            XMLElement body = message.getFirstInnerElement();
+            assertEquals("chunk size " + chunkSize, 1, body.getInnerFragments().size());
+            assertEquals("chunk size " + chunkSize, expected, body.getInnerText().getText());
+            XMLElement x = message.getInnerElements().get(1);
+            assertEquals("chunk size " + chunkSize, 3, x.getInnerFragments().size());
+        }
+    }
+
+    public void testMaxStanzaSize() throws Exception {
+        NonBlockingXMLReader reader = new DefaultNonBlockingXMLReader();
+        reader.setProperty(DefaultNonBlockingXMLReader.PROPERTY_MAX_STANZA_SIZE, 100);
+        XMPPContentHandler handler = new XMPPContentHandler();
+        TestListener listener = new TestListener();
+        handler.setListener(listener);
+        reader.setContentHandler(handler);
+
+        parse(reader, "<stream:stream xmlns:stream='http://etherx.jabber.org/streams' to='vysper.org'>");
+
+        // exactly 100 bytes
+        String text = "0123456789012345678901234567890123456789012345678901234567890123456789".substring(0, 68);
+        parse(reader, "<message><body>" + text + "</body></message>");
+        assertEquals(2, listener.elements.size());
+
+        // the limit is enforced before the stanza is complete
+        parse(reader, "<message><body>" + text);
+        try {
+            parse(reader, text);
+            fail("Must throw StanzaSizeLimitExceededException");
+        } catch (StanzaSizeLimitExceededException e) {
+            // expected
+        }
+        assertEquals(2, listener.elements.size());
+    }
+
     private void parse(NonBlockingXMLReader reader, String xml) throws Exception {
         reader.parse(IoBuffer.wrap(xml.getBytes("UTF-8")), CharsetUtil.getDecoder());
     }
@@ -0,0 +1,52 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
+
+/**
+ * executor for the {@link org.apache.mina.filter.executor.ExecutorFilter}, running the events of a session one
+ * after the other, like the {@link org.apache.mina.filter.executor.OrderedThreadPoolExecutor}, but on any
+ * executor. events of different sessions run in parallel.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class SessionLaneExecutor implements Executor {
+
+    private final LaneExecutor<IoSession> lanes;
+
+    public SessionLaneExecutor(ExecutorService executor) {
+        this.lanes = new LaneExecutor<>(executor);
+    }
+
+    public void execute(Runnable event) {
+        if (!(event instanceof IoEvent)) throw new IllegalArgumentException("not a session event: " + event);
+        lanes.execute(((IoEvent) event).getSession(), event);
+    }
+
+    public void shutdown() {
+        lanes.shutdown();
+    }
+}
@@ -19,17 +19,32 @@
  */
 package org.apache.vysper.mina;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.mina.core.filterchain.IoFilterAdapter;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.core.write.WriteRequest;
 import org.apache.vysper.mina.codec.StanzaWriteInfo;
 import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.server.SessionContext;
 import org.apache.vysper.xmpp.writer.DenseStanzaLogRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * traces stanzas to the "stanza.client" (received) and "stanza.server" (sent) loggers, as XML on debug level and
+ * as a dense digest on info level.
+ * <p>
+ * stanzas are only rendered if their logger is enabled and the stanza is traced: either it belongs to one of the
+ * traced JIDs, or it is sampled. by default every stanza is sampled. sent stanzas traced on debug level are not
+ * rendered again, the encoder hands over the bytes it has written.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -39,43 +54,90 @@ public class StanzaLoggingFilter extends IoFilterAdapter {
 
     final Logger clientLogger = LoggerFactory.getLogger("stanza.client");
 
+    private volatile int sampleRate = 1;
+
+    private volatile Set<String> tracedJIDs = Collections.emptySet();
+
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    /**
+     * traces one in sampleRate stanzas, 1 for all and 0 for none but the ones of traced JIDs
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 0) throw new IllegalArgumentException("sample rate must not be negative");
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * traces all stanzas sent from or to these JIDs, or over their sessions, independent of the sample rate.
+     * only the bare JIDs are compared.
+     */
+    public void setTracedJIDs(Collection<Entity> jids) {
+        Set<String> bareJIDs = new HashSet<String>();
+        for (Entity jid : jids) {
+            bareJIDs.add(jid.getBareJID().getFullQualifiedName());
+        }
+        this.tracedJIDs = bareJIDs;
+    }
+
     public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
-        if (message instanceof XMLElement) {
+        if (message instanceof XMLElement && clientLogger.isInfoEnabled()) {
             XMLElement element = (XMLElement) message;
 
-            if(clientLogger.isDebugEnabled()) {
-                boolean openElement = true;
-                boolean closeElement = true;
-                // this is somewhat of a hack, can we detect opening and closing elements only cleaner?
-                if (element.getName().equals("stream")) {
-                    if (element.getAttributes().size() > 0) {
-                        // is stream element, and with attributes, should be opening tag
-                        closeElement = false;
-                    } else {
-                        // is stream element, without attributes, should be closing tag
-                        openElement = false;
+            if (isTraced(session, element)) {
+                if (clientLogger.isDebugEnabled()) {
+                    boolean openElement = true;
+                    boolean closeElement = true;
+                    // this is somewhat of a hack, can we detect opening and closing elements only cleaner?
+                    if (element.getName().equals("stream")) {
+                        if (element.getAttributes().size() > 0) {
+                            // is stream element, and with attributes, should be opening tag
+                            closeElement = false;
+                        } else {
+                            // is stream element, without attributes, should be closing tag
+                            openElement = false;
+                        }
                     }
+
+                    String xml = toXml(element, openElement, closeElement);
+                    clientLogger.debug("< " + xml);
+                } else {
+                    clientLogger.info(DenseStanzaLogRenderer.render(element));
                 }
-                
-                String xml = toXml(element, openElement, closeElement);
-                clientLogger.debug("< " + xml);
-            } else if (clientLogger.isInfoEnabled()) {
-                clientLogger.info(DenseStanzaLogRenderer.render(element));
             }
         }
 
         nextFilter.messageReceived(session, message);
     }
 
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest request) throws Exception {
+        Object message = request.getMessage();
+        if (message instanceof StanzaWriteInfo && serverLogger.isInfoEnabled()) {
+            StanzaWriteInfo stanzaWriteInfo = (StanzaWriteInfo) message;
+            if (isTraced(session, stanzaWriteInfo.getStanza())) {
+                stanzaWriteInfo.setTraced(true);
+                if (serverLogger.isDebugEnabled()) stanzaWriteInfo.keepEncoded();
+            }
+        }
+
+        nextFilter.filterWrite(session, request);
+    }
+
     public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest request) throws Exception {
         Object message = request.getMessage();
-        if (message instanceof StanzaWriteInfo) {
+        if (message instanceof StanzaWriteInfo && ((StanzaWriteInfo) message).isTraced()) {
             StanzaWriteInfo stanzaWriteInfo = (StanzaWriteInfo) message;
 
-            if(serverLogger.isDebugEnabled()) {
-                String xml = toXml(stanzaWriteInfo.getStanza(), stanzaWriteInfo.isWriteOpeningElement(),
+            if (serverLogger.isDebugEnabled()) {
+                byte[] encoded = stanzaWriteInfo.getEncoded();
+                String xml = encoded != null ? new String(encoded, StandardCharsets.UTF_8) : toXml(
+                        stanzaWriteInfo.getStanza(), stanzaWriteInfo.isWriteOpeningElement(),
                         stanzaWriteInfo.isWriteClosingElement());
-                
+
                 serverLogger.debug("> " + xml);
             } else if (serverLogger.isInfoEnabled()) {
                 serverLogger.info(DenseStanzaLogRenderer.render(stanzaWriteInfo.getStanza()));
@@ -85,6 +147,35 @@ public class StanzaLoggingFilter extends IoFilterAdapter {
         nextFilter.messageSent(session, request);
     }
 
+    /* package */ boolean isTraced(IoSession session, XMLElement element) {
+        Set<String> jids = tracedJIDs;
+        if (!jids.isEmpty()) {
+            if (isTracedJID(jids, element.getAttributeValue("from"))
+                    || isTracedJID(jids, element.getAttributeValue("to"))) {
+                return true;
+            }
+            Object sessionContext = session == null ? null : session
+                    .getAttribute(XmppIoHandlerAdapter.ATTRIBUTE_VYSPER_SESSION);
+            if (sessionContext instanceof SessionContext) {
+                Entity initiatingEntity = ((SessionContext) sessionContext).getInitiatingEntity();
+                if (initiatingEntity != null
+                        && jids.contains(initiatingEntity.getBareJID().getFullQualifiedName())) {
+                    return true;
+                }
+            }
+        }
+
+        int rate = sampleRate;
+        if (rate <= 1) return rate == 1;
+        return sampleCounter.getAndIncrement() % rate == 0;
+    }
+
+    private boolean isTracedJID(Set<String> jids, String jid) {
+        if (jid == null) return false;
+        int resourceStart = jid.indexOf('/');
+        return jids.contains(resourceStart < 0 ? jid : jid.substring(0, resourceStart));
+    }
+
     private String toXml(XMLElement element, boolean openElement, boolean closeElement) {
         Renderer renderer = new Renderer(element);
 
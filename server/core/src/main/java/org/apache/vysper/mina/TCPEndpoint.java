@@ -33,6 +33,7 @@ import org.apache.vysper.mina.codec.XMPPProtocolCodecFactory;
 import org.apache.vysper.xmpp.protocol.StanzaProcessor;
 import org.apache.vysper.xmpp.server.Endpoint;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.resources.ExecutionMode;
 
 /**
  *
@@ -46,7 +47,17 @@ public class TCPEndpoint implements Endpoint {
 
     private int port = 5222;
 
+    private int maxStanzaSize = 0;
+
+    private boolean useDirectBuffers = false;
+
     private SocketAcceptor acceptor;
+
+    private final StanzaLoggingFilter stanzaLoggingFilter = new StanzaLoggingFilter();
+
+    private ExecutionMode executionMode = ExecutionMode.THREAD_POOL;
+
+    private SessionLaneExecutor sessionLaneExecutor;
     
     /**
      * @deprecated Use {@link C2SEndpoint} or {@link S2SEndpoint} instead. This class will
@@ -87,17 +98,83 @@ public class TCPEndpoint implements Endpoint {
         this.port = port;
     }
 
+    public int getMaxStanzaSize() {
+        return maxStanzaSize;
+    }
+
+    /**
+     * limits the size of incoming stanzas, connections sending larger stanzas are closed
+     * with a policy-violation stream error
+     * @param maxStanzaSize maximum size in bytes, 0 for no limit
+     */
+    public void setMaxStanzaSize(int maxStanzaSize) {
+        if(acceptor != null) {
+            throw new IllegalStateException("Endpoint started, can not set max stanza size");
+        }
+        if (maxStanzaSize < 0) throw new IllegalArgumentException("max stanza size must not be negative");
+
+        this.maxStanzaSize = maxStanzaSize;
+    }
+
+    public boolean isUseDirectBuffers() {
+        return useDirectBuffers;
+    }
+
+    /**
+     * encodes outgoing stanzas into direct (off-heap) buffers, which saves a copy when writing to the socket.
+     * pooling of the buffers is left to MINA's {@link org.apache.mina.core.buffer.IoBufferAllocator}.
+     */
+    public void setUseDirectBuffers(boolean useDirectBuffers) {
+        if(acceptor != null) {
+            throw new IllegalStateException("Endpoint started, can not change buffer type");
+        }
+
+        this.useDirectBuffers = useDirectBuffers;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * selects the threads the sessions' stanzas are processed on, see {@link ExecutionMode}.
+     * either way, the stanzas of a session are processed in the order they were received.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if(acceptor != null) {
+            throw new IllegalStateException("Endpoint started, can not set execution mode");
+        }
+        if (executionMode == null) throw new IllegalArgumentException("execution mode must not be null");
+        executionMode.checkSupported();
+
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * the filter tracing the stanzas of this endpoint, e.g. to configure sampling or traced JIDs
+     */
+    public StanzaLoggingFilter getStanzaLoggingFilter() {
+        return stanzaLoggingFilter;
+    }
+
     public void start() throws IOException {
         NioSocketAcceptor acceptor = new NioSocketAcceptor();
 
         DefaultIoFilterChainBuilder filterChainBuilder = new DefaultIoFilterChainBuilder();
-        filterChainBuilder.addLast("xmppCodec", new ProtocolCodecFilter(new XMPPProtocolCodecFactory()));
-        filterChainBuilder.addLast("loggingFilter", new StanzaLoggingFilter());
+        filterChainBuilder.addLast("xmppCodec", new ProtocolCodecFilter(new XMPPProtocolCodecFactory(maxStanzaSize,
+                useDirectBuffers)));
+        filterChainBuilder.addLast("loggingFilter", stanzaLoggingFilter);
         
-        int coreThreadCount = 10;
-        int maxThreadCount = 20;
-        int threadTimeoutSeconds = 2 * 60;
-        filterChainBuilder.addLast("executorFilter", new ExecutorFilter(new OrderedThreadPoolExecutor(coreThreadCount, maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS)));
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            sessionLaneExecutor = new SessionLaneExecutor(ExecutionMode.newVirtualThreadPerTaskExecutor("xmpp-tcp-"));
+            filterChainBuilder.addLast("executorFilter", new ExecutorFilter(sessionLaneExecutor));
+        } else {
+            int coreThreadCount = 10;
+            int maxThreadCount = 20;
+            int threadTimeoutSeconds = 2 * 60;
+            filterChainBuilder.addLast("executorFilter", new ExecutorFilter(new OrderedThreadPoolExecutor(coreThreadCount,
+                    maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS)));
+        }
         acceptor.setFilterChainBuilder(filterChainBuilder);
 
         XmppIoHandlerAdapter adapter = new XmppIoHandlerAdapter(serverRuntimeContext, stanzaProcessor);
@@ -112,5 +189,8 @@ public class TCPEndpoint implements Endpoint {
     public void stop() {
         acceptor.unbind();
         acceptor.dispose();
+        if (sessionLaneExecutor != null) {
+            sessionLaneExecutor.shutdown();
+        }
     }
 }
@@ -28,6 +28,7 @@ import org.apache.mina.core.write.WriteToClosedSessionException;
 import org.apache.mina.filter.FilterEvent;
 import org.apache.mina.filter.ssl.SslEvent;
 import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xml.sax.StanzaSizeLimitExceededException;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.protocol.StanzaProcessor;
 import org.apache.vysper.xmpp.protocol.StreamErrorCondition;
@@ -157,7 +158,12 @@ public class XmppIoHandlerAdapter implements IoHandler {
         ioSession.setAttribute(ATTRIBUTE_VYSPER_TERMINATE_REASON, SessionTerminationCause.CONNECTION_ABORT);
 
         Stanza errorStanza;
-        if (throwable.getCause() != null && throwable.getCause() instanceof SAXParseException) {
+        if (throwable.getCause() instanceof StanzaSizeLimitExceededException) {
+            logger.info("Client sent oversized stanza, closing session: {}", throwable.getCause().getMessage());
+            errorStanza = ServerErrorResponses.getStreamError(StreamErrorCondition.POLICY_VIOLATION,
+                    sessionContext.getXMLLang(), "Stanza too large", null);
+            ioSession.setAttribute(ATTRIBUTE_VYSPER_TERMINATE_REASON, SessionTerminationCause.STREAM_ERROR);
+        } else if (throwable.getCause() != null && throwable.getCause() instanceof SAXParseException) {
             logger.info("Client sent not well-formed XML, closing session", throwable);
             errorStanza = ServerErrorResponses.getStreamError(StreamErrorCondition.XML_NOT_WELL_FORMED,
                     sessionContext.getXMLLang(), "Stanza not well-formed", null);
@@ -39,6 +39,12 @@ public class StanzaWriteInfo {
 
     private boolean writeClosingElement = true;
 
+    private volatile boolean traced = false;
+
+    private volatile boolean keepEncoded = false;
+
+    private volatile byte[] encoded = null;
+
     public StanzaWriteInfo(Stanza stanza) {
         this.stanza = stanza;
     }
@@ -69,6 +75,39 @@ public class StanzaWriteInfo {
         return writeClosingElement;
     }
 
+    /**
+     * @return true if the stanza is to be logged once written
+     */
+    public boolean isTraced() {
+        return traced;
+    }
+
+    public void setTraced(boolean traced) {
+        this.traced = traced;
+    }
+
+    /**
+     * asks the encoder to keep a copy of the written bytes, so they don't need to be rendered once more
+     */
+    public void keepEncoded() {
+        this.keepEncoded = true;
+    }
+
+    public boolean isKeepEncoded() {
+        return keepEncoded;
+    }
+
+    /**
+     * @return the written bytes, if asked for and already encoded, null otherwise
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public void setEncoded(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
@@ -19,6 +19,7 @@
  */
 package org.apache.vysper.mina.codec;
 
+import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 
 import org.apache.mina.core.buffer.IoBuffer;
@@ -28,7 +29,7 @@ import org.apache.mina.filter.codec.ProtocolEncoder;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.vysper.charset.CharsetUtil;
 import org.apache.vysper.mina.XmppIoHandlerAdapter;
-import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.Utf8Renderer;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.writer.StanzaWriter;
 import org.slf4j.Logger;
@@ -36,6 +37,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * connects MINA low level protocol and session stanza writer
+ * <p>
+ * stanzas are rendered as UTF-8 straight into the outgoing {@link IoBuffer}, without creating the intermediate
+ * strings the {@link org.apache.vysper.xml.fragment.Renderer} produces. buffers are obtained from MINA's
+ * {@link IoBuffer#allocate(int, boolean)}, so pooling is in the hands of the configured
+ * {@link org.apache.mina.core.buffer.IoBufferAllocator}. the initial capacity follows a moving average of the
+ * recently encoded stanzas, which keeps auto-expansion (and copying) to a minimum.
+ * stanzas created from a {@link org.apache.vysper.xmpp.stanza.BroadcastTemplate} are not rendered at all, but
+ * copied from the template's shared bytes with only the 'to' attribute patched in.
+ * if the {@link StanzaWriteInfo} asks for it, a copy of the written bytes is kept with it, e.g. for tracing.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -43,6 +53,30 @@ public class StanzaWriterProtocolEncoder implements ProtocolEncoder {
 
     private final Logger logger = LoggerFactory.getLogger(StanzaWriterProtocolEncoder.class);
 
+    private static final byte[] XML_PROLOG_BYTES = StanzaWriter.XML_PROLOG.getBytes(Charset.forName("UTF-8"));
+
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private static final int MAX_BUFFER_SIZE_HINT = 16 * 1024;
+
+    private final boolean useDirectBuffers;
+
+    /**
+     * moving average of the encoded sizes, no need to be exact, so not synchronized
+     */
+    private volatile int averageSize = 256;
+
+    public StanzaWriterProtocolEncoder() {
+        this(false);
+    }
+
+    /**
+     * @param useDirectBuffers - allocate direct (off-heap) buffers, which saves a copy when writing to the socket
+     */
+    public StanzaWriterProtocolEncoder(boolean useDirectBuffers) {
+        this.useDirectBuffers = useDirectBuffers;
+    }
+
     public void encode(IoSession ioSession, Object o, ProtocolEncoderOutput protocolEncoderOutput) throws Exception {
         if (!(o instanceof StanzaWriteInfo)) {
             throw new IllegalArgumentException("StanzaWriterProtocolEncoder only handles StanzaWriteInfo objects");
@@ -50,22 +84,58 @@ public class StanzaWriterProtocolEncoder implements ProtocolEncoder {
         StanzaWriteInfo stanzaWriteInfo = (StanzaWriteInfo) o;
 
         Stanza element = stanzaWriteInfo.getStanza();
-        Renderer renderer = new Renderer(element);
 
-        IoBuffer byteBuffer = IoBuffer.allocate(16).setAutoExpand(true);
+        if (element.getBroadcastTemplate() != null && !stanzaWriteInfo.isWriteProlog()
+                && stanzaWriteInfo.isWriteOpeningElement() && stanzaWriteInfo.isWriteContent()
+                && stanzaWriteInfo.isWriteClosingElement()) {
+            byte[][] parts = element.getBroadcastTemplate().getRenderedParts();
+            String to = element.getAttributeValue("to");
+            if (parts != null && to != null) {
+                encodeFromTemplate(parts, to, stanzaWriteInfo, protocolEncoderOutput);
+                return;
+            }
+        }
+
+        IoBuffer byteBuffer = IoBuffer.allocate(averageSize, useDirectBuffers).setAutoExpand(true);
         if (stanzaWriteInfo.isWriteProlog())
-            byteBuffer.putString(StanzaWriter.XML_PROLOG, getSessionEncoder());
-        if (stanzaWriteInfo.isWriteOpeningElement())
-            byteBuffer.putString(renderer.getOpeningElement(), getSessionEncoder());
-        if (stanzaWriteInfo.isWriteContent())
-            byteBuffer.putString(renderer.getElementContent(), getSessionEncoder());
-        if (stanzaWriteInfo.isWriteClosingElement())
-            byteBuffer.putString(renderer.getClosingElement(), getSessionEncoder());
+            byteBuffer.put(XML_PROLOG_BYTES);
+        Utf8Renderer.render(element, stanzaWriteInfo.isWriteOpeningElement(), stanzaWriteInfo.isWriteContent(),
+                stanzaWriteInfo.isWriteClosingElement(), byteBuffer);
+
+        byteBuffer.flip();
+        updateAverageSize(byteBuffer.remaining());
+        keepEncoded(stanzaWriteInfo, byteBuffer);
+        protocolEncoderOutput.write(byteBuffer);
+    }
 
+    /**
+     * copies the shared, pre-rendered broadcast stanza and patches in the receiver
+     */
+    private void encodeFromTemplate(byte[][] parts, String to, StanzaWriteInfo stanzaWriteInfo,
+            ProtocolEncoderOutput protocolEncoderOutput) {
+        IoBuffer byteBuffer = IoBuffer.allocate(parts[0].length + parts[1].length + to.length() + 16,
+                useDirectBuffers).setAutoExpand(true);
+        byteBuffer.put(parts[0]);
+        Utf8Renderer.renderAttributeValueContent(to, byteBuffer);
+        byteBuffer.put(parts[1]);
         byteBuffer.flip();
+        keepEncoded(stanzaWriteInfo, byteBuffer);
         protocolEncoderOutput.write(byteBuffer);
     }
 
+    private void keepEncoded(StanzaWriteInfo stanzaWriteInfo, IoBuffer byteBuffer) {
+        if (!stanzaWriteInfo.isKeepEncoded()) return;
+        byte[] encoded = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(encoded);
+        stanzaWriteInfo.setEncoded(encoded);
+    }
+
+    private void updateAverageSize(int size) {
+        // weighs the latest stanza with 1/8, leaves a little headroom to avoid expanding on average stanzas
+        int average = averageSize + (size + (size >> 3) - averageSize) / 8;
+        averageSize = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE_HINT, average));
+    }
+
     public void dispose(IoSession ioSession) throws Exception {
         final IoHandler handler = ioSession.getHandler();
         if (handler instanceof XmppIoHandlerAdapter) {
@@ -32,11 +32,37 @@ import org.apache.vysper.xml.decoder.XMPPDecoder;
  */
 public class XMPPProtocolCodecFactory implements ProtocolCodecFactory {
 
+    private final int maxStanzaSize;
+
+    private final boolean useDirectBuffers;
+
+    public XMPPProtocolCodecFactory() {
+        this(0);
+    }
+
+    /**
+     * @param maxStanzaSize maximum size of incoming stanzas in bytes, 0 for no limit
+     */
+    public XMPPProtocolCodecFactory(int maxStanzaSize) {
+        this(maxStanzaSize, false);
+    }
+
+    /**
+     * @param maxStanzaSize maximum size of incoming stanzas in bytes, 0 for no limit
+     * @param useDirectBuffers encode outgoing stanzas into direct (off-heap) buffers
+     */
+    public XMPPProtocolCodecFactory(int maxStanzaSize, boolean useDirectBuffers) {
+        this.maxStanzaSize = maxStanzaSize;
+        this.useDirectBuffers = useDirectBuffers;
+    }
+
     public ProtocolEncoder getEncoder(IoSession s) throws Exception {
-        return new StanzaWriterProtocolEncoder();
+        return new StanzaWriterProtocolEncoder(useDirectBuffers);
     }
 
     public ProtocolDecoder getDecoder(IoSession s) throws Exception {
-        return new XMPPDecoder(new StanzaBuilderFactory());
+        XMPPDecoder decoder = new XMPPDecoder(new StanzaBuilderFactory());
+        decoder.setMaxStanzaSize(maxStanzaSize);
+        return decoder;
     }
 }
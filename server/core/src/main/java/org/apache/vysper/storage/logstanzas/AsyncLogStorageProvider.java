@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.logstanzas;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * hands stanzas over to a dedicated writer thread which logs them to the wrapped provider, so logging never
+ * blocks the threads relaying the stanzas.
+ * <p>
+ * stanzas are queued in a bounded, lock-free ring buffer. the writer drains it in batches and flushes the
+ * wrapped provider after each batch if it is {@link Flushable}. while the writer can't keep up and the buffer
+ * is full, stanzas are dropped and counted.
+ * <p>
+ * the wrapped provider is owned by the caller, closing this provider stops the writer but leaves the wrapped one
+ * open.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class AsyncLogStorageProvider implements LogStorageProvider, Closeable {
+
+    final Logger logger = LoggerFactory.getLogger(AsyncLogStorageProvider.class);
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final LogStorageProvider delegate;
+
+    private final MpscRingBuffer<Entry> buffer;
+
+    private final Thread writer;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    // stanzas being offered, the writer waits for them before it stops
+    private final AtomicInteger offering = new AtomicInteger();
+
+    private volatile long written = 0;
+
+    private volatile boolean writerIdle = false;
+
+    private volatile boolean closed = false;
+
+    public AsyncLogStorageProvider(LogStorageProvider delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - number of stanzas which can be queued, rounded up to the next power of two
+     */
+    public AsyncLogStorageProvider(LogStorageProvider delegate, int capacity) {
+        if (delegate == null) throw new IllegalArgumentException("delegate must not be null");
+        this.delegate = delegate;
+        this.buffer = new MpscRingBuffer<Entry>(capacity);
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "stanza-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void logStanza(Entity receiver, Stanza stanza) {
+        offering.incrementAndGet();
+        try {
+            if (closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (!buffer.offer(new Entry(receiver, stanza))) {
+                if (dropped.getAndIncrement() == 0) {
+                    logger.warn("stanza log writer can't keep up, dropping stanzas");
+                }
+                return;
+            }
+        } finally {
+            offering.decrementAndGet();
+        }
+        if (writerIdle) LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return the number of stanzas dropped because the buffer was full or the provider was closed
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of stanzas handed to the wrapped provider
+     */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * logs the stanzas still queued, waiting at most {@link #DEFAULT_CLOSE_TIMEOUT_MILLIS} for the writer.
+     */
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * logs the stanzas still queued, including those offered while closing. stanzas logged from now on are
+     * dropped.
+     *
+     * @return false if the writer has not finished within the timeout, it goes on logging the queued stanzas
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            logger.warn("stanza log writer has not finished within {} ms", unit.toMillis(timeout));
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<Entry>(MAX_BATCH_SIZE);
+        while (true) {
+            Entry entry;
+            while (batch.size() < MAX_BATCH_SIZE && (entry = buffer.poll()) != null) {
+                batch.add(entry);
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+                continue;
+            }
+            if (closed) {
+                // an offer which has not seen the close yet is still logged
+                if (offering.get() == 0 && buffer.isEmpty()) break;
+                Thread.yield();
+                continue;
+            }
+
+            writerIdle = true;
+            if (buffer.isEmpty() && !closed) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            writerIdle = false;
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        for (Entry entry : batch) {
+            try {
+                delegate.logStanza(entry.receiver, entry.stanza);
+            } catch (RuntimeException e) {
+                logger.warn("failed to log stanza", e);
+            }
+        }
+        written += batch.size();
+        if (delegate instanceof Flushable) {
+            try {
+                ((Flushable) delegate).flush();
+            } catch (IOException e) {
+                logger.warn("failed to flush stanza log", e);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Entity receiver;
+
+        private final Stanza stanza;
+
+        private Entry(Entity receiver, Stanza stanza) {
+            this.receiver = receiver;
+            this.stanza = stanza;
+        }
+    }
+}
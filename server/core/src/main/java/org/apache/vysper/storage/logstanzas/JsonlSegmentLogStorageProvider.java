@@ -0,0 +1,229 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.logstanzas;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.stanza.XMPPCoreStanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * logs stanzas as JSON lines to segment files in a directory. a new segment is started once the current one
+ * has reached its maximum size, the oldest segments are deleted when there are more than the configured number.
+ * <p>
+ * writes are buffered until flushed, best used behind an {@link AsyncLogStorageProvider} which flushes after
+ * each batch. when a segment can't be written, it is given up and the next stanza starts a new one. once closed,
+ * stanzas are no longer logged.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JsonlSegmentLogStorageProvider extends AbstractLogStorageProvider implements Flushable, Closeable {
+
+    final Logger logger = LoggerFactory.getLogger(JsonlSegmentLogStorageProvider.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private static final String SEGMENT_PREFIX = "stanzas.";
+
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+
+    private final File directory;
+
+    private final long segmentSize;
+
+    private final int maxSegments;
+
+    private OutputStream segment = null;
+
+    private long segmentSequence;
+
+    private long segmentBytes = 0;
+
+    private boolean closed = false;
+
+    public JsonlSegmentLogStorageProvider(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, true, false, false);
+    }
+
+    /**
+     * @param segmentSize - size in bytes after which a new segment is started
+     * @param maxSegments - number of segments kept
+     */
+    public JsonlSegmentLogStorageProvider(File directory, long segmentSize, int maxSegments, boolean logMessage,
+            boolean logPresence, boolean logIQ) throws IOException {
+        super(logMessage, logPresence, logIQ);
+        if (directory == null) throw new IllegalArgumentException("directory must not be null");
+        if (segmentSize <= 0) throw new IllegalArgumentException("segment size must be positive");
+        if (maxSegments <= 0) throw new IllegalArgumentException("max segments must be positive");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create stanza log directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        List<Long> sequences = segmentSequences();
+        segmentSequence = sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1);
+        startSegment();
+    }
+
+    @Override
+    protected synchronized void logStanza(Entity from, Entity receiver, XMPPCoreStanza stanza) {
+        if (closed) return;
+
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"time\":").append(System.currentTimeMillis());
+        appendField(line, "from", from == null ? null : from.getFullQualifiedName());
+        appendField(line, "to", receiver == null ? null : receiver.getFullQualifiedName());
+        appendField(line, "kind", stanza.getName());
+        appendField(line, "type", stanza.getType());
+        appendField(line, "stanza", new Renderer(stanza).getComplete());
+        line.append("}\n");
+
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (segment != null && segmentBytes > 0 && segmentBytes + bytes.length > segmentSize) {
+                closeSegment();
+            }
+            if (segment == null) startSegment();
+            segment.write(bytes);
+            segmentBytes += bytes.length;
+        } catch (IOException e) {
+            logger.warn("failed to write stanza log segment", e);
+            closeSegment();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (segment == null) return;
+        try {
+            segment.flush();
+        } catch (IOException e) {
+            closeSegment();
+            throw e;
+        }
+    }
+
+    /**
+     * closes the current segment. stanzas logged from now on are ignored.
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (segment == null) return;
+        OutputStream last = segment;
+        segment = null;
+        last.close();
+    }
+
+    /**
+     * gives up the current segment, the next stanza starts a new one.
+     */
+    private void closeSegment() {
+        if (segment == null) return;
+        OutputStream given = segment;
+        segment = null;
+        try {
+            given.close();
+        } catch (IOException e) {
+            logger.warn("failed to close stanza log segment", e);
+        }
+    }
+
+    private void startSegment() throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + (segmentSequence + 1) + SEGMENT_SUFFIX);
+        segment = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        segmentSequence++;
+        segmentBytes = 0;
+
+        List<Long> sequences = segmentSequences();
+        for (int i = 0; i < sequences.size() - maxSegments; i++) {
+            File old = new File(directory, SEGMENT_PREFIX + sequences.get(i) + SEGMENT_SUFFIX);
+            if (!old.delete()) logger.warn("failed to delete stanza log segment {}", old);
+        }
+    }
+
+    private List<Long> segmentSequences() {
+        List<Long> sequences = new ArrayList<Long>();
+        String[] files = directory.list();
+        if (files == null) return sequences;
+        for (String file : files) {
+            if (!file.startsWith(SEGMENT_PREFIX) || !file.endsWith(SEGMENT_SUFFIX)) continue;
+            try {
+                sequences.add(Long.parseLong(file.substring(SEGMENT_PREFIX.length(),
+                        file.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    private static void appendField(StringBuilder line, String name, String value) {
+        line.append(",\"").append(name).append("\":");
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                line.append("\\\"");
+                break;
+            case '\\':
+                line.append("\\\\");
+                break;
+            case '\n':
+                line.append("\\n");
+                break;
+            case '\r':
+                line.append("\\r");
+                break;
+            case '\t':
+                line.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+        line.append('"');
+    }
+}
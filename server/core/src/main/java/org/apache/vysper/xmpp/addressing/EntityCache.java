@@ -0,0 +1,95 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.addressing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * bounded, thread-safe cache of parsed entities, keyed by their string representation.
+ * 
+ * entries are kept in two generations. lookups hitting the older generation promote the
+ * entry to the current one. once the current generation is full, it becomes the old one
+ * and the previous old generation is dropped. this keeps frequently used entities without
+ * any per-lookup bookkeeping, and holds no more than about the maximum number of entries.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class EntityCache {
+
+    private final int generationSize;
+
+    private volatile ConcurrentMap<String, EntityImpl> current;
+
+    private volatile ConcurrentMap<String, EntityImpl> old;
+
+    /**
+     * @param maxSize maximum number of cached entities
+     */
+    public EntityCache(int maxSize) {
+        if (maxSize < 2) throw new IllegalArgumentException("max size must be at least 2");
+        this.generationSize = maxSize / 2;
+        this.current = newGeneration();
+        this.old = newGeneration();
+    }
+
+    private ConcurrentMap<String, EntityImpl> newGeneration() {
+        return new ConcurrentHashMap<String, EntityImpl>(Math.min(generationSize, 1024));
+    }
+
+    /**
+     * @return the cached entity, or null
+     */
+    public EntityImpl get(String entity) {
+        EntityImpl cached = current.get(entity);
+        if (cached == null) {
+            cached = old.get(entity);
+            if (cached != null) {
+                put(entity, cached);
+            }
+        }
+        return cached;
+    }
+
+    public void put(String entity, EntityImpl parsed) {
+        ConcurrentMap<String, EntityImpl> generation = current;
+        if (generation.size() >= generationSize) {
+            synchronized (this) {
+                if (generation == current) {
+                    old = generation;
+                    current = newGeneration();
+                }
+                generation = current;
+            }
+        }
+        generation.put(entity, parsed);
+    }
+
+    public int size() {
+        return current.size() + old.size();
+    }
+
+    public void clear() {
+        synchronized (this) {
+            current = newGeneration();
+            old = newGeneration();
+        }
+    }
+}
@@ -46,27 +46,52 @@ public class EntityImpl implements Entity {
 
     protected Entity bareEntityCached = null;
 
+    private int hashCodeCached = 0;
+
+    private static final EntityCache CACHE = new EntityCache(16 * 1024);
+
+    /**
+     * parses the entity, repeated parses of the same string return the same cached instance
+     */
     public static EntityImpl parse(String entity) throws EntityFormatException {
-        String node = null;
-        String domain;
-        String resource = null;
         if (entity == null)
             throw new EntityFormatException("entity must not be NULL");
 
-        if (entity.contains(CHAR_AT)) {
-            String[] parts = entity.split(CHAR_AT);
-            if (parts.length != 2)
+        EntityImpl parsed = CACHE.get(entity);
+        if (parsed == null) {
+            parsed = parseUncached(entity);
+            CACHE.put(entity, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * parses the entity in a single pass, bypassing the cache
+     */
+    public static EntityImpl parseUncached(String entity) throws EntityFormatException {
+        if (entity == null)
+            throw new EntityFormatException("entity must not be NULL");
+
+        // the resource is everything after the first slash and may contain any character
+        int indexOfSlash = entity.indexOf('/');
+        int domainEnd = (indexOfSlash == -1) ? entity.length() : indexOfSlash;
+
+        String node = null;
+        int domainStart = 0;
+        int indexOfAt = entity.lastIndexOf('@', domainEnd - 1);
+        if (indexOfAt > -1) {
+            if (entity.indexOf('@') != indexOfAt || indexOfAt == domainEnd - 1)
                 throw new EntityFormatException("entity must be of format node@domain/resource");
-            node = parts[0];
-            node = NodePrep.prepare(node);
-            entity = parts[1];
+            node = NodePrep.prepare(entity.substring(0, indexOfAt));
+            domainStart = indexOfAt + 1;
         }
-        domain = entity;
-        if (entity.contains(CHAR_SLASH)) {
-            int indexOfSlash = entity.indexOf(CHAR_SLASH);
-            domain = entity.substring(0, indexOfSlash);
-            resource = entity.substring(indexOfSlash + 1);
-            resource = ResourcePrep.prepare(resource);
+
+        String domain = (domainStart == 0 && domainEnd == entity.length()) ? entity : entity.substring(domainStart,
+                domainEnd);
+
+        String resource = null;
+        if (indexOfSlash > -1) {
+            resource = ResourcePrep.prepare(entity.substring(indexOfSlash + 1));
         }
         return new EntityImpl(node, domain, resource, true);
     }
@@ -134,7 +159,7 @@ public class EntityImpl implements Entity {
         if (!isResourceSet())
             return this; // this _is_ a bare id
         if (bareEntityCached == null)
-            bareEntityCached = new EntityImpl(node, domain, null);
+            bareEntityCached = new EntityImpl(node, domain, null, true);
         return bareEntityCached;
     }
 
@@ -184,10 +209,13 @@ public class EntityImpl implements Entity {
 
     @Override
     public int hashCode() {
-        int result;
-        result = (node != null ? node.hashCode() : 0);
-        result = 29 * result + (domain != null ? domain.hashCode() : 0);
-        result = 29 * result + (resource != null ? resource.hashCode() : 0);
+        int result = hashCodeCached;
+        if (result == 0) {
+            result = (node != null ? node.hashCode() : 0);
+            result = 29 * result + (domain != null ? domain.hashCode() : 0);
+            result = 29 * result + (resource != null ? resource.hashCode() : 0);
+            hashCodeCached = result;
+        }
         return result;
     }
 
@@ -19,6 +19,7 @@
  */
 package org.apache.vysper.xmpp.delivery;
 
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
@@ -28,6 +29,10 @@ import org.apache.vysper.xmpp.stanza.Stanza;
  */
 public interface OfflineStanzaReceiver {
 
-    public void receive(Stanza stanza);
+    /**
+     * @throws DeliveryException if the stanza cannot be kept for the receiver, for example because the
+     *         receiver's storage is full
+     */
+    public void receive(Stanza stanza) throws DeliveryException;
 
 }
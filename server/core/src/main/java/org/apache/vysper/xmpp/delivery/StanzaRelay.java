@@ -20,10 +20,13 @@
 
 package org.apache.vysper.xmpp.delivery;
 
+import java.util.Collection;
+
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
@@ -50,6 +53,35 @@ public interface StanzaRelay {
     void relay(InternalSessionContext sessionContext, Entity receiver, Stanza stanza,
 			   DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException;
 
+    /**
+     * relaying a broadcast stanza to many receivers in one go. relays are free to group the receivers,
+     * by default every receiver is relayed to on its own. a failing receiver does not keep the stanza from
+     * the others, the first failure is thrown after all receivers have been tried.
+     *
+     * @param sessionContext
+     *            The current session context. Can be null.
+     * @param receivers
+     *            the stanza receivers
+     * @param template
+     *            creates the stanza addressed to each receiver
+     * @param deliveryFailureStrategy
+     *            what to do in case of errors
+     * @throws DeliveryException
+     *             error while relaying
+     */
+    default void relayToAll(InternalSessionContext sessionContext, Collection<Entity> receivers,
+            BroadcastTemplate template, DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+        DeliveryException failure = null;
+        for (Entity receiver : receivers) {
+            try {
+                relay(sessionContext, receiver, template.createFor(receiver), deliveryFailureStrategy);
+            } catch (DeliveryException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
     /**
      * @return TRUE iff the relay is live (started and not stopped)
      */
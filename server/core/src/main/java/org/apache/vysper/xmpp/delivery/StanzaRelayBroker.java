@@ -27,10 +27,14 @@ import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
 import org.apache.vysper.xmpp.server.resources.ManagedThreadPool;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -101,6 +105,57 @@ public class StanzaRelayBroker implements StanzaRelay {
         }
     }
 
+    /**
+     * splits the receivers into local and remote ones, each group is handed to its relay in one go.
+     * a failure of the internal relay does not keep the stanza from the remote receivers. if both relays
+     * fail, the failure of the external relay is thrown with the internal one attached as suppressed.
+     */
+    @Override
+    public void relayToAll(InternalSessionContext sessionContext, Collection<Entity> receivers,
+            BroadcastTemplate template, DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+
+        if (!isRelaying()) {
+            throw new ServiceNotAvailableException("relay is not relaying");
+        }
+
+        Entity serverEntity = serverRuntimeContext.getServerEntity();
+        List<Entity> internalReceivers = new ArrayList<Entity>(receivers.size());
+        List<Entity> externalReceivers = new ArrayList<Entity>();
+        for (Entity receiver : receivers) {
+            if (receiver == null || (!receiver.isNodeSet() && EntityUtils.isAddressingServer(receiver, serverEntity))) {
+                throw new RuntimeException("server as the direct receiver of stanza not yet implemented");
+            }
+            if (EntityUtils.isAddressingServer(receiver, serverEntity)
+                    || EntityUtils.isAddressingServerComponent(receiver, serverEntity)) {
+                internalReceivers.add(receiver);
+            } else {
+                externalReceivers.add(receiver);
+            }
+        }
+
+        // refused before anything is relayed, as for a single external receiver
+        if (!externalReceivers.isEmpty() && !serverRuntimeContext.getServerFeatures().isRelayingToFederationServers())
+            throw new IllegalStateException("this server is not relaying to external currently");
+
+        DeliveryException failure = null;
+        if (!internalReceivers.isEmpty()) {
+            try {
+                internalRelay.relayToAll(sessionContext, internalReceivers, template, deliveryFailureStrategy);
+            } catch (DeliveryException e) {
+                failure = e;
+            }
+        }
+        if (!externalReceivers.isEmpty()) {
+            try {
+                externalRelay.relayToAll(sessionContext, externalReceivers, template, deliveryFailureStrategy);
+            } catch (DeliveryException | RuntimeException e) {
+                if (failure != null) e.addSuppressed(failure);
+                throw e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
     public boolean isRelaying() {
         return isRelaying.get();
     }
@@ -0,0 +1,58 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.failure;
+
+import org.apache.vysper.xmpp.stanza.StanzaErrorCondition;
+import org.apache.vysper.xmpp.stanza.StanzaErrorType;
+
+/**
+ * the stanza could not be queued for delivery or processing, because the queue stayed full for too long,
+ * or could not be stored for an offline receiver, because the receiver's offline storage is full.
+ * the sender may try again later.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class QueueFullException extends SmartDeliveryException {
+    public QueueFullException() {
+        super();
+    }
+
+    public QueueFullException(String string) {
+        super(string);
+    }
+
+    public QueueFullException(String string, Throwable throwable) {
+        super(string, throwable);
+    }
+
+    public QueueFullException(Throwable throwable) {
+        super(throwable);
+    }
+
+    @Override
+    public StanzaErrorCondition getStanzaErrorCondition() {
+        return StanzaErrorCondition.RESOURCE_CONSTRAINT;
+    }
+
+    @Override
+    public StanzaErrorType getStanzaErrorType() {
+        return StanzaErrorType.WAIT;
+    }
+}
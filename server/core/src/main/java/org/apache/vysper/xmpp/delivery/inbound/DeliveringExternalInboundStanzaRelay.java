@@ -21,10 +21,12 @@ package org.apache.vysper.xmpp.delivery.inbound;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Collections;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -36,10 +38,13 @@ import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
 import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
+import org.apache.vysper.xmpp.delivery.overflow.StanzaQueueLimit;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.server.InternalServerRuntimeContext;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
+import org.apache.vysper.xmpp.server.resources.ExecutionMode;
 import org.apache.vysper.xmpp.server.resources.ManagedThreadPool;
 import org.apache.vysper.xmpp.server.resources.ManagedThreadPoolUtil;
 import org.apache.vysper.xmpp.server.s2s.XMPPServerConnector;
@@ -54,6 +59,7 @@ import org.slf4j.LoggerFactory;
  * 'incoming' here means:
  * a. stanzas coming in from other servers
  * b. stanzas coming from other (local) sessions and are targeted to clients on this server
+ * the number of queued stanzas is bounded by a {@link StanzaQueueLimit}.
  *  
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -79,6 +85,10 @@ public class DeliveringExternalInboundStanzaRelay implements StanzaRelay, Manage
     
     protected ExecutorService executor;
 
+    protected ExecutionMode executionMode = ExecutionMode.THREAD_POOL;
+
+    protected StanzaQueueLimit queueLimit = new StanzaQueueLimit();
+
     protected OfflineStanzaReceiver offlineStanzaReceiver = null;
 
     protected InternalServerRuntimeContext serverRuntimeContext = null;
@@ -87,21 +97,51 @@ public class DeliveringExternalInboundStanzaRelay implements StanzaRelay, Manage
     protected long lastDumpTimestamp = 0;
 
     public DeliveringExternalInboundStanzaRelay() {
+        this.executor = createThreadPool();
+    }
+
+    /*package*/ DeliveringExternalInboundStanzaRelay(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    private ExecutorService createThreadPool() {
         int coreThreadCount = 10;
         int maxThreadCount = 20;
         int threadTimeoutSeconds = 2 * 60;
-        this.executor = new ThreadPoolExecutor(coreThreadCount, maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS,
+        return new ThreadPoolExecutor(coreThreadCount, maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS,
                 new LinkedBlockingQueue<Runnable>(), new RejectedDeliveryHandler(this, logger));
     }
 
-    /*package*/ DeliveringExternalInboundStanzaRelay(ExecutorService executor) {
-        this.executor = executor;
+    /**
+     * selects the threads stanzas are relayed to other servers on, see {@link ExecutionMode}.
+     * to be set before relaying starts. the current threads are kept if the mode does not change.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) throw new IllegalArgumentException("execution mode must not be null");
+        if (executionMode == this.executionMode) return;
+        ExecutorService previous = executor;
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            executor = ExecutionMode.newVirtualThreadPerTaskExecutor("external-relay-");
+        } else {
+            executor = createThreadPool();
+        }
+        previous.shutdown();
+        this.executionMode = executionMode;
     }
 
     public void setServerRuntimeContext(InternalServerRuntimeContext serverRuntimeContext) {
         this.serverRuntimeContext = serverRuntimeContext;
     }
 
+    public void setQueueLimit(StanzaQueueLimit queueLimit) {
+        if (queueLimit == null) throw new IllegalArgumentException("queue limit must not be null");
+        this.queueLimit = queueLimit;
+    }
+
+    public StanzaQueueLimit getQueueLimit() {
+        return queueLimit;
+    }
+
     public void setMaxThreadCount(int maxThreadPoolCount) {
         if (!(executor instanceof ThreadPoolExecutor)) {
             throw new IllegalStateException("cannot set max thread count for " + executor.getClass());
@@ -121,13 +161,18 @@ public class DeliveringExternalInboundStanzaRelay implements StanzaRelay, Manage
     
     public void dumpThreadPoolInfo(Writer writer) throws IOException {
         if (!(executor instanceof ThreadPoolExecutor)) {
-            throw new IllegalStateException("cannot dump info for " + executor.getClass());
+            // a thread per task, there is no pool to describe
+            writer.append("==== externalRelay:").append("\n");
+            writer.append("executor=\t").append(executor.getClass().getName()).append("\n");
+            ManagedThreadPoolUtil.writeQueueLimitInfo(writer, queueLimit);
+            return;
         }
         ThreadPoolExecutor pool = (ThreadPoolExecutor)executor;
 
         final long now = System.currentTimeMillis();
         writer.append("==== externalRelay:").append("\n");
         ManagedThreadPoolUtil.writeThreadPoolInfo(writer, pool);
+        ManagedThreadPoolUtil.writeQueueLimitInfo(writer, queueLimit);
         final long completedTaskCount = pool.getCompletedTaskCount();
         if (lastDumpTimestamp > 0) {
             writer.append("throughput=\t").append(Long.toString(completedTaskCount - lastCompleted))
@@ -149,7 +194,23 @@ public class DeliveringExternalInboundStanzaRelay implements StanzaRelay, Manage
         XMPPCoreStanza coreStanza = XMPPCoreStanza.getWrapper(stanza);
         
         if(coreStanza != null) {
-            Future<RelayResult> resultFuture = executor.submit(new OutboundRelayCallable(coreStanza, deliveryFailureStrategy));
+            final StanzaQueueLimit limit = queueLimit;
+            try {
+                if (!limit.enter(receiver, coreStanza)) {
+                    // shed or deferred by the overflow policy
+                    return;
+                }
+            } catch (QueueFullException e) {
+                if (deliveryFailureStrategy == null) throw e;
+                deliveryFailureStrategy.process(coreStanza, Collections.<DeliveryException> singletonList(e));
+                return;
+            }
+            try {
+                executor.execute(limit.wrap(new FutureTask<>(new OutboundRelayCallable(coreStanza, deliveryFailureStrategy))));
+            } catch (RejectedExecutionException e) {
+                limit.leave();
+                throw new ServiceNotAvailableException("external inbound relay is not relaying", e);
+            }
         } else {
             // ignore non-core stanzas
         }
@@ -23,16 +23,23 @@ import static java.util.Objects.requireNonNull;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.storage.StorageProviderRegistry;
+import org.apache.vysper.storage.logstanzas.AsyncLogStorageProvider;
 import org.apache.vysper.storage.logstanzas.LogStorageProvider;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityUtils;
@@ -43,7 +50,9 @@ import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
 import org.apache.vysper.xmpp.delivery.failure.LocalRecipientOfflineException;
 import org.apache.vysper.xmpp.delivery.failure.NoSuchLocalUserException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
 import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
+import org.apache.vysper.xmpp.delivery.overflow.StanzaQueueLimit;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
 import org.apache.vysper.xmpp.protocol.StanzaHandlerExecutorFactory;
@@ -54,8 +63,11 @@ import org.apache.vysper.xmpp.server.InternalSessionContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.server.components.ComponentRegistry;
+import org.apache.vysper.xmpp.server.resources.ExecutionMode;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
 import org.apache.vysper.xmpp.server.resources.ManagedThreadPool;
 import org.apache.vysper.xmpp.server.resources.ManagedThreadPoolUtil;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.IQStanza;
 import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
@@ -71,6 +83,17 @@ import org.slf4j.LoggerFactory;
  * using a ThreadPoolExecutor 'incoming' here means: a. stanzas coming in from
  * other servers b. stanzas coming from other (local) sessions and are targeted
  * to clients on this server
+ * <br/>
+ * stanzas are delivered through one lane per receiver bare JID: stanzas for the
+ * same receiver are delivered in the order they were relayed, while different
+ * receivers are served in parallel by a work-stealing pool. a slow receiver
+ * therefore only holds up its own lane.
+ * <br/>
+ * the number of stanzas waiting in all lanes is bounded by a {@link StanzaQueueLimit},
+ * its overflow policy decides what happens to stanzas relayed while the relay is full.
+ * <br/>
+ * broadcasts are delivered by a single lane task per receiver bare JID, carrying the stanzas for all
+ * of the receiver's resources.
  * 
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -78,21 +101,13 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
 
     private static final Logger LOG = LoggerFactory.getLogger(DeliveringInternalInboundStanzaRelay.class);
 
-    private static class RejectedDeliveryHandler implements RejectedExecutionHandler {
+    private static final int DUMPED_LANES_MAX = 10;
 
-        DeliveringInternalInboundStanzaRelay relay;
-
-        Logger logger;
-
-        private RejectedDeliveryHandler(DeliveringInternalInboundStanzaRelay relay, Logger logger) {
-            this.relay = relay;
-            this.logger = logger;
-        }
-
-        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
-            logger.info("relaying of internal inbound stanza has been rejected");
-        }
-    }
+    /**
+     * delivery blocks on storage, e.g. for offline stanzas, so the pool has more threads than cores.
+     * matches the maximum of the thread pool the relay used before.
+     */
+    public static final int DEFAULT_THREAD_COUNT = 20;
 
     private InboundStanzaProtocolWorker inboundStanzaProtocolWorker;
 
@@ -102,7 +117,11 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
 
     protected InternalResourceRegistry resourceRegistry;
 
-    protected ExecutorService executor;
+    protected LaneExecutor<Entity> lanes;
+
+    protected ExecutionMode executionMode = ExecutionMode.THREAD_POOL;
+
+    protected StanzaQueueLimit queueLimit = new StanzaQueueLimit();
 
     protected AccountManagement accountVerification;
 
@@ -110,7 +129,10 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
 
     protected ServerRuntimeContext serverRuntimeContext = null;
 
-    protected LogStorageProvider logStorageProvider = null;
+    protected volatile LogStorageProvider logStorageProvider = null;
+
+    /** the writer wrapped around the configured log, created and closed by this relay */
+    private AsyncLogStorageProvider logWriter = null;
 
     protected long lastCompleted = 0;
 
@@ -129,16 +151,12 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
         this.resourceRegistry = resourceRegistry;
         this.componentRegistry = requireNonNull(componentRegistry);
         this.accountVerification = accountVerification;
-        int coreThreadCount = 10;
-        int maxThreadCount = 20;
-        int threadTimeoutSeconds = 2 * 60;
-        this.executor = new ThreadPoolExecutor(coreThreadCount, maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(), new RejectedDeliveryHandler(this, LOG));
+        this.lanes = new LaneExecutor<>(LaneExecutor.createWorkStealingPool(DEFAULT_THREAD_COUNT));
     }
 
     /* package */ DeliveringInternalInboundStanzaRelay(ExecutorService executor) {
         this.componentRegistry = null;
-        this.executor = executor;
+        this.lanes = new LaneExecutor<>(executor);
     }
 
     public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
@@ -149,11 +167,56 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
         this.inboundStanzaProtocolWorker = new InboundStanzaProtocolWorker(stanzaHandlerExecutorFactory);
     }
 
-    public final void setLogStorageProvider(final LogStorageProvider logStorageProvider) {
-        this.logStorageProvider = logStorageProvider;
+    /**
+     * stanzas are logged by a writer thread of its own, the relaying threads never wait for the log.
+     * an {@link AsyncLogStorageProvider} is used as it is, the caller keeps closing it. the log itself is never
+     * closed by the relay.
+     */
+    public final synchronized void setLogStorageProvider(final LogStorageProvider logStorageProvider) {
+        AsyncLogStorageProvider previousLogWriter = logWriter;
+        if (logStorageProvider == null || logStorageProvider instanceof AsyncLogStorageProvider) {
+            logWriter = null;
+            this.logStorageProvider = logStorageProvider;
+        } else {
+            logWriter = new AsyncLogStorageProvider(logStorageProvider);
+            this.logStorageProvider = logWriter;
+        }
+        if (previousLogWriter != null) previousLogWriter.close();
+    }
+
+    public void setQueueLimit(StanzaQueueLimit queueLimit) {
+        this.queueLimit = requireNonNull(queueLimit);
+    }
+
+    public StanzaQueueLimit getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * selects the threads stanzas are delivered on, see {@link ExecutionMode}.
+     * either way, the stanzas for a receiver are delivered in the order they were relayed.
+     * the current threads are kept if the mode does not change.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) throw new IllegalArgumentException("execution mode must not be null");
+        if (executionMode == this.executionMode) return;
+        ExecutorService executor;
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            executor = ExecutionMode.newVirtualThreadPerTaskExecutor("internal-relay-");
+        } else {
+            executor = LaneExecutor.createWorkStealingPool(DEFAULT_THREAD_COUNT);
+        }
+        lanes.setExecutor(executor).shutdown();
+        this.executionMode = executionMode;
     }
 
     public void setMaxThreadCount(int maxThreadPoolCount) {
+        ExecutorService executor = lanes.getExecutor();
+        if (executor instanceof ForkJoinPool) {
+            // the parallelism of a running pool is fixed, hand the lanes over to a new pool
+            lanes.setExecutor(LaneExecutor.createWorkStealingPool(maxThreadPoolCount)).shutdown();
+            return;
+        }
         if (!(executor instanceof ThreadPoolExecutor)) {
             throw new IllegalStateException("cannot set max thread count for " + executor.getClass());
         }
@@ -163,6 +226,11 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
     }
 
     public void setThreadTimeoutSeconds(int threadTimeoutSeconds) {
+        ExecutorService executor = lanes.getExecutor();
+        if (executor instanceof ForkJoinPool) {
+            // work-stealing pools manage idle threads by themselves
+            return;
+        }
         if (!(executor instanceof ThreadPoolExecutor)) {
             throw new IllegalStateException("cannot set thread timeout for " + executor.getClass());
         }
@@ -171,15 +239,21 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
     }
 
     public void dumpThreadPoolInfo(Writer writer) throws IOException {
-        if (!(executor instanceof ThreadPoolExecutor)) {
-            throw new IllegalStateException("cannot dump info for " + executor.getClass());
-        }
-        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        ExecutorService executor = lanes.getExecutor();
 
         final long now = System.currentTimeMillis();
         writer.append("==== internalRelay:").append("\n");
-        ManagedThreadPoolUtil.writeThreadPoolInfo(writer, pool);
-        final long completedTaskCount = pool.getCompletedTaskCount();
+        if (executor instanceof ForkJoinPool) {
+            ManagedThreadPoolUtil.writeForkJoinPoolInfo(writer, (ForkJoinPool) executor);
+        } else if (executor instanceof ThreadPoolExecutor) {
+            ManagedThreadPoolUtil.writeThreadPoolInfo(writer, (ThreadPoolExecutor) executor);
+        } else {
+            // a thread per task, there is no pool to describe
+            writer.append("executor=\t").append(executor.getClass().getName()).append("\n");
+        }
+        ManagedThreadPoolUtil.writeLaneInfo(writer, lanes, DUMPED_LANES_MAX);
+        ManagedThreadPoolUtil.writeQueueLimitInfo(writer, queueLimit);
+        final long completedTaskCount = lanes.getCompletedTaskCount();
         if (lastDumpTimestamp > 0) {
             writer.append("throughput=\t").append(Long.toString(completedTaskCount - lastCompleted)).append(" per ")
                     .append(Long.toString(now - lastDumpTimestamp)).append("\n");
@@ -188,24 +262,147 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay, Manage
         lastCompleted = completedTaskCount;
     }
 
+    /**
+     * @return number of stanzas waiting to be delivered to the given receiver
+     */
+    public int getQueueDepth(Entity receiver) {
+        return lanes.getLaneDepth(receiver.getBareJID());
+    }
+
+    /**
+     * @return number of waiting stanzas for every receiver bare JID which currently has stanzas in flight
+     */
+    public Map<Entity, Integer> getQueueDepths() {
+        return lanes.getLaneDepths();
+    }
+
     public void relay(InternalSessionContext sessionContext, Entity receiver, Stanza stanza,
             DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
         if (!isRelaying()) {
             throw new ServiceNotAvailableException("internal inbound relay is not relaying");
         }
 
-        executor.submit(new Relay(sessionContext, receiver, stanza, deliveryFailureStrategy));
+        final StanzaQueueLimit limit = queueLimit;
+        try {
+            if (!limit.enter(receiver, stanza)) {
+                // shed or deferred by the overflow policy
+                return;
+            }
+        } catch (QueueFullException e) {
+            returnToSender(stanza, e, deliveryFailureStrategy);
+            return;
+        }
+        try {
+            lanes.execute(receiver.getBareJID(), limit
+                    .wrap(new FutureTask<>(new Relay(sessionContext, receiver, stanza, deliveryFailureStrategy))));
+        } catch (RejectedExecutionException e) {
+            limit.leave();
+            throw new ServiceNotAvailableException("internal inbound relay is not relaying", e);
+        }
         if (this.logStorageProvider != null) {
             this.logStorageProvider.logStanza(receiver, stanza);
         }
     }
 
+    @Override
+    public void relayToAll(InternalSessionContext sessionContext, Collection<Entity> receivers,
+            BroadcastTemplate template, DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+        if (!isRelaying()) {
+            throw new ServiceNotAvailableException("internal inbound relay is not relaying");
+        }
+
+        final StanzaQueueLimit limit = queueLimit;
+        Map<Entity, List<Relay>> relaysByBareJID = new LinkedHashMap<Entity, List<Relay>>();
+        DeliveryException failure = null;
+        int admitted = 0;
+        try {
+            for (Entity receiver : receivers) {
+                Stanza stanza = template.createFor(receiver);
+                try {
+                    if (!limit.enter(receiver, stanza)) {
+                        // shed or deferred by the overflow policy
+                        continue;
+                    }
+                } catch (QueueFullException e) {
+                    try {
+                        returnToSender(stanza, e, deliveryFailureStrategy);
+                    } catch (DeliveryException notReturned) {
+                        if (failure == null) failure = notReturned;
+                    }
+                    continue;
+                } catch (DeliveryException e) {
+                    // a failing receiver does not keep the stanza from the others
+                    if (failure == null) failure = e;
+                    continue;
+                }
+                admitted++;
+                Entity bareJID = receiver.getBareJID();
+                List<Relay> relays = relaysByBareJID.get(bareJID);
+                if (relays == null) {
+                    relays = new ArrayList<Relay>(1);
+                    relaysByBareJID.put(bareJID, relays);
+                }
+                relays.add(new Relay(sessionContext, receiver, stanza, deliveryFailureStrategy));
+            }
+        } catch (RuntimeException | Error e) {
+            // give back the slots of the stanzas admitted so far
+            for (int i = 0; i < admitted; i++) {
+                limit.leave();
+            }
+            throw e;
+        }
+
+        List<Entity> bareJIDs = new ArrayList<Entity>(relaysByBareJID.keySet());
+        for (int i = 0; i < bareJIDs.size(); i++) {
+            final List<Relay> relays = relaysByBareJID.get(bareJIDs.get(i));
+            try {
+                lanes.execute(bareJIDs.get(i), new Runnable() {
+                    public void run() {
+                        for (Relay relay : relays) {
+                            try {
+                                new FutureTask<>(relay).run();
+                            } finally {
+                                limit.leave();
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // give back the slots of all stanzas not handed over
+                for (int j = i; j < bareJIDs.size(); j++) {
+                    for (int k = 0; k < relaysByBareJID.get(bareJIDs.get(j)).size(); k++) {
+                        limit.leave();
+                    }
+                }
+                throw new ServiceNotAvailableException("internal inbound relay is not relaying", e);
+            }
+            if (this.logStorageProvider != null) {
+                for (Relay relay : relays) {
+                    this.logStorageProvider.logStanza(relay.getReceiver(), relay.getStanza());
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * hands a stanza which has not been queued to the failure strategy, for returning an error to the sender
+     */
+    private void returnToSender(Stanza stanza, QueueFullException queueFullException,
+            DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+        if (deliveryFailureStrategy == null) throw queueFullException;
+        deliveryFailureStrategy.process(stanza, Collections.<DeliveryException> singletonList(queueFullException));
+    }
+
     public boolean isRelaying() {
-        return !executor.isShutdown();
+        return !lanes.isShutdown();
     }
 
     public void stop() {
-        this.executor.shutdown();
+        this.lanes.shutdown();
+        synchronized (this) {
+            if (logWriter != null) logWriter.close();
+        }
     }
 
     private class Relay implements Callable<RelayResult> {
@@ -0,0 +1,65 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * when the queue is full, the producing thread has to wait for a free slot. for a stanza read from a
+ * client connection this holds up reading from that connection, pushing back on the client.
+ * <br/>
+ * waiting is limited, because a stage might be fed by its own threads (a handler relaying a response)
+ * and must not deadlock. after the wait, the stanza is shed and a {@link QueueFullException} tells the caller
+ * to return a 'resource-constraint' error to the sender.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class BlockingOverflowPolicy implements OverflowPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockingOverflowPolicy.class);
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 2000;
+
+    private final long maxWaitMillis;
+
+    public BlockingOverflowPolicy() {
+        this(DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    public BlockingOverflowPolicy(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public boolean admit(StanzaQueueLimit limit, Entity receiver, Stanza stanza) throws DeliveryException {
+        if (limit.tryAcquire()) return true;
+
+        limit.countBlocked();
+        if (limit.tryAcquire(maxWaitMillis)) return true;
+
+        limit.countShed();
+        LOG.debug("queue still full after {}ms, shedding stanza for {}", maxWaitMillis, receiver);
+        throw new QueueFullException("queue still full after " + maxWaitMillis + "ms");
+    }
+}
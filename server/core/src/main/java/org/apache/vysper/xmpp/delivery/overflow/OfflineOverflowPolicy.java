@@ -0,0 +1,60 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.stanza.MessageStanza;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * when the queue is full, messages are handed to the offline storage instead, to be delivered when the
+ * receiver logs in the next time. the offline storage decides which messages are worth storing.
+ * all other stanzas are shed. a failure to store the message, like a full offline storage, is thrown.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class OfflineOverflowPolicy implements OverflowPolicy {
+
+    private final OfflineStanzaReceiver offlineStanzaReceiver;
+
+    public OfflineOverflowPolicy(OfflineStanzaReceiver offlineStanzaReceiver) {
+        if (offlineStanzaReceiver == null) throw new IllegalArgumentException("offline receiver must not be null");
+        this.offlineStanzaReceiver = offlineStanzaReceiver;
+    }
+
+    public boolean admit(StanzaQueueLimit limit, Entity receiver, Stanza stanza) throws DeliveryException {
+        if (limit.tryAcquire()) return true;
+
+        if (!MessageStanza.isOfType(stanza)) {
+            limit.countShed();
+            return false;
+        }
+
+        limit.countDeferred();
+        try {
+            offlineStanzaReceiver.receive(stanza);
+        } catch (RuntimeException e) {
+            throw new DeliveryException("failed to defer stanza to offline storage", e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * decides whether a stanza is admitted to a bounded stanza queue. implementations take a slot from the
+ * queue limit when admitting, and take care of the stanza themselves (shed, defer) when not.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public interface OverflowPolicy {
+
+    /**
+     * @param limit - the queue the stanza wants to enter
+     * @param receiver - the receiver the stanza is queued for, might be NULL
+     * @param stanza - the stanza to be queued
+     * @return TRUE, if a slot has been taken and the stanza must be queued, FALSE, if the stanza has been
+     * shed or deferred by the policy and must not be queued
+     * @throws DeliveryException - if the stanza could neither be queued nor handled otherwise. a
+     * {@link org.apache.vysper.xmpp.delivery.failure.SmartDeliveryException} carries the error to return
+     * to the sender
+     */
+    boolean admit(StanzaQueueLimit limit, Entity receiver, Stanza stanza) throws DeliveryException;
+
+}
@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.stanza.PresenceStanza;
+import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * sheds low priority stanzas before the queue is full, keeping the remaining room for more important
+ * stanzas. by default, presence broadcasts (available, unavailable, probe) are low priority, because
+ * the next broadcast supersedes them anyway. subscription presence, messages and IQs are not.
+ * <br/>
+ * what happens to important stanzas when the queue is full is decided by a second policy.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class PriorityShedOverflowPolicy implements OverflowPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PriorityShedOverflowPolicy.class);
+
+    public static final float DEFAULT_LOW_PRIORITY_SHARE = 0.8f;
+
+    private final float lowPriorityShare;
+
+    private final OverflowPolicy highPriorityPolicy;
+
+    public PriorityShedOverflowPolicy(OverflowPolicy highPriorityPolicy) {
+        this(DEFAULT_LOW_PRIORITY_SHARE, highPriorityPolicy);
+    }
+
+    /**
+     * @param lowPriorityShare - share of the queue capacity low priority stanzas may use, between 0 and 1
+     * @param highPriorityPolicy - handles all other stanzas
+     */
+    public PriorityShedOverflowPolicy(float lowPriorityShare, OverflowPolicy highPriorityPolicy) {
+        if (lowPriorityShare < 0 || lowPriorityShare > 1) {
+            throw new IllegalArgumentException("low priority share must be between 0 and 1");
+        }
+        if (highPriorityPolicy == null) throw new IllegalArgumentException("high priority policy must not be null");
+        this.lowPriorityShare = lowPriorityShare;
+        this.highPriorityPolicy = highPriorityPolicy;
+    }
+
+    public boolean admit(StanzaQueueLimit limit, Entity receiver, Stanza stanza) throws DeliveryException {
+        if (!isLowPriority(stanza)) return highPriorityPolicy.admit(limit, receiver, stanza);
+
+        if (limit.getDepth() < limit.getCapacity() * lowPriorityShare && limit.tryAcquire()) return true;
+
+        limit.countShed();
+        LOG.debug("queue is filling up, shedding low priority stanza for {}", receiver);
+        return false;
+    }
+
+    protected boolean isLowPriority(Stanza stanza) {
+        if (!PresenceStanza.isOfType(stanza)) return false;
+        String typeValue = stanza.getAttributeValue("type");
+        // plain availability presence has no type at all
+        if (typeValue == null) return true;
+        PresenceStanzaType type = PresenceStanzaType.valueOfOrNull(typeValue);
+        return type != PresenceStanzaType.ERROR && !PresenceStanzaType.isSubscriptionType(type);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * bounds the number of stanzas waiting in (or being processed by) a stage. a stanza takes a slot when
+ * entering the stage and gives it back when its processing has finished. what happens to a stanza when
+ * all slots are taken is up to the {@link OverflowPolicy}.
+ * <br/>
+ * counts every stanza which has been shed, deferred or had its producer blocked.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class StanzaQueueLimit {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final int capacity;
+
+    private final Semaphore slots;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final AtomicLong shedCount = new AtomicLong();
+
+    private final AtomicLong deferredCount = new AtomicLong();
+
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    /**
+     * default limit: presence is shed first, producers of other stanzas are blocked for a while
+     */
+    public StanzaQueueLimit() {
+        this(DEFAULT_CAPACITY, new PriorityShedOverflowPolicy(new BlockingOverflowPolicy()));
+    }
+
+    public StanzaQueueLimit(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        if (overflowPolicy == null) throw new IllegalArgumentException("overflow policy must not be null");
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return TRUE, if the stanza has taken a slot and must be queued. the slot must be given back using
+     * {@link #leave()} after processing. FALSE, if the stanza has been shed or deferred.
+     */
+    public boolean enter(Entity receiver, Stanza stanza) throws DeliveryException {
+        return overflowPolicy.admit(this, receiver, stanza);
+    }
+
+    /**
+     * gives back the slot taken by a stanza which has been processed
+     */
+    public void leave() {
+        slots.release();
+    }
+
+    /**
+     * @return task running the given one and giving back the slot afterwards, no matter how the task ends
+     */
+    public Runnable wrap(final Runnable task) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    leave();
+                }
+            }
+        };
+    }
+
+    public boolean tryAcquire() {
+        return slots.tryAcquire();
+    }
+
+    /**
+     * waits until a slot becomes available, but not longer than the given time
+     * @return TRUE, if a slot has been taken
+     */
+    public boolean tryAcquire(long timeoutMillis) {
+        try {
+            return slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of taken slots
+     */
+    public int getDepth() {
+        return capacity - slots.availablePermits();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void countShed() {
+        shedCount.incrementAndGet();
+    }
+
+    public void countDeferred() {
+        deferredCount.incrementAndGet();
+    }
+
+    public void countBlocked() {
+        blockedCount.incrementAndGet();
+    }
+
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.apache.vysper.xmpp.modules.core.im.handler;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.vysper.xml.fragment.XMLElement;
@@ -29,6 +30,7 @@ import org.apache.vysper.xmpp.modules.roster.persistence.RosterManager;
 import org.apache.vysper.xmpp.protocol.StanzaBroker;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.PresenceStanza;
 import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
@@ -64,6 +66,17 @@ public abstract class AbstractPresenceSpecializedHandler {
         }
     }
 
+    /**
+     * relays the broadcast presence to all receivers in one go
+     */
+    protected void relayToAll(Collection<Entity> receivers, BroadcastTemplate template, StanzaBroker stanzaBroker) {
+        try {
+            stanzaBroker.writeToAll(receivers, template, IgnoreFailureStrategy.INSTANCE);
+        } catch (DeliveryException e) {
+            logger.warn("presence relaying failed ", e);
+        }
+    }
+
     abstract/* package */Stanza executeCorePresence(ServerRuntimeContext serverRuntimeContext, boolean isOutboundStanza,
             SessionContext sessionContext, PresenceStanza presenceStanza, RosterManager rosterManager,
             StanzaBroker stanzaBroker);
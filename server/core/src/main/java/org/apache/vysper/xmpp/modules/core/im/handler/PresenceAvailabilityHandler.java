@@ -30,7 +30,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.vysper.compliance.SpecCompliance;
@@ -45,13 +44,13 @@ import org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage.OfflineS
 import org.apache.vysper.xmpp.modules.roster.RosterException;
 import org.apache.vysper.xmpp.modules.roster.RosterItem;
 import org.apache.vysper.xmpp.modules.roster.RosterUtils;
-import org.apache.vysper.xmpp.modules.roster.SubscriptionType;
 import org.apache.vysper.xmpp.modules.roster.persistence.RosterManager;
 import org.apache.vysper.xmpp.protocol.StanzaBroker;
 import org.apache.vysper.xmpp.protocol.commandstanza.EndOfSessionCommandStanza;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionContext;
 import org.apache.vysper.xmpp.server.response.ServerErrorResponses;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.PresenceStanza;
 import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
@@ -177,23 +176,13 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
 
         List<Entity> contacts = new ArrayList<Entity>();
 
-        Map<SubscriptionType, List<RosterItem>> itemMap = RosterUtils.getRosterItemsByState(rosterManager, user);
-        List<RosterItem> item_FROM = itemMap.get(SubscriptionType.FROM);
-        List<RosterItem> item_TO = itemMap.get(SubscriptionType.TO);
-        List<RosterItem> item_BOTH = itemMap.get(SubscriptionType.BOTH);
-
         // broadcast presence from full JID to contacts
         // in roster with 'subscription' either 'from' or 'both'
         // TODO (for pres updates): ...and last presence stanza received from the
         // contact during the user's
         // presence session was not of type "error" or "unsubscribe".
 
-        List<RosterItem> rosterContacts_FROM = new ArrayList<RosterItem>();
-        rosterContacts_FROM.addAll(item_FROM);
-        rosterContacts_FROM.addAll(item_BOTH);
-        for (RosterItem rosterContact : rosterContacts_FROM) {
-            contacts.add(rosterContact.getJid());
-        }
+        contacts.addAll(RosterUtils.getPresenceSubscribers(rosterManager, user));
 
         // broadcast unavailable to all directed-presence contacts
         Set<Entity> entitySet = getDirectedPresenceMap(sessionContext, user);
@@ -275,15 +264,11 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
                 logger.debug("Sending out delayed offline stanza");
                 stanzaBroker.writeToSession(stanza);
             }
+            offlineProvider.acknowledge(offlineStanzas);
         }
 
         List<Entity> contacts = new ArrayList<Entity>();
 
-        Map<SubscriptionType, List<RosterItem>> itemMap = RosterUtils.getRosterItemsByState(rosterManager, user);
-        List<RosterItem> item_FROM = itemMap.get(SubscriptionType.FROM);
-        List<RosterItem> item_TO = itemMap.get(SubscriptionType.TO);
-        List<RosterItem> item_BOTH = itemMap.get(SubscriptionType.BOTH);
-
         // broadcast presence from full JID to contacts
         // in roster with 'subscription' either 'from' or 'both'
         // TODO: ...and user is not blocking outbound presence notifications above
@@ -291,12 +276,7 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
         // contact during the user's
         // presence session was not of type "error" or "unsubscribe".
 
-        List<RosterItem> rosterContacts_FROM = new ArrayList<RosterItem>();
-        rosterContacts_FROM.addAll(item_FROM);
-        rosterContacts_FROM.addAll(item_BOTH);
-        for (RosterItem rosterContact : rosterContacts_FROM) {
-            contacts.add(rosterContact.getJid());
-        }
+        contacts.addAll(RosterUtils.getPresenceSubscribers(rosterManager, user));
 
         // broadcast presence notification to all resources of
         // current entity.
@@ -316,13 +296,10 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
             // TODO: ...and jid is not blocking inbound presence notification
             // TODO: optimize: don't send server-local probes when contact's presence is
             // known locally
-            List<RosterItem> rosterContacts_TO = new ArrayList<RosterItem>();
-            rosterContacts_TO.addAll(item_TO);
-            rosterContacts_TO.addAll(item_BOTH);
-            for (RosterItem rosterItem : rosterContacts_TO) {
-                Entity contact_TO = rosterItem.getJid();
-                Stanza probeStanza = buildPresenceStanza(user, contact_TO, PresenceStanzaType.PROBE, null);
-                relayStanza(contact_TO, probeStanza, stanzaBroker);
+            List<Entity> contacts_TO = RosterUtils.getPresenceSubscriptions(rosterManager, user);
+            if (!contacts_TO.isEmpty()) {
+                Stanza probeStanza = buildPresenceStanza(user, null, PresenceStanzaType.PROBE, null);
+                relayToAll(contacts_TO, new BroadcastTemplate(probeStanza, null), stanzaBroker);
             }
         }
 
@@ -461,15 +438,11 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
     }
 
     private void relayTo(Entity from, List<Entity> tos, PresenceStanza original, StanzaBroker stanzaBroker) {
-        List<Attribute> toFromReplacements = new ArrayList<Attribute>(2);
-        toFromReplacements.add(new Attribute("from", from.getFullQualifiedName()));
-
-        for (Entity to : tos) {
-            toFromReplacements.add(new Attribute("to", to.getFullQualifiedName()));
-            Stanza outgoingStanza = StanzaBuilder.createClone(original, true, toFromReplacements).build();
-            relayStanza(to, outgoingStanza, stanzaBroker);
-            toFromReplacements.remove(toFromReplacements.size() - 1); // clear space for new 'to' attribute
-        }
+        List<Attribute> fromReplacement = new ArrayList<Attribute>(1);
+        fromReplacement.add(new Attribute("from", from.getFullQualifiedName()));
+
+        // the presence is rendered only once for all contacts
+        relayToAll(tos, new BroadcastTemplate(original, fromReplacement), stanzaBroker);
     }
 
 }
@@ -202,6 +202,8 @@ public class PresenceSubscriptionHandler extends AbstractPresenceSpecializedHand
             return;
         }
 
+        storeRosterItem(rosterManager, userBareJid, rosterItem);
+
         // send roster push to all interested resources
         // TODO do this only once, since inbound is multiplexed on
         // DeliveringInboundStanzaRelay level already
@@ -251,11 +253,25 @@ public class PresenceSubscriptionHandler extends AbstractPresenceSpecializedHand
             return;
         }
 
+        storeRosterItem(rosterManager, userBareJid, rosterItem);
+
         relayStanza(contact, stanza, stanzaBroker);
 
         sendRosterUpdate(sessionContext, registry, user, rosterItem, stanzaBroker);
     }
 
+    /**
+     * stores the changed roster item, so the roster manager can update its derived state
+     */
+    private void storeRosterItem(RosterManager rosterManager, Entity userBareJid, RosterItem rosterItem) {
+        try {
+            rosterManager.addContact(userBareJid, rosterItem);
+        } catch (RosterException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * send roster push to all of the user's interested resources
      */
@@ -305,6 +321,8 @@ public class PresenceSubscriptionHandler extends AbstractPresenceSpecializedHand
             return;
         }
 
+        storeRosterItem(rosterManager, userBareJid, rosterItem);
+
         // send roster push to all interested resources
         // TODO do this only once, since inbound is multiplexed on
         // DeliveringInboundStanzaRelay level already
@@ -350,6 +368,8 @@ public class PresenceSubscriptionHandler extends AbstractPresenceSpecializedHand
             return;
         }
 
+        storeRosterItem(rosterManager, userBareJid, rosterItem);
+
         relayStanza(contact, stanza, stanzaBroker);
 
         // send roster push to all of the user's interested resources
@@ -19,6 +19,7 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage;
 
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.PresenceStanza;
@@ -33,7 +34,7 @@ public abstract class AbstractOfflineStorageProvider implements OfflineStoragePr
     final Logger logger = LoggerFactory.getLogger(AbstractOfflineStorageProvider.class);
 
     /** checks if a stanza should be stored for offline receivers */
-    public void receive(Stanza stanza) {
+    public void receive(Stanza stanza) throws DeliveryException {
         stanza = XMPPCoreStanza.getWrapper(stanza);
         
         // according to XEP-0160 only certain stanzas should be stored
@@ -84,6 +85,6 @@ public abstract class AbstractOfflineStorageProvider implements OfflineStoragePr
     }
 
     /** does the actual storage mechanism */
-    protected abstract void storeStanza(Stanza stanza);
+    protected abstract void storeStanza(Stanza stanza) throws DeliveryException;
 
 }
@@ -0,0 +1,774 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
+import org.apache.vysper.xmpp.parser.XMLParserUtil;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * stores offline stanzas on disk, in one append-only spool file per bare JID.
+ * <p>
+ * all file changes are made by a single writer thread. storing queues the stanza for the writer and waits until
+ * it is on disk. stanzas queued concurrently are written in one go and share a single fsync per spool.
+ * <p>
+ * stanzas are handed out by claiming the whole spool, which is read lazily while the stanzas are iterated.
+ * the claimed spool is deleted once the stanzas are acknowledged as delivered. spools claimed but never
+ * acknowledged, for example because delivery failed or the server stopped, are put back in front of the
+ * user's spool on restart.
+ * <p>
+ * each user's spool is limited to a quota in bytes, storing a stanza not fitting fails with a
+ * {@link QueueFullException}. stanzas older than the timeout are not handed out anymore and are periodically
+ * compacted away.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class FileOfflineStorageProvider extends AbstractOfflineStorageProvider {
+
+    final Logger logger = LoggerFactory.getLogger(FileOfflineStorageProvider.class);
+
+    public static final long DEFAULT_TIMEOUT = 7L * 24 * 3600 * 1000; // seven days
+
+    public static final long DEFAULT_QUOTA = 1024 * 1024;
+
+    private static final long COMPACTION_PERIOD = 60 * 60 * 1000;
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private static final String SPOOL_SUFFIX = ".spool";
+
+    private static final String CLAIMED_SUFFIX = ".claimed";
+
+    /**
+     * int stanza length, long timestamp
+     */
+    private static final int HEADER_SIZE = 12;
+
+    private final File directory;
+
+    private final long timeout;
+
+    private final long quota;
+
+    private final BlockingQueue<Operation> operations = new LinkedBlockingQueue<Operation>();
+
+    private final Thread writer;
+
+    private final Timer compactionTimer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * bytes in each spool, including stanzas queued but not yet written. reserved by the storing threads,
+     * adjusted by the writer when it claims or compacts a spool.
+     */
+    private final ConcurrentMap<String, AtomicLong> spoolSizes = new ConcurrentHashMap<String, AtomicLong>();
+
+    // only used by the writer thread
+    private long claimCount = 0;
+
+    public FileOfflineStorageProvider(File directory) throws IOException {
+        this(directory, DEFAULT_TIMEOUT, DEFAULT_QUOTA);
+    }
+
+    /**
+     * @param timeout - milliseconds after which a stanza is discarded
+     * @param quota - maximum size of a user's spool in bytes
+     */
+    public FileOfflineStorageProvider(File directory, long timeout, long quota) throws IOException {
+        if (directory == null) throw new IllegalArgumentException("directory must not be null");
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive");
+        if (quota <= 0) throw new IllegalArgumentException("quota must be positive");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create offline storage directory " + directory);
+        }
+        this.directory = directory;
+        this.timeout = timeout;
+        this.quota = quota;
+
+        restoreClaimedSpools();
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                runWriter();
+            }
+        }, "OfflineSpoolWriter");
+        writer.setDaemon(true);
+        writer.start();
+
+        compactionTimer = new Timer("OfflineSpoolCompactionTimer", true);
+        compactionTimer.schedule(new TimerTask() {
+            public void run() {
+                enqueue(new Compaction());
+            }
+        }, COMPACTION_PERIOD, COMPACTION_PERIOD);
+    }
+
+    /**
+     * queues the stanza for the writer and waits until it is on disk
+     *
+     * @throws QueueFullException if the stanza does not fit into the user's quota
+     * @throws DeliveryException if the stanza could not be written
+     */
+    @Override
+    protected void storeStanza(Stanza stanza) throws DeliveryException {
+        String bareJID = stanza.getTo().getBareJID().getFullQualifiedName();
+        if (closed) {
+            throw new DeliveryException("offline storage is closed");
+        }
+        byte[] bytes = new Renderer(stanza).getComplete().getBytes(StandardCharsets.UTF_8);
+        String spoolName = encode(bareJID);
+        reserve(spoolName, HEADER_SIZE + bytes.length);
+        Append append = new Append(spoolName, bytes, System.currentTimeMillis());
+        enqueue(append);
+        try {
+            append.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeliveryException("interrupted while storing offline stanza", e);
+        } catch (ExecutionException e) {
+            throw new DeliveryException("failed to store offline stanza", e.getCause());
+        }
+    }
+
+    /**
+     * @return the stanzas stored for the user, read from disk while iterating. the stanzas are not handed out
+     *         again, but are only removed from disk once they are acknowledged.
+     */
+    public Collection<Stanza> getStanzasFor(Entity jid) {
+        if (closed) {
+            return Collections.emptyList();
+        }
+        Claim claim = new Claim(encode(jid.getBareJID().getFullQualifiedName()));
+        enqueue(claim);
+        try {
+            ClaimedSpool claimed = claim.done.get();
+            return claimed == null ? Collections.<Stanza> emptyList() : claimed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            logger.error("failed to read offline stanzas for {}", jid, e.getCause());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * deletes the claimed spool the stanzas were read from
+     */
+    @Override
+    public void acknowledge(Collection<Stanza> stanzas) {
+        if (stanzas instanceof ClaimedSpool) {
+            enqueue(new Release(((ClaimedSpool) stanzas).file));
+        }
+    }
+
+    /**
+     * stops the writer once all pending stanzas are stored. operations queued after the writer stopped fail.
+     */
+    public void close() {
+        closed = true;
+        compactionTimer.cancel();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending();
+    }
+
+    private void enqueue(Operation operation) {
+        operations.add(operation);
+        // the writer might have stopped without seeing the operation
+        if (!writer.isAlive()) failPending();
+    }
+
+    private void failPending() {
+        IOException cause = new IOException("offline storage is closed");
+        for (Operation operation = operations.poll(); operation != null; operation = operations.poll()) {
+            operation.fail(cause);
+        }
+    }
+
+    private AtomicLong spoolSize(String spoolName) {
+        return spoolSizes.computeIfAbsent(spoolName, name -> new AtomicLong(spoolFile(name).length()));
+    }
+
+    private void reserve(String spoolName, long recordSize) throws QueueFullException {
+        AtomicLong size = spoolSize(spoolName);
+        while (true) {
+            long current = size.get();
+            if (current + recordSize > quota) {
+                throw new QueueFullException("offline storage quota exceeded");
+            }
+            if (size.compareAndSet(current, current + recordSize)) return;
+        }
+    }
+
+    private void runWriter() {
+        List<Operation> batch = new ArrayList<Operation>();
+        List<Append> appends = new ArrayList<Append>();
+        try {
+            while (!closed || !operations.isEmpty()) {
+                try {
+                    Operation first = operations.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    operations.drainTo(batch, MAX_BATCH_SIZE);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+
+                // appends following each other are committed together, commands see all preceding appends
+                for (Operation operation : batch) {
+                    operation.execute(appends);
+                }
+                commit(appends);
+                batch.clear();
+            }
+        } finally {
+            // nobody is left to execute them
+            failPending();
+        }
+    }
+
+    private void commit(List<Append> appends) {
+        if (appends.isEmpty()) return;
+
+        Map<String, List<Append>> appendsBySpool = new LinkedHashMap<String, List<Append>>();
+        for (Append append : appends) {
+            List<Append> spoolAppends = appendsBySpool.get(append.spoolName);
+            if (spoolAppends == null) {
+                spoolAppends = new ArrayList<Append>();
+                appendsBySpool.put(append.spoolName, spoolAppends);
+            }
+            spoolAppends.add(append);
+        }
+        appends.clear();
+
+        for (Map.Entry<String, List<Append>> entry : appendsBySpool.entrySet()) {
+            List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+            for (Append append : entry.getValue()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(append.stanza.length).putLong(append.timestamp).flip();
+                records.add(header);
+                records.add(ByteBuffer.wrap(append.stanza));
+            }
+            ByteBuffer[] buffers = records.toArray(new ByteBuffer[records.size()]);
+
+            try {
+                FileChannel channel = openSpool(spoolFile(entry.getKey()));
+                try {
+                    long start = channel.size();
+                    try {
+                        while (buffers[buffers.length - 1].hasRemaining()) {
+                            channel.write(buffers);
+                        }
+                        channel.force(false);
+                    } catch (IOException e) {
+                        // records following a partially written one could not be read anymore
+                        channel.truncate(start);
+                        throw e;
+                    }
+                } finally {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                for (Append append : entry.getValue()) {
+                    append.fail(e);
+                }
+                continue;
+            }
+            for (Append append : entry.getValue()) {
+                append.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * opens the spool for appending, only called by the writer thread
+     */
+    /* package */ FileChannel openSpool(File file) throws IOException {
+        return new FileOutputStream(file, true).getChannel();
+    }
+
+    private File spoolFile(String spoolName) {
+        return new File(directory, spoolName + SPOOL_SUFFIX);
+    }
+
+    private static String encode(String bareJID) {
+        try {
+            return URLEncoder.encode(bareJID, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * puts spools which were claimed, but not acknowledged before the last shutdown, back in front of their
+     * user's spool
+     */
+    private void restoreClaimedSpools() throws IOException {
+        File[] claimedFiles = directory.listFiles((dir, name) -> name.endsWith(CLAIMED_SUFFIX));
+        Map<String, Map<Long, File>> claimedBySpool = new HashMap<String, Map<Long, File>>();
+        for (File claimed : claimedFiles) {
+            String name = claimed.getName();
+            name = name.substring(0, name.length() - CLAIMED_SUFFIX.length());
+            int dot = name.lastIndexOf('.');
+            long claimNumber;
+            try {
+                claimNumber = Long.parseLong(name.substring(dot + 1));
+            } catch (NumberFormatException e) {
+                logger.warn("ignoring unexpected file {} in offline storage", claimed);
+                continue;
+            }
+            String spoolName = name.substring(0, dot);
+            Map<Long, File> claims = claimedBySpool.get(spoolName);
+            if (claims == null) {
+                claims = new TreeMap<Long, File>();
+                claimedBySpool.put(spoolName, claims);
+            }
+            claims.put(claimNumber, claimed);
+            claimCount = Math.max(claimCount, claimNumber + 1);
+        }
+
+        for (Map.Entry<String, Map<Long, File>> entry : claimedBySpool.entrySet()) {
+            List<File> parts = new ArrayList<File>(entry.getValue().values());
+            File spool = spoolFile(entry.getKey());
+            if (spool.exists()) parts.add(spool);
+
+            File restored = new File(directory, entry.getKey() + ".restored");
+            FileOutputStream out = new FileOutputStream(restored);
+            try {
+                for (File part : parts) {
+                    Files.copy(part.toPath(), out);
+                }
+                out.getChannel().force(false);
+            } finally {
+                out.close();
+            }
+            Files.move(restored.toPath(), spool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            for (File claimed : entry.getValue().values()) {
+                Files.delete(claimed.toPath());
+            }
+        }
+    }
+
+    /**
+     * counts the records of a spool which are not expired, skipping over the stanzas
+     */
+    private static int countRecords(File spool, long expired) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(spool, "r");
+        try {
+            long length = in.length();
+            long position = 0;
+            int count = 0;
+            while (length - position >= HEADER_SIZE) {
+                in.seek(position);
+                int recordLength = in.readInt();
+                long timestamp = in.readLong();
+                if (recordLength < 0 || recordLength > length - position - HEADER_SIZE) {
+                    // incompletely written record
+                    break;
+                }
+                if (timestamp >= expired) count++;
+                position += HEADER_SIZE + recordLength;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void compact() {
+        File[] spools = directory.listFiles((dir, name) -> name.endsWith(SPOOL_SUFFIX));
+        long expired = System.currentTimeMillis() - timeout;
+        for (File spool : spools) {
+            String spoolName = spool.getName().substring(0, spool.getName().length() - SPOOL_SUFFIX.length());
+            long length = spool.length();
+            try {
+                compact(spool, expired);
+            } catch (IOException e) {
+                logger.warn("failed to compact offline spool {}", spool, e);
+            }
+            AtomicLong size = spoolSizes.get(spoolName);
+            if (size != null) size.addAndGet(spool.length() - length);
+        }
+    }
+
+    private void compact(File spool, long expired) throws IOException {
+        List<byte[]> kept = new ArrayList<byte[]>();
+        boolean changed = false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spool)));
+        try {
+            long remaining = spool.length();
+            while (remaining >= HEADER_SIZE) {
+                int length = in.readInt();
+                long timestamp = in.readLong();
+                if (length < 0 || length > remaining - HEADER_SIZE) {
+                    // incompletely written record, drop
+                    changed = true;
+                    break;
+                }
+                byte[] stanza = new byte[length];
+                in.readFully(stanza);
+                remaining -= HEADER_SIZE + length;
+                if (timestamp < expired) {
+                    changed = true;
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+                record.putInt(length).putLong(timestamp).put(stanza);
+                kept.add(record.array());
+            }
+            if (remaining > 0 && remaining < HEADER_SIZE) changed = true;
+        } finally {
+            in.close();
+        }
+        if (!changed) return;
+
+        if (kept.isEmpty()) {
+            Files.delete(spool.toPath());
+            return;
+        }
+        File compacted = new File(spool.getPath() + ".compacted");
+        FileOutputStream out = new FileOutputStream(compacted);
+        try {
+            for (byte[] record : kept) {
+                out.write(record);
+            }
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+        Files.move(compacted.toPath(), spool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * an operation queued for the writer thread
+     */
+    private abstract static class Operation {
+
+        /**
+         * executes the operation on the writer thread
+         *
+         * @param pendingAppends - appends preceding this operation which are not yet committed
+         */
+        abstract void execute(List<Append> pendingAppends);
+
+        /**
+         * called instead of executing the operation, when the writer is stopped
+         */
+        abstract void fail(Throwable cause);
+    }
+
+    /**
+     * appends are collected and committed in batches
+     */
+    private class Append extends Operation {
+
+        private final String spoolName;
+
+        private final byte[] stanza;
+
+        private final long timestamp;
+
+        // completes once the stanza is on disk
+        private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        Append(String spoolName, byte[] stanza, long timestamp) {
+            this.spoolName = spoolName;
+            this.stanza = stanza;
+            this.timestamp = timestamp;
+        }
+
+        void execute(List<Append> pendingAppends) {
+            pendingAppends.add(this);
+        }
+
+        void fail(Throwable cause) {
+            spoolSize(spoolName).addAndGet(-(HEADER_SIZE + stanza.length));
+            logger.warn("failed to store offline stanza in spool {}", spoolName, cause);
+            done.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * commands run on their own, after all preceding appends are committed
+     */
+    private abstract class Command extends Operation {
+
+        final void execute(List<Append> pendingAppends) {
+            commit(pendingAppends);
+            try {
+                run();
+            } catch (RuntimeException e) {
+                logger.error("offline storage operation failed", e);
+                fail(e);
+            }
+        }
+
+        abstract void run();
+    }
+
+    private class Claim extends Command {
+
+        private final String spoolName;
+
+        private final CompletableFuture<ClaimedSpool> done = new CompletableFuture<ClaimedSpool>();
+
+        Claim(String spoolName) {
+            this.spoolName = spoolName;
+        }
+
+        void run() {
+            AtomicLong size = spoolSize(spoolName);
+            File spool = spoolFile(spoolName);
+            if (!spool.exists()) {
+                done.complete(null);
+                return;
+            }
+            File claimed = new File(directory, spoolName + "." + (claimCount++) + CLAIMED_SUFFIX);
+            try {
+                Files.move(spool.toPath(), claimed.toPath());
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+                return;
+            }
+            // the claimed spool holds all preceding appends, the reservations left are for the queued ones
+            size.addAndGet(-claimed.length());
+
+            long expired = System.currentTimeMillis() - timeout;
+            try {
+                int count = countRecords(claimed, expired);
+                if (count == 0) {
+                    Files.delete(claimed.toPath());
+                    done.complete(null);
+                } else {
+                    done.complete(new ClaimedSpool(claimed, count, expired));
+                }
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+            }
+        }
+
+        void fail(Throwable cause) {
+            done.completeExceptionally(cause);
+        }
+    }
+
+    private class Release extends Command {
+
+        private final File claimed;
+
+        Release(File claimed) {
+            this.claimed = claimed;
+        }
+
+        void run() {
+            if (claimed.exists() && !claimed.delete()) {
+                logger.warn("failed to delete claimed offline spool {}", claimed);
+            }
+        }
+
+        void fail(Throwable cause) {
+            // kept, to be restored on restart
+        }
+    }
+
+    private class Compaction extends Command {
+
+        void run() {
+            compact();
+        }
+
+        void fail(Throwable cause) {
+            // retried with the next period
+        }
+    }
+
+    /**
+     * the stanzas of a claimed spool, read while iterating
+     */
+    private class ClaimedSpool extends AbstractCollection<Stanza> {
+
+        private final File file;
+
+        private final int count;
+
+        private final long expired;
+
+        ClaimedSpool(File file, int count, long expired) {
+            this.file = file;
+            this.count = count;
+            this.expired = expired;
+        }
+
+        @Override
+        public Iterator<Stanza> iterator() {
+            return new SpoolIterator(file, expired);
+        }
+
+        /**
+         * @return the number of records claimed, records which cannot be parsed are skipped when iterating
+         */
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    private class SpoolIterator implements Iterator<Stanza> {
+
+        private final File file;
+
+        private final long expired;
+
+        private DataInputStream in;
+
+        private long remaining;
+
+        private Stanza next;
+
+        SpoolIterator(File file, long expired) {
+            this.file = file;
+            this.expired = expired;
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                this.remaining = file.length();
+            } catch (IOException e) {
+                // already acknowledged and deleted
+                this.in = null;
+            }
+        }
+
+        public boolean hasNext() {
+            if (next == null) next = read();
+            return next != null;
+        }
+
+        public Stanza next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Stanza stanza = next;
+            next = null;
+            return stanza;
+        }
+
+        private Stanza read() {
+            while (in != null) {
+                try {
+                    if (remaining < HEADER_SIZE) {
+                        close();
+                        return null;
+                    }
+                    int length = in.readInt();
+                    long timestamp = in.readLong();
+                    if (length < 0 || length > remaining - HEADER_SIZE) {
+                        // incompletely written record
+                        close();
+                        return null;
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    remaining -= HEADER_SIZE + length;
+                    if (timestamp < expired) {
+                        continue;
+                    }
+                    // TODO add timestamp to messages
+                    Stanza stanza = parse(bytes);
+                    if (stanza != null) return stanza;
+                } catch (EOFException e) {
+                    close();
+                } catch (IOException e) {
+                    logger.error("failed to read offline spool {}", file, e);
+                    close();
+                }
+            }
+            return null;
+        }
+
+        private Stanza parse(byte[] bytes) {
+            try {
+                XMLElement element = XMLParserUtil.parseRequiredDocument(new String(bytes, StandardCharsets.UTF_8));
+                return StanzaBuilder.createClone(element, true, null).build();
+            } catch (Exception e) {
+                logger.warn("skipping unreadable offline stanza in {}", file, e);
+                return null;
+            }
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            in = null;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -31,4 +31,11 @@ public interface OfflineStorageProvider extends OfflineStanzaReceiver,
 	
 	public Collection<Stanza> getStanzasFor(Entity jid);
 
+	/**
+	 * confirms that stanzas returned by {@link #getStanzasFor(Entity)} have been delivered. storages keeping
+	 * handed out stanzas until then may remove them now.
+	 */
+	default void acknowledge(Collection<Stanza> stanzas) {
+	}
+
 }
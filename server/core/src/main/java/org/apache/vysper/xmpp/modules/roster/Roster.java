@@ -19,7 +19,9 @@
  */
 package org.apache.vysper.xmpp.modules.roster;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 
@@ -34,4 +36,26 @@ public interface Roster extends Iterable<RosterItem> {
     public Iterator<RosterItem> iterator();
 
     public RosterItem getEntry(Entity contact);
+
+    /**
+     * @return the contacts receiving the user's presence, having subscription 'from' or 'both'
+     */
+    default List<Entity> getPresenceSubscribers() {
+        List<Entity> contacts = new ArrayList<Entity>();
+        for (RosterItem item : this) {
+            if (item.hasFrom()) contacts.add(item.getJid());
+        }
+        return contacts;
+    }
+
+    /**
+     * @return the contacts the user receives presence from, having subscription 'to' or 'both'
+     */
+    default List<Entity> getPresenceSubscriptions() {
+        List<Entity> contacts = new ArrayList<Entity>();
+        for (RosterItem item : this) {
+            if (item.hasTo()) contacts.add(item.getJid());
+        }
+        return contacts;
+    }
 }
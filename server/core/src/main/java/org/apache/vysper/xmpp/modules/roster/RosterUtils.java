@@ -64,13 +64,7 @@ public class RosterUtils {
 
         if (rosterManager == null) return rosterItemMap;
         
-        Roster roster;
-        try {
-            roster = rosterManager.retrieve(user);
-        } catch (RosterException e) {
-            // TODO: make this errorhandling more intelligent
-            throw new RuntimeException("could not retrieve roster for user " + user.getFullQualifiedName());
-        }
+        Roster roster = retrieveRoster(rosterManager, user);
 
         // get items sorted by subscription type
         for (RosterItem rosterItem : roster) {
@@ -80,6 +74,31 @@ public class RosterUtils {
         return rosterItemMap;
     }
 
+    /**
+     * the contacts in the user's roster with subscription 'from' or 'both', who receive the user's presence
+     */
+    public static List<Entity> getPresenceSubscribers(RosterManager rosterManager, Entity user) {
+        if (rosterManager == null) return Collections.emptyList();
+        return retrieveRoster(rosterManager, user).getPresenceSubscribers();
+    }
+
+    /**
+     * the contacts in the user's roster with subscription 'to' or 'both', whose presence the user receives
+     */
+    public static List<Entity> getPresenceSubscriptions(RosterManager rosterManager, Entity user) {
+        if (rosterManager == null) return Collections.emptyList();
+        return retrieveRoster(rosterManager, user).getPresenceSubscriptions();
+    }
+
+    private static Roster retrieveRoster(RosterManager rosterManager, Entity user) {
+        try {
+            return rosterManager.retrieve(user);
+        } catch (RosterException e) {
+            // TODO: make this errorhandling more intelligent
+            throw new RuntimeException("could not retrieve roster for user " + user.getFullQualifiedName());
+        }
+    }
+
     /**
      * extracts a roster item from the given stanza
      */
@@ -19,34 +19,178 @@
  */
 package org.apache.vysper.xmpp.modules.roster.persistence;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.vysper.xmpp.addressing.Entity;
-import org.apache.vysper.xmpp.modules.roster.MutableRoster;
 import org.apache.vysper.xmpp.modules.roster.Roster;
+import org.apache.vysper.xmpp.modules.roster.RosterException;
+import org.apache.vysper.xmpp.modules.roster.RosterItem;
 
 /**
  * manages rosters in memory (and if the application ends, they are lost)
+ * <p>
+ * rosters are immutable snapshots, replaced as a whole on every change. readers never lock, and the contacts
+ * receiving and sending presence are precomputed with every change. changes to different users' rosters
+ * do not wait for each other.
+ * <p>
+ * roster items are copied when they are added and when they are handed out, so a snapshot never changes.
+ * changes to an item must be stored by adding it again.
+ * <p>
+ * the users having a contact in their roster are indexed by the contact, see {@link #getRosterOwners(Entity)}.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class MemoryRosterManager extends AbstractRosterManager {
 
-    private Map<Entity, MutableRoster> rosterMap = new HashMap<Entity, MutableRoster>();
+    private final ConcurrentMap<Entity, RosterSnapshot> rosterMap = new ConcurrentHashMap<Entity, RosterSnapshot>();
+
+    /**
+     * contact's bare JID -> users having the contact in their roster
+     */
+    private final ConcurrentMap<Entity, List<Entity>> rosterOwners = new ConcurrentHashMap<Entity, List<Entity>>();
 
     @Override
     protected Roster addNewRosterInternal(Entity jid) {
-        MutableRoster mutableRoster = new MutableRoster();
-        rosterMap.put(jid.getBareJID(), (MutableRoster) mutableRoster);
-        return mutableRoster;
+        return retrieveRosterInternal(jid.getBareJID());
     }
 
     @Override
     protected Roster retrieveRosterInternal(Entity bareJid) {
-        if (!rosterMap.containsKey(bareJid))
-            rosterMap.put(bareJid, new MutableRoster());
-        return rosterMap.get(bareJid);
+        RosterSnapshot roster = rosterMap.get(bareJid);
+        return roster == null ? RosterSnapshot.EMPTY : roster;
+    }
+
+    @Override
+    public void addContact(Entity jid, RosterItem rosterItem) throws RosterException {
+        if (jid == null) throw new RosterException("jid not provided");
+        if (rosterItem == null || rosterItem.getJid() == null) {
+            throw new RosterException("roster item and item's jid must not be null.");
+        }
+        final Entity contact = rosterItem.getJid().getBareJID();
+        final RosterItem item = copy(rosterItem);
+        // the user's entry is locked while its roster and the index are updated
+        rosterMap.compute(jid.getBareJID(), (user, roster) -> {
+            RosterSnapshot current = roster == null ? RosterSnapshot.EMPTY : roster;
+            if (!current.items.containsKey(contact)) {
+                rosterOwners.compute(contact, (key, owners) -> with(owners, user));
+            }
+            return current.with(contact, item);
+        });
+    }
+
+    @Override
+    public void removeContact(Entity jidUser, Entity jidContact) throws RosterException {
+        if (jidUser == null) throw new RosterException("jid not provided");
+        final Entity contact = jidContact.getBareJID();
+        rosterMap.computeIfPresent(jidUser.getBareJID(), (user, roster) -> {
+            if (!roster.items.containsKey(contact)) return roster;
+            rosterOwners.computeIfPresent(contact, (key, owners) -> without(owners, user));
+            return roster.without(contact);
+        });
+    }
+
+    /**
+     * @return the users having the contact in their roster, regardless of the subscription state
+     */
+    public List<Entity> getRosterOwners(Entity contact) {
+        List<Entity> owners = rosterOwners.get(contact.getBareJID());
+        return owners == null ? Collections.<Entity> emptyList() : owners;
+    }
+
+    private static List<Entity> with(List<Entity> entities, Entity entity) {
+        List<Entity> copy = entities == null ? new ArrayList<Entity>() : new ArrayList<Entity>(entities);
+        copy.add(entity);
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * @return null instead of an empty list, which removes the contact from the index
+     */
+    private static List<Entity> without(List<Entity> entities, Entity entity) {
+        List<Entity> copy = new ArrayList<Entity>(entities);
+        copy.remove(entity);
+        return copy.isEmpty() ? null : Collections.unmodifiableList(copy);
+    }
+
+    private static RosterItem copy(RosterItem item) {
+        return new RosterItem(item.getJid(), item.getName(), item.getSubscriptionType(),
+                item.getAskSubscriptionType(), item.getGroups());
     }
 
+    /**
+     * an immutable roster, the item map and its items are never modified after construction
+     */
+    private static final class RosterSnapshot implements Roster {
+
+        private static final RosterSnapshot EMPTY = new RosterSnapshot(new LinkedHashMap<Entity, RosterItem>());
+
+        private final Map<Entity, RosterItem> items;
+
+        private final List<Entity> presenceSubscribers;
+
+        private final List<Entity> presenceSubscriptions;
+
+        private RosterSnapshot(LinkedHashMap<Entity, RosterItem> items) {
+            this.items = items;
+            List<Entity> subscribers = new ArrayList<Entity>();
+            List<Entity> subscriptions = new ArrayList<Entity>();
+            for (RosterItem item : items.values()) {
+                if (item.hasFrom()) subscribers.add(item.getJid());
+                if (item.hasTo()) subscriptions.add(item.getJid());
+            }
+            this.presenceSubscribers = Collections.unmodifiableList(subscribers);
+            this.presenceSubscriptions = Collections.unmodifiableList(subscriptions);
+        }
+
+        public Iterator<RosterItem> iterator() {
+            final Iterator<RosterItem> iterator = items.values().iterator();
+            return new Iterator<RosterItem>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                public RosterItem next() {
+                    return copy(iterator.next());
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public RosterItem getEntry(Entity contact) {
+            RosterItem item = items.get(contact);
+            return item == null ? null : copy(item);
+        }
+
+        @Override
+        public List<Entity> getPresenceSubscribers() {
+            return presenceSubscribers;
+        }
+
+        @Override
+        public List<Entity> getPresenceSubscriptions() {
+            return presenceSubscriptions;
+        }
+
+        private RosterSnapshot with(Entity contact, RosterItem item) {
+            LinkedHashMap<Entity, RosterItem> copy = new LinkedHashMap<Entity, RosterItem>(items);
+            copy.put(contact, item);
+            return new RosterSnapshot(copy);
+        }
+
+        private RosterSnapshot without(Entity contact) {
+            LinkedHashMap<Entity, RosterItem> copy = new LinkedHashMap<Entity, RosterItem>(items);
+            copy.remove(contact);
+            return new RosterSnapshot(copy);
+        }
+    }
 }
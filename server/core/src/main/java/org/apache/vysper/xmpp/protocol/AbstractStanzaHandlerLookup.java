@@ -31,22 +31,24 @@ import org.apache.vysper.xmpp.stanza.Stanza;
 public abstract class AbstractStanzaHandlerLookup {
     protected List<HandlerDictionary> namespaceDictionaries = new ArrayList<HandlerDictionary>();
 
-    public void addDictionary(HandlerDictionary namespaceHandlerDictionary) {
+    // rebuilt and replaced whenever a dictionary is added
+    private volatile HandlerDispatchIndex dispatchIndex = HandlerDispatchIndex.EMPTY;
+
+    public synchronized void addDictionary(HandlerDictionary namespaceHandlerDictionary) {
         namespaceDictionaries.add(namespaceHandlerDictionary);
+        dispatchIndex = new HandlerDispatchIndex(namespaceDictionaries);
     }
 
     public abstract StanzaHandler getHandler(Stanza stanza);
 
     /**
+     * returns the first handler of the dictionaries, in the order they were added, verifying the stanza.
+     * only the handlers registered for the stanza's name and namespace are asked, see {@link HandlerDispatchIndex}.
      * tries to find the handler by trying
      * 1. value of xmlElement's XMLNS attribute, if unique
      * 2. xmlElements namespace, if the element name has a namespace prefix
      */
     protected StanzaHandler getHandlerForElement(Stanza stanza, XMLElement xmlElement) {
-        for(HandlerDictionary dictionary : namespaceDictionaries) {
-            StanzaHandler stanzaHandler = dictionary.get(stanza);
-            if(stanzaHandler != null) return stanzaHandler;
-        }
-        return null;
+        return dispatchIndex.get(stanza);
     }
 }
@@ -20,6 +20,7 @@
 package org.apache.vysper.xmpp.protocol;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.vysper.xmpp.stanza.Stanza;
@@ -67,6 +68,17 @@ public class DefaultHandlerDictionary implements HandlerDictionary {
         sealed = true;
     }
 
+    /* package */ boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * @return the handlers in registration order, final once the dictionary is sealed
+     */
+    /* package */ List<StanzaHandler> getHandlers() {
+        return Collections.unmodifiableList(handlerList);
+    }
+
     /**
      * returns the first handler whose verify method returns true for the given stanza
      * @param stanza
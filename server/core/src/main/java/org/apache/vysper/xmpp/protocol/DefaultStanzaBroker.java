@@ -21,19 +21,28 @@ package org.apache.vysper.xmpp.protocol;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.failure.ReturnErrorToSenderFailureStrategy;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Réda Housni Alaoui
  */
 public class DefaultStanzaBroker implements StanzaBroker {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultStanzaBroker.class);
+
     private final StanzaRelay stanzaRelay;
 
     private final InternalSessionContext sessionContext;
@@ -60,6 +69,15 @@ public class DefaultStanzaBroker implements StanzaBroker {
         stanzaRelay.relay(sessionContext, receiver, stanza, deliveryFailureStrategy);
     }
 
+    @Override
+    public void writeToAll(Collection<Entity> receivers, BroadcastTemplate template,
+            DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+        if (receivers.isEmpty()) {
+            return;
+        }
+        stanzaRelay.relayToAll(sessionContext, receivers, template, deliveryFailureStrategy);
+    }
+
     @Override
     public void writeToSession(Stanza stanza) {
         if (stanza == null) {
@@ -72,7 +90,17 @@ public class DefaultStanzaBroker implements StanzaBroker {
         if (offlineStanzaReceiver == null) {
             return;
         }
-        offlineStanzaReceiver.receive(stanza);
+        try {
+            offlineStanzaReceiver.receive(stanza);
+        } catch (DeliveryException e) {
+            // the stanza could not be kept for the offline receiver, tell the sender
+            try {
+                new ReturnErrorToSenderFailureStrategy(this).process(stanza,
+                        Collections.<DeliveryException> singletonList(e));
+            } catch (DeliveryException returnFailure) {
+                LOG.warn("failed to return stanza not stored for offline receiver {}", stanza.getTo(), returnFailure);
+            }
+        }
     }
 
     @Override
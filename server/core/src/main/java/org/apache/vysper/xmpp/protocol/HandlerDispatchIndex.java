@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * immutable index over a list of dictionaries, giving the handlers which might handle a stanza by its name and
+ * namespace (see {@link NamespaceHandlerDictionary#get(Stanza)}).
+ * <p>
+ * sealed namespace dictionaries contribute their handlers under the handler's name and the dictionary's namespace.
+ * other dictionaries can't be looked into, they are asked for every stanza, in their turn.
+ * the candidates are asked to verify the stanza in registration order and the first accepting it is returned,
+ * just as if the dictionaries were asked one after the other. so verify() is only called on handlers sharing
+ * name and namespace, or on dictionaries not indexed.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+final class HandlerDispatchIndex {
+
+    static final HandlerDispatchIndex EMPTY = new HandlerDispatchIndex(new ArrayList<HandlerDictionary>());
+
+    // stanza name -> namespace -> candidates
+    private final Map<String, Map<String, Candidate[]>> index = new HashMap<String, Map<String, Candidate[]>>();
+
+    // for stanzas no indexed handler is registered for
+    private final Candidate[] unindexed;
+
+    HandlerDispatchIndex(List<HandlerDictionary> dictionaries) {
+        Map<String, Map<String, List<Candidate>>> candidates = new HashMap<String, Map<String, List<Candidate>>>();
+        List<Candidate> unindexedCandidates = new ArrayList<Candidate>();
+        for (HandlerDictionary dictionary : dictionaries) {
+            if (isIndexable(dictionary)) {
+                NamespaceHandlerDictionary namespaceDictionary = (NamespaceHandlerDictionary) dictionary;
+                for (StanzaHandler stanzaHandler : namespaceDictionary.getHandlers()) {
+                    Map<String, List<Candidate>> byNamespace = candidates.get(stanzaHandler.getName());
+                    if (byNamespace == null) {
+                        byNamespace = new HashMap<String, List<Candidate>>();
+                        candidates.put(stanzaHandler.getName(), byNamespace);
+                    }
+                    List<Candidate> handlers = byNamespace.get(namespaceDictionary.getNamespaceURI());
+                    if (handlers == null) {
+                        // the dictionaries not indexed so far come first
+                        handlers = new ArrayList<Candidate>(unindexedCandidates);
+                        byNamespace.put(namespaceDictionary.getNamespaceURI(), handlers);
+                    }
+                    handlers.add(new Candidate(stanzaHandler, null));
+                }
+            } else {
+                Candidate candidate = new Candidate(null, dictionary);
+                unindexedCandidates.add(candidate);
+                for (Map<String, List<Candidate>> byNamespace : candidates.values()) {
+                    for (List<Candidate> handlers : byNamespace.values()) {
+                        handlers.add(candidate);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, Map<String, List<Candidate>>> byName : candidates.entrySet()) {
+            Map<String, Candidate[]> byNamespace = new HashMap<String, Candidate[]>();
+            for (Map.Entry<String, List<Candidate>> handlers : byName.getValue().entrySet()) {
+                byNamespace.put(handlers.getKey(), handlers.getValue().toArray(new Candidate[0]));
+            }
+            index.put(byName.getKey(), byNamespace);
+        }
+        unindexed = unindexedCandidates.toArray(new Candidate[0]);
+    }
+
+    /**
+     * @return the first handler verifying the stanza, or NULL
+     */
+    StanzaHandler get(Stanza stanza) {
+        Candidate[] candidates = null;
+        Map<String, Candidate[]> byNamespace = index.get(stanza.getName());
+        if (byNamespace != null) {
+            candidates = byNamespace.get(NamespaceHandlerDictionary.getNamespaceURI(stanza));
+        }
+        if (candidates == null) candidates = unindexed;
+
+        for (Candidate candidate : candidates) {
+            StanzaHandler stanzaHandler = candidate.get(stanza);
+            if (stanzaHandler != null) return stanzaHandler;
+        }
+        return null;
+    }
+
+    /**
+     * only sealed namespace dictionaries with the default lookup are indexed, others might still change or choose
+     * their handlers differently
+     */
+    private static boolean isIndexable(HandlerDictionary dictionary) {
+        if (!(dictionary instanceof NamespaceHandlerDictionary)) return false;
+        NamespaceHandlerDictionary namespaceDictionary = (NamespaceHandlerDictionary) dictionary;
+        if (!namespaceDictionary.isSealed() || namespaceDictionary.getNamespaceURI() == null) return false;
+        try {
+            Class<?> declaringClass = dictionary.getClass().getMethod("get", Stanza.class).getDeclaringClass();
+            return declaringClass == NamespaceHandlerDictionary.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * either a handler to verify the stanza, or a dictionary to be asked
+     */
+    private static final class Candidate {
+
+        private final StanzaHandler stanzaHandler;
+
+        private final HandlerDictionary dictionary;
+
+        private Candidate(StanzaHandler stanzaHandler, HandlerDictionary dictionary) {
+            this.stanzaHandler = stanzaHandler;
+            this.dictionary = dictionary;
+        }
+
+        private StanzaHandler get(Stanza stanza) {
+            if (dictionary != null) return dictionary.get(stanza);
+            return stanzaHandler.verify(stanza) ? stanzaHandler : null;
+        }
+    }
+}
@@ -52,17 +52,22 @@ public class NamespaceHandlerDictionary extends DefaultHandlerDictionary {
 
     @Override
     public StanzaHandler get(Stanza stanza) {
-        String namespace;
-        if(stanza.getVerifier().subElementsPresentExact(1)) {
-            namespace = stanza.getFirstInnerElement().getNamespaceURI();
-        } else {
-            namespace = stanza.getNamespaceURI();
-        }
-        
+        String namespace = getNamespaceURI(stanza);
         if(namespace != null && namespace.equals(namespaceURI)) {
             return super.get(stanza);
         } else {
             return null;
         }
     }
+
+    /**
+     * the namespace a dictionary is chosen by: the single inner element's, or else the stanza's own
+     */
+    /* package */ static String getNamespaceURI(Stanza stanza) {
+        if(stanza.getVerifier().subElementsPresentExact(1)) {
+            return stanza.getFirstInnerElement().getNamespaceURI();
+        } else {
+            return stanza.getNamespaceURI();
+        }
+    }
 }
@@ -19,7 +19,7 @@
  */
 package org.apache.vysper.xmpp.protocol;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
@@ -61,7 +61,8 @@ public class ProtocolWorker implements StanzaProcessor {
 
     final Logger logger = LoggerFactory.getLogger(ProtocolWorker.class);
 
-    private final Map<SessionState, StateAwareProtocolWorker> stateWorker = new HashMap<SessionState, StateAwareProtocolWorker>();
+    private final Map<SessionState, StateAwareProtocolWorker> stateWorker = new EnumMap<SessionState, StateAwareProtocolWorker>(
+            SessionState.class);
 
     private final ResponseWriter responseWriter = new ResponseWriter();
 
@@ -154,34 +155,37 @@ public class ProtocolWorker implements StanzaProcessor {
                 // rewrite namespace
                 stanza = StanzaBuilder.rewriteNamespace(stanza, NamespaceURIs.JABBER_SERVER, NamespaceURIs.JABBER_CLIENT);
             }                
-        } else {
+        } else if (from != null) {
             // make sure that 'from' (if present) matches the bare authorized entity
             // else respond with a stanza error 'unknown-sender'
             // see rfc3920_draft-saintandre-rfc3920bis-04.txt#8.5.4
-            if (from != null && sessionContext.getInitiatingEntity() != null) {
-                Entity fromBare = from.getBareJID();
-                Entity initiatingEntity = sessionContext.getInitiatingEntity();
-                if (!initiatingEntity.equals(fromBare)) {
-                    responseWriter.handleWrongFromJID(sessionContext, stanza);
-                    return;
-                }
+            Entity initiatingEntity = sessionContext.getInitiatingEntity();
+            if (initiatingEntity != null && !initiatingEntity.equals(from.getBareJID())) {
+                responseWriter.handleWrongFromJID(sessionContext, stanza);
+                return;
             }
-            // make sure that there is a bound resource entry for that from's resource id attribute!
-            if (from != null && from.getResource() != null) {
-                List<String> boundResources = sessionContext.getServerRuntimeContext().getResourceRegistry()
-                        .getBoundResources(from, false);
-                if (boundResources.size() == 0) {
-                    responseWriter.handleWrongFromJID(sessionContext, stanza);
-                    return;
+            // the resources bound to this session, published by the resource registry.
+            // if they are known, most stanzas can be checked without asking the registry
+            List<String> sessionResources = sessionContext.getBoundResources();
+            if (from.getResource() != null) {
+                // make sure that there is a bound resource entry for that from's resource id attribute!
+                if (sessionResources == null || !sessionResources.contains(from.getResource())) {
+                    List<String> boundResources = sessionContext.getServerRuntimeContext().getResourceRegistry()
+                            .getBoundResources(from, false);
+                    if (boundResources.size() == 0) {
+                        responseWriter.handleWrongFromJID(sessionContext, stanza);
+                        return;
+                    }
                 }
-            }
-            // make sure that there is a full from entity given in cases where more than one resource is bound
-            // in the same session.
-            // see rfc3920_draft-saintandre-rfc3920bis-04.txt#8.5.4
-            if (from != null && from.getResource() == null) {
-                List<String> boundResources = sessionContext.getServerRuntimeContext().getResourceRegistry()
-                        .getResourcesForSession(sessionContext);
-                if (boundResources.size() > 1) {
+            } else {
+                // make sure that there is a full from entity given in cases where more than one resource is bound
+                // in the same session.
+                // see rfc3920_draft-saintandre-rfc3920bis-04.txt#8.5.4
+                if (sessionResources == null) {
+                    sessionResources = sessionContext.getServerRuntimeContext().getResourceRegistry()
+                            .getResourcesForSession(sessionContext);
+                }
+                if (sessionResources.size() > 1) {
                     responseWriter.handleWrongFromJID(sessionContext, stanza);
                     return;
                 }
@@ -21,28 +21,46 @@ package org.apache.vysper.xmpp.protocol;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
+import org.apache.vysper.xmpp.delivery.overflow.BlockingOverflowPolicy;
+import org.apache.vysper.xmpp.delivery.overflow.StanzaQueueLimit;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
+import org.apache.vysper.xmpp.server.response.ServerErrorResponses;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.XMPPCoreStanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * stanza processor, acts as a 'stage' by using a ThreadPoolExecutor
  * 
+ * the number of queued stanzas is bounded. by default, a session trying to queue a stanza while the
+ * queue is full is blocked, which stops reading further stanzas from its connection. if the queue stays
+ * full, the stanza is answered with a 'resource-constraint' error.
+ * 
  * TODO: make thread pool configuration managable
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class QueuedStanzaProcessor implements StanzaProcessor {
 
+    private static final Logger LOG = LoggerFactory.getLogger(QueuedStanzaProcessor.class);
+
     private final ResponseWriter responseWriter = new ResponseWriter();
 
     protected ExecutorService executor;
 
     protected StanzaProcessor stanzaProcessor;
 
+    protected StanzaQueueLimit queueLimit = new StanzaQueueLimit(StanzaQueueLimit.DEFAULT_CAPACITY,
+            new BlockingOverflowPolicy());
+
     public QueuedStanzaProcessor(StanzaProcessor stanzaProcessor) {
         int coreThreadCount = 10;
         int maxThreadCount = 20;
@@ -54,7 +72,48 @@ public class QueuedStanzaProcessor implements StanzaProcessor {
 
     public void processStanza(ServerRuntimeContext serverRuntimeContext, InternalSessionContext sessionContext,
             Stanza stanza, SessionStateHolder sessionStateHolder) {
-        executor.submit(new StanzaProcessorUnitOfWork(sessionContext, stanza, sessionStateHolder));
+        final StanzaQueueLimit limit = queueLimit;
+        try {
+            if (!limit.enter(stanza.getTo(), stanza)) {
+                // shed or deferred by the overflow policy
+                return;
+            }
+        } catch (QueueFullException e) {
+            returnErrorToSender(sessionContext, stanza, e);
+            return;
+        } catch (DeliveryException e) {
+            LOG.warn("failed to handle stanza overflowing the processing queue", e);
+            return;
+        }
+        Runnable unitOfWork = limit.wrap(new StanzaProcessorUnitOfWork(sessionContext, stanza, sessionStateHolder));
+        try {
+            executor.submit(unitOfWork);
+        } catch (RejectedExecutionException e) {
+            limit.leave();
+            throw e;
+        }
+    }
+
+    private void returnErrorToSender(InternalSessionContext sessionContext, Stanza stanza,
+            QueueFullException queueFullException) {
+        XMPPCoreStanza coreStanza = XMPPCoreStanza.getWrapper(stanza);
+        if (coreStanza == null || "error".equals(coreStanza.getType())) {
+            LOG.warn("processing queue is full, dropping stanza", queueFullException);
+            return;
+        }
+        Stanza errorStanza = ServerErrorResponses.getStanzaError(queueFullException.getStanzaErrorCondition(),
+                coreStanza, queueFullException.getStanzaErrorType(), queueFullException.getErrorText(),
+                sessionContext.getXMLLang(), null);
+        sessionContext.getResponseWriter().write(errorStanza);
+    }
+
+    public void setQueueLimit(StanzaQueueLimit queueLimit) {
+        if (queueLimit == null) throw new IllegalArgumentException("queue limit must not be null");
+        this.queueLimit = queueLimit;
+    }
+
+    public StanzaQueueLimit getQueueLimit() {
+        return queueLimit;
     }
 
     public void processTLSEstablished(InternalSessionContext sessionContext,
@@ -19,9 +19,12 @@
  */
 package org.apache.vysper.xmpp.protocol;
 
+import java.util.Collection;
+
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
@@ -34,4 +37,21 @@ public interface StanzaBroker {
 
     void writeToSession(Stanza stanza);
 
+    /**
+     * writes the broadcast stanza to all receivers, each addressed to the receiver. a failing receiver does
+     * not keep the stanza from the others, the first failure is thrown after all receivers have been tried.
+     */
+    default void writeToAll(Collection<Entity> receivers, BroadcastTemplate template,
+            DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+        DeliveryException failure = null;
+        for (Entity receiver : receivers) {
+            try {
+                write(receiver, template.createFor(receiver), deliveryFailureStrategy);
+            } catch (DeliveryException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
 }
@@ -21,6 +21,7 @@
 package org.apache.vysper.xmpp.server;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -60,6 +61,8 @@ public abstract class AbstractSessionContext implements InternalSessionContext {
 
     private Map<String, Object> attributeMap = new HashMap<>();
 
+    private volatile List<String> boundResources;
+
     public AbstractSessionContext(ServerRuntimeContext serverRuntimeContext, StanzaProcessor stanzaProcessor,
             SessionStateHolder sessionStateHolder) {
         this.serverRuntimeContext = serverRuntimeContext;
@@ -174,6 +177,14 @@ public abstract class AbstractSessionContext implements InternalSessionContext {
         return getServerRuntimeContext().getResourceRegistry().bindSession(this);
     }
 
+    public List<String> getBoundResources() {
+        return boundResources;
+    }
+
+    public void setBoundResources(List<String> resourceIds) {
+        this.boundResources = resourceIds;
+    }
+
     /**
      * creates a unique ID, possibly a UUID, mostly for use as an IQ id.
      * 
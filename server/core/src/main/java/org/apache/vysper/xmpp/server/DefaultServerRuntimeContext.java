@@ -57,8 +57,8 @@ import org.apache.vysper.xmpp.server.components.SimpleComponentRegistry;
 import org.apache.vysper.xmpp.server.s2s.DefaultXMPPServerConnectorRegistry;
 import org.apache.vysper.xmpp.server.s2s.XMPPServerConnectorRegistry;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.state.presence.ConcurrentPresenceCache;
 import org.apache.vysper.xmpp.state.presence.LatestPresenceCache;
-import org.apache.vysper.xmpp.state.presence.SimplePresenceCache;
 import org.apache.vysper.xmpp.state.resourcebinding.DefaultResourceRegistry;
 import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
 import org.apache.vysper.xmpp.uuid.JVMBuiltinUUIDGenerator;
@@ -117,7 +117,7 @@ public class DefaultServerRuntimeContext implements InternalServerRuntimeContext
     /**
      * holds the latest presence stanza for a resource
      */
-    private LatestPresenceCache presenceCache = new SimplePresenceCache();
+    private LatestPresenceCache presenceCache = new ConcurrentPresenceCache();
 
     private final XMPPServerConnectorRegistry serverConnectorRegistry;
 
@@ -209,6 +209,7 @@ public class DefaultServerRuntimeContext implements InternalServerRuntimeContext
         return "en_US"; // TODO must be configurable as of RFC3920
     }
 
+    @Override
     public StanzaRelay getStanzaRelay() {
         return stanzaRelay;
     }
@@ -19,6 +19,8 @@
  */
 package org.apache.vysper.xmpp.server;
 
+import java.util.List;
+
 import org.apache.vysper.xmpp.writer.StanzaWriter;
 
 /**
@@ -30,4 +32,17 @@ public interface InternalSessionContext extends SessionContext {
 
     StanzaWriter getResponseWriter();
 
+    /**
+     * the resource ids bound to this session, as last published by the resource registry.
+     * lets the session's stanzas be checked without asking the registry.
+     * @return NULL, if the registry does not publish the session's resources
+     */
+    List<String> getBoundResources();
+
+    /**
+     * called by the resource registry whenever the resources bound to this session change
+     * @param resourceIds immutable list of resource ids
+     */
+    void setBoundResources(List<String> resourceIds);
+
 }
@@ -28,6 +28,7 @@ import org.apache.vysper.event.EventBus;
 import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.authentication.UserAuthentication;
+import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
@@ -79,5 +80,7 @@ public interface ServerRuntimeContext {
 
     EventBus getEventBus();
 
+    StanzaRelay getStanzaRelay();
+
     List<StanzaHandlerInterceptor> getStanzaHandlerInterceptors();
 }
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.vysper.mina.TCPEndpoint;
 import org.apache.vysper.storage.StorageProviderRegistry;
 import org.apache.vysper.storage.logstanzas.LogStorageProvider;
 import org.apache.vysper.xmpp.addressing.EntityFormatException;
@@ -41,6 +42,7 @@ import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
 import org.apache.vysper.xmpp.delivery.StanzaRelayBroker;
 import org.apache.vysper.xmpp.delivery.inbound.DeliveringExternalInboundStanzaRelay;
 import org.apache.vysper.xmpp.delivery.inbound.DeliveringInternalInboundStanzaRelay;
+import org.apache.vysper.xmpp.delivery.overflow.StanzaQueueLimit;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.extension.xep0059_result_set_management.ResultSetManagementModule;
 import org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage.OfflineStorageProvider;
@@ -53,6 +55,7 @@ import org.apache.vysper.xmpp.protocol.StanzaHandlerExecutorFactory;
 import org.apache.vysper.xmpp.protocol.StanzaProcessor;
 import org.apache.vysper.xmpp.server.components.AlterableComponentRegistry;
 import org.apache.vysper.xmpp.server.components.SimpleComponentRegistry;
+import org.apache.vysper.xmpp.server.resources.ExecutionMode;
 import org.apache.vysper.xmpp.state.resourcebinding.DefaultResourceRegistry;
 import org.apache.vysper.xmpp.state.resourcebinding.InternalResourceRegistry;
 
@@ -96,6 +99,12 @@ public class XMPPServer {
 
     private int maxExternalRelayThreads = -1;
 
+    private StanzaQueueLimit internalRelayQueueLimit = null;
+
+    private StanzaQueueLimit externalRelayQueueLimit = null;
+
+    private ExecutionMode executionMode = ExecutionMode.THREAD_POOL;
+
     public XMPPServer(String domain) {
         if (StringUtils.isBlank(domain)) {
             throw new IllegalArgumentException("server domain cannot be blank, empty or NULL");
@@ -151,6 +160,31 @@ public class XMPPServer {
         this.maxExternalRelayThreads = maxExternalRelayThreads;
     }
 
+    /**
+     * bounds the stanzas waiting for delivery to local receivers, see {@link StanzaQueueLimit} for the default
+     */
+    public void setInternalRelayQueueLimit(StanzaQueueLimit internalRelayQueueLimit) {
+        this.internalRelayQueueLimit = internalRelayQueueLimit;
+    }
+
+    /**
+     * bounds the stanzas waiting for delivery to other servers, see {@link StanzaQueueLimit} for the default
+     */
+    public void setExternalRelayQueueLimit(StanzaQueueLimit externalRelayQueueLimit) {
+        this.externalRelayQueueLimit = externalRelayQueueLimit;
+    }
+
+    /**
+     * selects the threads handlers and relays run on, see {@link ExecutionMode}. with virtual threads, the relays'
+     * thread counts don't apply, and TCP endpoints process their sessions' stanzas on virtual threads, too.
+     * @throws UnsupportedOperationException if the runtime doesn't support the mode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) throw new IllegalArgumentException("execution mode must not be null");
+        executionMode.checkSupported();
+        this.executionMode = executionMode;
+    }
+
     public void addEndpoint(Endpoint endpoint) {
         endpoints.add(endpoint);
     }
@@ -192,10 +226,19 @@ public class XMPPServer {
                 serverEntity, resourceRegistry, componentRegistry, accountManagement);
         DeliveringExternalInboundStanzaRelay externalStanzaRelay = new DeliveringExternalInboundStanzaRelay();
 
-        if (maxInternalRelayThreads >= 0)
-            internalStanzaRelay.setMaxThreadCount(maxInternalRelayThreads);
-        if (maxExternalRelayThreads >= 0)
-            externalStanzaRelay.setMaxThreadCount(maxExternalRelayThreads);
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            internalStanzaRelay.setExecutionMode(executionMode);
+            externalStanzaRelay.setExecutionMode(executionMode);
+        } else {
+            if (maxInternalRelayThreads >= 0)
+                internalStanzaRelay.setMaxThreadCount(maxInternalRelayThreads);
+            if (maxExternalRelayThreads >= 0)
+                externalStanzaRelay.setMaxThreadCount(maxExternalRelayThreads);
+        }
+        if (internalRelayQueueLimit != null)
+            internalStanzaRelay.setQueueLimit(internalRelayQueueLimit);
+        if (externalRelayQueueLimit != null)
+            externalStanzaRelay.setQueueLimit(externalRelayQueueLimit);
 
         stanzaRelayBroker = new StanzaRelayBroker();
         stanzaRelayBroker.setInternalRelay(internalStanzaRelay);
@@ -234,6 +277,9 @@ public class XMPPServer {
         for (Endpoint endpoint : endpoints) {
             endpoint.setServerRuntimeContext(serverRuntimeContext);
             endpoint.setStanzaProcessor(stanzaProcessor);
+            if (executionMode == ExecutionMode.VIRTUAL_THREADS && endpoint instanceof TCPEndpoint) {
+                ((TCPEndpoint) endpoint).setExecutionMode(executionMode);
+            }
             endpoint.start();
         }
     }
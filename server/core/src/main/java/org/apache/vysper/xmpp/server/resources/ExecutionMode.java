@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.server.resources;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * selects the threads the server runs handlers and relays stanzas on.
+ * <br/>
+ * with {@link #THREAD_POOL}, every stage has its pool of platform threads. a handler blocking on storage
+ * holds one of the pool's threads, so blocking calls limit the throughput to the pool size.
+ * with {@link #VIRTUAL_THREADS}, every task gets a virtual thread of its own. a blocking call only parks
+ * the virtual thread. ordering per session or receiver is kept by the lanes the tasks are queued in.
+ * virtual threads need a Java 21 runtime, they are looked up reflectively so the server still runs on
+ * older runtimes with the thread pools.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public enum ExecutionMode {
+
+    THREAD_POOL,
+
+    VIRTUAL_THREADS;
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    /**
+     * @return TRUE, if the runtime can start virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * fails early when a mode can't be used on this runtime
+     * @throws UnsupportedOperationException for {@link #VIRTUAL_THREADS} on runtimes before Java 21
+     */
+    public void checkSupported() {
+        if (this == VIRTUAL_THREADS && !isVirtualThreadsSupported()) {
+            throw new UnsupportedOperationException("virtual threads require Java 21 or later, running on Java "
+                    + System.getProperty("java.version"));
+        }
+    }
+
+    /**
+     * @param namePrefix the virtual threads are named by the prefix and a counter
+     * @return executor starting a new virtual thread for every task
+     * @throws UnsupportedOperationException on runtimes before Java 21
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        VIRTUAL_THREADS.checkSupported();
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            // Executors.newThreadPerTaskExecutor(threadFactory)
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                    ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("failed to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * @return Thread.ofVirtual(), NULL if the runtime doesn't have it or it is a disabled preview feature
+     */
+    private static Method findOfVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.server.resources;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * executes tasks in 'lanes'. all tasks submitted for the same key run one after the other, in submission
+ * order, while tasks for different keys run in parallel on the underlying executor.
+ * a lane only exists while it has pending work, so idle keys do not cost any memory.
+ * <br/>
+ * to keep one busy lane from starving the others, a lane gives its thread back to the executor after
+ * running a batch of tasks and re-schedules itself.
+ * <br/>
+ * on shutdown, no new tasks are accepted, but all tasks already queued in lanes still run.
+ * <br/>
+ * lanes are scheduled while holding their lock, an executor running them on the calling thread blocks other
+ * threads queuing tasks for the same key meanwhile.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class LaneExecutor<K> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LaneExecutor.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final ConcurrentMap<K, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final AtomicLong completedTaskCount = new AtomicLong();
+
+    private final int batchSize;
+
+    private volatile ExecutorService executor;
+
+    /**
+     * creates lanes running on a work-stealing pool with one thread per available core
+     */
+    public LaneExecutor() {
+        this(createWorkStealingPool(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public LaneExecutor(ExecutorService executor) {
+        this(executor, DEFAULT_BATCH_SIZE);
+    }
+
+    public LaneExecutor(ExecutorService executor, int batchSize) {
+        if (executor == null) throw new IllegalArgumentException("executor must not be null");
+        if (batchSize < 1) throw new IllegalArgumentException("batch size must be positive");
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    public static ForkJoinPool createWorkStealingPool(int parallelism) {
+        // async mode: lanes are never joined, FIFO scheduling fits them better
+        return new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * queues the task at the end of the key's lane
+     * @throws RejectedExecutionException if the underlying executor does not accept work anymore
+     */
+    public void execute(K key, Runnable task) {
+        if (key == null || task == null) throw new NullPointerException();
+        if (executor.isShutdown()) throw new RejectedExecutionException("lane executor has been shut down");
+        while (true) {
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                Lane newLane = new Lane(key);
+                lane = lanes.putIfAbsent(key, newLane);
+                if (lane == null) lane = newLane;
+            }
+            // a lane which just ran dry is retired and must not take new work, retry with a fresh one
+            if (lane.offer(task)) return;
+        }
+    }
+
+    /**
+     * @return number of tasks waiting in the key's lane, not counting the one currently running
+     */
+    public int getLaneDepth(K key) {
+        Lane lane = lanes.get(key);
+        return lane == null ? 0 : lane.depth();
+    }
+
+    /**
+     * @return snapshot of the depth of every lane which currently has work
+     */
+    public Map<K, Integer> getLaneDepths() {
+        Map<K, Integer> depths = new HashMap<>();
+        for (Lane lane : lanes.values()) {
+            depths.put(lane.key, lane.depth());
+        }
+        return depths;
+    }
+
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * moves all future lane scheduling to another executor. lanes already scheduled on the old executor
+     * complete their current batch there, ordering within lanes is not affected.
+     * @return the previous executor, which the caller is responsible for shutting down
+     */
+    public ExecutorService setExecutor(ExecutorService executor) {
+        if (executor == null) throw new IllegalArgumentException("executor must not be null");
+        ExecutorService previous = this.executor;
+        this.executor = executor;
+        return previous;
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * stops accepting new tasks. tasks already queued in lanes are still run, see
+     * {@link #awaitTermination(long, TimeUnit)} for waiting on them.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * blocks until all lanes have run dry and the executor has terminated after {@link #shutdown()},
+     * or the timeout elapses.
+     * @return TRUE if all queued tasks have been run, FALSE if the timeout elapsed before
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!executor.awaitTermination(timeout, unit)) return false;
+        // lanes draining on the calling thread of a rejected re-schedule may outlive the executor
+        while (!lanes.isEmpty()) {
+            if (System.nanoTime() - deadline >= 0) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private final class Lane implements Runnable {
+
+        private final K key;
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        private boolean scheduled = false;
+
+        private boolean retired = false;
+
+        private Lane(K key) {
+            this.key = key;
+        }
+
+        private synchronized boolean offer(Runnable task) {
+            if (retired) return false;
+            tasks.add(task);
+            if (scheduled) return true;
+            scheduled = true;
+            // scheduled under the lock, so no other task joins the lane before it is known to be accepted
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // only this task is queued, an unscheduled lane has run dry before
+                tasks.clear();
+                scheduled = false;
+                retired = true;
+                lanes.remove(key, this);
+                throw e;
+            }
+            return true;
+        }
+
+        private synchronized int depth() {
+            return tasks.size();
+        }
+
+        public void run() {
+            for (int i = 0; i < batchSize; i++) {
+                if (!runNext()) return;
+            }
+            // batch used up, let other lanes have a go before continuing
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // shutting down, the queued tasks have been accepted and are run here instead of being dropped
+                LOG.debug("executor is not accepting work, draining lane {} on the current thread", key);
+                while (runNext()) {
+                    // keep going until the lane has run dry
+                }
+            }
+        }
+
+        /**
+         * @return FALSE if the lane has run dry and has been retired
+         */
+        private boolean runNext() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+                if (task == null) {
+                    retired = true;
+                    lanes.remove(key, this);
+                    return false;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.warn("task failed in lane {}", key, e);
+            } finally {
+                completedTaskCount.incrementAndGet();
+            }
+            return true;
+        }
+    }
+}
@@ -21,8 +21,16 @@ package org.apache.vysper.xmpp.server.resources;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.apache.vysper.xmpp.delivery.overflow.StanzaQueueLimit;
+
 /**
  * customizes and reports info about a thread pool
  */
@@ -38,4 +46,40 @@ public class ManagedThreadPoolUtil {
         writer.append("queued=\t\t").append(Integer.toString(pool.getQueue().size())).append("\n");
         writer.append("completed=\t").append(Long.toString(pool.getCompletedTaskCount())).append("\n");
     }
+
+    public static void writeForkJoinPoolInfo(Writer writer, ForkJoinPool pool) throws IOException {
+        writer.append("parallelism=\t").append(Integer.toString(pool.getParallelism())).append("\n");
+        writer.append("pool=\t\t").append(Integer.toString(pool.getPoolSize())).append("\n");
+        writer.append("active=\t\t").append(Integer.toString(pool.getActiveThreadCount())).append("\n");
+        writer.append("running=\t").append(Integer.toString(pool.getRunningThreadCount())).append("\n");
+        writer.append("queued=\t\t").append(Long.toString(pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount()))
+                .append("\n");
+        writer.append("steals=\t\t").append(Long.toString(pool.getStealCount())).append("\n");
+    }
+
+    /**
+     * writes the number of lanes and the deepest lanes, which point to the hottest keys
+     */
+    public static <K> void writeLaneInfo(Writer writer, LaneExecutor<K> lanes, int maxListedLanes) throws IOException {
+        List<Map.Entry<K, Integer>> depths = new ArrayList<>(lanes.getLaneDepths().entrySet());
+        Collections.sort(depths, new Comparator<Map.Entry<K, Integer>>() {
+            public int compare(Map.Entry<K, Integer> first, Map.Entry<K, Integer> second) {
+                return second.getValue().compareTo(first.getValue());
+            }
+        });
+        writer.append("lanes=\t\t").append(Integer.toString(depths.size())).append("\n");
+        writer.append("completed=\t").append(Long.toString(lanes.getCompletedTaskCount())).append("\n");
+        for (Map.Entry<K, Integer> depth : depths.subList(0, Math.min(maxListedLanes, depths.size()))) {
+            writer.append("lane=\t\t").append(String.valueOf(depth.getKey())).append("\t")
+                    .append(Integer.toString(depth.getValue())).append("\n");
+        }
+    }
+
+    public static void writeQueueLimitInfo(Writer writer, StanzaQueueLimit limit) throws IOException {
+        writer.append("queueCapacity=\t").append(Integer.toString(limit.getCapacity())).append("\n");
+        writer.append("queueDepth=\t").append(Integer.toString(limit.getDepth())).append("\n");
+        writer.append("shed=\t\t").append(Long.toString(limit.getShedCount())).append("\n");
+        writer.append("deferred=\t").append(Long.toString(limit.getDeferredCount())).append("\n");
+        writer.append("blocked=\t").append(Long.toString(limit.getBlockedCount())).append("\n");
+    }
 }
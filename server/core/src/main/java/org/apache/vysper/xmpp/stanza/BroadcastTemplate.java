@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.stanza;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.Utf8Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+
+/**
+ * a stanza which is sent to many receivers, differing only in the 'to' attribute.
+ * <p>
+ * the stanzas created by {@link #createFor(Entity)} carry a reference to this template. the template is
+ * rendered only once, when the first of these stanzas is encoded. every further stanza is encoded by
+ * copying the shared pre-rendered bytes and patching in the 'to' attribute value.
+ * if a stanza is altered before it is written, it is a new stanza object which does not refer to the template
+ * anymore and is rendered the usual way.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class BroadcastTemplate {
+
+    /**
+     * stands in for the 'to' value while rendering. NUL characters are not allowed in XML, so this cannot
+     * appear anywhere else in the stanza
+     */
+    private static final String TO_PLACEHOLDER = "\u0000broadcast-to\u0000";
+
+    private static final byte[] TO_PLACEHOLDER_BYTES = TO_PLACEHOLDER.getBytes(Charset.forName("UTF-8"));
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Stanza prototype;
+
+    /**
+     * position of the 'to' attribute in the prototype's attributes
+     */
+    private final int toIndex;
+
+    /**
+     * rendered bytes before and after the 'to' value, set together on first use
+     */
+    private volatile byte[][] renderedParts;
+
+    /**
+     * @param original - the stanza to broadcast. any 'to' attribute is replaced for each receiver
+     * @param replacingAttributes - other attributes to replace or add, for example 'from', may be null
+     */
+    public BroadcastTemplate(Stanza original, List<Attribute> replacingAttributes) {
+        if (original == null) throw new IllegalArgumentException("original stanza must not be null");
+        List<Attribute> replacements = new ArrayList<Attribute>();
+        if (replacingAttributes != null) {
+            for (Attribute replacingAttribute : replacingAttributes) {
+                if (replacingAttribute != null && !"to".equals(replacingAttribute.getName())) {
+                    replacements.add(replacingAttribute);
+                }
+            }
+        }
+        replacements.add(new Attribute("to", TO_PLACEHOLDER));
+        this.prototype = StanzaBuilder.createClone(original, true, replacements).build();
+        this.toIndex = prototype.getAttributes().indexOf(prototype.getAttribute("to"));
+    }
+
+    /**
+     * @return a stanza like the original, addressed to the given receiver. elements are immutable, so
+     * the stanza shares all inner fragments with the template, only the attribute list is its own
+     */
+    public Stanza createFor(Entity to) {
+        List<Attribute> attributes = new ArrayList<Attribute>(prototype.getAttributes());
+        attributes.set(toIndex, new Attribute("to", to.getFullQualifiedName()));
+        Stanza stanza = new Stanza(prototype.getNamespaceURI(), prototype.getName(), prototype.getNamespacePrefix(),
+                attributes, prototype.getInnerFragments(), prototype.getDeclaredNamespaces());
+        stanza.setBroadcastTemplate(this);
+        return stanza;
+    }
+
+    /**
+     * @return the UTF-8 rendered stanza up to the 'to' attribute value (index 0) and following it (index 1),
+     * or NULL if the stanza cannot be rendered as a template
+     */
+    public byte[][] getRenderedParts() {
+        byte[][] parts = renderedParts;
+        if (parts == null) {
+            // racing threads would render the same bytes, no need to lock
+            parts = render();
+            renderedParts = parts;
+        }
+        return parts.length == 2 ? parts : null;
+    }
+
+    private byte[][] render() {
+        IoBuffer buffer = IoBuffer.allocate(256).setAutoExpand(true);
+        Utf8Renderer.render(prototype, buffer);
+        buffer.flip();
+        byte[] rendered = new byte[buffer.remaining()];
+        buffer.get(rendered);
+
+        byte[] placeholder = TO_PLACEHOLDER_BYTES;
+        int index = indexOf(rendered, placeholder, 0);
+        if (index < 0 || indexOf(rendered, placeholder, index + 1) >= 0) {
+            // not exactly one placeholder, always fall back to regular rendering
+            return new byte[][] { EMPTY };
+        }
+        byte[] head = new byte[index];
+        System.arraycopy(rendered, 0, head, 0, head.length);
+        byte[] tail = new byte[rendered.length - index - placeholder.length];
+        System.arraycopy(rendered, index + placeholder.length, tail, 0, tail.length);
+        return new byte[][] { head, tail };
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer: for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -40,6 +40,8 @@ import org.apache.vysper.xmpp.writer.DenseStanzaLogRenderer;
  */
 public class Stanza extends XMLElement {
 
+    private BroadcastTemplate broadcastTemplate;
+
     public Stanza(String namespaceURI, String name, String namespacePrefix, List<Attribute> attributes,
             List<XMLFragment> innerFragments) {
         this(namespaceURI, name, namespacePrefix, attributes, innerFragments, null);
@@ -88,6 +90,17 @@ public class Stanza extends XMLElement {
         return entity;
     }
 
+    /**
+     * @return the template this stanza was created from, if it is part of a broadcast, NULL otherwise
+     */
+    public BroadcastTemplate getBroadcastTemplate() {
+        return broadcastTemplate;
+    }
+
+    void setBroadcastTemplate(BroadcastTemplate broadcastTemplate) {
+        this.broadcastTemplate = broadcastTemplate;
+    }
+
     @Override
     public String toString() {
         return DenseStanzaLogRenderer.render(this);
@@ -50,6 +50,8 @@ abstract public class XMPPCoreStanza extends Stanza {
     public XMPPCoreStanza(Stanza stanza) {
         super(stanza.getNamespaceURI(), stanza.getName(), stanza.getNamespacePrefix(), stanza.getAttributes(), stanza
                 .getInnerFragments());
+        // the wrapper renders the same as the wrapped stanza
+        setBroadcastTemplate(stanza.getBroadcastTemplate());
     }
 
     @Override
@@ -0,0 +1,255 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.state.presence;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.stanza.PresenceStanza;
+
+/**
+ * thread-safe in-memory cache, indexed both by full and by bare JID, so that {@link #get(Entity)} and
+ * {@link #getForBareJID(Entity)} are simple lookups.
+ * <br/>
+ * writes for the resources of one bare JID are serialized on that bare JID's entry only. reads do not lock.
+ * <br/>
+ * optionally, the cache evicts entries older than a time-to-live, and keeps the number of cached
+ * resources below a maximum by evicting the oldest entries first.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class ConcurrentPresenceCache extends AbstractBaseCache {
+
+    private static final int EXPIRY_SWEEP_INTERVAL = 1024;
+
+    private final ConcurrentMap<Entity, Entry> presenceMap = new ConcurrentHashMap<Entity, Entry>();
+
+    private final ConcurrentMap<Entity, Resources> bareJIDMap = new ConcurrentHashMap<Entity, Resources>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // entries in the order they were put, only kept with a maximum. replaced and removed entries stay in
+    // here until they are skipped by eviction or compacted away
+    private final ConcurrentLinkedQueue<Entry> evictionQueue = new ConcurrentLinkedQueue<Entry>();
+
+    private final AtomicInteger evictionQueueSize = new AtomicInteger();
+
+    private final int maxEntries;
+
+    private final long timeToLiveMillis;
+
+    /**
+     * unbounded cache, entries never expire
+     */
+    public ConcurrentPresenceCache() {
+        this(0, 0);
+    }
+
+    /**
+     * @param maxEntries - maximum number of cached resources, 0 for no maximum
+     * @param timeToLiveMillis - entries older than this are evicted, 0 for no expiration
+     */
+    public ConcurrentPresenceCache(int maxEntries, long timeToLiveMillis) {
+        if (maxEntries < 0) throw new IllegalArgumentException("max entries must not be negative");
+        if (timeToLiveMillis < 0) throw new IllegalArgumentException("time to live must not be negative");
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Override
+    protected void put0(Entity entity, PresenceStanza presenceStanza) {
+        Entry entry = new Entry(entity, presenceStanza, sequence.incrementAndGet());
+        Entity bareJID = entity.getBareJID();
+        while (true) {
+            Resources resources = bareJIDMap.get(bareJID);
+            if (resources == null) {
+                Resources newResources = new Resources();
+                resources = bareJIDMap.putIfAbsent(bareJID, newResources);
+                if (resources == null) resources = newResources;
+            }
+            synchronized (resources) {
+                // a concurrent remove might have just discarded this one
+                if (resources.discarded) continue;
+                resources.entries.put(entity, entry);
+                resources.latest = entry;
+                presenceMap.put(entity, entry);
+            }
+            break;
+        }
+
+        if (timeToLiveMillis > 0 && entry.sequence % EXPIRY_SWEEP_INTERVAL == 0) {
+            evictExpired();
+        }
+        if (maxEntries > 0) {
+            evictionQueue.add(entry);
+            if (evictionQueueSize.incrementAndGet() > 2 * maxEntries) {
+                compactEvictionQueue();
+            }
+            while (presenceMap.size() > maxEntries) {
+                if (!evictOldest()) break;
+            }
+        }
+    }
+
+    @Override
+    protected PresenceStanza get0(Entity entity) throws PresenceCachingException {
+        return presenceOf(presenceMap.get(entity));
+    }
+
+    public PresenceStanza getForBareJID(Entity entity) throws PresenceCachingException {
+        if (entity == null) return null;
+        Resources resources = bareJIDMap.get(entity.getBareJID());
+        if (resources == null) return null;
+        return presenceOf(resources.latest);
+    }
+
+    public void remove(Entity entity) {
+        if (entity == null) return;
+        Entry entry = presenceMap.get(entity);
+        if (entry != null) remove(entry);
+    }
+
+    /**
+     * @return number of cached resources
+     */
+    public int size() {
+        return presenceMap.size();
+    }
+
+    /**
+     * removes all entries which have outlived the time-to-live
+     */
+    public void evictExpired() {
+        if (timeToLiveMillis <= 0) return;
+        for (Entry entry : presenceMap.values()) {
+            if (isExpired(entry)) remove(entry);
+        }
+    }
+
+    /**
+     * @return FALSE, if there was nothing left to evict
+     */
+    private boolean evictOldest() {
+        while (true) {
+            Entry entry = evictionQueue.poll();
+            if (entry == null) return false;
+            evictionQueueSize.decrementAndGet();
+            if (isCurrent(entry)) {
+                remove(entry);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * drops replaced and removed entries, so that the queue does not grow while resources keep updating
+     * their presence without the cache ever reaching its maximum
+     */
+    private void compactEvictionQueue() {
+        Iterator<Entry> iterator = evictionQueue.iterator();
+        while (iterator.hasNext()) {
+            if (!isCurrent(iterator.next())) {
+                iterator.remove();
+                evictionQueueSize.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean isCurrent(Entry entry) {
+        return presenceMap.get(entry.entity) == entry;
+    }
+
+    /**
+     * removes the entry, if it is still the current one for its resource
+     */
+    private void remove(Entry entry) {
+        Entity bareJID = entry.entity.getBareJID();
+        Resources resources = bareJIDMap.get(bareJID);
+        if (resources == null) {
+            presenceMap.remove(entry.entity, entry);
+            return;
+        }
+        synchronized (resources) {
+            if (resources.entries.get(entry.entity) != entry) return;
+            resources.entries.remove(entry.entity);
+            presenceMap.remove(entry.entity, entry);
+            if (resources.entries.isEmpty()) {
+                resources.discarded = true;
+                resources.latest = null;
+                bareJIDMap.remove(bareJID, resources);
+            } else if (resources.latest == entry) {
+                Entry latest = null;
+                for (Entry remaining : resources.entries.values()) {
+                    if (latest == null || remaining.sequence > latest.sequence) latest = remaining;
+                }
+                resources.latest = latest;
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return timeToLiveMillis > 0 && System.currentTimeMillis() - entry.timestamp > timeToLiveMillis;
+    }
+
+    private PresenceStanza presenceOf(Entry entry) {
+        if (entry == null) return null;
+        if (isExpired(entry)) {
+            remove(entry);
+            return null;
+        }
+        return entry.presenceStanza;
+    }
+
+    /**
+     * all cached resources of one bare JID
+     */
+    private static class Resources {
+
+        private final Map<Entity, Entry> entries = new HashMap<Entity, Entry>(4);
+
+        private volatile Entry latest;
+
+        private boolean discarded = false;
+    }
+
+    private static class Entry {
+
+        private final Entity entity;
+
+        private final PresenceStanza presenceStanza;
+
+        private final long sequence;
+
+        private final long timestamp = System.currentTimeMillis();
+
+        Entry(Entity entity, PresenceStanza presenceStanza, long sequence) {
+            this.entity = entity;
+            this.presenceStanza = presenceStanza;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -24,10 +24,12 @@ import static org.apache.vysper.xmpp.state.resourcebinding.ResourceState.AVAILAB
 import static org.apache.vysper.xmpp.state.resourcebinding.ResourceState.CONNECTED;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.server.SessionContext;
@@ -39,6 +41,14 @@ import org.slf4j.LoggerFactory;
 
 /**
  * assigns and holds resource ids and their related session
+ * <br/>
+ * all maps are concurrent. the resource lists per entity and per session are immutable and get replaced
+ * atomically on every change (copy-on-write), so binding and unbinding for different users does not
+ * contend, and readers always see a consistent list without taking any lock.
+ * <br/>
+ * a resource id is registered in {@link #boundResources} before it is added to any list, and removed from
+ * the lists before it is removed from {@link #boundResources}. readers following a list to the session
+ * data still have to expect a concurrently unbound resource to be gone.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -50,9 +60,9 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
 
         private final InternalSessionContext context;
 
-        private ResourceState state;
+        private volatile ResourceState state;
 
-        private Integer priority;
+        private volatile Integer priority;
 
         SessionData(InternalSessionContext context, ResourceState status, Integer priority) {
             this.context = context;
@@ -68,20 +78,20 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
      * maps resource id to session. note: two resources may point to the same session, but often this
      * is a 1:1 relationship
      */
-    protected final Map<String, SessionData> boundResources = new HashMap<String, SessionData>();
+    protected final ConcurrentMap<String, SessionData> boundResources = new ConcurrentHashMap<String, SessionData>();
 
     /**
      * an entity's list of resources
      * maps bare JID to all its bound resources. the list of resource ids might not be emtpy, and if there
      * is more than one id, the list usually spans more than 1 session
      */
-    protected final Map<Entity, List<String>> entityResources = new HashMap<Entity, List<String>>();
+    protected final ConcurrentMap<Entity, List<String>> entityResources = new ConcurrentHashMap<Entity, List<String>>();
 
     /**
      * a session's list of resources
      * maps a session to all the resource ids bound to it.
      */
-    protected final Map<SessionContext, List<String>> sessionResources = new HashMap<SessionContext, List<String>>();
+    protected final ConcurrentMap<SessionContext, List<String>> sessionResources = new ConcurrentHashMap<SessionContext, List<String>>();
 
     /**
      * allocates new resource ID for the given session and binds it to the session
@@ -97,37 +107,75 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
         }
         String resourceId = resourceIdGenerator.create();
 
-        synchronized (boundResources) {
-            synchronized (entityResources) {
-                synchronized (sessionResources) {
-                    // record session for the resource id
-                    boundResources.put(resourceId, new SessionData(sessionContext, CONNECTED, 0));
-
-                    Entity initiatingEntity = sessionContext.getInitiatingEntity();
-                    List<String> resourceForEntityList = getResourceList(initiatingEntity);
-                    if (resourceForEntityList == null) {
-                        resourceForEntityList = new ArrayList<String>(1);
-                        entityResources.put(getBareEntity(initiatingEntity), resourceForEntityList);
-                    }
-                    resourceForEntityList.add(resourceId);
-                    logger.info("added resource no. " + resourceForEntityList.size() + " to entity {} <- {}",
-                            initiatingEntity.getFullQualifiedName(), resourceId);
-
-                    List<String> resourcesForSessionList = sessionResources.get(sessionContext);
-                    if (resourcesForSessionList == null) {
-                        resourcesForSessionList = new ArrayList<String>(1);
-                        sessionResources.put(sessionContext, resourcesForSessionList);
-                    }
-                    resourcesForSessionList.add(resourceId);
-                    logger.info("added resource no. " + resourcesForSessionList.size() + " to session {} <- {}",
-                            sessionContext.getSessionId(), resourceId);
-                }
-            }
-        }
+        // record session for the resource id
+        boundResources.put(resourceId, new SessionData(sessionContext, CONNECTED, 0));
+
+        Entity initiatingEntity = sessionContext.getInitiatingEntity();
+        List<String> resourceForEntityList = entityResources.compute(getBareEntity(initiatingEntity),
+                adding(resourceId));
+        logger.info("added resource no. " + resourceForEntityList.size() + " to entity {} <- {}",
+                initiatingEntity.getFullQualifiedName(), resourceId);
+
+        List<String> resourcesForSessionList = updateSessionResources(sessionContext,
+                DefaultResourceRegistry.<SessionContext> adding(resourceId));
+        logger.info("added resource no. " + resourcesForSessionList.size() + " to session {} <- {}",
+                sessionContext.getSessionId(), resourceId);
 
         return resourceId;
     }
 
+    /**
+     * updates the list of resources bound to a session and publishes the new list to the session
+     * @return the updated list, NULL if no resources remain
+     */
+    private List<String> updateSessionResources(SessionContext sessionContext,
+            final BiFunction<SessionContext, List<String>, List<String>> update) {
+        return sessionResources.compute(sessionContext, new BiFunction<SessionContext, List<String>, List<String>>() {
+            public List<String> apply(SessionContext session, List<String> resources) {
+                List<String> updated = update.apply(session, resources);
+                publishSessionResources(session, updated);
+                return updated;
+            }
+        });
+    }
+
+    private static void publishSessionResources(SessionContext sessionContext, List<String> resources) {
+        if (!(sessionContext instanceof InternalSessionContext)) return;
+        List<String> published = resources == null ? Collections.<String> emptyList() : resources;
+        ((InternalSessionContext) sessionContext).setBoundResources(published);
+    }
+
+    /**
+     * @return function replacing a resource list with a copy having the resource id appended
+     */
+    private static <K> BiFunction<K, List<String>, List<String>> adding(final String resourceId) {
+        return new BiFunction<K, List<String>, List<String>>() {
+            public List<String> apply(K key, List<String> resources) {
+                if (resources == null) return Collections.singletonList(resourceId);
+                List<String> copy = new ArrayList<String>(resources.size() + 1);
+                copy.addAll(resources);
+                copy.add(resourceId);
+                return Collections.unmodifiableList(copy);
+            }
+        };
+    }
+
+    /**
+     * @return function replacing a resource list with a copy not having the resource ids,
+     * or removing the list altogether if it becomes empty
+     */
+    private static <K> BiFunction<K, List<String>, List<String>> removing(final Collection<String> resourceIds) {
+        return new BiFunction<K, List<String>, List<String>>() {
+            public List<String> apply(K key, List<String> resources) {
+                if (resources == null) return null;
+                List<String> copy = new ArrayList<String>(resources);
+                copy.removeAll(resourceIds);
+                if (copy.isEmpty()) return null;
+                return copy.size() == resources.size() ? resources : Collections.unmodifiableList(copy);
+            }
+        };
+    }
+
     /**
      * not as commonly used as #unbindSession, this method unbinds only one of multiple resource ids for the _same_
      * session. In XMPP, this is done by sending a stanza like
@@ -137,33 +185,24 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
      * @param resourceId
      */
     public boolean unbindResource(String resourceId) {
-        boolean noResourceRemainsForSession;
-        synchronized (boundResources) {
-            synchronized (entityResources) {
-                synchronized (sessionResources) {
-                    SessionContext sessionContext = getSessionContext(resourceId);
-
-                    // remove from entity's list of resources
-                    List<String> resourceListForEntity = getResourceList(sessionContext.getInitiatingEntity());
-                    if (resourceListForEntity != null) {
-                        resourceListForEntity.remove(resourceId);
-                        if (resourceListForEntity.isEmpty()) {
-                            entityResources.remove(sessionContext.getInitiatingEntity());
-                        }
-                    }
-
-                    // remove from session's list of resources
-                    List<String> resourceListForSession = sessionResources.get(sessionContext);
-                    resourceListForSession.remove(resourceId);
-                    noResourceRemainsForSession = resourceListForSession.isEmpty();
-                    if (noResourceRemainsForSession)
-                        sessionResources.remove(sessionContext);
-
-                    // remove from overall list of bound resource
-                    boundResources.remove(resourceId);
-                }
-            }
+        SessionContext sessionContext = getSessionContext(resourceId);
+        if (sessionContext == null) {
+            throw new IllegalArgumentException("resource not registered: " + resourceId);
         }
+        List<String> removed = Collections.singletonList(resourceId);
+
+        // remove from entity's list of resources
+        entityResources.computeIfPresent(getBareEntity(sessionContext.getInitiatingEntity()),
+                DefaultResourceRegistry.<Entity> removing(removed));
+
+        // remove from session's list of resources
+        List<String> resourceListForSession = updateSessionResources(sessionContext,
+                DefaultResourceRegistry.<SessionContext> removing(removed));
+        boolean noResourceRemainsForSession = resourceListForSession == null;
+
+        // remove from overall list of bound resource
+        boundResources.remove(resourceId);
+
         return noResourceRemainsForSession;
     }
 
@@ -176,27 +215,19 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
         if (unbindingSessionContext == null)
             return;
 
-        synchronized (boundResources) {
-            synchronized (entityResources) {
-                synchronized (sessionResources) {
-                    // collect all remove candidates
-                    List<String> removeResourceIds = getResourcesForSessionInternal(unbindingSessionContext);
-
-                    // actually remove from bound resources
-                    for (String removeResourceId : removeResourceIds) {
-                        boundResources.remove(removeResourceId);
-                    }
-
-                    // actually remove from entity map
-                    List<String> resourceList = getResourceList(unbindingSessionContext.getInitiatingEntity());
-                    if (resourceList != null) {
-                        resourceList.removeAll(removeResourceIds);
-                    }
-
-                    // actually remove from session map
-                    sessionResources.remove(unbindingSessionContext);
-                }
-            }
+        // remove the session's list first, so that no other thread can unbind the same resources
+        List<String> removeResourceIds = sessionResources.remove(unbindingSessionContext);
+        if (removeResourceIds == null)
+            return;
+        publishSessionResources(unbindingSessionContext, null);
+
+        // actually remove from entity map
+        entityResources.computeIfPresent(getBareEntity(unbindingSessionContext.getInitiatingEntity()),
+                DefaultResourceRegistry.<Entity> removing(removeResourceIds));
+
+        // actually remove from bound resources
+        for (String removeResourceId : removeResourceIds) {
+            boundResources.remove(removeResourceId);
         }
     }
 
@@ -213,7 +244,7 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
     }
 
     public List<String> getResourcesForSession(SessionContext sessionContext) {
-        return Collections.unmodifiableList(getResourcesForSessionInternal(sessionContext));
+        return getResourcesForSessionInternal(sessionContext);
     }
 
     /*package*/List<String> getResourcesForSessionInternal(SessionContext sessionContext) {
@@ -264,7 +295,7 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
 
         // if resource should not be considered, return all resources
         if (considerBareID || entity.getResource() == null)
-            return Collections.unmodifiableList(resourceList);
+            return resourceList;
         // resource not contained, result is empty
         if (!resourceList.contains(entity.getResource())) {
             return Collections.emptyList();
@@ -283,7 +314,9 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
 
         List<String> boundResources = getBoundResources(entity, false);
         for (String resourceId : boundResources) {
-            sessionContexts.add(getSessionContext(resourceId));
+            InternalSessionContext sessionContext = getSessionContext(resourceId);
+            if (sessionContext != null)
+                sessionContexts.add(sessionContext);
         }
 
         return sessionContexts;
@@ -354,11 +387,12 @@ public class DefaultResourceRegistry implements InternalResourceRegistry {
                 return results;
             }
 
-            if (sessionData.priority > currentPrio) {
+            Integer priority = sessionData.priority;
+            if (priority > currentPrio) {
                 results.clear(); // discard all accumulated lower prio sessions
-                currentPrio = sessionData.priority;
+                currentPrio = priority;
                 results.add(sessionData.context);
-            } else if (sessionData.priority.intValue() == currentPrio.intValue()) {
+            } else if (priority.intValue() == currentPrio.intValue()) {
                 results.add(sessionData.context);
             }
         }
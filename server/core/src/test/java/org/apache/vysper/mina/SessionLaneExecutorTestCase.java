@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionLaneExecutorTestCase {
+
+    private static final int EVENT_COUNT = 500;
+
+    @Test
+    public void keepsOrderPerSession() throws InterruptedException {
+        SessionLaneExecutor executor = new SessionLaneExecutor(Executors.newFixedThreadPool(4));
+        IoSession session1 = new DummySession();
+        IoSession session2 = new DummySession();
+
+        final List<Integer> executed1 = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> executed2 = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(2 * EVENT_COUNT);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            executor.execute(event(session1, executed1, i, done));
+            executor.execute(event(session2, executed2, i, done));
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            Assert.assertEquals(i, executed1.get(i).intValue());
+            Assert.assertEquals(i, executed2.get(i).intValue());
+        }
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonSessionTasks() {
+        SessionLaneExecutor executor = new SessionLaneExecutor(Executors.newSingleThreadExecutor());
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private IoEvent event(IoSession session, final List<Integer> executed, final int number,
+            final CountDownLatch done) {
+        return new IoEvent(IoEventType.MESSAGE_RECEIVED, session, null) {
+            @Override
+            public void fire() {
+                executed.add(number);
+                done.countDown();
+            }
+        };
+    }
+}
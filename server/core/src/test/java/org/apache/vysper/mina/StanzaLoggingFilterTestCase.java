@@ -0,0 +1,69 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.Arrays;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StanzaLoggingFilterTestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("from@vysper.org/res");
+    private static final Entity TO = EntityImpl.parseUnchecked("to@vysper.org");
+    private static final Entity OTHER = EntityImpl.parseUnchecked("other@vysper.org");
+
+    private StanzaLoggingFilter filter = new StanzaLoggingFilter();
+
+    @Test
+    public void tracesAllByDefault() {
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(filter.isTraced(null, message(FROM, TO)));
+        }
+    }
+
+    @Test
+    public void samples() {
+        filter.setSampleRate(4);
+        int traced = 0;
+        for (int i = 0; i < 100; i++) {
+            if (filter.isTraced(null, message(FROM, TO))) traced++;
+        }
+        Assert.assertEquals(25, traced);
+    }
+
+    @Test
+    public void tracesJIDsWithoutSampling() {
+        filter.setSampleRate(0);
+        filter.setTracedJIDs(Arrays.asList(EntityImpl.parseUnchecked("from@vysper.org")));
+
+        Assert.assertTrue(filter.isTraced(null, message(FROM, TO)));
+        Assert.assertTrue(filter.isTraced(null, message(TO, FROM)));
+        Assert.assertFalse(filter.isTraced(null, message(OTHER, TO)));
+    }
+
+    private static Stanza message(Entity from, Entity to) {
+        return StanzaBuilder.createMessageStanza(from, to, null, "body").build();
+    }
+}
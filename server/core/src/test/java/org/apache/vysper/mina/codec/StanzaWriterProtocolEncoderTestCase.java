@@ -26,6 +26,7 @@ import org.apache.vysper.charset.CharsetUtil;
 import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 import org.junit.Assert;
@@ -93,4 +94,70 @@ public class StanzaWriterProtocolEncoderTestCase {
         Assert.assertEquals(prolog + opening + content, actual);
     }
 
+    @Test
+    public void encodeNonAsciiIntoDirectBuffer() throws Exception {
+        Stanza message = StanzaBuilder.createMessageStanza(FROM, TO, "sv", "räksmörgås € 😀").build();
+        encoder = new StanzaWriterProtocolEncoder(true);
+
+        encoder.encode(ioSession, new StanzaWriteInfo(message, false), output);
+
+        ArgumentCaptor<IoBuffer> bufferCaptor = ArgumentCaptor.forClass(IoBuffer.class);
+
+        Mockito.verify(output).write(bufferCaptor.capture());
+
+        IoBuffer buffer = bufferCaptor.getValue();
+        Assert.assertTrue(buffer.isDirect());
+        String actual = buffer.getString(CharsetUtil.getDecoder());
+
+        Assert.assertEquals(new Renderer(message).getComplete(), actual);
+    }
+
+    @Test
+    public void codecFactoryPassesOnDirectBuffers() throws Exception {
+        encoder = (StanzaWriterProtocolEncoder) new XMPPProtocolCodecFactory(0, true).getEncoder(ioSession);
+
+        encoder.encode(ioSession, new StanzaWriteInfo(stanza, false), output);
+
+        ArgumentCaptor<IoBuffer> bufferCaptor = ArgumentCaptor.forClass(IoBuffer.class);
+
+        Mockito.verify(output).write(bufferCaptor.capture());
+
+        Assert.assertTrue(bufferCaptor.getValue().isDirect());
+    }
+
+    @Test
+    public void encodeBroadcast() throws Exception {
+        BroadcastTemplate template = new BroadcastTemplate(stanza, null);
+        Stanza broadcast = template.createFor(TO);
+
+        encoder.encode(ioSession, new StanzaWriteInfo(broadcast, false), output);
+
+        ArgumentCaptor<IoBuffer> bufferCaptor = ArgumentCaptor.forClass(IoBuffer.class);
+
+        Mockito.verify(output).write(bufferCaptor.capture());
+
+        IoBuffer buffer = bufferCaptor.getValue();
+        String actual = buffer.getString(CharsetUtil.getDecoder());
+
+        Assert.assertNotNull(template.getRenderedParts());
+        Assert.assertEquals(new Renderer(broadcast).getComplete(), actual);
+    }
+
+    @Test
+    public void keepEncoded() throws Exception {
+        StanzaWriteInfo writeInfo = new StanzaWriteInfo(stanza, false);
+        writeInfo.keepEncoded();
+
+        encoder.encode(ioSession, writeInfo, output);
+
+        ArgumentCaptor<IoBuffer> bufferCaptor = ArgumentCaptor.forClass(IoBuffer.class);
+
+        Mockito.verify(output).write(bufferCaptor.capture());
+
+        String actual = bufferCaptor.getValue().getString(CharsetUtil.getDecoder());
+
+        Assert.assertEquals(opening + content + closing, actual);
+        Assert.assertEquals(actual, new String(writeInfo.getEncoded(), "UTF-8"));
+    }
+
 }
@@ -0,0 +1,261 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.logstanzas;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncLogStorageProviderTestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("from@vysper.org");
+    private static final Entity TO = EntityImpl.parseUnchecked("to@vysper.org/res");
+
+    @Test
+    public void logsAllStanzasInOrder() {
+        RecordingLogStorageProvider recording = new RecordingLogStorageProvider(null);
+        AsyncLogStorageProvider provider = new AsyncLogStorageProvider(recording, 128);
+        for (int i = 0; i < 100; i++) {
+            provider.logStanza(TO, message("body " + i));
+        }
+        provider.close();
+
+        Assert.assertEquals(100, recording.bodies.size());
+        Assert.assertEquals("body 0", recording.bodies.get(0));
+        Assert.assertEquals("body 99", recording.bodies.get(99));
+        Assert.assertEquals(0, provider.getDroppedCount());
+        Assert.assertEquals(100, provider.getWrittenCount());
+        Assert.assertFalse(recording.closed);
+    }
+
+    @Test
+    public void closeGivesUpWaitingForBlockedWriter() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingLogStorageProvider recording = new RecordingLogStorageProvider(blocked);
+        AsyncLogStorageProvider provider = new AsyncLogStorageProvider(recording, 4);
+        provider.logStanza(TO, message("body"));
+
+        Assert.assertFalse(provider.close(50, TimeUnit.MILLISECONDS));
+
+        blocked.countDown();
+        Assert.assertTrue(provider.close(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, recording.bodies.size());
+    }
+
+    @Test
+    public void dropsWhenWriterCannotKeepUp() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingLogStorageProvider recording = new RecordingLogStorageProvider(blocked);
+        AsyncLogStorageProvider provider = new AsyncLogStorageProvider(recording, 4);
+
+        // never waits for the blocked writer
+        for (int i = 0; i < 100; i++) {
+            provider.logStanza(TO, message("body " + i));
+        }
+        Assert.assertTrue(provider.getDroppedCount() > 0);
+
+        blocked.countDown();
+        provider.close();
+        Assert.assertEquals(100, provider.getWrittenCount() + provider.getDroppedCount());
+        Assert.assertEquals(provider.getWrittenCount(), recording.bodies.size());
+    }
+
+    @Test
+    public void stanzasOfferedWhileClosingAreCounted() throws InterruptedException {
+        RecordingLogStorageProvider recording = new RecordingLogStorageProvider(null);
+        final AsyncLogStorageProvider provider = new AsyncLogStorageProvider(recording, 64 * 1024);
+        final int perProducer = 5000;
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < perProducer; i++) {
+                        provider.logStanza(TO, message("body " + i));
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        started.await();
+        Assert.assertTrue(provider.close(30, TimeUnit.SECONDS));
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // every stanza is either logged or dropped, none is left behind in the buffer
+        Assert.assertEquals(4 * perProducer, provider.getWrittenCount() + provider.getDroppedCount());
+        Assert.assertEquals(provider.getWrittenCount(), recording.bodies.size());
+    }
+
+    @Test
+    public void ringBufferHandsOutEachElementOnce() throws InterruptedException {
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(64);
+        final int perProducer = 10000;
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            final int offset = p * perProducer;
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(offset + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        boolean[] seen = new boolean[4 * perProducer];
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received < seen.length && System.nanoTime() < deadline) {
+            Integer element = buffer.poll();
+            if (element == null) continue;
+            Assert.assertFalse(seen[element]);
+            seen[element] = true;
+            received++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Assert.assertEquals(seen.length, received);
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void jsonlSegmentsAreRotated() throws IOException {
+        File directory = Files.createTempDirectory("stanzalog").toFile();
+        try {
+            JsonlSegmentLogStorageProvider segments = new JsonlSegmentLogStorageProvider(directory, 300, 2, true,
+                    false, false);
+            AsyncLogStorageProvider provider = new AsyncLogStorageProvider(segments);
+            for (int i = 0; i < 10; i++) {
+                provider.logStanza(TO, message("say \"" + i + "\"\n"));
+            }
+            provider.close();
+            segments.close();
+
+            Assert.assertEquals(2, directory.list().length);
+            File newest = null;
+            for (File file : directory.listFiles()) {
+                if (newest == null || sequence(file) > sequence(newest)) newest = file;
+            }
+            List<String> lines = Files.readAllLines(newest.toPath(), StandardCharsets.UTF_8);
+            String last = lines.get(lines.size() - 1);
+            Assert.assertTrue(last, last.startsWith("{\"time\":"));
+            Assert.assertTrue(last, last.contains("\"from\":\"from@vysper.org\",\"to\":\"to@vysper.org/res\""));
+            Assert.assertTrue(last, last.contains("say \\\"9\\\"\\n"));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void jsonlSegmentIsReopenedAfterFailure() throws IOException {
+        File directory = Files.createTempDirectory("stanzalog").toFile();
+        File blocking = new File(directory, "stanzas.3.jsonl");
+        try {
+            JsonlSegmentLogStorageProvider segments = new JsonlSegmentLogStorageProvider(directory, 1, 4, true,
+                    false, false);
+            // every stanza starts a new segment
+            segments.logStanza(TO, message("first"));
+            segments.logStanza(TO, message("second"));
+
+            // the next segment can't be created while a directory is in its place
+            Assert.assertTrue(blocking.mkdir());
+            segments.logStanza(TO, message("lost"));
+            Assert.assertTrue(blocking.delete());
+
+            segments.logStanza(TO, message("third"));
+            segments.close();
+            segments.logStanza(TO, message("after close"));
+            segments.flush();
+
+            List<String> lines = Files.readAllLines(blocking.toPath(), StandardCharsets.UTF_8);
+            Assert.assertEquals(1, lines.size());
+            Assert.assertTrue(lines.get(0), lines.get(0).contains(">third<"));
+            Assert.assertFalse(new File(directory, "stanzas.4.jsonl").exists());
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static long sequence(File segment) {
+        return Long.parseLong(segment.getName().replaceAll("\\D", ""));
+    }
+
+    private static Stanza message(String body) {
+        return StanzaBuilder.createMessageStanza(FROM, TO, null, body).build();
+    }
+
+    private static class RecordingLogStorageProvider extends AbstractBodyTextLogStorageProvider implements
+            java.io.Closeable {
+
+        private final CountDownLatch blocked;
+
+        private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+        private volatile boolean closed = false;
+
+        RecordingLogStorageProvider(CountDownLatch blocked) {
+            this.blocked = blocked;
+        }
+
+        @Override
+        protected void logText(Entity from, Entity to, String message) {
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            bodies.add(message);
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.addressing;
+
+import junit.framework.TestCase;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class EntityCacheTestCase extends TestCase {
+
+    private EntityCache cache = new EntityCache(4);
+
+    public void testGetPut() {
+        EntityImpl entity = EntityImpl.parseUnchecked("romeo@vysper.org");
+        assertNull(cache.get("romeo@vysper.org"));
+        cache.put("romeo@vysper.org", entity);
+        assertSame(entity, cache.get("romeo@vysper.org"));
+    }
+
+    public void testBounded() {
+        for (int i = 0; i < 100; i++) {
+            cache.put("user" + i + "@vysper.org", new EntityImpl("user" + i, "vysper.org", null));
+            assertTrue(cache.size() <= 4);
+        }
+        assertNotNull(cache.get("user99@vysper.org"));
+        assertNull(cache.get("user0@vysper.org"));
+    }
+
+    public void testFrequentlyUsedEntriesSurvive() {
+        EntityImpl romeo = EntityImpl.parseUnchecked("romeo@vysper.org");
+        cache.put("romeo@vysper.org", romeo);
+        for (int i = 0; i < 100; i++) {
+            cache.put("user" + i + "@vysper.org", new EntityImpl("user" + i, "vysper.org", null));
+            assertSame(romeo, cache.get("romeo@vysper.org"));
+        }
+    }
+
+    public void testClear() {
+        cache.put("romeo@vysper.org", EntityImpl.parseUnchecked("romeo@vysper.org"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("romeo@vysper.org"));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.addressing;
+
+import junit.framework.TestCase;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class EntityImplTestCase extends TestCase {
+
+    private void assertParsed(String node, String domain, String resource, String entity) throws Exception {
+        EntityImpl parsed = EntityImpl.parseUncached(entity);
+        assertEquals(node, parsed.getNode());
+        assertEquals(domain, parsed.getDomain());
+        assertEquals(resource, parsed.getResource());
+    }
+
+    private void assertFormatException(String entity) {
+        try {
+            EntityImpl.parseUncached(entity);
+            fail("Must throw EntityFormatException for " + entity);
+        } catch (EntityFormatException e) {
+            // expected
+        }
+    }
+
+    public void testParse() throws Exception {
+        assertParsed(null, "vysper.org", null, "vysper.org");
+        assertParsed("user", "vysper.org", null, "user@vysper.org");
+        assertParsed(null, "vysper.org", "res", "vysper.org/res");
+        assertParsed("user", "vysper.org", "res", "user@vysper.org/res");
+        assertParsed("user", "vysper.org", "", "user@vysper.org/");
+        assertParsed("", "vysper.org", null, "@vysper.org");
+    }
+
+    public void testParseResourceWithSpecialCharacters() throws Exception {
+        assertParsed("user", "vysper.org", "res@foo/bar", "user@vysper.org/res@foo/bar");
+        assertParsed(null, "vysper.org", "res@foo", "vysper.org/res@foo");
+    }
+
+    public void testParsePreps() throws Exception {
+        assertParsed("user", "vysper.org", null, "USER@vysper.org");
+    }
+
+    public void testParseInvalid() {
+        assertFormatException(null);
+        assertFormatException("user@");
+        assertFormatException("user@@vysper.org");
+        assertFormatException("user@foo@vysper.org");
+        assertFormatException("user@/res");
+        assertFormatException("contains:colon@vysper.org");
+    }
+
+    public void testParseCached() throws Exception {
+        EntityImpl first = EntityImpl.parse("romeo@vysper.org/orchard");
+        EntityImpl second = EntityImpl.parse("romeo@vysper.org/orchard");
+        assertSame(first, second);
+        assertSame(first.getBareJID(), second.getBareJID());
+        assertEquals(EntityImpl.parseUncached("romeo@vysper.org/orchard"), first);
+        assertEquals(EntityImpl.parseUncached("romeo@vysper.org/orchard").hashCode(), first.hashCode());
+    }
+
+    public void testBareJID() throws Exception {
+        EntityImpl full = EntityImpl.parse("romeo@vysper.org/orchard");
+        assertEquals(new EntityImpl("romeo", "vysper.org", null), full.getBareJID());
+        assertSame(full.getBareJID(), full.getBareJID());
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.apache.vysper.xmpp.delivery;
 
+import java.util.Arrays;
+
 import junit.framework.Assert;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
@@ -29,6 +31,7 @@ import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
 import org.apache.vysper.xmpp.server.ServerFeatures;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 import org.junit.Before;
@@ -127,6 +130,53 @@ public class StanzaRelayBrokerTestCase extends Mockito {
         broker.relay(sessionContext, null, stanza, failureStrategy);
     }
 
+    @Test
+    public void toAllGroupedByDomain() throws DeliveryException {
+        when(serverFeatures.isRelayingToFederationServers()).thenReturn(true);
+        BroadcastTemplate template = new BroadcastTemplate(stanza, null);
+
+        broker.relayToAll(sessionContext, Arrays.asList(INTERNAL, EXTERNAL, COMPONENT_USER), template,
+                failureStrategy);
+
+        verify(internalRelay).relayToAll(sessionContext, Arrays.asList(INTERNAL, COMPONENT_USER), template,
+                failureStrategy);
+        verify(externalRelay).relayToAll(sessionContext, Arrays.asList(EXTERNAL), template, failureStrategy);
+    }
+
+    @Test
+    public void toAllWithoutFederationRelaysNothing() throws DeliveryException {
+        when(serverFeatures.isRelayingToFederationServers()).thenReturn(false);
+        BroadcastTemplate template = new BroadcastTemplate(stanza, null);
+
+        try {
+            broker.relayToAll(sessionContext, Arrays.asList(INTERNAL, EXTERNAL), template, failureStrategy);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // test succeeds
+        }
+        verifyZeroInteractions(internalRelay, externalRelay);
+    }
+
+    @Test
+    public void toAllKeepsInternalFailure() throws DeliveryException {
+        when(serverFeatures.isRelayingToFederationServers()).thenReturn(true);
+        BroadcastTemplate template = new BroadcastTemplate(stanza, null);
+        DeliveryException internalFailure = new DeliveryException("internal");
+        DeliveryException externalFailure = new DeliveryException("external");
+        doThrow(internalFailure).when(internalRelay).relayToAll(sessionContext, Arrays.asList(INTERNAL), template,
+                failureStrategy);
+        doThrow(externalFailure).when(externalRelay).relayToAll(sessionContext, Arrays.asList(EXTERNAL), template,
+                failureStrategy);
+
+        try {
+            broker.relayToAll(sessionContext, Arrays.asList(INTERNAL, EXTERNAL), template, failureStrategy);
+            Assert.fail("DeliveryException expected");
+        } catch (DeliveryException e) {
+            Assert.assertSame(externalFailure, e);
+            Assert.assertSame(internalFailure, e.getSuppressed()[0]);
+        }
+    }
+
     @Test
     public void shutdown() {
         Assert.assertTrue(broker.isRelaying());
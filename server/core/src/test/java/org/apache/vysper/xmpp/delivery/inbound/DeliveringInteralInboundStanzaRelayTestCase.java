@@ -20,10 +20,15 @@
 package org.apache.vysper.xmpp.delivery.inbound;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.apache.vysper.storage.logstanzas.AsyncLogStorageProvider;
+import org.apache.vysper.storage.logstanzas.LogStorageProvider;
 import org.apache.vysper.xml.fragment.XMLSemanticError;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityFormatException;
@@ -33,13 +38,19 @@ import org.apache.vysper.xmpp.authentication.AccountManagement;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
 import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
+import org.apache.vysper.xmpp.delivery.overflow.BlockingOverflowPolicy;
+import org.apache.vysper.xmpp.delivery.overflow.OverflowPolicy;
+import org.apache.vysper.xmpp.delivery.overflow.StanzaQueueLimit;
 import org.apache.vysper.xmpp.protocol.SimpleStanzaHandlerExecutorFactory;
 import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.server.InternalSessionContext;
 import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.server.resources.ExecutionMode;
 import org.apache.vysper.xmpp.server.components.SimpleComponentRegistry;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 import org.apache.vysper.xmpp.state.resourcebinding.BindException;
@@ -57,6 +68,8 @@ public class DeliveringInteralInboundStanzaRelayTestCase extends TestCase {
 
     protected static final EntityImpl FROM_ENTITY = EntityImpl.parseUnchecked("userFrom@vysper.org");
 
+    private static final Entity FAILING_ENTITY = EntityImpl.parseUnchecked("failing@vysper.org");
+
     protected InternalResourceRegistry resourceRegistry = new DefaultResourceRegistry();
 
     protected AccountManagement accountVerification;
@@ -225,6 +238,33 @@ public class DeliveringInteralInboundStanzaRelayTestCase extends TestCase {
         }
     }
 
+    public void testReplacedLogWriterIsClosed() {
+        Stanza stanza = StanzaBuilder.createMessageStanza(FROM_ENTITY, TO_ENTITY, "en", "Hello").build();
+        LogStorageProvider log = mock(LogStorageProvider.class);
+        stanzaRelay.setLogStorageProvider(log);
+        AsyncLogStorageProvider logWriter = (AsyncLogStorageProvider) stanzaRelay.logStorageProvider;
+
+        stanzaRelay.setLogStorageProvider(mock(LogStorageProvider.class));
+        logWriter.logStanza(TO_ENTITY, stanza);
+        assertEquals(1, logWriter.getDroppedCount());
+        assertNotSame(logWriter, stanzaRelay.logStorageProvider);
+
+        AsyncLogStorageProvider ownLogWriter = new AsyncLogStorageProvider(log);
+        stanzaRelay.setLogStorageProvider(ownLogWriter);
+        stanzaRelay.stop();
+        ownLogWriter.logStanza(TO_ENTITY, stanza);
+        assertEquals(0, ownLogWriter.getDroppedCount());
+        ownLogWriter.close();
+        verify(log).logStanza(TO_ENTITY, stanza);
+    }
+
+    public void testUnchangedExecutionModeKeepsThreads() {
+        ExecutorService executor = stanzaRelay.lanes.getExecutor();
+        stanzaRelay.setExecutionMode(ExecutionMode.THREAD_POOL);
+        assertSame(executor, stanzaRelay.lanes.getExecutor());
+        assertFalse(executor.isShutdown());
+    }
+
     public void testSequentialDeliveryOneThread() throws DeliveryException, XMLSemanticError, EntityFormatException {
 
         DefaultServerRuntimeContext serverRuntimeContext = new DefaultServerRuntimeContext(serverEntity,
@@ -267,21 +307,150 @@ public class DeliveringInteralInboundStanzaRelayTestCase extends TestCase {
             stanzaRelay.relay(sessionContext, TO_ENTITY, stanza, null);
         }
 
-        /*
-         * our handling currently does not enforce strict ordered delivery (for example
-         * by session). If stanzas A and B enter the Relay's queue in that order, we
-         * only ensure that processing is started in that order. However, it might as
-         * well happen that B is processed in parallel to A, and even exits before A.
-         */
-
+        // stanzas to the same receiver share one lane, so many threads still deliver them in order
         for (int i = 0; i < STANZA_COUNT; i++) {
             final Stanza nextResponse = sessionContext.getNextRecordedResponse(100);
-            boolean matches = ("" + i)
-                    .equals(nextResponse.getSingleInnerElementsNamed("body").getSingleInnerText().getText());
-            if (!matches)
-                return; // succeed
+            assertEquals("" + i, nextResponse.getSingleInnerElementsNamed("body").getSingleInnerText().getText());
         }
-        Assert.fail("delivered in sequence is unexpected, see VYSPER-337");
     }
 
+    public void testQueueDepthIsPerReceiver() throws DeliveryException {
+        final ExecutorService testExecutorService = Executors.newFixedThreadPool(1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        // occupy the only thread so relayed stanzas stay in their lanes
+        testExecutorService.execute(new Runnable() {
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        DeliveringInternalInboundStanzaRelay relay = new DeliveringInternalInboundStanzaRelay(testExecutorService);
+
+        for (int i = 0; i < 3; i++) {
+            Stanza stanza = StanzaBuilder.createMessageStanza(FROM_ENTITY, TO_ENTITY, "en", "" + i).build();
+            relay.relay(sessionContext, TO_ENTITY, stanza, null);
+        }
+        Stanza stanza = StanzaBuilder.createMessageStanza(TO_ENTITY, FROM_ENTITY, "en", "reply").build();
+        relay.relay(sessionContext, FROM_ENTITY, stanza, null);
+
+        assertEquals(3, relay.getQueueDepth(TO_ENTITY));
+        assertEquals(3, relay.getQueueDepth(EntityImpl.parseUnchecked("userTo@vysper.org/resource")));
+        assertEquals(1, relay.getQueueDepth(FROM_ENTITY));
+        assertEquals(2, relay.getQueueDepths().size());
+
+        blocker.countDown();
+        relay.stop();
+    }
+
+    public void testOverflowIsReturnedToSender() throws DeliveryException {
+        final ExecutorService testExecutorService = Executors.newFixedThreadPool(1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        // occupy the only thread so the relayed stanza keeps its slot
+        testExecutorService.execute(new Runnable() {
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        DeliveringInternalInboundStanzaRelay relay = new DeliveringInternalInboundStanzaRelay(testExecutorService);
+        relay.setQueueLimit(new StanzaQueueLimit(1, new BlockingOverflowPolicy(0)));
+
+        Stanza first = StanzaBuilder.createMessageStanza(FROM_ENTITY, TO_ENTITY, "en", "first").build();
+        relay.relay(sessionContext, TO_ENTITY, first, null);
+
+        RecordingDeliveryFailureStrategy failureStrategy = new RecordingDeliveryFailureStrategy();
+        Stanza second = StanzaBuilder.createMessageStanza(FROM_ENTITY, TO_ENTITY, "en", "second").build();
+        relay.relay(sessionContext, TO_ENTITY, second, failureStrategy);
+
+        assertSame(second, failureStrategy.getRecordedStanza());
+        assertEquals(1, failureStrategy.getRecordedDeliveryException().size());
+        assertTrue(failureStrategy.getRecordedDeliveryException().get(0) instanceof QueueFullException);
+        assertEquals(1, relay.getQueueLimit().getDepth());
+
+        blocker.countDown();
+        relay.stop();
+    }
+
+    public void testRelayToAllContinuesAfterFailingReceiver() throws DeliveryException {
+        ExecutorService testExecutorService = blockedExecutor();
+        DeliveringInternalInboundStanzaRelay relay = new DeliveringInternalInboundStanzaRelay(testExecutorService);
+        relay.setQueueLimit(new StanzaQueueLimit(10, new FailingOverflowPolicy(
+                new DeliveryException("cannot queue"))));
+
+        Stanza stanza = StanzaBuilder.createMessageStanza(FROM_ENTITY, TO_ENTITY, "en", "broadcast").build();
+        try {
+            relay.relayToAll(sessionContext, Arrays.<Entity> asList(TO_ENTITY, FAILING_ENTITY, FROM_ENTITY),
+                    new BroadcastTemplate(stanza, null), null);
+            fail("the failing receiver must be reported");
+        } catch (DeliveryException e) {
+            assertEquals("cannot queue", e.getMessage());
+        }
+        // the receivers around the failing one are queued
+        assertEquals(2, relay.getQueueLimit().getDepth());
+
+        testExecutorService.shutdownNow();
+        relay.stop();
+    }
+
+    public void testRelayToAllGivesBackSlotsOnError() throws DeliveryException {
+        ExecutorService testExecutorService = blockedExecutor();
+        DeliveringInternalInboundStanzaRelay relay = new DeliveringInternalInboundStanzaRelay(testExecutorService);
+        relay.setQueueLimit(new StanzaQueueLimit(10, new FailingOverflowPolicy(new IllegalStateException())));
+
+        Stanza stanza = StanzaBuilder.createMessageStanza(FROM_ENTITY, TO_ENTITY, "en", "broadcast").build();
+        try {
+            relay.relayToAll(sessionContext, Arrays.<Entity> asList(TO_ENTITY, FAILING_ENTITY, FROM_ENTITY),
+                    new BroadcastTemplate(stanza, null), null);
+            fail("the error must be thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, relay.getQueueLimit().getDepth());
+
+        testExecutorService.shutdownNow();
+        relay.stop();
+    }
+
+    /**
+     * @return executor with its only thread occupied, so relayed stanzas keep their slots
+     */
+    private static ExecutorService blockedExecutor() {
+        ExecutorService executorService = Executors.newFixedThreadPool(1);
+        executorService.execute(new Runnable() {
+            public void run() {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return executorService;
+    }
+
+    /**
+     * admits all stanzas, except the ones to FAILING_ENTITY
+     */
+    private static class FailingOverflowPolicy implements OverflowPolicy {
+
+        private final Exception failure;
+
+        FailingOverflowPolicy(Exception failure) {
+            this.failure = failure;
+        }
+
+        public boolean admit(StanzaQueueLimit limit, Entity receiver, Stanza stanza) throws DeliveryException {
+            if (FAILING_ENTITY.equals(receiver)) {
+                if (failure instanceof DeliveryException) throw (DeliveryException) failure;
+                throw (RuntimeException) failure;
+            }
+            return limit.tryAcquire();
+        }
+    }
 }
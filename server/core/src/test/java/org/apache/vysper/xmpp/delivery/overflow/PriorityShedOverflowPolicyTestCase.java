@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
+import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class PriorityShedOverflowPolicyTestCase extends TestCase {
+
+    private static final EntityImpl FROM = EntityImpl.parseUnchecked("from@vysper.org");
+
+    private static final EntityImpl TO = EntityImpl.parseUnchecked("to@vysper.org");
+
+    private final Stanza message = StanzaBuilder.createMessageStanza(FROM, TO, "en", "Hello").build();
+
+    private final Stanza presence = StanzaBuilder.createPresenceStanza(FROM, TO, null, null, null, null).build();
+
+    private final Stanza subscribe = StanzaBuilder
+            .createPresenceStanza(FROM, TO, null, PresenceStanzaType.SUBSCRIBE, null, null).build();
+
+    public void testPresenceIsShedFirst() throws DeliveryException {
+        StanzaQueueLimit limit = new StanzaQueueLimit(4,
+                new PriorityShedOverflowPolicy(0.5f, new BlockingOverflowPolicy(0)));
+
+        assertTrue(limit.enter(TO, presence));
+        assertTrue(limit.enter(TO, presence));
+        // low priority share is used up
+        assertFalse(limit.enter(TO, presence));
+        assertEquals(1, limit.getShedCount());
+
+        // there is still room for messages and subscriptions
+        assertTrue(limit.enter(TO, message));
+        assertTrue(limit.enter(TO, subscribe));
+
+        // full
+        try {
+            limit.enter(TO, message);
+            fail("QueueFullException expected");
+        } catch (QueueFullException e) {
+            // test succeeds
+        }
+        assertEquals(2, limit.getShedCount());
+        assertEquals(4, limit.getDepth());
+    }
+
+    public void testInvalidShare() {
+        try {
+            new PriorityShedOverflowPolicy(1.5f, new BlockingOverflowPolicy());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // test succeeds
+        }
+    }
+}
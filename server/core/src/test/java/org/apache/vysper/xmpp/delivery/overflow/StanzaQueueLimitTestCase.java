@@ -0,0 +1,137 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.delivery.overflow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.stanza.StanzaErrorCondition;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class StanzaQueueLimitTestCase extends TestCase {
+
+    private static final EntityImpl FROM = EntityImpl.parseUnchecked("from@vysper.org");
+
+    private static final EntityImpl TO = EntityImpl.parseUnchecked("to@vysper.org");
+
+    private final Stanza message = StanzaBuilder.createMessageStanza(FROM, TO, "en", "Hello").build();
+
+    private final Stanza presence = StanzaBuilder.createPresenceStanza(FROM, TO, null, null, null, null).build();
+
+    private static class RecordingOfflineReceiver implements OfflineStanzaReceiver {
+
+        private final List<Stanza> received = new ArrayList<Stanza>();
+
+        public void receive(Stanza stanza) {
+            received.add(stanza);
+        }
+    }
+
+    public void testEnterAndLeave() throws DeliveryException {
+        StanzaQueueLimit limit = new StanzaQueueLimit(2, new BlockingOverflowPolicy(0));
+
+        assertTrue(limit.enter(TO, message));
+        assertTrue(limit.enter(TO, message));
+        assertEquals(2, limit.getDepth());
+
+        limit.leave();
+        assertEquals(1, limit.getDepth());
+        assertTrue(limit.enter(TO, message));
+    }
+
+    public void testBlockingShedsAfterWait() throws DeliveryException {
+        StanzaQueueLimit limit = new StanzaQueueLimit(1, new BlockingOverflowPolicy(10));
+
+        assertTrue(limit.enter(TO, message));
+        try {
+            limit.enter(TO, message);
+            fail("QueueFullException expected");
+        } catch (QueueFullException e) {
+            assertEquals(StanzaErrorCondition.RESOURCE_CONSTRAINT, e.getStanzaErrorCondition());
+        }
+        assertEquals(1, limit.getBlockedCount());
+        assertEquals(1, limit.getShedCount());
+        assertEquals(1, limit.getDepth());
+    }
+
+    public void testBlockingAdmitsWhenSlotIsFreed() throws DeliveryException, InterruptedException {
+        final StanzaQueueLimit limit = new StanzaQueueLimit(1, new BlockingOverflowPolicy(10000));
+        assertTrue(limit.enter(TO, message));
+
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // continue
+                }
+                limit.leave();
+            }
+        };
+        consumer.start();
+
+        assertTrue(limit.enter(TO, message));
+        assertEquals(1, limit.getBlockedCount());
+        assertEquals(0, limit.getShedCount());
+        consumer.join();
+    }
+
+    public void testWrappedTaskGivesBackSlot() throws DeliveryException {
+        StanzaQueueLimit limit = new StanzaQueueLimit(1, new BlockingOverflowPolicy(0));
+        assertTrue(limit.enter(TO, message));
+
+        Runnable failing = limit.wrap(new Runnable() {
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        try {
+            failing.run();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // test succeeds
+        }
+        assertEquals(0, limit.getDepth());
+    }
+
+    public void testOfflineDefersMessages() throws DeliveryException {
+        RecordingOfflineReceiver offlineReceiver = new RecordingOfflineReceiver();
+        StanzaQueueLimit limit = new StanzaQueueLimit(1, new OfflineOverflowPolicy(offlineReceiver));
+
+        assertTrue(limit.enter(TO, message));
+        assertFalse(limit.enter(TO, message));
+        assertFalse(limit.enter(TO, presence));
+
+        assertEquals(1, offlineReceiver.received.size());
+        assertSame(message, offlineReceiver.received.get(0));
+        assertEquals(1, limit.getDeferredCount());
+        assertEquals(1, limit.getShedCount());
+    }
+}
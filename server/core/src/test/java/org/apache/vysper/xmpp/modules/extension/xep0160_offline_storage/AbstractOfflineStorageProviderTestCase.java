@@ -22,6 +22,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage;
 import java.util.Collection;
 
 import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
@@ -49,7 +50,7 @@ public class AbstractOfflineStorageProviderTestCase {
     }
     
     @Test
-    public void message() {
+    public void message() throws DeliveryException {
         assertStored((MessageStanzaType)null);
         assertStored(MessageStanzaType.CHAT);
         assertNotStored(MessageStanzaType.GROUPCHAT);
@@ -58,7 +59,7 @@ public class AbstractOfflineStorageProviderTestCase {
     }
 
     @Test
-    public void presence() {
+    public void presence() throws DeliveryException {
         assertStored(PresenceStanzaType.SUBSCRIBE);
         assertStored(PresenceStanzaType.SUBSCRIBED);
         assertStored(PresenceStanzaType.UNSUBSCRIBE);
@@ -68,23 +69,23 @@ public class AbstractOfflineStorageProviderTestCase {
         assertNotStored(PresenceStanzaType.UNAVAILABLE);
     }
     
-    private void assertStored(MessageStanzaType type) {
+    private void assertStored(MessageStanzaType type) throws DeliveryException {
         assertStored("message", type != null ? type.value() : null, true);
     }
     
-    private void assertNotStored(MessageStanzaType type) {
+    private void assertNotStored(MessageStanzaType type) throws DeliveryException {
         assertStored("message", type != null ? type.value() : null, false);
     }
     
-    private void assertStored(PresenceStanzaType type) {
+    private void assertStored(PresenceStanzaType type) throws DeliveryException {
         assertStored("presence", type.value(), true);
     }
     
-    private void assertNotStored(PresenceStanzaType type) {
+    private void assertNotStored(PresenceStanzaType type) throws DeliveryException {
         assertStored("presence", type.value(), false);
     }
     
-    private void assertStored(String stanzaName, String type, boolean stored) {
+    private void assertStored(String stanzaName, String type, boolean stored) throws DeliveryException {
         TestOfflineStorageProvider provider = new TestOfflineStorageProvider();
         
         StanzaBuilder stanzaBuilder = new StanzaBuilder(stanzaName, NamespaceURIs.JABBER_CLIENT);
@@ -0,0 +1,383 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.QueueFullException;
+import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileOfflineStorageProviderTestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("from@vysper.org");
+    private static final Entity TO = EntityImpl.parseUnchecked("to@vysper.org");
+    private static final Entity TO_RESOURCE = EntityImpl.parseUnchecked("to@vysper.org/res");
+    private static final Entity OTHER = EntityImpl.parseUnchecked("other@vysper.org");
+
+    private File directory;
+
+    private FileOfflineStorageProvider provider;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("offline").toFile();
+        provider = new FileOfflineStorageProvider(directory);
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void storeAndGet() throws DeliveryException {
+        Stanza stanza1 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build();
+        provider.receive(stanza1);
+
+        Stanza stanza2 = StanzaBuilder.createPresenceStanza(FROM, TO, null, PresenceStanzaType.SUBSCRIBE, null, null).build();
+        provider.receive(stanza2);
+
+        // Presence errors should not be stored
+        Stanza stanza3 = StanzaBuilder.createPresenceStanza(FROM, TO, null, PresenceStanzaType.ERROR, null, null).build();
+        provider.receive(stanza3);
+
+        Stanza stanza4 = StanzaBuilder.createMessageStanza(FROM, TO_RESOURCE, null, "other body").build();
+        provider.receive(stanza4);
+
+        Stanza stanza5 = StanzaBuilder.createMessageStanza(FROM, OTHER, null, "body").build();
+        provider.receive(stanza5);
+
+        Collection<Stanza> stanzas = provider.getStanzasFor(TO_RESOURCE);
+        Assert.assertEquals(3, stanzas.size());
+        Assert.assertEquals(Arrays.asList(stanza1, stanza2, stanza4), new ArrayList<Stanza>(stanzas));
+
+        // handed out stanzas are gone
+        Assert.assertEquals(0, provider.getStanzasFor(TO).size());
+        Assert.assertEquals(Arrays.asList(stanza5), new ArrayList<Stanza>(provider.getStanzasFor(OTHER)));
+    }
+
+    @Test
+    public void getWithNothingStored() {
+        Collection<Stanza> stanzas = provider.getStanzasFor(TO);
+
+        Assert.assertEquals(0, stanzas.size());
+    }
+
+    @Test
+    public void storedAcrossRestart() throws Exception {
+        Stanza stanza = StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build();
+        provider.receive(stanza);
+        provider.close();
+
+        provider = new FileOfflineStorageProvider(directory);
+        Assert.assertEquals(Arrays.asList(stanza), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+    }
+
+    @Test
+    public void acknowledgedSpoolNotRestored() throws Exception {
+        provider.receive(StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build());
+
+        Collection<Stanza> claimed = provider.getStanzasFor(TO);
+        Assert.assertEquals(1, claimed.size());
+        provider.acknowledge(claimed);
+        provider.close();
+
+        provider = new FileOfflineStorageProvider(directory);
+        Assert.assertEquals(0, provider.getStanzasFor(TO).size());
+    }
+
+    @Test
+    public void unacknowledgedSpoolRestored() throws Exception {
+        Stanza stanza = StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build();
+        provider.receive(stanza);
+
+        // iterated completely, but the delivery was never confirmed
+        Assert.assertEquals(Arrays.asList(stanza), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+        provider.close();
+
+        provider = new FileOfflineStorageProvider(directory);
+        Assert.assertEquals(Arrays.asList(stanza), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+    }
+
+    @Test
+    public void partiallyReadSpoolRestored() throws Exception {
+        Stanza stanza1 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body1").build();
+        Stanza stanza2 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body2").build();
+        provider.receive(stanza1);
+
+        Iterator<Stanza> claimed = provider.getStanzasFor(TO).iterator();
+        Assert.assertTrue(claimed.hasNext());
+        provider.receive(stanza2);
+        provider.close();
+
+        provider = new FileOfflineStorageProvider(directory);
+        Assert.assertEquals(Arrays.asList(stanza1, stanza2), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+    }
+
+    @Test
+    public void unreadableRecordSkipped() throws Exception {
+        Stanza stanza1 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body1").build();
+        Stanza stanza2 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body2").build();
+        provider.receive(stanza1);
+        provider.close();
+
+        byte[] garbage = "<message".getBytes("UTF-8");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(directory.listFiles()[0], true));
+        try {
+            out.writeInt(garbage.length);
+            out.writeLong(System.currentTimeMillis());
+            out.write(garbage);
+        } finally {
+            out.close();
+        }
+
+        provider = new FileOfflineStorageProvider(directory);
+        provider.receive(stanza2);
+        Assert.assertEquals(Arrays.asList(stanza1, stanza2), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+    }
+
+    @Test
+    public void truncatedRecordIgnored() throws Exception {
+        Stanza stanza1 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body1").build();
+        Stanza stanza2 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body2").build();
+        provider.receive(stanza1);
+        provider.receive(stanza2);
+        provider.close();
+
+        File spool = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(spool, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        provider = new FileOfflineStorageProvider(directory);
+        Assert.assertEquals(Arrays.asList(stanza1), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+    }
+
+    @Test
+    public void quota() throws Exception {
+        provider.close();
+        provider = new FileOfflineStorageProvider(directory, FileOfflineStorageProvider.DEFAULT_TIMEOUT, 200);
+
+        List<Stanza> stored = new ArrayList<Stanza>();
+        int rejected = 0;
+        for (int i = 0; i < 10; i++) {
+            Stanza stanza = StanzaBuilder.createMessageStanza(FROM, TO, null, "body" + i).build();
+            try {
+                provider.receive(stanza);
+                stored.add(stanza);
+            } catch (QueueFullException e) {
+                rejected++;
+            }
+        }
+
+        Assert.assertTrue(stored.size() > 0);
+        Assert.assertTrue(rejected > 0);
+        Assert.assertEquals(stored, new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+
+        // the quota is free again once the spool is claimed
+        provider.receive(StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build());
+    }
+
+    @Test(expected = DeliveryException.class)
+    public void storeAfterClose() throws Exception {
+        provider.close();
+        provider.receive(StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build());
+    }
+
+    @Test
+    public void failedWriteIsReported() throws Exception {
+        provider.close();
+        final boolean[] failing = { true };
+        provider = new FileOfflineStorageProvider(directory) {
+            @Override
+            FileChannel openSpool(File file) throws IOException {
+                return new FailingFileChannel(super.openSpool(file), failing[0]);
+            }
+        };
+
+        try {
+            provider.receive(StanzaBuilder.createMessageStanza(FROM, TO, null, "lost").build());
+            Assert.fail("stanza must not be reported as stored");
+        } catch (QueueFullException e) {
+            Assert.fail("not a quota problem");
+        } catch (DeliveryException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        failing[0] = false;
+        Stanza stanza = StanzaBuilder.createMessageStanza(FROM, TO, null, "stored").build();
+        provider.receive(stanza);
+        Assert.assertEquals(Arrays.asList(stanza), new ArrayList<Stanza>(provider.getStanzasFor(TO)));
+    }
+
+    @Test
+    public void expiredStanzasNotReturned() throws Exception {
+        provider.close();
+        provider = new FileOfflineStorageProvider(directory, 50, FileOfflineStorageProvider.DEFAULT_QUOTA);
+
+        provider.receive(StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build());
+        Thread.sleep(100);
+
+        Assert.assertEquals(0, provider.getStanzasFor(TO).size());
+    }
+
+    @Test
+    public void concurrentStores() throws Exception {
+        final int threads = 8;
+        final int perThread = 50;
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            senders.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        try {
+                            provider.receive(StanzaBuilder.createMessageStanza(FROM, TO, null, thread + ":" + i).build());
+                        } catch (DeliveryException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread sender : senders) sender.start();
+        for (Thread sender : senders) sender.join();
+
+        Assert.assertEquals(threads * perThread, provider.getStanzasFor(TO).size());
+    }
+
+    /**
+     * writes through to the spool, but fails to force it to disk
+     */
+    private static class FailingFileChannel extends FileChannel {
+
+        private final FileChannel channel;
+
+        private final boolean failing;
+
+        FailingFileChannel(FileChannel channel, boolean failing) {
+            this.channel = channel;
+            this.failing = failing;
+        }
+
+        public void force(boolean metaData) throws IOException {
+            if (failing) throw new IOException("disk failed");
+            channel.force(metaData);
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
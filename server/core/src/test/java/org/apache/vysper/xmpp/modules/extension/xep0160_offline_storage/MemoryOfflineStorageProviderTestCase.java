@@ -24,6 +24,7 @@ import java.util.Collection;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
@@ -38,7 +39,7 @@ public class MemoryOfflineStorageProviderTestCase {
     private MemoryOfflineStorageProvider provider = new MemoryOfflineStorageProvider();
     
     @Test
-    public void storeAndGet() {
+    public void storeAndGet() throws DeliveryException {
         Stanza stanza1 = StanzaBuilder.createMessageStanza(FROM, TO, null, "body").build();
         provider.receive(stanza1);
         
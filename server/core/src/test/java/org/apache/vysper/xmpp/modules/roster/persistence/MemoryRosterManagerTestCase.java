@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.roster.persistence;
+
+import static org.apache.vysper.xmpp.modules.roster.SubscriptionType.BOTH;
+import static org.apache.vysper.xmpp.modules.roster.SubscriptionType.FROM;
+import static org.apache.vysper.xmpp.modules.roster.SubscriptionType.NONE;
+import static org.apache.vysper.xmpp.modules.roster.SubscriptionType.TO;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.roster.Roster;
+import org.apache.vysper.xmpp.modules.roster.RosterItem;
+
+/**
+ */
+public class MemoryRosterManagerTestCase extends TestCase {
+
+    private static final Entity USER = EntityImpl.parseUnchecked("user@vysper.org");
+
+    private static final Entity OTHER_USER = EntityImpl.parseUnchecked("other@vysper.org");
+
+    private static final Entity CONTACT_FROM = EntityImpl.parseUnchecked("from@vysper.org");
+
+    private static final Entity CONTACT_TO = EntityImpl.parseUnchecked("to@vysper.org");
+
+    private static final Entity CONTACT_BOTH = EntityImpl.parseUnchecked("both@vysper.org");
+
+    private static final Entity CONTACT_NONE = EntityImpl.parseUnchecked("none@vysper.org");
+
+    private MemoryRosterManager rosterManager = new MemoryRosterManager();
+
+    public void testEmptyRoster() throws Exception {
+        Roster roster = rosterManager.retrieve(USER);
+        assertFalse(roster.iterator().hasNext());
+        assertTrue(roster.getPresenceSubscribers().isEmpty());
+        assertTrue(rosterManager.getRosterOwners(USER).isEmpty());
+    }
+
+    public void testPresenceContacts() throws Exception {
+        rosterManager.addContact(USER, new RosterItem(CONTACT_FROM, FROM));
+        rosterManager.addContact(USER, new RosterItem(CONTACT_TO, TO));
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, BOTH));
+        rosterManager.addContact(USER, new RosterItem(CONTACT_NONE, NONE));
+
+        Roster roster = rosterManager.retrieve(new EntityImpl(USER, "resource"));
+        assertEquals(Arrays.asList(CONTACT_FROM, CONTACT_BOTH), roster.getPresenceSubscribers());
+        assertEquals(Arrays.asList(CONTACT_TO, CONTACT_BOTH), roster.getPresenceSubscriptions());
+        assertEquals(CONTACT_NONE, rosterManager.getContact(USER, CONTACT_NONE).getJid());
+    }
+
+    public void testSnapshotNotChanged() throws Exception {
+        rosterManager.addContact(USER, new RosterItem(CONTACT_FROM, FROM));
+        Roster roster = rosterManager.retrieve(USER);
+
+        rosterManager.addContact(USER, new RosterItem(CONTACT_TO, TO));
+        rosterManager.removeContact(USER, CONTACT_FROM);
+
+        Iterator<RosterItem> items = roster.iterator();
+        assertEquals(CONTACT_FROM, items.next().getJid());
+        assertFalse(items.hasNext());
+
+        Roster current = rosterManager.retrieve(USER);
+        assertNull(current.getEntry(CONTACT_FROM));
+        assertEquals(Collections.singletonList(CONTACT_TO), current.getPresenceSubscriptions());
+    }
+
+    public void testReplacedItem() throws Exception {
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, TO));
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, BOTH));
+
+        Roster roster = rosterManager.retrieve(USER);
+        assertEquals(Collections.singletonList(CONTACT_BOTH), roster.getPresenceSubscribers());
+        assertEquals(Collections.singletonList(USER), rosterManager.getRosterOwners(CONTACT_BOTH));
+    }
+
+    public void testRosterOwners() throws Exception {
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, BOTH));
+        rosterManager.addContact(OTHER_USER, new RosterItem(new EntityImpl(CONTACT_BOTH, "resource"), NONE));
+        assertEquals(Arrays.asList(USER, OTHER_USER), rosterManager.getRosterOwners(CONTACT_BOTH));
+
+        rosterManager.removeContact(USER, CONTACT_BOTH);
+        assertEquals(Collections.singletonList(OTHER_USER), rosterManager.getRosterOwners(CONTACT_BOTH));
+
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, NONE));
+        assertEquals(Arrays.asList(OTHER_USER, USER), rosterManager.getRosterOwners(CONTACT_BOTH));
+
+        // changing an item does not add its owner again
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, BOTH));
+        assertEquals(Arrays.asList(OTHER_USER, USER), rosterManager.getRosterOwners(CONTACT_BOTH));
+
+        rosterManager.removeContact(USER, CONTACT_BOTH);
+        rosterManager.removeContact(OTHER_USER, CONTACT_BOTH);
+        assertTrue(rosterManager.getRosterOwners(CONTACT_BOTH).isEmpty());
+    }
+
+    public void testItemsAreCopied() throws Exception {
+        RosterItem added = new RosterItem(CONTACT_BOTH, "before", BOTH, null);
+        rosterManager.addContact(USER, added);
+        Roster roster = rosterManager.retrieve(USER);
+
+        added.setName("changed after adding");
+        rosterManager.getContact(USER, CONTACT_BOTH).setName("changed after retrieving");
+
+        assertEquals("before", roster.getEntry(CONTACT_BOTH).getName());
+        assertEquals("before", roster.iterator().next().getName());
+        assertEquals("before", rosterManager.getContact(USER, CONTACT_BOTH).getName());
+    }
+
+    public void testUsersAreIndependent() throws Exception {
+        rosterManager.addContact(USER, new RosterItem(CONTACT_BOTH, BOTH));
+        rosterManager.addContact(OTHER_USER, new RosterItem(CONTACT_BOTH, NONE));
+
+        rosterManager.removeContact(USER, CONTACT_BOTH);
+        assertNull(rosterManager.getContact(USER, CONTACT_BOTH));
+        assertEquals(CONTACT_BOTH, rosterManager.getContact(OTHER_USER, CONTACT_BOTH).getJid());
+    }
+}
@@ -221,6 +221,30 @@ public class ProtocolWorkerProcessTestCase extends TestCase {
         stanzaHandler.assertHandlerCalled();
     }
 
+    public void testAllowProperFromResourceIdFromRegistry() throws XMLSemanticError, BindException {
+
+        Entity server = sessionContext.getServerRuntimeContext().getServerEntity();
+        sessionContext.setSessionState(SessionState.AUTHENTICATED);
+        sessionContext.setInitiatingEntity(new EntityImpl("charlotte", server.getDomain(), null));
+
+        CallTestStanzaHandler stanzaHandler = new CallTestStanzaHandler("iq", "testNSURI");
+        namespaceHandlerDictionary.register(stanzaHandler);
+
+        String onlyBoundResource = sessionContext.bindResource();
+        // as if the registry did not publish the session's resources
+        sessionContext.setBoundResources(null);
+
+        StanzaBuilder stanzaBuilder = StanzaBuilder.createIQStanza(null, null, IQStanzaType.GET, "test");
+        stanzaBuilder.addAttribute("from",
+                new EntityImpl("charlotte", server.getDomain(), onlyBoundResource).getFullQualifiedName());
+        stanzaBuilder.startInnerElement("query", "testNSURI").endInnerElement();
+
+        protocolWorker.processStanza(sessionContext.getServerRuntimeContext(), sessionContext, stanzaBuilder.build(),
+                sessionStateHolder);
+
+        stanzaHandler.assertHandlerCalled();
+    }
+
     public void testDetectWrongFromResourceId() throws XMLSemanticError, BindException {
 
         Entity server = sessionContext.getServerRuntimeContext().getServerEntity();
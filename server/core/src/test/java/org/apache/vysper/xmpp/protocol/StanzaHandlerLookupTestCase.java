@@ -18,6 +18,7 @@
 package org.apache.vysper.xmpp.protocol;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
@@ -77,6 +78,57 @@ public class StanzaHandlerLookupTestCase extends TestCase {
 
     }
 
+    public void testSealedDictionariesOnlyVerifyMatchingHandlers() {
+        CallTestStanzaHandler handler1 = new CallTestStanzaHandler("testSealed", "testNSURI1");
+        CallTestStanzaHandler handler2 = new CallTestStanzaHandler("testSealed", "testNSURI2");
+        CallTestStanzaHandler otherNameHandler = new CallTestStanzaHandler("testOther", "testNSURI2");
+
+        StanzaHandlerLookup stanzaHandlerLookup = initStanzaHandlerLookup();
+        stanzaHandlerLookup.addDictionary(new NamespaceHandlerDictionary("testNSURI1", handler1));
+        stanzaHandlerLookup.addDictionary(new NamespaceHandlerDictionary("testNSURI2",
+                Arrays.<StanzaHandler> asList(otherNameHandler, handler2)));
+
+        Stanza stanza = new Stanza("testNSURI2", "testSealed", null, new ArrayList<Attribute>(),
+                new ArrayList<XMLFragment>());
+        StanzaHandler handler = stanzaHandlerLookup.getHandler(stanza);
+        assertSame(handler2, handler);
+        assertTrue(handler2.isVerifyCalled());
+        assertFalse("other namespace not verified", handler1.isVerifyCalled());
+        assertFalse("other name not verified", otherNameHandler.isVerifyCalled());
+
+        stanza = new Stanza("testNSURI3", "testSealed", null, new ArrayList<Attribute>(),
+                new ArrayList<XMLFragment>());
+        assertNull(stanzaHandlerLookup.getHandler(stanza));
+        assertFalse(handler1.isVerifyCalled());
+        assertFalse(handler2.isVerifyCalled());
+    }
+
+    public void testUnsealedDictionaryKeepsOrder() {
+        NamespaceHandlerDictionary unsealedDictionary = new NamespaceHandlerDictionary("testNSURI1");
+        CallTestStanzaHandler unsealedHandler = new CallTestStanzaHandler("testOrder", "testNSURI1");
+        unsealedDictionary.register(unsealedHandler);
+        CallTestStanzaHandler sealedHandler = new CallTestStanzaHandler("testOrder", "testNSURI1");
+
+        StanzaHandlerLookup stanzaHandlerLookup = initStanzaHandlerLookup();
+        stanzaHandlerLookup.addDictionary(unsealedDictionary);
+        stanzaHandlerLookup.addDictionary(new NamespaceHandlerDictionary("testNSURI1", sealedHandler));
+
+        Stanza stanza = new Stanza("testNSURI1", "testOrder", null, new ArrayList<Attribute>(),
+                new ArrayList<XMLFragment>());
+        assertSame("first added dictionary wins", unsealedHandler, stanzaHandlerLookup.getHandler(stanza));
+        assertFalse(sealedHandler.isVerifyCalled());
+
+        // a dictionary added later is still asked when no indexed handler verifies the stanza
+        CallTestStanzaHandler laterHandler = new CallTestStanzaHandler("testLater", "testNSURI1");
+        DefaultHandlerDictionary laterDictionary = new DefaultHandlerDictionary();
+        laterDictionary.register(laterHandler);
+        stanzaHandlerLookup.addDictionary(laterDictionary);
+
+        stanza = new Stanza("testNSURI1", "testLater", null, new ArrayList<Attribute>(),
+                new ArrayList<XMLFragment>());
+        assertSame(laterHandler, stanzaHandlerLookup.getHandler(stanza));
+    }
+
     public void testLookupCoreHandlerClientNS() {
         StanzaHandlerLookup stanzaHandlerLookup = initStanzaHandlerLookup();
         stanzaHandlerLookup.addDictionary(new BaseStreamStanzaDictionary());
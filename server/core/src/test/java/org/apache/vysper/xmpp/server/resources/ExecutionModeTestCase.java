@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.server.resources;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ExecutionModeTestCase extends TestCase {
+
+    public void testThreadPoolAlwaysSupported() {
+        ExecutionMode.THREAD_POOL.checkSupported();
+    }
+
+    public void testVirtualThreadExecutor() throws Exception {
+        if (!ExecutionMode.isVirtualThreadsSupported()) {
+            try {
+                ExecutionMode.VIRTUAL_THREADS.checkSupported();
+                fail("virtual threads not available on this runtime");
+            } catch (UnsupportedOperationException e) {
+                // test succeeded
+            }
+            try {
+                ExecutionMode.newVirtualThreadPerTaskExecutor("test-");
+                fail("virtual threads not available on this runtime");
+            } catch (UnsupportedOperationException e) {
+                // test succeeded
+            }
+            return;
+        }
+
+        ExecutionMode.VIRTUAL_THREADS.checkSupported();
+        ExecutorService executor = ExecutionMode.newVirtualThreadPerTaskExecutor("test-");
+        String threadName = executor.submit(new Callable<String>() {
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertTrue(threadName, threadName.startsWith("test-"));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.server.resources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class LaneExecutorTestCase extends TestCase {
+
+    private static final int TASK_COUNT = 1000;
+
+    public void testOrderWithinLane() throws InterruptedException {
+        LaneExecutor<String> lanes = new LaneExecutor<>(Executors.newFixedThreadPool(8), 3);
+
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            final int number = i;
+            lanes.execute("lane", new Runnable() {
+                public void run() {
+                    executed.add(number);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < TASK_COUNT; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+        lanes.shutdown();
+    }
+
+    public void testLanesRunInParallel() throws InterruptedException {
+        LaneExecutor<String> lanes = new LaneExecutor<>(Executors.newFixedThreadPool(2));
+
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSlow = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        lanes.execute("slow", new Runnable() {
+            public void run() {
+                slowStarted.countDown();
+                try {
+                    releaseSlow.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+        lanes.execute("slow", new Runnable() {
+            public void run() {
+            }
+        });
+        lanes.execute("fast", new Runnable() {
+            public void run() {
+                fastDone.countDown();
+            }
+        });
+
+        // the fast lane is not held up by the slow one
+        assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+        assertEquals(1, lanes.getLaneDepth("slow"));
+        assertEquals(0, lanes.getLaneDepth("fast"));
+
+        releaseSlow.countDown();
+        lanes.shutdown();
+    }
+
+    public void testIdleLanesAreRemoved() throws InterruptedException {
+        LaneExecutor<String> lanes = new LaneExecutor<>(Executors.newFixedThreadPool(1));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        lanes.execute("lane", new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        lanes.shutdown();
+        assertTrue(lanes.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, lanes.getLaneCount());
+        assertEquals(1, lanes.getCompletedTaskCount());
+    }
+
+    public void testQueuedTasksRunAfterShutdown() throws InterruptedException {
+        LaneExecutor<String> lanes = new LaneExecutor<>(Executors.newFixedThreadPool(1), 2);
+
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        lanes.execute("lane", new Runnable() {
+            public void run() {
+                firstStarted.countDown();
+                try {
+                    releaseFirst.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+        // more tasks than fit into one batch, the lane has to re-schedule itself after shutdown
+        for (int i = 0; i < 10; i++) {
+            final int number = i;
+            lanes.execute("lane", new Runnable() {
+                public void run() {
+                    executed.add(number);
+                }
+            });
+        }
+        lanes.shutdown();
+        releaseFirst.countDown();
+
+        assertTrue(lanes.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(10, executed.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+        assertEquals(0, lanes.getLaneCount());
+    }
+
+    public void testRejectAfterShutdown() {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        LaneExecutor<String> lanes = new LaneExecutor<>(executor);
+        lanes.shutdown();
+        assertTrue(lanes.isShutdown());
+        try {
+            lanes.execute("lane", new Runnable() {
+                public void run() {
+                }
+            });
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // test succeeds
+        }
+        assertEquals(0, lanes.getLaneDepth("lane"));
+    }
+
+    public void testConcurrentOffersToRejectingPool() throws InterruptedException {
+        // a pool shut down while the lane is being scheduled, it rejects slowly
+        final LaneExecutor<String> lanes = new LaneExecutor<>(new AbstractExecutorService() {
+            public void execute(Runnable command) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new RejectedExecutionException("shut down");
+            }
+
+            public boolean isShutdown() {
+                return false;
+            }
+
+            public boolean isTerminated() {
+                return false;
+            }
+
+            public void shutdown() {
+            }
+
+            public List<Runnable> shutdownNow() {
+                return Collections.emptyList();
+            }
+
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return false;
+            }
+        });
+
+        final int offerCount = 8;
+        final AtomicInteger rejected = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> offering = new ArrayList<Thread>();
+        for (int i = 0; i < offerCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        lanes.execute("lane", new Runnable() {
+                            public void run() {
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        rejected.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            offering.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : offering) {
+            thread.join();
+        }
+
+        // no task is left behind in a lane nobody schedules
+        assertEquals(offerCount, rejected.get());
+        assertEquals(0, lanes.getLaneCount());
+        assertEquals(0, lanes.getLaneDepth("lane"));
+    }
+}
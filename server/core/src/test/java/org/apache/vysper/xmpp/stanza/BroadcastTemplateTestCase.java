@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.stanza;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+
+/**
+ */
+public class BroadcastTemplateTestCase extends TestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("from@vysper.org/res");
+
+    private static final Entity ROOM = EntityImpl.parseUnchecked("room@chat.vysper.org/nick");
+
+    private static final Entity TO1 = EntityImpl.parseUnchecked("to1@vysper.org/res");
+
+    private static final Entity TO2 = EntityImpl.parseUnchecked("to2@vysper.org/rö&s");
+
+    private Stanza original = StanzaBuilder.createMessageStanza(FROM, ROOM, MessageStanzaType.GROUPCHAT, "en",
+            "hällo <world>").build();
+
+    private BroadcastTemplate template = new BroadcastTemplate(original, fromReplacement());
+
+    private List<Attribute> fromReplacement() {
+        List<Attribute> replacements = new ArrayList<Attribute>();
+        replacements.add(new Attribute("from", ROOM.getFullQualifiedName()));
+        return replacements;
+    }
+
+    public void testCreateForIsCloneWithReplacedAttributes() {
+        List<Attribute> replacements = fromReplacement();
+        replacements.add(new Attribute("to", TO1.getFullQualifiedName()));
+        Stanza expected = StanzaBuilder.createClone(original, true, replacements).build();
+
+        Stanza stanza = template.createFor(TO1);
+        assertEquals(expected, stanza);
+        assertEquals(TO1, stanza.getTo());
+        assertEquals(ROOM, stanza.getFrom());
+        assertSame(template, stanza.getBroadcastTemplate());
+        assertNull(original.getBroadcastTemplate());
+    }
+
+    public void testCreateForSharesInnerFragments() {
+        Stanza stanza1 = template.createFor(TO1);
+        Stanza stanza2 = template.createFor(TO2);
+        assertEquals(TO2, stanza2.getTo());
+        assertEquals(1, stanza1.getInnerElements().size());
+        assertSame(stanza1.getInnerElements().get(0), stanza2.getInnerElements().get(0));
+    }
+
+    public void testWrapperKeepsTemplate() {
+        Stanza stanza = template.createFor(TO1);
+        assertSame(template, XMPPCoreStanza.getWrapper(stanza).getBroadcastTemplate());
+    }
+
+    public void testClonesDoNotKeepTemplate() {
+        Stanza stanza = template.createFor(TO1);
+        assertNull(StanzaBuilder.createForward(stanza, FROM, TO2).build().getBroadcastTemplate());
+    }
+
+    public void testRenderedPartsMatchRenderer() {
+        byte[][] parts = template.getRenderedParts();
+        assertNotNull(parts);
+        assertSame(parts, template.getRenderedParts());
+
+        Charset utf8 = Charset.forName("UTF-8");
+        String head = new String(parts[0], utf8);
+        String tail = new String(parts[1], utf8);
+        assertEquals(new Renderer(template.createFor(TO1)).getComplete(), head + TO1.getFullQualifiedName() + tail);
+        assertEquals(new Renderer(template.createFor(TO2)).getComplete(), head + "to2@vysper.org/rö&amp;s" + tail);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.state.presence;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.PresenceStanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class ConcurrentPresenceCacheTestCase extends LatestPresenceCacheTestCase {
+
+    protected final ConcurrentPresenceCache concurrentPresenceCache = new ConcurrentPresenceCache();
+
+    @Override
+    protected LatestPresenceCache getCache() {
+        return concurrentPresenceCache;
+    }
+
+    private static PresenceStanza createPresence(Entity from) {
+        return new PresenceStanza(StanzaBuilder.createPresenceStanza(from, null, null, null, null, null).build());
+    }
+
+    public void testRemoveFallsBackToPreviousResource() {
+        ConcurrentPresenceCache cache = new ConcurrentPresenceCache();
+        Entity bareJID = EntityImpl.parseUnchecked("user@vysper.org");
+        Entity resource1 = EntityImpl.parseUnchecked("user@vysper.org/one");
+        Entity resource2 = EntityImpl.parseUnchecked("user@vysper.org/two");
+        PresenceStanza presence1 = createPresence(resource1);
+        PresenceStanza presence2 = createPresence(resource2);
+
+        cache.put(resource1, presence1);
+        cache.put(resource2, presence2);
+        assertSame(presence2, cache.getForBareJID(bareJID));
+
+        cache.remove(resource2);
+        assertSame(presence1, cache.getForBareJID(bareJID));
+        assertNull(cache.get(resource2));
+
+        cache.remove(resource1);
+        assertNull(cache.getForBareJID(bareJID));
+        assertEquals(0, cache.size());
+    }
+
+    public void testMaxEntries() {
+        ConcurrentPresenceCache cache = new ConcurrentPresenceCache(10, 0);
+        for (int i = 0; i < 100; i++) {
+            Entity entity = EntityImpl.parseUnchecked("user" + i + "@vysper.org/resource");
+            cache.put(entity, createPresence(entity));
+        }
+        assertEquals(10, cache.size());
+
+        // the latest is never evicted
+        Entity latest = EntityImpl.parseUnchecked("user99@vysper.org/resource");
+        assertNotNull(cache.get(latest));
+        assertNotNull(cache.getForBareJID(latest.getBareJID()));
+    }
+
+    public void testOldestIsEvictedFirst() {
+        ConcurrentPresenceCache cache = new ConcurrentPresenceCache(10, 0);
+        for (int i = 0; i < 100; i++) {
+            Entity entity = EntityImpl.parseUnchecked("user" + i + "@vysper.org/resource");
+            cache.put(entity, createPresence(entity));
+        }
+        // updating a resource makes it the youngest
+        Entity updated = EntityImpl.parseUnchecked("user90@vysper.org/resource");
+        cache.put(updated, createPresence(updated));
+        Entity added = EntityImpl.parseUnchecked("user100@vysper.org/resource");
+        cache.put(added, createPresence(added));
+
+        assertEquals(10, cache.size());
+        assertNull(cache.get(EntityImpl.parseUnchecked("user91@vysper.org/resource")));
+        assertNotNull(cache.get(updated));
+        for (int i = 92; i <= 100; i++) {
+            assertNotNull(cache.get(EntityImpl.parseUnchecked("user" + i + "@vysper.org/resource")));
+        }
+    }
+
+    public void testTimeToLive() throws InterruptedException {
+        ConcurrentPresenceCache cache = new ConcurrentPresenceCache(0, 20);
+        Entity entity = EntityImpl.parseUnchecked("user@vysper.org/resource");
+        cache.put(entity, createPresence(entity));
+        assertNotNull(cache.get(entity));
+
+        Thread.sleep(50);
+
+        assertNull(cache.get(entity));
+        assertNull(cache.getForBareJID(entity.getBareJID()));
+        assertEquals(0, cache.size());
+    }
+}
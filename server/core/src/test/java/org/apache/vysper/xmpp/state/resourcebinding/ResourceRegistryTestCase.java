@@ -20,6 +20,11 @@
 package org.apache.vysper.xmpp.state.resourcebinding;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -204,4 +209,73 @@ public class ResourceRegistryTestCase extends TestCase {
         assertFalse("resource ids actually differ", resourceId1.equals(resourceId2));
         assertNull("resource id no longer unique", resourceRegistry.getUniqueResourceForSession(sessionContext));
     }
+
+    public void testUnbindSessionRemovesEntity() throws EntityFormatException {
+        EntityImpl entity = EntityImpl.parse("me@test");
+        TestSessionContext sessionContext = TestSessionContext.createSessionContext(entity);
+        resourceRegistry.bindSession(sessionContext);
+        resourceRegistry.bindSession(sessionContext);
+        assertEquals(1, resourceRegistry.getSessionCount());
+
+        resourceRegistry.unbindSession(sessionContext);
+
+        assertEquals(0, resourceRegistry.getSessionCount());
+        assertEquals(0, resourceRegistry.getResourcesForSession(sessionContext).size());
+    }
+
+    public void testSessionKeepsBoundResources() throws EntityFormatException {
+        EntityImpl entity = EntityImpl.parse("me@test");
+        TestSessionContext sessionContext = TestSessionContext.createSessionContext(entity);
+        assertNull(sessionContext.getBoundResources());
+
+        String resourceId1 = resourceRegistry.bindSession(sessionContext);
+        String resourceId2 = resourceRegistry.bindSession(sessionContext);
+        assertEquals(resourceRegistry.getResourcesForSession(sessionContext), sessionContext.getBoundResources());
+
+        resourceRegistry.unbindResource(resourceId1);
+        assertEquals(1, sessionContext.getBoundResources().size());
+        assertTrue(sessionContext.getBoundResources().contains(resourceId2));
+
+        resourceRegistry.unbindSession(sessionContext);
+        assertEquals(0, sessionContext.getBoundResources().size());
+    }
+
+    public void testConcurrentBindAndUnbind() throws Exception {
+        final EntityImpl entity = EntityImpl.parse("me@test");
+        final int threadCount = 8;
+        final int sessionsPerThread = 500;
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < sessionsPerThread; i++) {
+                            TestSessionContext sessionContext = TestSessionContext.createSessionContext(entity);
+                            String resourceId = resourceRegistry.bindSession(sessionContext);
+                            if (!resourceRegistry.getBoundResources(entity).contains(resourceId)) {
+                                failures.incrementAndGet();
+                            }
+                            if (i % 2 == 0) {
+                                resourceRegistry.unbindSession(sessionContext);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(0, failures.get());
+        List<String> remaining = resourceRegistry.getBoundResources(entity);
+        assertEquals(threadCount * sessionsPerThread / 2, remaining.size());
+        for (String resourceId : remaining) {
+            assertNotNull(resourceRegistry.getSessionContext(resourceId));
+        }
+    }
 }
@@ -31,6 +31,7 @@ import org.apache.vysper.xmpp.modules.DefaultDiscoAwareModule;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler.MUCIqAdminHandler;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler.MUCMessageHandler;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler.MUCPresenceHandler;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler.RoomLaneStanzaHandler;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Conference;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
@@ -48,6 +49,7 @@ import org.apache.vysper.xmpp.protocol.StanzaBroker;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.components.Component;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
 import org.apache.vysper.xmpp.stanza.IQStanzaType;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 import org.slf4j.Logger;
@@ -74,6 +76,11 @@ public class MUCModule extends DefaultDiscoAwareModule
 
     private ServerRuntimeContext serverRuntimeContext;
 
+    /**
+     * serializes the handling of each room's stanzas
+     */
+    private final LaneExecutor<Entity> roomLanes = new LaneExecutor<Entity>();
+
     public MUCModule(String subdomain) {
         this(subdomain, null);
     }
@@ -121,6 +128,12 @@ public class MUCModule extends DefaultDiscoAwareModule
         this.conference.initialize();
     }
 
+    @Override
+    public void close() {
+        super.close();
+        roomLanes.shutdown();
+    }
+
     @Override
     public String getName() {
         return "XEP-0045 Multi-user chat";
@@ -241,10 +254,15 @@ public class MUCModule extends DefaultDiscoAwareModule
     @Override
     public List<StanzaHandler> getComponentHandlers(Entity fullDomain) {
         List<StanzaHandler> handlers = new ArrayList<>();
-        handlers.add(new MUCPresenceHandler(conference));
-        handlers.add(new MUCMessageHandler(conference, fullDomain));
+        handlers.add(new MUCPresenceHandler(conference, roomLanes.getExecutor()));
+        handlers.add(new MUCMessageHandler(conference, fullDomain, roomLanes.getExecutor()));
         handlers.add(new MUCIqAdminHandler(conference));
-        return handlers;
+
+        List<StanzaHandler> roomLaneHandlers = new ArrayList<>();
+        for (StanzaHandler handler : handlers) {
+            roomLaneHandlers.add(new RoomLaneStanzaHandler(handler, roomLanes));
+        }
+        return roomLaneHandlers;
     }
 
     @Override
@@ -22,6 +22,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.vysper.compliance.SpecCompliance;
 import org.apache.vysper.compliance.SpecCompliant;
@@ -47,6 +48,7 @@ import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.protocol.StanzaBroker;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
@@ -74,9 +76,19 @@ public class MUCMessageHandler extends DefaultMessageHandler {
 
     private Entity moduleDomain;
 
+    private ExecutorService fanoutExecutor;
+
     public MUCMessageHandler(Conference conference, Entity moduleDomain) {
+        this(conference, moduleDomain, null);
+    }
+
+    /**
+     * @param fanoutExecutor - relays messages to the occupants of large rooms in parallel, may be NULL
+     */
+    public MUCMessageHandler(Conference conference, Entity moduleDomain, ExecutorService fanoutExecutor) {
         this.conference = conference;
         this.moduleDomain = moduleDomain;
+        this.fanoutExecutor = fanoutExecutor;
     }
 
     @Override
@@ -147,16 +159,17 @@ public class MUCMessageHandler extends DefaultMessageHandler {
             }
 
             logger.debug("Relaying message to all room occupants");
-            for (Occupant occupent : room.getOccupants()) {
-                logger.debug("Relaying message to  {}", occupent);
-                List<Attribute> replaceAttributes = new ArrayList<Attribute>();
-                replaceAttributes.add(new Attribute("from", roomAndSendingNick.getFullQualifiedName()));
-                replaceAttributes.add(new Attribute("to", occupent.getJid().getFullQualifiedName()));
-
-                relayStanza(occupent.getJid(), StanzaBuilder.createClone(stanza, true, replaceAttributes).build(),
-                        stanzaBroker);
-
-            }
+            // all occupants receive the same message, only the 'to' differs, so it is rendered only once
+            List<Attribute> replaceAttributes = new ArrayList<Attribute>();
+            replaceAttributes.add(new Attribute("from", roomAndSendingNick.getFullQualifiedName()));
+            final BroadcastTemplate broadcast = new BroadcastTemplate(stanza, replaceAttributes);
+            new OccupantFanout(fanoutExecutor) {
+                @Override
+                protected Stanza createStanza(Occupant occupant) {
+                    logger.debug("Relaying message to  {}", occupant);
+                    return broadcast.createFor(occupant.getJid());
+                }
+            }.relayTo(room.getOccupants(), stanzaBroker);
 
             // add to discussion history
             room.getHistory().append(stanza, sendingOccupant);
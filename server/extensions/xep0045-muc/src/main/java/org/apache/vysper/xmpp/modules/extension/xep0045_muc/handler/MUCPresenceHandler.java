@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.xml.fragment.XMLElement;
@@ -72,8 +73,18 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
 
     private Conference conference;
 
+    private ExecutorService fanoutExecutor;
+
     public MUCPresenceHandler(Conference conference) {
+        this(conference, null);
+    }
+
+    /**
+     * @param fanoutExecutor - relays presence to the occupants of large rooms in parallel, may be NULL
+     */
+    public MUCPresenceHandler(Conference conference, ExecutorService fanoutExecutor) {
         this.conference = conference;
+        this.fanoutExecutor = fanoutExecutor;
     }
 
     @Override
@@ -177,10 +188,15 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
             if (nick.equals(occupant.getNick())) {
                 // nick unchanged, change show and status
                 logger.debug("{} has updated presence in room {}", newOccupantJid, roomJid);
-                for (Occupant receiver : room.getOccupants()) {
-                    sendChangeShowStatus(occupant, receiver, room, getInnerElementText(stanza, "show"),
-                            getInnerElementText(stanza, "status"), serverRuntimeContext, stanzaBroker);
-                }
+                final Room changedRoom = room;
+                final String show = getInnerElementText(stanza, "show");
+                final String status = getInnerElementText(stanza, "status");
+                new OccupantFanout(fanoutExecutor) {
+                    @Override
+                    protected Stanza createStanza(Occupant receiver) {
+                        return createChangeShowStatus(occupant, receiver, changedRoom, show, status);
+                    }
+                }.relayTo(room.getOccupants(), stanzaBroker);
             } else {
                 logger.debug("{} has requested to change nick in room {}", newOccupantJid, roomJid);
                 if (room.isInRoom(nick)) {
@@ -188,19 +204,26 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                     return createPresenceErrorStanza(roomJid, newOccupantJid, stanza.getID(), "cancel", "conflict");
                 }
 
-                String oldNick = occupant.getNick();
+                final String oldNick = occupant.getNick();
                 // update the nick
                 occupant.setNick(nick);
 
                 // send out unavailable presences to all existing occupants
-                for (Occupant receiver : room.getOccupants()) {
-                    sendChangeNickUnavailable(occupant, oldNick, receiver, room, serverRuntimeContext, stanzaBroker);
-                }
+                final Room changedRoom = room;
+                new OccupantFanout(fanoutExecutor) {
+                    @Override
+                    protected Stanza createStanza(Occupant receiver) {
+                        return createChangeNickUnavailable(occupant, oldNick, receiver, changedRoom);
+                    }
+                }.relayTo(room.getOccupants(), stanzaBroker);
 
                 // send out available presences to all existing occupants
-                for (Occupant receiver : room.getOccupants()) {
-                    sendChangeNickAvailable(occupant, receiver, room, serverRuntimeContext, stanzaBroker);
-                }
+                new OccupantFanout(fanoutExecutor) {
+                    @Override
+                    protected Stanza createStanza(Occupant receiver) {
+                        return createChangeNickAvailable(occupant, receiver, changedRoom);
+                    }
+                }.relayTo(room.getOccupants(), stanzaBroker);
 
             }
             room.updateLastActivity();
@@ -243,7 +266,7 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 }
             }
 
-            Occupant newOccupant;
+            final Occupant newOccupant;
             try {
                 newOccupant = room.addOccupant(newOccupantJid, nick);
                 room.recordLatestPresence(newOccupantJid, stanza);
@@ -279,10 +302,15 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
             }
 
             // relay presence of the newly added occupant to all existing occupants
-            for (Occupant existingOccupant : room.getOccupants()) {
-                sendNewOccupantPresenceToExisting(newOccupant, existingOccupant, room, serverRuntimeContext, stanza,
-                        nickRewritten, stanzaBroker);
-            }
+            final Room enteredRoom = room;
+            final boolean newNickRewritten = nickRewritten;
+            new OccupantFanout(fanoutExecutor) {
+                @Override
+                protected Stanza createStanza(Occupant existingOccupant) {
+                    return createNewOccupantPresenceToExisting(newOccupant, existingOccupant, enteredRoom, stanza,
+                            newNickRewritten);
+                }
+            }.relayTo(room.getOccupants(), stanzaBroker);
 
             room.updateLastActivity();
 
@@ -302,7 +330,7 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
 
         // room must exist, or we do nothing
         if (room != null) {
-            Occupant exitingOccupant = room.findOccupantByJID(occupantJid);
+            final Occupant exitingOccupant = room.findOccupantByJID(occupantJid);
 
             // user must by in room, or we do nothing
             if (exitingOccupant != null) {
@@ -311,21 +339,24 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 room.removeOccupant(occupantJid);
 
                 // TODO replace with use of X
-                String statusMessage = null;
+                String statusText = null;
                 try {
                     XMLElement statusElement = stanza.getSingleInnerElementsNamed("status");
                     if (statusElement != null && statusElement.getInnerText() != null) {
-                        statusMessage = statusElement.getInnerText().getText();
+                        statusText = statusElement.getInnerText().getText();
                     }
                 } catch (XMLSemanticError e) {
                     // ignore, status element did not exist
                 }
 
                 // relay presence of the newly added occupant to all existing occupants
-                for (Occupant occupant : allOccupants) {
-                    sendExitRoomPresenceToExisting(exitingOccupant, occupant, room, statusMessage, serverRuntimeContext,
-                            stanzaBroker);
-                }
+                final String statusMessage = statusText;
+                new OccupantFanout(fanoutExecutor) {
+                    @Override
+                    protected Stanza createStanza(Occupant occupant) {
+                        return createExitRoomPresenceToExisting(exitingOccupant, occupant, room, statusMessage);
+                    }
+                }.relayTo(allOccupants, stanzaBroker);
 
                 if (room.isRoomType(RoomType.Temporary) && room.isEmpty()) {
                     conference.deleteRoom(roomJid);
@@ -364,9 +395,8 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
         relayStanza(newOccupant.getJid(), presenceToNewOccupant, serverRuntimeContext, stanzaBroker);
     }
 
-    private void sendNewOccupantPresenceToExisting(Occupant newOccupant, Occupant existingOccupant, Room room,
-            ServerRuntimeContext serverRuntimeContext, PresenceStanza presence, boolean nickRewritten,
-            StanzaBroker stanzaBroker) {
+    private Stanza createNewOccupantPresenceToExisting(Occupant newOccupant, Occupant existingOccupant, Room room,
+            PresenceStanza presence, boolean nickRewritten) {
         Entity roomAndNewUserNick = new EntityImpl(room.getJID(), newOccupant.getNick());
 
         List<XMLElement> inner = new ArrayList<XMLElement>();
@@ -397,11 +427,10 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 null, presence, NamespaceURIs.XEP0045_MUC_USER, inner.toArray(new XMLElement[0]));
 
         logger.debug("Room presence from {} sent to {}", roomAndNewUserNick, existingOccupant);
-        relayStanza(existingOccupant.getJid(), presenceToExistingX, serverRuntimeContext, stanzaBroker);
+        return presenceToExistingX;
     }
 
-    private void sendChangeNickUnavailable(Occupant changer, String oldNick, Occupant receiver, Room room,
-            ServerRuntimeContext serverRuntimeContext, StanzaBroker stanzaBroker) {
+    private Stanza createChangeNickUnavailable(Occupant changer, String oldNick, Occupant receiver, Room room) {
         Entity roomAndOldNick = new EntityImpl(room.getJID(), oldNick);
 
         List<XMLElement> inner = new ArrayList<XMLElement>();
@@ -418,11 +447,11 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 PresenceStanzaType.UNAVAILABLE, NamespaceURIs.XEP0045_MUC_USER, inner);
 
         logger.debug("Room presence from {} sent to {}", roomAndOldNick, receiver);
-        relayStanza(receiver.getJid(), presenceToReceiver, serverRuntimeContext, stanzaBroker);
+        return presenceToReceiver;
     }
 
-    private void sendChangeShowStatus(Occupant changer, Occupant receiver, Room room, String show, String status,
-            ServerRuntimeContext serverRuntimeContext, StanzaBroker stanzaBroker) {
+    private Stanza createChangeShowStatus(Occupant changer, Occupant receiver, Room room, String show,
+            String status) {
         Entity roomAndNick = new EntityImpl(room.getJID(), changer.getNick());
 
         StanzaBuilder builder = StanzaBuilder.createPresenceStanza(roomAndNick, receiver.getJid(), null, null, show,
@@ -437,7 +466,7 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
         builder.addPreparedElement(new X(NamespaceURIs.XEP0045_MUC_USER, new MucUserItem(changer, includeJid, true)));
 
         logger.debug("Room presence from {} sent to {}", roomAndNick, receiver);
-        relayStanza(receiver.getJid(), builder.build(), serverRuntimeContext, stanzaBroker);
+        return builder.build();
     }
 
     private boolean includeJidInItem(Room room, Occupant receiver) {
@@ -447,8 +476,7 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 || (room.isRoomType(RoomType.SemiAnonymous) && receiver.getRole() == Role.Moderator);
     }
 
-    private void sendChangeNickAvailable(Occupant changer, Occupant receiver, Room room,
-            ServerRuntimeContext serverRuntimeContext, StanzaBroker stanzaBroker) {
+    private Stanza createChangeNickAvailable(Occupant changer, Occupant receiver, Room room) {
         Entity roomAndOldNick = new EntityImpl(room.getJID(), changer.getNick());
 
         List<XMLElement> inner = new ArrayList<XMLElement>();
@@ -459,14 +487,12 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
             // send status to indicate that this is the users own presence
             inner.add(new Status(StatusCode.OWN_PRESENCE));
         }
-        Stanza presenceToReceiver = MUCStanzaBuilder.createPresenceStanza(roomAndOldNick, receiver.getJid(), null,
+        return MUCStanzaBuilder.createPresenceStanza(roomAndOldNick, receiver.getJid(), null,
                 NamespaceURIs.XEP0045_MUC_USER, inner);
-
-        relayStanza(receiver.getJid(), presenceToReceiver, serverRuntimeContext, stanzaBroker);
     }
 
-    private void sendExitRoomPresenceToExisting(Occupant exitingOccupant, Occupant existingOccupant, Room room,
-            String statusMessage, ServerRuntimeContext serverRuntimeContext, StanzaBroker stanzaBroker) {
+    private Stanza createExitRoomPresenceToExisting(Occupant exitingOccupant, Occupant existingOccupant, Room room,
+            String statusMessage) {
         Entity roomAndNewUserNick = new EntityImpl(room.getJID(), exitingOccupant.getNick());
 
         List<XMLElement> inner = new ArrayList<XMLElement>();
@@ -487,10 +513,8 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
             inner.add(status);
         }
 
-        Stanza presenceToExisting = MUCStanzaBuilder.createPresenceStanza(roomAndNewUserNick, existingOccupant.getJid(),
+        return MUCStanzaBuilder.createPresenceStanza(roomAndNewUserNick, existingOccupant.getJid(),
                 PresenceStanzaType.UNAVAILABLE, NamespaceURIs.XEP0045_MUC_USER, inner);
-
-        relayStanza(existingOccupant.getJid(), presenceToExisting, serverRuntimeContext, stanzaBroker);
     }
 
     protected void relayStanzas(Entity receiver, List<Stanza> stanzas, ServerRuntimeContext serverRuntimeContext,
@@ -0,0 +1,142 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * relays a stanza to each occupant of a room.
+ * <p>
+ * occupants of large rooms are split into batches which are relayed in parallel on the given executor,
+ * usually the one running the room lanes. relaying returns only after all batches are done, so stanzas
+ * relayed one after the other reach every occupant in that order.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public abstract class OccupantFanout {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OccupantFanout.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final ExecutorService executor;
+
+    private final int batchSize;
+
+    /**
+     * @param executor - runs the batches, NULL to relay all batches on the calling thread
+     */
+    public OccupantFanout(ExecutorService executor) {
+        this(executor, DEFAULT_BATCH_SIZE);
+    }
+
+    public OccupantFanout(ExecutorService executor, int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batch size must be positive");
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the stanza for the receiver, or NULL if nothing is to be sent to it
+     */
+    protected abstract Stanza createStanza(Occupant receiver);
+
+    public void relayTo(Collection<Occupant> receivers, final StanzaBroker stanzaBroker) {
+        List<Occupant> occupants = new ArrayList<Occupant>(receivers);
+        if (executor == null || occupants.size() <= batchSize) {
+            relay(occupants, stanzaBroker);
+            return;
+        }
+
+        final List<List<Occupant>> batches = new ArrayList<List<Occupant>>();
+        for (int from = 0; from < occupants.size(); from += batchSize) {
+            batches.add(occupants.subList(from, Math.min(from + batchSize, occupants.size())));
+        }
+
+        if (executor instanceof ForkJoinPool && ForkJoinTask.getPool() == executor) {
+            // already running on the pool, the calling thread helps out instead of blocking
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            for (final List<Occupant> batch : batches) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        relay(batch, stanzaBroker);
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(tasks);
+            return;
+        }
+
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        for (final List<Occupant> batch : batches) {
+            try {
+                pending.add(executor.submit(new Runnable() {
+                    public void run() {
+                        relay(batch, stanzaBroker);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // shutting down, relay on this thread
+                relay(batch, stanzaBroker);
+            }
+        }
+        for (Future<?> batch : pending) {
+            try {
+                batch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("interrupted while relaying to room occupants");
+                return;
+            } catch (ExecutionException e) {
+                LOG.warn("relaying to room occupants failed", e.getCause());
+            }
+        }
+    }
+
+    private void relay(List<Occupant> occupants, StanzaBroker stanzaBroker) {
+        for (Occupant occupant : occupants) {
+            Stanza stanza = createStanza(occupant);
+            if (stanza == null) continue;
+            try {
+                stanzaBroker.write(occupant.getJid(), stanza, IgnoreFailureStrategy.INSTANCE);
+            } catch (DeliveryException e) {
+                LOG.warn("relaying to occupant {} failed", occupant.getJid(), e);
+            }
+        }
+    }
+}
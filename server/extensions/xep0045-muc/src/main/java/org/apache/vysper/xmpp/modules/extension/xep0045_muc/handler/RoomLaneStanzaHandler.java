@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.protocol.ProtocolException;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.protocol.StanzaHandler;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
+import org.apache.vysper.xmpp.server.response.ServerErrorResponses;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaErrorCondition;
+import org.apache.vysper.xmpp.stanza.StanzaErrorType;
+import org.apache.vysper.xmpp.stanza.XMPPCoreStanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * executes the stanzas handled by the delegate in the lane of the room they are addressed to.
+ * <p>
+ * all changes to a room's state (occupants, their presence, affiliations, history) are made by one
+ * thread at a time, in the order the stanzas arrived, without locking the room. stanzas for different
+ * rooms are handled in parallel, lanes are spread over all threads of the lane executor.
+ * <p>
+ * {@link #execute(Stanza, ServerRuntimeContext, boolean, SessionContext, SessionStateHolder, StanzaBroker)}
+ * returns as soon as the stanza is handed to the room's lane, a busy room does not hold up the thread
+ * relaying it. a {@link ProtocolException} thrown by the delegate is answered from within the lane with
+ * an error stanza to the sender, other failures are logged.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class RoomLaneStanzaHandler implements StanzaHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoomLaneStanzaHandler.class);
+
+    private final StanzaHandler delegate;
+
+    private final LaneExecutor<Entity> roomLanes;
+
+    public RoomLaneStanzaHandler(StanzaHandler delegate, LaneExecutor<Entity> roomLanes) {
+        if (delegate == null) throw new IllegalArgumentException("delegate must not be null");
+        if (roomLanes == null) throw new IllegalArgumentException("room lanes must not be null");
+        this.delegate = delegate;
+        this.roomLanes = roomLanes;
+    }
+
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public Class<?> unwrapType() {
+        return delegate.unwrapType();
+    }
+
+    public boolean verify(Stanza stanza) {
+        return delegate.verify(stanza);
+    }
+
+    public boolean isSessionRequired() {
+        return delegate.isSessionRequired();
+    }
+
+    public void execute(final Stanza stanza, final ServerRuntimeContext serverRuntimeContext,
+            final boolean isOutboundStanza, final SessionContext sessionContext,
+            final SessionStateHolder sessionStateHolder, final StanzaBroker stanzaBroker) throws ProtocolException {
+        Entity to = stanza.getTo();
+        if (to == null) {
+            delegate.execute(stanza, serverRuntimeContext, isOutboundStanza, sessionContext, sessionStateHolder,
+                    stanzaBroker);
+            return;
+        }
+
+        // a room and its occupants share the bare JID
+        final Entity room = to.getBareJID();
+        roomLanes.execute(room, new Runnable() {
+            public void run() {
+                try {
+                    delegate.execute(stanza, serverRuntimeContext, isOutboundStanza, sessionContext,
+                            sessionStateHolder, stanzaBroker);
+                } catch (ProtocolException e) {
+                    reportError(room, stanza, e, stanzaBroker);
+                } catch (RuntimeException e) {
+                    LOG.error("room " + room + " failed to handle stanza", e);
+                }
+            }
+        });
+    }
+
+    private void reportError(Entity room, Stanza stanza, ProtocolException e, StanzaBroker stanzaBroker) {
+        Stanza errorStanza = e.getErrorStanza();
+        XMPPCoreStanza coreStanza = XMPPCoreStanza.getWrapper(stanza);
+        if (errorStanza == null && coreStanza != null && !coreStanza.isError()) {
+            errorStanza = ServerErrorResponses.getStanzaError(StanzaErrorCondition.BAD_REQUEST, coreStanza,
+                    StanzaErrorType.MODIFY, e.getMessage(), null, null);
+        }
+        if (errorStanza == null || stanza.getFrom() == null || stanzaBroker == null) {
+            LOG.warn("room {} failed to handle stanza: {}", room, e.getMessage());
+            return;
+        }
+        try {
+            stanzaBroker.write(stanza.getFrom(), errorStanza, IgnoreFailureStrategy.INSTANCE);
+        } catch (DeliveryException deliveryException) {
+            LOG.warn("room {} failed to report error to {}", room, stanza.getFrom());
+        }
+    }
+}
@@ -25,14 +25,21 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.fragment.Utf8Renderer;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.History;
 import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
  * The discussion history for a room
+ * <p>
+ * Messages are kept in a ring buffer. Appending and reading do not lock: appenders claim consecutive
+ * sequence numbers and overwrite the oldest slot, readers take a snapshot of the published messages.
+ * With unlimited history (max items -1), the buffer grows when full.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -40,115 +47,260 @@ public class DiscussionHistory implements Iterable<DiscussionMessage> {
 
     public static final int DEFAULT_HISTORY_SIZE = 20;
 
-    private int maxItems = DEFAULT_HISTORY_SIZE;
+    private static final int UNLIMITED_INITIAL_CAPACITY = 64;
 
-    private DiscussionMessage subjectMessage;
+    private volatile int maxItems = DEFAULT_HISTORY_SIZE;
 
-    private List<DiscussionMessage> items = new ArrayList<DiscussionMessage>();
+    private volatile DiscussionMessage subjectMessage;
+
+    private volatile Ring ring = new Ring(DEFAULT_HISTORY_SIZE, true);
 
     public void append(MessageStanza message, Occupant sender) {
         append(message, sender, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
     }
 
     public void append(MessageStanza message, Occupant sender, Calendar timestamp) {
-        synchronized (items) {
-            DiscussionMessage discMsg = new DiscussionMessage(message, sender, timestamp);
+        DiscussionMessage discMsg = new DiscussionMessage(message, sender, timestamp);
+
+        if (discMsg.hasSubject() && !discMsg.hasBody()) {
+            subjectMessage = discMsg;
+            return;
+        }
 
-            if (discMsg.hasSubject() && !discMsg.hasBody()) {
-                subjectMessage = discMsg;
-            } else {
-                items.add(discMsg);
+        while (true) {
+            Ring current = ring;
+            long sequence = current.tail.getAndIncrement();
+            if (current.bounded || sequence < current.capacity) {
+                current.set(sequence, discMsg);
+                return;
             }
+            grow(current);
+        }
+    }
 
-            // check if size is over limits
-            while (maxItems != -1 && getSize() > maxItems) {
-                items.remove(0) ; // oldest
+    /**
+     * replaces the full ring of an unlimited history with one twice as large, once all messages claimed in the
+     * full ring are published
+     */
+    private synchronized void grow(Ring full) {
+        if (ring != full) {
+            // someone else already did
+            return;
+        }
+        Ring grown = new Ring(full.capacity * 2, false);
+        for (int i = 0; i < full.capacity; i++) {
+            DiscussionMessage message;
+            while ((message = full.get(i)) == null) {
+                // the appender which claimed this slot is about to set it
+                Thread.yield();
             }
+            grown.set(i, message);
         }
+        grown.tail.set(full.capacity);
+        ring = grown;
     }
 
-    public void setMaxItems(int maxItems) {
+    /**
+     * changes the history size, messages appended while the size is changed may not be kept
+     */
+    public synchronized void setMaxItems(int maxItems) {
         if (maxItems < -1) maxItems = -1;
         this.maxItems = maxItems;
+
+        List<DiscussionMessage> messages = ring.snapshot(Integer.MAX_VALUE);
+        Ring resized = (maxItems == -1) ? new Ring(Math.max(UNLIMITED_INITIAL_CAPACITY, messages.size() * 2), false)
+                : new Ring(Math.max(maxItems, 1), true);
+        int first = Math.max(0, messages.size() - resized.capacity);
+        for (int i = first; i < messages.size(); i++) {
+            resized.set(i - first, messages.get(i));
+        }
+        resized.tail.set(messages.size() - first);
+        ring = resized;
     }
 
-    private int getSize() {
-        int size = items.size();
-        if (subjectMessage != null) size++;
-        return size;
+    /**
+     * @return the messages, oldest first, with the subject message last. the subject message counts towards the
+     *         maximum number of items
+     */
+    private List<DiscussionMessage> snapshot() {
+        DiscussionMessage subject = subjectMessage;
+        int max = maxItems;
+        int limit = max == -1 ? Integer.MAX_VALUE : max - (subject != null ? 1 : 0);
+        List<DiscussionMessage> messages = ring.snapshot(Math.max(limit, 0));
+        if (subject != null && max != 0) {
+            messages.add(subject);
+        }
+        return messages;
     }
 
     public List<Stanza> createStanzas(Occupant receiver, boolean includeJid, History history) {
-        synchronized (items) {
+        int maxstanzas = history != null && history.getMaxStanzas() != null ? history.getMaxStanzas() : -1;
+        int maxchars = history != null && history.getMaxChars() != null ? history.getMaxChars() : -1;
+        int seconds = history != null && history.getSeconds() != null ? history.getSeconds() : -1;
 
-            int maxstanzas = history != null && history.getMaxStanzas() != null ? history.getMaxStanzas() : -1;
-            int maxchars = history != null && history.getMaxChars() != null ? history.getMaxChars() : -1;
-            int seconds = history != null && history.getSeconds() != null ? history.getSeconds() : -1;
+        List<Stanza> stanzas = new ArrayList<Stanza>();
 
-            List<Stanza> stanzas = new ArrayList<Stanza>();
+        if (maxchars == 0 || maxstanzas == 0 || seconds == 0) {
+            // quick return for no-stanza requests
+            return Collections.emptyList();
+        } else {
+            int counter = 0;
+            int totalChars = 0;
+            // reused for rendering all the counted stanzas
+            IoBuffer renderBuffer = null;
+
+            List<DiscussionMessage> itemsWithSubject = snapshot();
+
+            // the timestamp at which "seconds" start filtering from 
+            long secondsLimit = -1;
+            if (seconds != -1) {
+                Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                cal.add(Calendar.SECOND, -seconds);
+                secondsLimit = cal.getTimeInMillis();
+            }
 
-            if (maxchars == 0 || maxstanzas == 0 || seconds == 0) {
-                // quick return for no-stanza requests
-                return Collections.emptyList();
-            } else {
-                int counter = 0;
-                int totalChars = 0;
+            // now add all messages, as long as the predicated are fulfilled
+            // first, do this in reverse order so that older messages are filtered out
+            for (int i = itemsWithSubject.size() - 1; i > -1; i--) {
+                DiscussionMessage item = itemsWithSubject.get(i);
+                counter++;
 
-                List<DiscussionMessage> itemsWithSubject = new ArrayList<DiscussionMessage>(items);
-                // add subject if one is provided
-                if (subjectMessage != null) {
-                    itemsWithSubject.add(subjectMessage);
+                if (secondsLimit != -1 && secondsLimit > item.getTimestamp().getTimeInMillis()) {
+                    // too old, break
+                    break;
                 }
 
-                // the timestamp at which "seconds" start filtering from 
-                long secondsLimit = -1;
-                if (seconds != -1) {
-                    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                    cal.add(Calendar.SECOND, -seconds);
-                    secondsLimit = cal.getTimeInMillis();
+                if (history != null && history.getSince() != null && history.getSince().after(item.getTimestamp())) {
+                    // too old, break
+                    break;
                 }
 
-                // now add all messages, as long as the predicated are fulfilled
-                // first, do this in reverse order so that older messages are filtered out
-                for (int i = itemsWithSubject.size() - 1; i > -1; i--) {
-                    DiscussionMessage item = itemsWithSubject.get(i);
-                    Stanza stanza = item.createStanza(receiver, includeJid);
-                    counter++;
+                Stanza stanza = item.createStanza(receiver, includeJid);
 
-                    if (secondsLimit != -1 && secondsLimit > item.getTimestamp().getTimeInMillis()) {
-                        // too old, break
-                        break;
-                    }
+                // only count chars if needed
+                if (maxchars != -1) {
+                    if (renderBuffer == null) renderBuffer = IoBuffer.allocate(256).setAutoExpand(true);
+                    totalChars += renderedLength(stanza, renderBuffer);
 
-                    if (history != null && history.getSince() != null && history.getSince().after(item.getTimestamp())) {
-                        // too old, break
+                    if (totalChars > maxchars) {
                         break;
                     }
+                }
 
-                    // only count chars if needed
-                    if (maxchars != -1) {
-                        totalChars += new Renderer(stanza).getComplete().length();
+                // checks after this line will include the last stanza
+                stanzas.add(stanza);
+                if (maxstanzas != -1 && counter == maxstanzas) {
+                    // max number of stanzas reached, return
+                    break;
+                }
+            }
+        }
+        // reverse list so that the oldest message is first
+        Collections.reverse(stanzas);
+        return stanzas;
+    }
 
-                        if (totalChars > maxchars) {
-                            break;
-                        }
-                    }
+    /**
+     * @return number of characters of the rendered stanza, as it would be counted in a string
+     */
+    private static int renderedLength(Stanza stanza, IoBuffer buffer) {
+        buffer.clear();
+        Utf8Renderer.render(stanza, buffer);
+        buffer.flip();
+        int length = 0;
+        while (buffer.hasRemaining()) {
+            int b = buffer.get() & 0xff;
+            if ((b & 0xc0) == 0x80) {
+                // continuation byte
+                continue;
+            }
+            // four byte sequences are surrogate pairs, two characters
+            length += (b & 0xf8) == 0xf0 ? 2 : 1;
+        }
+        return length;
+    }
 
-                    // checks after this line will include the last stanza
-                    stanzas.add(stanza);
-                    if (maxstanzas != -1 && counter == maxstanzas) {
-                        // max number of stanzas reached, return
-                        break;
-                    }
+    /**
+     * iterates over a snapshot of the history, including the subject message
+     */
+    public Iterator<DiscussionMessage> iterator() {
+        return snapshot().iterator();
+    }
+
+    private static class Ring {
+
+        private final int capacity;
+
+        /**
+         * bounded rings overwrite their oldest messages, unbounded ones are replaced when full
+         */
+        private final boolean bounded;
+
+        private final AtomicReferenceArray<Entry> slots;
+
+        /**
+         * the next sequence number to claim
+         */
+        private final AtomicLong tail = new AtomicLong();
+
+        Ring(int capacity, boolean bounded) {
+            this.capacity = capacity;
+            this.bounded = bounded;
+            this.slots = new AtomicReferenceArray<Entry>(capacity);
+        }
+
+        /**
+         * publishes the message, unless a slow appender finds its slot already taken by a newer message. the
+         * older message has then been overwritten by the ring anyway, and is dropped
+         */
+        void set(long sequence, DiscussionMessage message) {
+            int index = (int) (sequence % capacity);
+            Entry entry = new Entry(sequence, message);
+            while (true) {
+                Entry current = slots.get(index);
+                if (current != null && current.sequence >= sequence) return;
+                if (slots.compareAndSet(index, current, entry)) return;
+            }
+        }
+
+        DiscussionMessage get(long sequence) {
+            Entry entry = slots.get((int) (sequence % capacity));
+            return entry != null && entry.sequence == sequence ? entry.message : null;
+        }
+
+        /**
+         * @return up to the given number of the latest published messages, oldest first
+         */
+        List<DiscussionMessage> snapshot(int max) {
+            long end = Math.min(tail.get(), bounded ? Long.MAX_VALUE : capacity);
+            long start = Math.max(0, end - Math.min(capacity, max));
+            List<DiscussionMessage> messages = new ArrayList<DiscussionMessage>((int) (end - start) + 1);
+            for (long sequence = end - 1; sequence >= start; sequence--) {
+                Entry entry = slots.get((int) (sequence % capacity));
+                if (entry == null || entry.sequence < sequence) {
+                    // claimed, but not yet published
+                    continue;
+                }
+                if (entry.sequence > sequence) {
+                    // overwritten by newer messages, and so are all older ones
+                    break;
                 }
+                messages.add(entry.message);
             }
-            // reverse list so that the oldest message is first
-            Collections.reverse(stanzas);
-            return stanzas;
+            Collections.reverse(messages);
+            return messages;
         }
     }
 
-    public Iterator<DiscussionMessage> iterator() {
-        return items.iterator();
+    private static class Entry {
+
+        private final long sequence;
+
+        private final DiscussionMessage message;
+
+        Entry(long sequence, DiscussionMessage message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
     }
 }
@@ -25,6 +25,7 @@ import java.util.TimeZone;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.Delay;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
 import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
@@ -37,6 +38,10 @@ public class DiscussionMessage {
 
     private Calendar timestamp;
 
+    private volatile BroadcastTemplate templateWithJid;
+
+    private volatile BroadcastTemplate templateWithoutJid;
+
     public DiscussionMessage(MessageStanza message, Occupant from) {
         this(message, from, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
     }
@@ -72,9 +77,30 @@ public class DiscussionMessage {
         //             stamp='2002-10-13T23:58:43Z'/>
         //        </message>
 
+        return getTemplate(includeJid).createFor(receiver.getJid());
+    }
+
+    /**
+     * the history stanza differs between receivers only by 'to', so it is built and rendered only once for all of
+     * them
+     */
+    private BroadcastTemplate getTemplate(boolean includeJid) {
+        BroadcastTemplate template = includeJid ? templateWithJid : templateWithoutJid;
+        if (template == null) {
+            // racing threads would build equal templates, no need to lock
+            template = createTemplate(includeJid);
+            if (includeJid) {
+                templateWithJid = template;
+            } else {
+                templateWithoutJid = template;
+            }
+        }
+        return template;
+    }
+
+    private BroadcastTemplate createTemplate(boolean includeJid) {
         Entity roomJid = message.getTo();
-        StanzaBuilder builder = StanzaBuilder.createForward(message, new EntityImpl(roomJid, fromNick), receiver
-                .getJid());
+        StanzaBuilder builder = StanzaBuilder.createForward(message, new EntityImpl(roomJid, fromNick), roomJid);
 
         Entity delayFrom;
         if (includeJid) {
@@ -85,7 +111,7 @@ public class DiscussionMessage {
         Delay delay = new Delay(delayFrom, timestamp);
         builder.addPreparedElement(delay);
 
-        return builder.build();
+        return new BroadcastTemplate(builder.build(), null);
     }
 
     public boolean hasSubject() {
@@ -0,0 +1,149 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Role;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class OccupantFanoutTestCase extends TestCase {
+
+    private static final Entity ROOM_JID = EntityImpl.parseUnchecked("room@chat.vysper.org");
+
+    private final Room room = new Room(ROOM_JID, "Room");
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final List<Occupant> occupants = new ArrayList<Occupant>();
+
+    private final Map<Entity, List<String>> received = new HashMap<Entity, List<String>>();
+
+    private final StanzaBroker broker = new StanzaBroker() {
+        public void write(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy) {
+            synchronized (received) {
+                List<String> stanzas = received.get(receiver);
+                if (stanzas == null) {
+                    stanzas = new ArrayList<String>();
+                    received.put(receiver, stanzas);
+                }
+                stanzas.add(stanza.getAttributeValue("id"));
+            }
+        }
+
+        public void writeToSession(Stanza stanza) {
+            fail("nothing is written to the session");
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            occupants.add(new Occupant(EntityImpl.parseUnchecked("user" + i + "@vysper.org/res"), "nick" + i, room,
+                    Role.Participant));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    private OccupantFanout fanout(final String id) {
+        return new OccupantFanout(executor, 16) {
+            @Override
+            protected Stanza createStanza(Occupant receiver) {
+                if (receiver.getNick().equals("nick7")) {
+                    return null;
+                }
+                return StanzaBuilder.createMessageStanza(ROOM_JID, receiver.getJid(), null, "body").addAttribute("id",
+                        id).build();
+            }
+        };
+    }
+
+    public void testRelayToAll() {
+        fanout("1").relayTo(occupants, broker);
+
+        assertEquals(199, received.size());
+        assertFalse(received.containsKey(occupants.get(7).getJid()));
+        for (List<String> stanzas : received.values()) {
+            assertEquals(Collections.singletonList("1"), stanzas);
+        }
+    }
+
+    public void testSmallRoom() {
+        fanout("1").relayTo(occupants.subList(0, 3), broker);
+
+        assertEquals(3, received.size());
+    }
+
+    public void testOrderIsKept() {
+        for (int i = 0; i < 10; i++) {
+            fanout(Integer.toString(i)).relayTo(occupants, broker);
+        }
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(Integer.toString(i));
+        }
+        for (List<String> stanzas : received.values()) {
+            assertEquals(expected, stanzas);
+        }
+    }
+
+    public void testBatchesRunOnGivenPool() {
+        final ForkJoinPool pool = LaneExecutor.createWorkStealingPool(2);
+        final Set<ForkJoinPool> pools = Collections.synchronizedSet(new HashSet<ForkJoinPool>());
+        new OccupantFanout(pool, 16) {
+            @Override
+            protected Stanza createStanza(Occupant receiver) {
+                pools.add(ForkJoinTask.getPool());
+                return null;
+            }
+        }.relayTo(occupants, broker);
+        pool.shutdown();
+
+        assertEquals(Collections.singleton(pool), pools);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.protocol.ProtocolException;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.protocol.StanzaHandler;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
+import org.apache.vysper.xmpp.stanza.PresenceStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.stanza.XMPPCoreStanza;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class RoomLaneStanzaHandlerTestCase extends TestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("user@vysper.org/res");
+
+    private static final Entity ROOM1 = EntityImpl.parseUnchecked("room1@chat.vysper.org/nick");
+
+    private static final Entity ROOM2 = EntityImpl.parseUnchecked("room2@chat.vysper.org/nick");
+
+    private final LaneExecutor<Entity> roomLanes = new LaneExecutor<Entity>(LaneExecutor.createWorkStealingPool(2));
+
+    private final List<Thread> handlingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    private final CountDownLatch handled = new CountDownLatch(1);
+
+    private ProtocolException failure;
+
+    private CountDownLatch blocker;
+
+    private CountDownLatch blocked;
+
+    private final StanzaHandler delegate = new StanzaHandler() {
+        public String getName() {
+            return "presence";
+        }
+
+        public boolean verify(Stanza stanza) {
+            return true;
+        }
+
+        public boolean isSessionRequired() {
+            return false;
+        }
+
+        public void execute(Stanza stanza, ServerRuntimeContext serverRuntimeContext, boolean isOutboundStanza,
+                SessionContext sessionContext, SessionStateHolder sessionStateHolder, StanzaBroker stanzaBroker)
+                throws ProtocolException {
+            handlingThreads.add(Thread.currentThread());
+            if (blocker != null && stanza.getTo().equals(ROOM1)) {
+                blocked.countDown();
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handled.countDown();
+            if (failure != null) throw failure;
+        }
+    };
+
+    private final List<Entity> errorReceivers = Collections.synchronizedList(new ArrayList<Entity>());
+
+    private final List<Stanza> errors = Collections.synchronizedList(new ArrayList<Stanza>());
+
+    private final CountDownLatch errorWritten = new CountDownLatch(1);
+
+    private final StanzaBroker stanzaBroker = new StanzaBroker() {
+        public void write(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy) {
+            errorReceivers.add(receiver);
+            errors.add(stanza);
+            errorWritten.countDown();
+        }
+
+        public void writeToSession(Stanza stanza) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final RoomLaneStanzaHandler handler = new RoomLaneStanzaHandler(delegate, roomLanes);
+
+    @Override
+    protected void tearDown() throws Exception {
+        roomLanes.shutdown();
+    }
+
+    private Stanza presenceTo(Entity to) {
+        return StanzaBuilder.createPresenceStanza(FROM, to, null, null, null, null).build();
+    }
+
+    public void testDelegateRunsInRoomLane() throws Exception {
+        handler.execute(presenceTo(ROOM1), null, false, null, null, stanzaBroker);
+
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+        assertEquals(1, handlingThreads.size());
+        assertNotSame(Thread.currentThread(), handlingThreads.get(0));
+    }
+
+    public void testDelegateExceptionIsAnsweredWithError() throws Exception {
+        failure = new ProtocolException("failed");
+        handler.execute(presenceTo(ROOM1), null, false, null, null, stanzaBroker);
+
+        assertTrue(errorWritten.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(FROM), errorReceivers);
+        XMPPCoreStanza error = XMPPCoreStanza.getWrapper(errors.get(0));
+        assertTrue(error.isError());
+        assertEquals(FROM, error.getTo());
+    }
+
+    public void testErrorStanzaOfDelegateIsSent() throws Exception {
+        Stanza errorStanza = StanzaBuilder.createPresenceStanza(ROOM1, FROM, null, PresenceStanzaType.ERROR, null, null)
+                .build();
+        failure = new ProtocolException("failed");
+        failure.setErrorStanza(errorStanza);
+        handler.execute(presenceTo(ROOM1), null, false, null, null, stanzaBroker);
+
+        assertTrue(errorWritten.await(10, TimeUnit.SECONDS));
+        assertSame(errorStanza, errors.get(0));
+    }
+
+    public void testStanzaWithoutReceiverIsHandledOnCallingThread() throws ProtocolException {
+        handler.execute(presenceTo(null), null, false, null, null, null);
+
+        assertEquals(Collections.singletonList(Thread.currentThread()), handlingThreads);
+    }
+
+    public void testRoomsAreHandledInParallel() throws Exception {
+        blocker = new CountDownLatch(1);
+        blocked = new CountDownLatch(1);
+        // returns while room1 is still busy with the stanza
+        handler.execute(presenceTo(ROOM1), null, false, null, null, stanzaBroker);
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        // room1 is busy, room2 is not held up by it
+        handler.execute(presenceTo(ROOM2), null, false, null, null, stanzaBroker);
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+
+        blocker.countDown();
+    }
+}
@@ -25,6 +25,7 @@ import java.util.TimeZone;
 
 import junit.framework.TestCase;
 
+import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.History;
@@ -113,6 +114,18 @@ public class DiscussionHistoryTestCase extends TestCase {
         assertStanzas(stanzas, 2);
     }
 
+    public void testCharsAreCountedLikeRenderedString() throws Exception {
+        history = new DiscussionHistory();
+        history.append(ConferenceTestUtils.createMessageStanza(FROM, ROOM_JID, "h\u00e4llo <\ud834\udd1e> & more"),
+                FROM_OCCUPANT);
+        Stanza stanza = history.createStanzas(RECEIVER_OCCUPANT, true, null).get(0);
+        int length = new Renderer(stanza).getComplete().length();
+
+        assertEquals(1, history.createStanzas(RECEIVER_OCCUPANT, true, new History(null, length, null, null)).size());
+        assertEquals(0,
+                history.createStanzas(RECEIVER_OCCUPANT, true, new History(null, length - 1, null, null)).size());
+    }
+
     public void test0CharStanzas() throws Exception {
         List<Stanza> stanzas = history.createStanzas(RECEIVER_OCCUPANT, true, new History(null, 0, null, null));
 
@@ -134,6 +147,55 @@ public class DiscussionHistoryTestCase extends TestCase {
         assertStanzas(stanzas, 6);
     }
 
+    public void testUnlimitedHistory() throws Exception {
+        history = new DiscussionHistory();
+        history.setMaxItems(-1);
+        for (int i = 0; i < 200; i++) {
+            history.append(ConferenceTestUtils.createMessageStanza(FROM, ROOM_JID, BODY + i), FROM_OCCUPANT);
+        }
+
+        List<Stanza> stanzas = history.createStanzas(RECEIVER_OCCUPANT, true, null);
+        assertEquals(200, stanzas.size());
+        for (int i = 0; i < 200; i++) {
+            assertStanza(stanzas.get(i), BODY + i, null);
+        }
+    }
+
+    public void testShrinkKeepsLatest() throws Exception {
+        history.setMaxItems(5);
+
+        List<Stanza> stanzas = history.createStanzas(RECEIVER_OCCUPANT, true, null);
+        assertStanzas(stanzas, 5);
+    }
+
+    public void testConcurrentAppends() throws Exception {
+        history = new DiscussionHistory();
+        history.setMaxItems(-1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 250; i++) {
+                        history.append(ConferenceTestUtils.createMessageStanza(FROM, ROOM_JID, BODY + thread + "-" + i),
+                                FROM_OCCUPANT);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int count = 0;
+        for (DiscussionMessage message : history) {
+            assertNotNull(message);
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
     private void assertStanzas(List<Stanza> stanzas, int expectedSize) throws Exception {
         assertEquals(expectedSize, stanzas.size());
 
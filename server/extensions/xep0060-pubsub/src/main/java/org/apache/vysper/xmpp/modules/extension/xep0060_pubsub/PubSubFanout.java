@@ -0,0 +1,231 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.server.resources.LaneExecutor;
+import org.apache.vysper.xmpp.stanza.BroadcastTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers published items to the subscribers of a node.
+ * 
+ * The notification is rendered only once per publish. Its delivery runs in the background, one publish
+ * after the other for each node, so subscribers receive the items in the order they were published.
+ * Subscribers of large nodes are split into chunks which are delivered in parallel.
+ * 
+ * With a parallelism of 0, notifications are delivered on the publishing thread.
+ * 
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class PubSubFanout {
+
+    private static final Logger logger = LoggerFactory.getLogger(PubSubFanout.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    // one lane per node name, null when delivering on the publishing thread
+    private final LaneExecutor<String> nodeLanes;
+
+    private final int chunkSize;
+
+    private final AtomicLong fanoutCount = new AtomicLong();
+
+    private final AtomicLong notificationCount = new AtomicLong();
+
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates a fan-out delivering on one thread per available core.
+     */
+    public PubSubFanout() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param parallelism
+     *            number of delivering threads, 0 for delivering on the publishing thread
+     * @param chunkSize
+     *            number of subscribers delivered to by one thread at a time
+     */
+    public PubSubFanout(int parallelism, int chunkSize) {
+        if (parallelism < 0) throw new IllegalArgumentException("parallelism must not be negative");
+        if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be positive");
+        this.nodeLanes = parallelism == 0 ? null
+                : new LaneExecutor<String>(LaneExecutor.createWorkStealingPool(parallelism));
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sends a notification with the item to every subscriber.
+     * 
+     * @param serverJID
+     *            the sender of the notifications
+     * @param nodeName
+     *            the node the item has been published to
+     * @param lang
+     *            the language of the notifications
+     * @param subscribers
+     *            snapshot of the node's subscribers, must not be changed afterwards
+     * @param item
+     *            the payload
+     * @param stanzaBroker
+     *            the broker for sending the notifications
+     * @return completes when all notifications are handed over for delivery
+     */
+    public CompletableFuture<Void> publish(Entity serverJID, final String nodeName, String lang,
+            final List<Entity> subscribers, XMLElement item, final StanzaBroker stanzaBroker) {
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        if (subscribers.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+
+        final BroadcastTemplate template = new BroadcastTemplate(
+                SubscriberPayloadNotificationVisitor.createMessageEventStanza(serverJID, nodeName, null, lang, item),
+                null);
+        final long start = System.nanoTime();
+        Runnable fanout = new Runnable() {
+            public void run() {
+                try {
+                    deliver(subscribers, template, stanzaBroker);
+                    done.complete(null);
+                } catch (RuntimeException e) {
+                    logger.warn("delivering notifications for node " + nodeName + " failed", e);
+                    done.completeExceptionally(e);
+                } finally {
+                    record(nodeName, subscribers.size(), System.nanoTime() - start);
+                }
+            }
+        };
+
+        if (nodeLanes == null) {
+            fanout.run();
+            return done;
+        }
+        try {
+            nodeLanes.execute(nodeName, fanout);
+        } catch (RejectedExecutionException e) {
+            logger.warn("fan-out is shut down, notifications for node {} are not delivered", nodeName);
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    private void deliver(List<Entity> subscribers, final BroadcastTemplate template,
+            final StanzaBroker stanzaBroker) {
+        if (subscribers.size() <= chunkSize || !ForkJoinTask.inForkJoinPool()) {
+            deliverChunk(subscribers, template, stanzaBroker);
+            return;
+        }
+
+        List<ForkJoinTask<?>> chunks = new ArrayList<ForkJoinTask<?>>();
+        for (int from = 0; from < subscribers.size(); from += chunkSize) {
+            final List<Entity> chunk = subscribers.subList(from, Math.min(from + chunkSize, subscribers.size()));
+            chunks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    deliverChunk(chunk, template, stanzaBroker);
+                }
+            });
+        }
+        // waits for all chunks, so the next publish to the node does not overtake this one
+        ForkJoinTask.invokeAll(chunks);
+    }
+
+    private void deliverChunk(List<Entity> subscribers, BroadcastTemplate template, StanzaBroker stanzaBroker) {
+        try {
+            stanzaBroker.writeToAll(subscribers, template, IgnoreFailureStrategy.INSTANCE);
+        } catch (DeliveryException e) {
+            // fire and forget
+            if (logger.isTraceEnabled())
+                logger.trace("Couldn't deliver notifications", e);
+        }
+    }
+
+    private void record(String nodeName, int subscriberCount, long latencyNanos) {
+        fanoutCount.incrementAndGet();
+        notificationCount.addAndGet(subscriberCount);
+        totalLatencyNanos.addAndGet(latencyNanos);
+        long max = maxLatencyNanos.get();
+        while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = maxLatencyNanos.get();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("fan-out to {} subscribers of node {} took {} ms",
+                    new Object[] { subscriberCount, nodeName, TimeUnit.NANOSECONDS.toMillis(latencyNanos) });
+        }
+    }
+
+    /**
+     * @return number of publishes delivered so far
+     */
+    public long getFanoutCount() {
+        return fanoutCount.get();
+    }
+
+    /**
+     * @return number of notifications sent so far
+     */
+    public long getNotificationCount() {
+        return notificationCount.get();
+    }
+
+    /**
+     * @return average time from publishing until all notifications are handed over, in nanoseconds
+     */
+    public long getAverageLatencyNanos() {
+        long count = fanoutCount.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / count;
+    }
+
+    /**
+     * @return longest time from publishing until all notifications are handed over, in nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * Stops accepting publishes, pending ones are still delivered.
+     */
+    public void shutdown() {
+        if (nodeLanes != null) {
+            nodeLanes.shutdown();
+        }
+    }
+}
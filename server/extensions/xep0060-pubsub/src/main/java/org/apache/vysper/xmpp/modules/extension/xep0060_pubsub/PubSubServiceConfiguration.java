@@ -25,6 +25,7 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.C
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.CollectionNodeStorageProvider;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.LeafNodeInMemoryStorageProvider;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.LeafNodeStorageProvider;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
 
 /**
  * This class represents the configuration for the publish/subscribe service.
@@ -40,6 +41,12 @@ public class PubSubServiceConfiguration {
 
     private LeafNodeStorageProvider leafNodeStorageProvider;
 
+    private PubSubFanout fanout;
+
+    private String language = "en";
+
+    private StanzaBroker notificationBroker;
+
     /**
      * Creates a new configuration object containing at least the root collection node.
      * 
@@ -49,6 +56,7 @@ public class PubSubServiceConfiguration {
         this.rootNode = root;
         this.leafNodeStorageProvider = new LeafNodeInMemoryStorageProvider();
         this.collectionNodeStorageProvider = new CollectionNodeInMemoryStorageProvider();
+        this.fanout = new PubSubFanout();
         this.initialize();
     }
 
@@ -109,11 +117,61 @@ public class PubSubServiceConfiguration {
         return collectionNodeStorageProvider;
     }
 
+    /**
+     * Set the fan-out delivering published items to the subscribers.
+     * @param fanout
+     */
+    public void setFanout(PubSubFanout fanout) {
+        this.fanout = fanout;
+    }
+
+    /**
+     * Return the fan-out delivering published items to the subscribers.
+     * @return
+     */
+    public PubSubFanout getFanout() {
+        return fanout;
+    }
+
+    /**
+     * Set the language (xml:lang) of the notifications sent to the subscribers.
+     * @param language
+     */
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    /**
+     * Return the language (xml:lang) of the notifications sent to the subscribers.
+     * @return
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Set the broker the fan-out sends the notifications through. It outlives the session which published the
+     * item, the notifications may be delivered after the session has gone.
+     * @param notificationBroker
+     */
+    public void setNotificationBroker(StanzaBroker notificationBroker) {
+        this.notificationBroker = notificationBroker;
+    }
+
+    /**
+     * Return the broker the fan-out sends the notifications through, null for the publishing session's broker.
+     * @return
+     */
+    public StanzaBroker getNotificationBroker() {
+        return notificationBroker;
+    }
+
     /**
      * To be called after the storage providers are set or changed.
      */
     public void initialize() {
         rootNode.setCollectionNodeStorageProvider(this.collectionNodeStorageProvider);
+        collectionNodeStorageProvider.initialize(this);
     }
 
 }
@@ -19,6 +19,8 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -49,6 +51,7 @@ import org.apache.vysper.xmpp.modules.servicediscovery.management.Item;
 import org.apache.vysper.xmpp.modules.servicediscovery.management.ItemRequestListener;
 import org.apache.vysper.xmpp.modules.servicediscovery.management.ServerInfoRequestListener;
 import org.apache.vysper.xmpp.modules.servicediscovery.management.ServiceDiscoveryRequestException;
+import org.apache.vysper.xmpp.protocol.DefaultStanzaBroker;
 import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.protocol.StanzaBroker;
@@ -138,9 +141,31 @@ public class PublishSubscribeModule extends DefaultDiscoAwareModule implements C
         }
 
         this.serviceConfiguration.setDomainJID(fullDomain);
+        this.serviceConfiguration.setNotificationBroker(new DefaultStanzaBroker(serverRuntimeContext.getStanzaRelay(),
+                null));
         this.serviceConfiguration.initialize();
     }
 
+    /**
+     * Stops the delivery of notifications and closes the storage providers holding resources.
+     */
+    @Override
+    public void close() {
+        serviceConfiguration.getFanout().shutdown();
+        close(serviceConfiguration.getLeafNodeStorageProvider());
+        close(serviceConfiguration.getCollectionNodeStorageProvider());
+        super.close();
+    }
+
+    private void close(Object storageProvider) {
+        if (!(storageProvider instanceof Closeable)) return;
+        try {
+            ((Closeable) storageProvider).close();
+        } catch (IOException e) {
+            logger.error("failed to close the pubsub storage provider " + storageProvider, e);
+        }
+    }
+
     /**
      * Returns the service name
      */
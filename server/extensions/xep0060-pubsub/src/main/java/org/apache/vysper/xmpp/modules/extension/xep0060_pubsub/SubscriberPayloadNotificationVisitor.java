@@ -54,16 +54,23 @@ public class SubscriberPayloadNotificationVisitor implements SubscriberVisitor {
     // The server JID
     private Entity serverJID;
 
+    // The language of the messages
+    private String lang;
+
     /**
      * Initialize the visitor with the StanzaRelay and payload.
      * 
+     * @param lang
+     *            language of the messages.
      * @param stanzaBroker
      *            relay for sending the messages.
      * @param item
      *            payload for the messages.
      */
-    public SubscriberPayloadNotificationVisitor(Entity serverJID, StanzaBroker stanzaBroker, XMLElement item) {
+    public SubscriberPayloadNotificationVisitor(Entity serverJID, String lang, StanzaBroker stanzaBroker,
+            XMLElement item) {
         this.serverJID = serverJID;
+        this.lang = lang;
         this.stanzaBroker = stanzaBroker;
         this.item = item;
     }
@@ -80,7 +87,7 @@ public class SubscriberPayloadNotificationVisitor implements SubscriberVisitor {
      *            the receiver of the notification
      */
     public void visit(String nodeName, String subscriptionID, Entity subscriber) {
-        Stanza event = createMessageEventStanza(nodeName, subscriber, "en", item); // TODO extract the hardcoded "en"
+        Stanza event = createMessageEventStanza(serverJID, nodeName, subscriber, lang, item);
 
         try {
             stanzaBroker.write(subscriber, event, dfs);
@@ -94,18 +101,24 @@ public class SubscriberPayloadNotificationVisitor implements SubscriberVisitor {
     /**
      * Creates the stanza for notifying the subscriber including payload.
      * 
+     * @param serverJID
+     *            the sender of the notification
+     * @param nodeName
+     *            the node the item has been published to
      * @param to
-     *            the receiver of the notification (subscriber)
+     *            the receiver of the notification (subscriber), may be null
      * @param lang
      *            the language of the stanza text-content.
      * @param item
      *            the payload as XMLElement
      * @return the prepared Stanza object.
      */
-    private Stanza createMessageEventStanza(String nodeName, Entity to, String lang, XMLElement item) {
+    public static Stanza createMessageEventStanza(Entity serverJID, String nodeName, Entity to, String lang,
+            XMLElement item) {
         StanzaBuilder stanzaBuilder = new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT);
         stanzaBuilder.addAttribute("from", serverJID.getFullQualifiedName());
-        stanzaBuilder.addAttribute("to", to.getFullQualifiedName());
+        if (to != null)
+            stanzaBuilder.addAttribute("to", to.getFullQualifiedName());
         stanzaBuilder.addAttribute(NamespaceURIs.XML, "lang", lang);
         stanzaBuilder.startInnerElement("event", NamespaceURIs.XEP0060_PUBSUB_EVENT);
         stanzaBuilder.startInnerElement("items", NamespaceURIs.XEP0060_PUBSUB_EVENT);
@@ -20,13 +20,16 @@
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.MemberAffiliationVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubFanout;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberPayloadNotificationVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberVisitor;
@@ -59,6 +62,12 @@ public class LeafNode {
     // the service configuration
     protected PubSubServiceConfiguration serviceConfiguration = null;
 
+    // counts changes of the subscriptions
+    private final AtomicInteger subscriptionChanges = new AtomicInteger();
+
+    // the subscribers, one entry per subscription, with the number of subscription changes it reflects
+    private volatile SubscriberSnapshot subscriberSnapshot = null;
+
     /**
      * Creates a new LeafNode with the specified name and title. The creator will be
      * added as owner.
@@ -75,6 +84,24 @@ public class LeafNode {
         init(serviceConfiguration, name, null, creator);
     }
 
+    private LeafNode() {
+        // used by restore
+    }
+
+    /**
+     * Recreates a LeafNode kept by the storage providers. The subscriptions, items and affiliations
+     * are not touched, the storage provider is expected to still hold them.
+     */
+    public static LeafNode restore(PubSubServiceConfiguration serviceConfiguration, String name, String title) {
+        LeafNode node = new LeafNode();
+        node.serviceConfiguration = serviceConfiguration;
+        node.name = name;
+        node.title = title;
+        node.storage = serviceConfiguration.getLeafNodeStorageProvider();
+        node.storage.initialize(node);
+        return node;
+    }
+
     /**
      * Method to actually do the initialization process.
      * 
@@ -104,6 +131,7 @@ public class LeafNode {
      */
     public void setPersistenceManager(LeafNodeStorageProvider persistenceManager) {
         this.storage = persistenceManager;
+        subscriptionChanges.incrementAndGet();
     }
 
     /**
@@ -116,6 +144,7 @@ public class LeafNode {
      */
     public void subscribe(String id, Entity subscriber) {
         storage.addSubscriber(name, id, subscriber);
+        subscriptionChanges.incrementAndGet();
     }
 
     /**
@@ -154,7 +183,9 @@ public class LeafNode {
         Entity sub = storage.getSubscriber(name, subscriptionID);
 
         if (sub != null && sub.equals(subscriber)) {
-            return storage.removeSubscription(name, subscriptionID);
+            boolean removed = storage.removeSubscription(name, subscriptionID);
+            subscriptionChanges.incrementAndGet();
+            return removed;
         }
         return false;
     }
@@ -173,7 +204,9 @@ public class LeafNode {
         if (countSubscriptions(subscriber) > 1) {
             throw new MultipleSubscriptionException("Ambigous unsubscription request");
         }
-        return storage.removeSubscriber(name, subscriber);
+        boolean removed = storage.removeSubscriber(name, subscriber);
+        subscriptionChanges.incrementAndGet();
+        return removed;
     }
 
     /**
@@ -215,7 +248,8 @@ public class LeafNode {
     }
 
     /**
-     * Sends a message to each subscriber of the node.
+     * Sends a message to each subscriber of the node. The messages are delivered by the service's fan-out,
+     * possibly after this method returns.
      * 
      * @param stanzaBroker
      *            the relay for sending the notifications.
@@ -223,8 +257,53 @@ public class LeafNode {
      *            the payload of the message.
      */
     protected void sendMessageToSubscriber(StanzaBroker stanzaBroker, XMLElement item) {
-        storage.acceptForEachSubscriber(name,
-                new SubscriberPayloadNotificationVisitor(serviceConfiguration.getDomainJID(), stanzaBroker, item));
+        PubSubFanout fanout = serviceConfiguration.getFanout();
+        if (fanout == null) {
+            storage.acceptForEachSubscriber(name, new SubscriberPayloadNotificationVisitor(
+                    serviceConfiguration.getDomainJID(), serviceConfiguration.getLanguage(), stanzaBroker, item));
+            return;
+        }
+        // the fan-out may run after the publishing session is gone, prefer the server's broker
+        StanzaBroker notificationBroker = serviceConfiguration.getNotificationBroker();
+        fanout.publish(serviceConfiguration.getDomainJID(), name, serviceConfiguration.getLanguage(),
+                getSubscriberSnapshot(), item, notificationBroker != null ? notificationBroker : stanzaBroker);
+    }
+
+    /**
+     * @return the subscribers of this node, one entry per subscription. The list is immutable and shared
+     *         until the subscriptions change.
+     */
+    protected List<Entity> getSubscriberSnapshot() {
+        int changes = subscriptionChanges.get();
+        SubscriberSnapshot snapshot = subscriberSnapshot;
+        if (snapshot != null && snapshot.changes == changes) {
+            return snapshot.subscribers;
+        }
+
+        final List<Entity> subscribers = new ArrayList<Entity>();
+        storage.acceptForEachSubscriber(name, new SubscriberVisitor() {
+            public void visit(String nodeName, String subscriptionID, Entity subscriber) {
+                subscribers.add(subscriber);
+            }
+        });
+        snapshot = new SubscriberSnapshot(changes, Collections.unmodifiableList(subscribers));
+        if (subscriptionChanges.get() == changes) {
+            // not changed while visiting
+            subscriberSnapshot = snapshot;
+        }
+        return snapshot.subscribers;
+    }
+
+    private static final class SubscriberSnapshot {
+
+        private final int changes;
+
+        private final List<Entity> subscribers;
+
+        private SubscriberSnapshot(int changes, List<Entity> subscribers) {
+            this.changes = changes;
+            this.subscribers = subscribers;
+        }
     }
 
     /**
@@ -57,6 +57,20 @@ public class PayloadItem implements Comparable<PayloadItem> {
         this.publishedDate = new Date(); // initialized with the current date/time
     }
 
+    /**
+     * Create a PayloadItem published at the given date-time, e. g. when restoring it from storage.
+     * @param publisher
+     * @param payload
+     * @param itemID
+     * @param publishedDate
+     */
+    public PayloadItem(Entity publisher, XMLElement payload, String itemID, Date publishedDate) {
+        this.publisher = publisher;
+        this.payload = payload;
+        this.itemID = itemID;
+        this.publishedDate = publishedDate;
+    }
+
     /**
      * Compares the two publishedDates.
      */
@@ -71,4 +85,25 @@ public class PayloadItem implements Comparable<PayloadItem> {
         return itemID;
     }
 
+    /**
+     * @return the publisher of the item.
+     */
+    public Entity getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * @return the payload of the item.
+     */
+    public XMLElement getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the date-time the item has been published.
+     */
+    public Date getPublishedDate() {
+        return publishedDate;
+    }
+
 }
@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+
+/**
+ * This storage provider keeps the nodes in memory like the {@link CollectionNodeInMemoryStorageProvider}
+ * and additionally logs every change to a journal in the given directory. The stored nodes are restored
+ * when the service configuration is initialized, their content is restored by the
+ * {@link LeafNodeFileStorageProvider}.
+ * 
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class CollectionNodeFileStorageProvider extends CollectionNodeInMemoryStorageProvider implements Closeable {
+
+    private static final byte NODE_STORED = 1;
+
+    private static final byte NODE_DELETED = 2;
+
+    private final FileJournal journal;
+
+    // the titles of the stored nodes, access via node name
+    private final Map<String, String> titles = new LinkedHashMap<String, String>();
+
+    /**
+     * Open the storage in the given directory, reading the nodes stored there.
+     */
+    public CollectionNodeFileStorageProvider(File directory) throws IOException {
+        this(directory, FileJournal.DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * Open the storage in the given directory, reading the nodes stored there.
+     * 
+     * @param snapshotThreshold
+     *            size of the journals in bytes after which a snapshot is written
+     */
+    public CollectionNodeFileStorageProvider(File directory, long snapshotThreshold) throws IOException {
+        journal = new FileJournal(directory, "collectionnodes", snapshotThreshold, new FileJournal.Snapshot() {
+            public void write(FileJournal.Output snapshot) throws IOException {
+                writeSnapshot(snapshot);
+            }
+        });
+        journal.recover(new FileJournal.Replay() {
+            public void replay(byte type, FileJournal.Input record) throws IOException {
+                String nodeName = record.readString();
+                if (type == NODE_STORED) {
+                    titles.put(nodeName, record.readString());
+                } else if (type == NODE_DELETED) {
+                    titles.remove(nodeName);
+                } else {
+                    throw new IOException("unknown pubsub collection node record type " + type);
+                }
+            }
+        });
+    }
+
+    /**
+     * Restores the stored nodes. The leaf node storage provider of the configuration has to
+     * hold their content.
+     */
+    @Override
+    public synchronized void initialize(PubSubServiceConfiguration serviceConfiguration) {
+        nodes.clear();
+        for (Map.Entry<String, String> node : titles.entrySet()) {
+            nodes.put(node.getKey(), LeafNode.restore(serviceConfiguration, node.getKey(), node.getValue()));
+        }
+    }
+
+    /**
+     * Add the given LeafNode with the given JID to the storage.
+     * An existing node with the same JID will be replaced.
+     */
+    @Override
+    public synchronized void storeNode(LeafNode node) {
+        journal.append(new FileJournal.Record(NODE_STORED).writeString(node.getName()).writeString(node.getTitle()));
+        super.storeNode(node);
+        titles.put(node.getName(), node.getTitle());
+    }
+
+    /**
+     * Delete the node specified by nodeName.
+     */
+    @Override
+    public synchronized void deleteNode(String nodeName) {
+        journal.append(new FileJournal.Record(NODE_DELETED).writeString(nodeName));
+        super.deleteNode(nodeName);
+        titles.remove(nodeName);
+    }
+
+    /**
+     * Write a last snapshot and close the storage.
+     */
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private void writeSnapshot(FileJournal.Output snapshot) throws IOException {
+        Map<String, String> stored;
+        synchronized (this) {
+            stored = new LinkedHashMap<String, String>(titles);
+        }
+        for (Map.Entry<String, String> node : stored.entrySet()) {
+            snapshot.append(new FileJournal.Record(NODE_STORED).writeString(node.getKey()).writeString(
+                    node.getValue()));
+        }
+    }
+}
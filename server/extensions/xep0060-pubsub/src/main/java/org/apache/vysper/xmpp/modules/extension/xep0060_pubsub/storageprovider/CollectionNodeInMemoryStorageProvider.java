@@ -19,8 +19,8 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NodeVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
@@ -40,7 +40,7 @@ public class CollectionNodeInMemoryStorageProvider implements CollectionNodeStor
      * Initialize the storage provider.
      */
     public CollectionNodeInMemoryStorageProvider() {
-        nodes = new HashMap<String, LeafNode>();
+        nodes = new ConcurrentHashMap<String, LeafNode>();
     }
 
     /**
@@ -21,6 +21,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
 
 import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NodeVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
 
 /**
@@ -64,6 +65,16 @@ public interface CollectionNodeStorageProvider extends StorageProvider {
      */
     public void initialize();
 
+    /**
+     * Call to do some preliminary tasks once the service is configured, e. g. restoring
+     * the stored nodes.
+     * 
+     * @param serviceConfiguration the configuration the nodes belong to.
+     */
+    default void initialize(PubSubServiceConfiguration serviceConfiguration) {
+        initialize();
+    }
+
     /**
      * Delete the node with name nodeName.
      * @param nodeName the name of the node to delete.
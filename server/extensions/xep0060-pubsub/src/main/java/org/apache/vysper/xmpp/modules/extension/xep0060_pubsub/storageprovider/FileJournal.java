@@ -0,0 +1,495 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The log-structured store of the file storage providers. Each change is appended as a record to the current
+ * journal. Once the journals have grown beyond the snapshot threshold, the whole state is written to a
+ * snapshot in the background and the journals it covers are deleted.
+ * 
+ * On startup the snapshot and the journals written after it are memory mapped and replayed. Records are
+ * framed by their length and a CRC32 checksum, records torn by a crash are dropped. Replay stops at the first
+ * journal with a torn or corrupt record, the journals following it are set aside and not replayed.
+ * 
+ * Records are handed to the file system as they are appended, they survive a crash of the server but not
+ * necessarily one of the operating system until the next snapshot.
+ * 
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+final class FileJournal {
+
+    static final long DEFAULT_SNAPSHOT_THRESHOLD = 64L * 1024 * 1024;
+
+    private static final int SNAPSHOT_MAGIC = 0x56505331;
+
+    // int magic, long sequence of the last journal contained
+    private static final int SNAPSHOT_HEADER_SIZE = 12;
+
+    // int length, int checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAP_WINDOW = 256 * 1024 * 1024;
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Applies a record read from the snapshot or a journal.
+     */
+    interface Replay {
+        void replay(byte type, Input record) throws IOException;
+    }
+
+    /**
+     * Writes the whole state as records. It has to be safe to run concurrently with changes, records of changes
+     * made while the snapshot is written are replayed again on top of it.
+     */
+    interface Snapshot {
+        void write(Output snapshot) throws IOException;
+    }
+
+    interface Output {
+        void append(Record record) throws IOException;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(FileJournal.class);
+
+    private final File directory;
+
+    private final String name;
+
+    private final long snapshotThreshold;
+
+    private final Snapshot snapshot;
+
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean(false);
+
+    // serializes snapshots
+    private final Object snapshotLock = new Object();
+
+    // guarded by this
+    private FileChannel journal;
+
+    private long sequence = 0;
+
+    private long journalBytes = 0;
+
+    private boolean closed = false;
+
+    private long recoveredRecords = 0;
+
+    private long recoveryMillis = 0;
+
+    FileJournal(File directory, String name, long snapshotThreshold, Snapshot snapshot) throws IOException {
+        if (directory == null) throw new IllegalArgumentException("directory must not be null");
+        if (snapshotThreshold <= 0) throw new IllegalArgumentException("snapshot threshold must be positive");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create pubsub storage directory " + directory);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.snapshotThreshold = snapshotThreshold;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Replays the snapshot and the journals written after it, then starts a new journal for appending.
+     */
+    synchronized void recover(Replay replay) throws IOException {
+        long start = System.nanoTime();
+        long covered = 0;
+        File snapshotFile = new File(directory, name + SNAPSHOT_SUFFIX);
+        if (snapshotFile.exists()) {
+            covered = read(snapshotFile, true, replay);
+        }
+        sequence = covered;
+        List<Long> journalSequences = journalSequences();
+        for (int i = 0; i < journalSequences.size(); i++) {
+            File journalFile = journalFile(journalSequences.get(i));
+            if (journalSequences.get(i) <= covered) {
+                delete(journalFile);
+                continue;
+            }
+            boolean complete = read(journalFile, false, replay) >= 0;
+            journalBytes += journalFile.length();
+            sequence = journalSequences.get(i);
+            if (!complete && i + 1 < journalSequences.size()) {
+                // the later journals build on the records lost here, replaying them would give an inconsistent state
+                logger.error("stopping the pubsub {} replay at the corrupt journal {}, setting aside {} later journals",
+                        new Object[] { name, journalFile, journalSequences.size() - i - 1 });
+                for (int j = i + 1; j < journalSequences.size(); j++) {
+                    setAside(journalFile(journalSequences.get(j)));
+                }
+                break;
+            }
+        }
+        delete(new File(directory, name + SNAPSHOT_SUFFIX + TMP_SUFFIX));
+        openJournal();
+
+        recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("recovered {} pubsub {} records in {} ms", new Object[] { recoveredRecords, name, recoveryMillis });
+    }
+
+    /**
+     * Appends the record to the current journal and schedules a snapshot if the threshold has been reached.
+     *
+     * @throws UncheckedIOException if the record could not be written, the partially written frame is truncated
+     */
+    void append(Record record) {
+        ByteBuffer frame = record.frame();
+        boolean snapshotDue;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("pubsub " + name + " storage is closed");
+            long position = 0;
+            try {
+                position = journal.position();
+                while (frame.hasRemaining()) {
+                    journal.write(frame);
+                }
+            } catch (IOException e) {
+                if (!truncate(position)) {
+                    // records appended after the torn one could not be replayed, the snapshot moves on to a new
+                    // journal and covers this one
+                    scheduleSnapshot();
+                }
+                throw new UncheckedIOException("failed to append to the pubsub " + name + " journal", e);
+            }
+            journalBytes += frame.limit();
+            snapshotDue = journalBytes >= snapshotThreshold;
+        }
+        if (snapshotDue) scheduleSnapshot();
+    }
+
+    /**
+     * Writes a snapshot in the background, unless one is already scheduled.
+     */
+    private void scheduleSnapshot() {
+        if (snapshotScheduled.compareAndSet(false, true)) {
+            Thread snapshotWriter = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        snapshot();
+                    } catch (IOException e) {
+                        logger.error("failed to write the pubsub {} snapshot", name, e);
+                    } finally {
+                        snapshotScheduled.set(false);
+                    }
+                }
+            }, "pubsub-" + name + "-snapshot");
+            snapshotWriter.setDaemon(true);
+            snapshotWriter.start();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the whole state and deletes the journals it covers.
+     */
+    void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long covered;
+            synchronized (this) {
+                if (closed) return;
+                covered = sequence;
+                journal.force(false);
+                journal.close();
+                openJournal();
+                journalBytes = 0;
+            }
+
+            File tmp = new File(directory, name + SNAPSHOT_SUFFIX + TMP_SUFFIX);
+            FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            try {
+                final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+                header.putInt(SNAPSHOT_MAGIC).putLong(covered);
+                out.write(header.array());
+                snapshot.write(new Output() {
+                    public void append(Record record) throws IOException {
+                        ByteBuffer frame = record.frame();
+                        out.write(frame.array(), 0, frame.limit());
+                    }
+                });
+                out.flush();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            Files.move(tmp.toPath(), new File(directory, name + SNAPSHOT_SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (long journalSequence : journalSequences()) {
+                if (journalSequence <= covered) delete(journalFile(journalSequence));
+            }
+            logger.debug("wrote pubsub {} snapshot covering journal {}", name, covered);
+        }
+    }
+
+    /**
+     * Writes a last snapshot, keeping the next start short, and closes the journal.
+     */
+    void close() throws IOException {
+        snapshot();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            journal.force(false);
+            journal.close();
+        }
+    }
+
+    long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    /**
+     * @return the sequence of the last journal contained in the snapshot. for a journal 0, or -1 if it ended with
+     *         a torn or corrupt record, which has been truncated.
+     */
+    private long read(File file, boolean isSnapshot, Replay replay) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long position = 0;
+            long covered = 0;
+            if (isSnapshot) {
+                if (size < SNAPSHOT_HEADER_SIZE) throw new IOException("corrupt pubsub snapshot " + file);
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_SIZE);
+                if (header.getInt() != SNAPSHOT_MAGIC) throw new IOException("corrupt pubsub snapshot " + file);
+                covered = header.getLong();
+                position = SNAPSHOT_HEADER_SIZE;
+            }
+
+            MappedByteBuffer window = null;
+            long windowStart = 0;
+            CRC32 checksum = new CRC32();
+            while (position + RECORD_HEADER_SIZE <= size) {
+                if (window == null || position + RECORD_HEADER_SIZE > windowStart + window.limit()) {
+                    window = map(channel, position, size, RECORD_HEADER_SIZE);
+                    windowStart = position;
+                }
+                int offset = (int) (position - windowStart);
+                int length = window.getInt(offset);
+                int expectedChecksum = window.getInt(offset + 4);
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > size) break;
+                if (position + RECORD_HEADER_SIZE + length > windowStart + window.limit()) {
+                    window = map(channel, position, size, RECORD_HEADER_SIZE + length);
+                    windowStart = position;
+                    offset = 0;
+                }
+
+                ByteBuffer body = window.duplicate();
+                body.limit(offset + RECORD_HEADER_SIZE + length).position(offset + RECORD_HEADER_SIZE);
+                body = body.slice();
+                checksum.reset();
+                checksum.update(body.duplicate());
+                if ((int) checksum.getValue() != expectedChecksum) break;
+
+                replay.replay(body.get(), new Input(body));
+                recoveredRecords++;
+                position += RECORD_HEADER_SIZE + length;
+            }
+
+            if (position < size) {
+                if (isSnapshot) throw new IOException("corrupt pubsub snapshot " + file);
+                logger.warn("dropping {} bytes of torn records at the end of {}", size - position, file);
+                FileChannel truncated = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                try {
+                    truncated.truncate(position);
+                } finally {
+                    truncated.close();
+                }
+                return -1;
+            }
+            return covered;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long position, long size, int minimum) throws IOException {
+        long length = Math.min(size - position, Math.max(MAP_WINDOW, minimum));
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    private void openJournal() throws IOException {
+        journal = FileChannel.open(journalFile(sequence + 1).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        sequence++;
+    }
+
+    private boolean truncate(long position) {
+        try {
+            journal.truncate(position);
+            return true;
+        } catch (IOException e) {
+            logger.error("failed to truncate the pubsub {} journal", name, e);
+            return false;
+        }
+    }
+
+    private File journalFile(long journalSequence) {
+        return new File(directory, name + "." + journalSequence + JOURNAL_SUFFIX);
+    }
+
+    private List<Long> journalSequences() {
+        List<Long> sequences = new ArrayList<Long>();
+        String[] files = directory.list();
+        if (files == null) return sequences;
+        String prefix = name + ".";
+        for (String file : files) {
+            if (!file.startsWith(prefix) || !file.endsWith(JOURNAL_SUFFIX)) continue;
+            try {
+                sequences.add(Long.parseLong(file.substring(prefix.length(), file.length() - JOURNAL_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    private void setAside(File file) {
+        File discarded = new File(file.getPath() + ".discarded");
+        if (!file.renameTo(discarded)) {
+            logger.warn("failed to set aside {}", file);
+        }
+    }
+
+    private void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("failed to delete {}", file);
+        }
+    }
+
+    /**
+     * A record under construction, starting with its type.
+     */
+    static final class Record {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+        Record(byte type) {
+            bytes.write(type);
+        }
+
+        Record writeString(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return this;
+            }
+            return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Record writeBytes(byte[] value) {
+            writeInt(value.length);
+            bytes.write(value, 0, value.length);
+            return this;
+        }
+
+        Record writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+            return this;
+        }
+
+        Record writeInt(int value) {
+            bytes.write(value >>> 24);
+            bytes.write(value >>> 16);
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        private ByteBuffer frame() {
+            byte[] body = bytes.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(body);
+            ByteBuffer frame = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+            frame.putInt(body.length).putInt((int) checksum.getValue()).put(body);
+            frame.flip();
+            return frame;
+        }
+    }
+
+    /**
+     * A record being replayed, after its type.
+     */
+    static final class Input {
+
+        private final ByteBuffer buffer;
+
+        private Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        String readString() {
+            byte[] value = readBytes();
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        byte[] readBytes() {
+            int length = buffer.getInt();
+            if (length < 0) return null;
+            byte[] value = new byte[length];
+            buffer.get(value);
+            return value;
+        }
+
+        long readLong() {
+            return buffer.getLong();
+        }
+
+        int readInt() {
+            return buffer.getInt();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LastOwnerResignedException;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+import org.apache.vysper.xmpp.parser.XMLParserUtil;
+
+/**
+ * This storage provider keeps the leaf nodes in memory like the {@link LeafNodeInMemoryStorageProvider}
+ * and additionally logs every change to a journal in the given directory, so the subscriptions, affiliations
+ * and items survive a restart. See {@link FileJournal} for the file format.
+ * 
+ * A change is applied to the nodes in memory only after it has been logged. If logging fails, the
+ * change is not made.
+ * 
+ * Restored items keep their payload as XML text until it is needed, so even nodes with many items are
+ * restored quickly.
+ * 
+ * Use together with the {@link CollectionNodeFileStorageProvider}, which restores the nodes themselves.
+ * 
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class LeafNodeFileStorageProvider extends LeafNodeInMemoryStorageProvider implements Closeable {
+
+    private static final byte NODE_CREATED = 1;
+
+    private static final byte NODE_DELETED = 2;
+
+    private static final byte SUBSCRIBER_ADDED = 3;
+
+    private static final byte SUBSCRIPTION_REMOVED = 4;
+
+    private static final byte SUBSCRIBER_REMOVED = 5;
+
+    private static final byte AFFILIATION_SET = 6;
+
+    private static final byte ITEM_ADDED = 7;
+
+    private final FileJournal journal;
+
+    /**
+     * Open the storage in the given directory, restoring the nodes stored there.
+     */
+    public LeafNodeFileStorageProvider(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_ITEMS, UNLIMITED, FileJournal.DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * Open the storage in the given directory, restoring the nodes stored there.
+     * 
+     * @param defaultMaxItems
+     *            maximum number of items per node, or UNLIMITED
+     * @param defaultItemExpiryMillis
+     *            time after which items are dropped, or UNLIMITED
+     * @param snapshotThreshold
+     *            size of the journals in bytes after which a snapshot is written
+     */
+    public LeafNodeFileStorageProvider(File directory, int defaultMaxItems, long defaultItemExpiryMillis,
+            long snapshotThreshold) throws IOException {
+        super(defaultMaxItems, defaultItemExpiryMillis);
+        journal = new FileJournal(directory, "leafnodes", snapshotThreshold, new FileJournal.Snapshot() {
+            public void write(FileJournal.Output snapshot) throws IOException {
+                writeSnapshot(snapshot);
+            }
+        });
+        journal.recover(new FileJournal.Replay() {
+            public void replay(byte type, FileJournal.Input record) throws IOException {
+                LeafNodeFileStorageProvider.this.replay(type, record);
+            }
+        });
+    }
+
+    /**
+     * Add a subscriber with given subID.
+     */
+    @Override
+    public void addSubscriber(String nodeName, String subscriptionID, Entity subscriber) {
+        synchronized (nodes.get(nodeName)) {
+            journal.append(new FileJournal.Record(SUBSCRIBER_ADDED).writeString(nodeName)
+                    .writeString(subscriptionID).writeString(subscriber.getFullQualifiedName()));
+            super.addSubscriber(nodeName, subscriptionID, subscriber);
+        }
+    }
+
+    /**
+     * Remove a subscriber via its subscriptionId.
+     */
+    @Override
+    public boolean removeSubscription(String nodeName, String subscriptionId) {
+        synchronized (nodes.get(nodeName)) {
+            if (!containsSubscriber(nodeName, subscriptionId)) return false;
+            journal.append(new FileJournal.Record(SUBSCRIPTION_REMOVED).writeString(nodeName).writeString(
+                    subscriptionId));
+            return super.removeSubscription(nodeName, subscriptionId);
+        }
+    }
+
+    /**
+     * Remove a subscriber via its JID. This removes all subscriptions of the JID.
+     */
+    @Override
+    public boolean removeSubscriber(String nodeName, Entity subscriber) {
+        synchronized (nodes.get(nodeName)) {
+            if (!containsSubscriber(nodeName, subscriber)) return false;
+            journal.append(new FileJournal.Record(SUBSCRIBER_REMOVED).writeString(nodeName).writeString(
+                    subscriber.getFullQualifiedName()));
+            return super.removeSubscriber(nodeName, subscriber);
+        }
+    }
+
+    /**
+     * Add a message to the storage. Republishing an item makes it the newest one.
+     */
+    @Override
+    public void addMessage(Entity publisher, String nodeName, String itemID, XMLElement payload) {
+        PayloadItem item = new PayloadItem(publisher, payload, itemID);
+        byte[] xml = new Renderer(payload).getComplete().getBytes(StandardCharsets.UTF_8);
+        synchronized (nodes.get(nodeName)) {
+            journal.append(itemRecord(nodeName, item, xml));
+            addItem(nodeName, item);
+        }
+    }
+
+    /**
+     * Initialize the node with the storage, unless it has been restored.
+     */
+    @Override
+    public synchronized void initialize(LeafNode leafNode) {
+        if (nodes.containsKey(leafNode.getName())) return;
+        journal.append(new FileJournal.Record(NODE_CREATED).writeString(leafNode.getName()));
+        super.initialize(leafNode);
+    }
+
+    /**
+     * Remove the specified node from the storage.
+     */
+    @Override
+    public synchronized void delete(String name) {
+        journal.append(new FileJournal.Record(NODE_DELETED).writeString(name));
+        super.delete(name);
+    }
+
+    /**
+     * Add the entity to the owner list of the given node.
+     * The owner is stored as bare JID.
+     */
+    @Override
+    public void setAffiliation(String nodeName, Entity entity, PubSubAffiliation affiliation)
+            throws LastOwnerResignedException {
+        NodeStorage node = nodes.get(nodeName);
+        synchronized (node) {
+            verifyAffiliation(nodeName, node, entity.getBareJID(), affiliation);
+            journal.append(affiliationRecord(nodeName, entity.getBareJID(), affiliation));
+            super.setAffiliation(nodeName, entity, affiliation);
+        }
+    }
+
+    /**
+     * Write a snapshot now instead of waiting for the journals to reach the threshold.
+     */
+    public void snapshot() throws IOException {
+        journal.snapshot();
+    }
+
+    /**
+     * Write a last snapshot and close the storage.
+     */
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    /**
+     * @return the number of records replayed when the storage was opened.
+     */
+    public long getRecoveredRecords() {
+        return journal.getRecoveredRecords();
+    }
+
+    /**
+     * @return how long restoring the nodes took when the storage was opened.
+     */
+    public long getRecoveryMillis() {
+        return journal.getRecoveryMillis();
+    }
+
+    private void writeSnapshot(FileJournal.Output snapshot) throws IOException {
+        for (Map.Entry<String, NodeStorage> entry : nodes.entrySet()) {
+            String nodeName = entry.getKey();
+            NodeStorage node = entry.getValue();
+            Map<String, Entity> subscribers;
+            Map<Entity, PubSubAffiliation> affiliations;
+            List<PayloadItem> items;
+            synchronized (node) {
+                subscribers = new HashMap<String, Entity>(node.subscribers);
+                affiliations = new HashMap<Entity, PubSubAffiliation>(node.affiliations);
+                items = new ArrayList<PayloadItem>(node.items.values());
+            }
+
+            snapshot.append(new FileJournal.Record(NODE_CREATED).writeString(nodeName));
+            for (Map.Entry<String, Entity> subscriber : subscribers.entrySet()) {
+                snapshot.append(new FileJournal.Record(SUBSCRIBER_ADDED).writeString(nodeName).writeString(
+                        subscriber.getKey()).writeString(subscriber.getValue().getFullQualifiedName()));
+            }
+            for (Map.Entry<Entity, PubSubAffiliation> affiliation : affiliations.entrySet()) {
+                snapshot.append(affiliationRecord(nodeName, affiliation.getKey(), affiliation.getValue()));
+            }
+            for (PayloadItem item : items) {
+                byte[] xml = item instanceof StoredPayloadItem ? ((StoredPayloadItem) item).xml : new Renderer(
+                        item.getPayload()).getComplete().getBytes(StandardCharsets.UTF_8);
+                snapshot.append(itemRecord(nodeName, item, xml));
+            }
+        }
+    }
+
+    /**
+     * Applies a record directly to the nodes. Records can be replayed more than once, records of nodes
+     * deleted later on are skipped.
+     */
+    private void replay(byte type, FileJournal.Input record) throws IOException {
+        String nodeName = record.readString();
+        if (type == NODE_CREATED) {
+            nodes.putIfAbsent(nodeName, createNodeStorage());
+            return;
+        }
+        if (type == NODE_DELETED) {
+            nodes.remove(nodeName);
+            return;
+        }
+        if (!nodes.containsKey(nodeName)) return;
+
+        switch (type) {
+        case SUBSCRIBER_ADDED:
+            String subscriptionID = record.readString();
+            super.addSubscriber(nodeName, subscriptionID, EntityImpl.parseUnchecked(record.readString()));
+            break;
+        case SUBSCRIPTION_REMOVED:
+            super.removeSubscription(nodeName, record.readString());
+            break;
+        case SUBSCRIBER_REMOVED:
+            super.removeSubscriber(nodeName, EntityImpl.parseUnchecked(record.readString()));
+            break;
+        case AFFILIATION_SET:
+            Entity member = EntityImpl.parseUnchecked(record.readString());
+            PubSubAffiliation affiliation = PubSubAffiliation.valueOf(record.readString());
+            NodeStorage node = nodes.get(nodeName);
+            if (affiliation == PubSubAffiliation.NONE) {
+                node.affiliations.remove(member);
+            } else {
+                node.affiliations.put(member, affiliation);
+            }
+            break;
+        case ITEM_ADDED:
+            String itemID = record.readString();
+            String publisher = record.readString();
+            Date publishedDate = new Date(record.readLong());
+            addItem(nodeName, new StoredPayloadItem(publisher == null ? null : EntityImpl.parseUnchecked(publisher),
+                    itemID, publishedDate, record.readBytes()));
+            break;
+        default:
+            throw new IOException("unknown pubsub leaf node record type " + type);
+        }
+    }
+
+    private FileJournal.Record affiliationRecord(String nodeName, Entity member, PubSubAffiliation affiliation) {
+        return new FileJournal.Record(AFFILIATION_SET).writeString(nodeName).writeString(
+                member.getFullQualifiedName()).writeString(affiliation.name());
+    }
+
+    private FileJournal.Record itemRecord(String nodeName, PayloadItem item, byte[] xml) {
+        Entity publisher = item.getPublisher();
+        return new FileJournal.Record(ITEM_ADDED).writeString(nodeName).writeString(item.getItemID()).writeString(
+                publisher == null ? null : publisher.getFullQualifiedName()).writeLong(
+                item.getPublishedDate().getTime()).writeBytes(xml);
+    }
+
+    /**
+     * An item restored from the journal, its payload is parsed when first needed.
+     */
+    static class StoredPayloadItem extends PayloadItem {
+
+        private final byte[] xml;
+
+        private volatile XMLElement parsed;
+
+        StoredPayloadItem(Entity publisher, String itemID, Date publishedDate, byte[] xml) {
+            super(publisher, null, itemID, publishedDate);
+            this.xml = xml;
+        }
+
+        @Override
+        public XMLElement getPayload() {
+            XMLElement element = parsed;
+            if (element == null) {
+                try {
+                    element = XMLParserUtil.parseRequiredDocument(new String(xml, StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    throw new IllegalStateException("failed to parse stored pubsub item " + itemID, e);
+                }
+                parsed = element;
+            }
+            return element;
+        }
+    }
+}
@@ -19,9 +19,16 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -37,113 +44,177 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem
  * This storage provider keeps all objects in memory and looses its content when
  * removed from memory. This is the default storage provider for leaf nodes.
  * 
+ * Nodes can be used concurrently. Lookups never block, changes to a node are
+ * serialized. Subscribers are indexed by subscription ID and by JID.
+ * 
+ * Each node keeps at most max-items items, the oldest ones are dropped first.
+ * Items older than the item expiry are dropped as well. Both can be configured
+ * per node, otherwise the defaults of the provider apply.
+ * 
  * @author The Apache MINA Project (http://mina.apache.org)
  */
 public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider {
 
-    // The node owners
-    protected Map<String, Map<Entity, PubSubAffiliation>> nodeAffiliations;
+    // no limit for max-items or item expiry
+    public static final int UNLIMITED = 0;
+
+    public static final int DEFAULT_MAX_ITEMS = 1000;
+
+    // the nodes, access via node name
+    protected final ConcurrentMap<String, NodeStorage> nodes = new ConcurrentHashMap<String, NodeStorage>();
 
-    // stores subscribers to a node, access via subid
-    protected Map<String, Map<String, Entity>> nodeSubscribers;
+    private final int defaultMaxItems;
 
-    // stores messages to a node, access via itemid
-    protected Map<String, Map<String, PayloadItem>> nodeMessages;
+    private final long defaultItemExpiryMillis;
 
     /**
-     * Initialize the storage maps.
+     * Initialize the storage with the default max-items and without item expiry.
      */
     public LeafNodeInMemoryStorageProvider() {
-        this.nodeSubscribers = new TreeMap<String, Map<String, Entity>>();
-        this.nodeMessages = new TreeMap<String, Map<String, PayloadItem>>();
-        this.nodeAffiliations = new TreeMap<String, Map<Entity, PubSubAffiliation>>();
+        this(DEFAULT_MAX_ITEMS, UNLIMITED);
+    }
+
+    /**
+     * Initialize the storage with the given item retention for all nodes.
+     * 
+     * @param defaultMaxItems
+     *            maximum number of items per node, or UNLIMITED
+     * @param defaultItemExpiryMillis
+     *            time after which items are dropped, or UNLIMITED
+     */
+    public LeafNodeInMemoryStorageProvider(int defaultMaxItems, long defaultItemExpiryMillis) {
+        if (defaultMaxItems < 0) throw new IllegalArgumentException("max-items must not be negative");
+        if (defaultItemExpiryMillis < 0) throw new IllegalArgumentException("item expiry must not be negative");
+        this.defaultMaxItems = defaultMaxItems;
+        this.defaultItemExpiryMillis = defaultItemExpiryMillis;
+    }
+
+    /**
+     * Configure the item retention of a node.
+     * 
+     * @param maxItems
+     *            maximum number of items, or UNLIMITED
+     * @param itemExpiryMillis
+     *            time after which items are dropped, or UNLIMITED
+     */
+    public void setItemRetention(String nodeName, int maxItems, long itemExpiryMillis) {
+        if (maxItems < 0) throw new IllegalArgumentException("max-items must not be negative");
+        if (itemExpiryMillis < 0) throw new IllegalArgumentException("item expiry must not be negative");
+        NodeStorage node = nodes.get(nodeName);
+        synchronized (node) {
+            node.maxItems = maxItems;
+            node.itemExpiryMillis = itemExpiryMillis;
+            node.evictItems(System.currentTimeMillis());
+        }
     }
 
     /**
      * Add a subscriber with given subID.
      */
     public void addSubscriber(String nodeName, String subscriptionID, Entity subscriber) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        subscribers.put(subscriptionID, subscriber);
+        NodeStorage node = nodes.get(nodeName);
+        synchronized (node) {
+            Entity previous = node.subscribers.put(subscriptionID, subscriber);
+            if (previous != null) {
+                node.removeSubscriptionID(previous, subscriptionID);
+            }
+            Set<String> subscriptionIDs = node.subscriptionIDs.get(subscriber);
+            Set<String> changed = subscriptionIDs == null ? new HashSet<String>(1)
+                    : new HashSet<String>(subscriptionIDs);
+            changed.add(subscriptionID);
+            node.subscriptionIDs.put(subscriber, Collections.unmodifiableSet(changed));
+        }
     }
 
     /**
      * Check if a subscriber is already known.
      */
     public boolean containsSubscriber(String nodeName, Entity subscriber) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.containsValue(subscriber);
+        return nodes.get(nodeName).subscriptionIDs.containsKey(subscriber);
     }
 
     /**
      * Check if a subscriptionId is already known.
      */
     public boolean containsSubscriber(String nodeName, String subscriptionId) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.containsKey(subscriptionId);
+        return nodes.get(nodeName).subscribers.containsKey(subscriptionId);
     }
 
     /**
      * Retrieve a subscriber via its subsriptionId.
      */
     public Entity getSubscriber(String nodeName, String subscriptionId) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.get(subscriptionId);
+        return nodes.get(nodeName).subscribers.get(subscriptionId);
     }
 
     /**
      * Remove a subscriber via its subscriptionId.
      */
     public boolean removeSubscription(String nodeName, String subscriptionId) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.remove(subscriptionId) != null;
+        NodeStorage node = nodes.get(nodeName);
+        synchronized (node) {
+            Entity subscriber = node.subscribers.remove(subscriptionId);
+            if (subscriber == null) return false;
+            node.removeSubscriptionID(subscriber, subscriptionId);
+            return true;
+        }
     }
 
     /**
      * Remove a subscriber via its JID. This removes all subscriptions of the JID.
      */
     public boolean removeSubscriber(String nodeName, Entity subscriber) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.values().remove(subscriber);
+        NodeStorage node = nodes.get(nodeName);
+        synchronized (node) {
+            Set<String> subscriptionIDs = node.subscriptionIDs.remove(subscriber);
+            if (subscriptionIDs == null) return false;
+            for (String subscriptionID : subscriptionIDs) {
+                node.subscribers.remove(subscriptionID);
+            }
+            return true;
+        }
     }
 
     /**
      * Count how often a given subscriber is subscribed.
      */
     public int countSubscriptions(String nodeName, Entity subscriber) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        int count = 0;
-        for (Entity sub : subscribers.values()) {
-            if (subscriber.equals(sub)) {
-                ++count;
-            }
-        }
-        return count;
+        Set<String> subscriptionIDs = nodes.get(nodeName).subscriptionIDs.get(subscriber);
+        return subscriptionIDs == null ? 0 : subscriptionIDs.size();
     }
 
     /**
      * Count how many subscriptions this node has.
      */
     public int countSubscriptions(String nodeName) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.size();
+        return nodes.get(nodeName).subscribers.size();
     }
 
     /**
-     * Add a message to the storage.
+     * Add a message to the storage. Republishing an item makes it the newest one.
      */
     public void addMessage(Entity publisher, String nodeName, String itemID, XMLElement payload) {
-        Map<String, PayloadItem> messages = nodeMessages.get(nodeName);
-        messages.put(itemID, new PayloadItem(publisher, payload, itemID));
+        addItem(nodeName, new PayloadItem(publisher, payload, itemID));
+    }
+
+    /**
+     * Add the item as the newest item of the node.
+     */
+    protected void addItem(String nodeName, PayloadItem item) {
+        NodeStorage node = nodes.get(nodeName);
+        synchronized (node) {
+            node.items.remove(item.getItemID());
+            node.items.put(item.getItemID(), item);
+            node.evictItems(item.getPublishedDate().getTime());
+        }
     }
 
     /**
      * Accept method (see visitor pattern) to visit all subscribers of this node.
      */
     public void acceptForEachSubscriber(String nodeName, SubscriberVisitor subscriberVisitor) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        for (String subID : subscribers.keySet()) {
-            subscriberVisitor.visit(nodeName, subID, subscribers.get(subID));
+        for (Map.Entry<String, Entity> subscription : nodes.get(nodeName).subscribers.entrySet()) {
+            subscriberVisitor.visit(nodeName, subscription.getKey(), subscription.getValue());
         }
     }
 
@@ -155,12 +226,17 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
     }
 
     /**
-     * Go through each message and call visit of the visitor.
+     * Go through each message, from the oldest to the newest, and call visit of the visitor.
      */
     public void acceptForEachItem(String nodeName, ItemVisitor iv) {
-        Map<String, PayloadItem> messages = nodeMessages.get(nodeName);
-        for (String itemID : messages.keySet()) {
-            iv.visit(itemID, messages.get(itemID));
+        NodeStorage node = nodes.get(nodeName);
+        List<PayloadItem> items;
+        synchronized (node) {
+            node.evictItems(System.currentTimeMillis());
+            items = new ArrayList<PayloadItem>(node.items.values());
+        }
+        for (PayloadItem item : items) {
+            iv.visit(item.getItemID(), item);
         }
     }
 
@@ -168,18 +244,21 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      * Initialize the node with the storage.
      */
     public void initialize(LeafNode leafNode) {
-        nodeMessages.put(leafNode.getName(), new TreeMap<String, PayloadItem>());
-        nodeSubscribers.put(leafNode.getName(), new TreeMap<String, Entity>());
-        nodeAffiliations.put(leafNode.getName(), new HashMap<Entity, PubSubAffiliation>());
+        nodes.put(leafNode.getName(), createNodeStorage());
+    }
+
+    /**
+     * Create the empty storage of a node, using the default item retention.
+     */
+    protected NodeStorage createNodeStorage() {
+        return new NodeStorage(defaultMaxItems, defaultItemExpiryMillis);
     }
 
     /**
      * Remove the specified node from the storage.
      */
     public void delete(String name) {
-        nodeMessages.remove(name);
-        nodeSubscribers.remove(name);
-        nodeAffiliations.remove(name);
+        nodes.remove(name);
     }
 
     /**
@@ -188,32 +267,43 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      */
     public void setAffiliation(String nodeName, Entity entity, PubSubAffiliation affiliation)
             throws LastOwnerResignedException {
-        Map<Entity, PubSubAffiliation> affils = this.nodeAffiliations.get(nodeName);
+        NodeStorage node = nodes.get(nodeName);
         Entity bareJID = entity.getBareJID();
 
-        if (getAffiliation(nodeName, bareJID).equals(PubSubAffiliation.OWNER)
-                && !affiliation.equals(PubSubAffiliation.OWNER)
-                && countAffiliations(nodeName, PubSubAffiliation.OWNER) == 1) {
-            throw new LastOwnerResignedException(bareJID.getFullQualifiedName() + " tried to resign from " + nodeName);
+        synchronized (node) {
+            verifyAffiliation(nodeName, node, bareJID, affiliation);
+
+            if (affiliation.equals(PubSubAffiliation.NONE)) {
+                node.affiliations.remove(bareJID); // NONE affiliations are not stored.
+            } else {
+                node.affiliations.put(bareJID, affiliation);
+            }
         }
+    }
 
-        if (affiliation.equals(PubSubAffiliation.NONE)) {
-            affils.remove(bareJID); // NONE affiliations are not stored.
-        } else {
-            affils.put(bareJID, affiliation);
+    /**
+     * Checks that the affiliation can be set, the last owner of a node must not resign.
+     * Called while holding the lock of the node.
+     */
+    protected void verifyAffiliation(String nodeName, NodeStorage node, Entity bareJID,
+            PubSubAffiliation affiliation) throws LastOwnerResignedException {
+        if (getAffiliation(nodeName, bareJID).equals(PubSubAffiliation.OWNER)
+                && !affiliation.equals(PubSubAffiliation.OWNER)
+                && countAffiliations(node, PubSubAffiliation.OWNER) == 1) {
+            throw new LastOwnerResignedException(bareJID.getFullQualifiedName() + " tried to resign from "
+                    + nodeName);
         }
     }
 
     /**
      * Calculates how many users with the given affiliation are present for this node.
-     * @param nodeName the node to check
+     * @param node the node to check
      * @param affiliation to count
      * @return the number of owners.
      */
-    private int countAffiliations(String nodeName, PubSubAffiliation affiliation) {
-        Map<Entity, PubSubAffiliation> affils = this.nodeAffiliations.get(nodeName);
+    private int countAffiliations(NodeStorage node, PubSubAffiliation affiliation) {
         int i = 0;
-        for (PubSubAffiliation a : affils.values()) {
+        for (PubSubAffiliation a : node.affiliations.values()) {
             if (a.equals(affiliation))
                 ++i;
         }
@@ -224,7 +314,7 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      * Returns the affiliation of the entity to the node. Only the bare JID will be compared.
      */
     public PubSubAffiliation getAffiliation(String nodeName, Entity entity) {
-        PubSubAffiliation psa = this.nodeAffiliations.get(nodeName).get(entity.getBareJID());
+        PubSubAffiliation psa = nodes.get(nodeName).affiliations.get(entity.getBareJID());
         return psa != null ? psa : PubSubAffiliation.NONE; // NONE if there is no affiliation known.
     }
 
@@ -232,10 +322,64 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      * Call the visitor with the each member JID and its associated affiliation.
      */
     public void acceptForEachMemberAffiliation(String name, MemberAffiliationVisitor mav) {
-        Map<Entity, PubSubAffiliation> affils = this.nodeAffiliations.get(name);
-        for (Entity jid : affils.keySet()) {
-            PubSubAffiliation affil = affils.get(jid);
-            mav.visit(jid, affil);
+        for (Map.Entry<Entity, PubSubAffiliation> affiliation : nodes.get(name).affiliations.entrySet()) {
+            mav.visit(affiliation.getKey(), affiliation.getValue());
+        }
+    }
+
+    /**
+     * The stored data of a single node. Changes are made while holding the lock of the node.
+     * The maps can be read by subclasses, the items only while holding the lock.
+     */
+    protected static class NodeStorage {
+
+        // stores subscribers to a node, access via subid
+        final ConcurrentMap<String, Entity> subscribers = new ConcurrentHashMap<String, Entity>();
+
+        // the subids of each subscriber, the sets are replaced on change
+        final ConcurrentMap<Entity, Set<String>> subscriptionIDs = new ConcurrentHashMap<Entity, Set<String>>();
+
+        // the node owners and other members
+        final ConcurrentMap<Entity, PubSubAffiliation> affiliations =
+                new ConcurrentHashMap<Entity, PubSubAffiliation>();
+
+        // stores messages to a node, access via itemid, oldest first
+        final LinkedHashMap<String, PayloadItem> items = new LinkedHashMap<String, PayloadItem>();
+
+        private int maxItems;
+
+        private long itemExpiryMillis;
+
+        NodeStorage(int maxItems, long itemExpiryMillis) {
+            this.maxItems = maxItems;
+            this.itemExpiryMillis = itemExpiryMillis;
+        }
+
+        private void removeSubscriptionID(Entity subscriber, String subscriptionID) {
+            Set<String> current = subscriptionIDs.get(subscriber);
+            if (current == null || !current.contains(subscriptionID)) return;
+            if (current.size() == 1) {
+                subscriptionIDs.remove(subscriber);
+                return;
+            }
+            Set<String> changed = new HashSet<String>(current);
+            changed.remove(subscriptionID);
+            subscriptionIDs.put(subscriber, Collections.unmodifiableSet(changed));
+        }
+
+        /**
+         * Drops the items exceeding max-items and the expired ones, oldest first.
+         */
+        private void evictItems(long now) {
+            Iterator<PayloadItem> oldestFirst = items.values().iterator();
+            int excess = maxItems == UNLIMITED ? 0 : items.size() - maxItems;
+            long expired = itemExpiryMillis == UNLIMITED ? Long.MIN_VALUE : now - itemExpiryMillis;
+            while (oldestFirst.hasNext()) {
+                PayloadItem oldest = oldestFirst.next();
+                if (excess <= 0 && oldest.getPublishedDate().getTime() >= expired) break;
+                oldestFirst.remove();
+                excess--;
+            }
         }
     }
 }
@@ -82,6 +82,8 @@ public abstract class AbstractPublishSubscribeTestCase extends TestCase {
 
         root = new CollectionNode();
         serviceConfiguration = new PubSubServiceConfiguration(root);
+        // deliver notifications on the publishing thread, so they can be checked right away
+        serviceConfiguration.setFanout(new PubSubFanout(0, PubSubFanout.DEFAULT_CHUNK_SIZE));
         configurePubsubModule(sessionContext, serviceConfiguration);
 
         clientBare = new EntityImpl("tester", "vysper.org", null);
@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class PubSubFanoutTestCase extends TestCase {
+
+    private static final Entity SERVER = EntityImpl.parseUnchecked("pubsub.vysper.org");
+
+    private final CollectingStanzaBroker broker = new CollectingStanzaBroker();
+
+    private static List<Entity> subscribers(int count) {
+        List<Entity> subscribers = new ArrayList<Entity>();
+        for (int i = 0; i < count; i++) {
+            subscribers.add(EntityImpl.parseUnchecked("user" + i + "@vysper.org"));
+        }
+        return Collections.unmodifiableList(subscribers);
+    }
+
+    private static XMLElement item(String id) {
+        return new StanzaBuilder("item").addAttribute("id", id).build();
+    }
+
+    public void testInline() throws Exception {
+        PubSubFanout fanout = new PubSubFanout(0, 2);
+        List<Entity> subscribers = subscribers(5);
+
+        assertTrue(fanout.publish(SERVER, "news", "en", subscribers, item("1"), broker).isDone());
+
+        assertEquals(5, broker.count());
+        for (Entity subscriber : subscribers) {
+            Stanza notification = broker.get(subscriber).get(0);
+            assertEquals(subscriber, notification.getTo());
+            assertEquals(SERVER, notification.getFrom());
+            XMLElement items = notification.getFirstInnerElement().getFirstInnerElement();
+            assertEquals("news", items.getAttributeValue("node"));
+            assertEquals("1", items.getFirstInnerElement().getAttributeValue("id"));
+        }
+        assertEquals(1, fanout.getFanoutCount());
+        assertEquals(5, fanout.getNotificationCount());
+    }
+
+    public void testLanguage() throws Exception {
+        PubSubFanout fanout = new PubSubFanout(0, 2);
+        List<Entity> subscribers = subscribers(3);
+
+        fanout.publish(SERVER, "news", "de", subscribers, item("1"), broker);
+
+        for (Entity subscriber : subscribers) {
+            assertEquals("de", broker.get(subscriber).get(0).getXMLLang());
+        }
+    }
+
+    public void testNoSubscribers() throws Exception {
+        PubSubFanout fanout = new PubSubFanout(2, 2);
+        assertTrue(fanout.publish(SERVER, "news", "en", Collections.<Entity> emptyList(), item("1"), broker).isDone());
+        assertEquals(0, broker.count());
+        fanout.shutdown();
+    }
+
+    public void testChunkedKeepsPublishOrder() throws Exception {
+        PubSubFanout fanout = new PubSubFanout(4, 16);
+        List<Entity> subscribers = subscribers(1000);
+
+        for (int i = 0; i < 10; i++) {
+            fanout.publish(SERVER, "news", "en", subscribers, item(Integer.toString(i)), broker);
+        }
+        fanout.publish(SERVER, "news", "en", subscribers, item("last"), broker).get(10, TimeUnit.SECONDS);
+
+        assertEquals(11 * 1000, broker.count());
+        for (Entity subscriber : subscribers) {
+            List<Stanza> received = broker.get(subscriber);
+            assertEquals(11, received.size());
+            for (int i = 0; i < 10; i++) {
+                XMLElement item = received.get(i).getFirstInnerElement().getFirstInnerElement().getFirstInnerElement();
+                assertEquals(Integer.toString(i), item.getAttributeValue("id"));
+            }
+        }
+        assertEquals(11, fanout.getFanoutCount());
+        assertTrue(fanout.getMaxLatencyNanos() >= fanout.getAverageLatencyNanos());
+        fanout.shutdown();
+    }
+
+    private static class CollectingStanzaBroker implements StanzaBroker {
+
+        private final Map<Entity, List<Stanza>> written = new HashMap<Entity, List<Stanza>>();
+
+        private int count = 0;
+
+        public synchronized void write(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy) {
+            List<Stanza> stanzas = written.get(receiver);
+            if (stanzas == null) {
+                stanzas = new ArrayList<Stanza>();
+                written.put(receiver, stanzas);
+            }
+            stanzas.add(stanza);
+            count++;
+        }
+
+        public void writeToSession(Stanza stanza) {
+            throw new UnsupportedOperationException();
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized List<Stanza> get(Entity receiver) {
+            return new ArrayList<Stanza>(written.get(receiver));
+        }
+    }
+}
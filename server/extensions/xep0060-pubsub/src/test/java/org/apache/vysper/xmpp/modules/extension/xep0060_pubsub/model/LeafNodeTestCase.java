@@ -19,11 +19,19 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import org.apache.vysper.xml.fragment.XMLElementBuilder;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubFanout;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.protocol.StanzaBroker;
+import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
  * @author The Apache MINA Project (http://mina.apache.org)
@@ -33,11 +41,13 @@ public class LeafNodeTestCase extends TestCase {
 
     protected LeafNode node;
 
+    protected PubSubServiceConfiguration serviceConfig;
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
         Entity nodeJID = new EntityImpl(null, "pubsub.vysper.org", null);
-        PubSubServiceConfiguration serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
         serviceConfig.setDomainJID(nodeJID);
         Entity creatorJID = new EntityImpl("creator", "vysper.org", null);
 
@@ -52,6 +62,27 @@ public class LeafNodeTestCase extends TestCase {
         assertTrue(node.isSubscribed("id1"));
     }
 
+    public void testNotificationsUseServiceBroker() throws Exception {
+        final List<Entity> notified = new ArrayList<Entity>();
+        serviceConfig.setFanout(new PubSubFanout(0, PubSubFanout.DEFAULT_CHUNK_SIZE));
+        serviceConfig.setNotificationBroker(new StanzaBroker() {
+            public void write(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy) {
+                notified.add(receiver);
+            }
+
+            public void writeToSession(Stanza stanza) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Entity me = EntityImpl.parse("me@vysper.org");
+        node.subscribe("id1", me);
+
+        // the publishing session's broker is not used
+        node.publish(me, null, "item1", new XMLElementBuilder("entry").build());
+        assertEquals(1, notified.size());
+        assertEquals(me, notified.get(0));
+    }
+
     public void testCount() throws Exception {
         Entity me = EntityImpl.parse("me@vysper.org");
 
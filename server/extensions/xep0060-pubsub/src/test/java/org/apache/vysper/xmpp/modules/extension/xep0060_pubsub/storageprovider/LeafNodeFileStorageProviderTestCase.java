@@ -0,0 +1,242 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLElementBuilder;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ *
+ */
+public class LeafNodeFileStorageProviderTestCase extends TestCase {
+
+    protected File directory;
+
+    protected Entity creator = EntityImpl.parseUnchecked("creator@vysper.org");
+
+    protected Entity subscriber = EntityImpl.parseUnchecked("me@vysper.org/home");
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("pubsub").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testRestoreFromJournal() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        LeafNode node = new LeafNode(serviceConfig, "news", "The News", creator);
+        serviceConfig.getRootNode().add(node);
+        node.subscribe("id1", subscriber);
+        node.subscribe("id2", subscriber);
+        node.unsubscribe("id1", subscriber);
+        node.setAffiliation(subscriber, PubSubAffiliation.PUBLISHER);
+        serviceConfig.getLeafNodeStorageProvider().addMessage(creator, "news", "item1", payload("first"));
+        serviceConfig.getLeafNodeStorageProvider().addMessage(creator, "news", "item2", payload("second"));
+
+        // no close, as if the server crashed
+        LeafNode restored = createConfiguration().getRootNode().find("news");
+        assertNotNull(restored);
+        assertEquals("The News", restored.getTitle());
+        assertEquals(1, restored.countSubscriptions());
+        assertTrue(restored.isSubscribed("id2"));
+        assertEquals(PubSubAffiliation.OWNER, restored.getAffiliation(creator));
+        assertEquals(PubSubAffiliation.PUBLISHER, restored.getAffiliation(subscriber));
+
+        List<PayloadItem> items = items(restored);
+        assertEquals(2, items.size());
+        assertEquals("item1", items.get(0).getItemID());
+        assertEquals("second", items.get(1).getPayload().getAttributeValue("title"));
+    }
+
+    public void testRestoreFromSnapshotAndJournal() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        LeafNode node = new LeafNode(serviceConfig, "news", creator);
+        serviceConfig.getRootNode().add(node);
+        node.subscribe("id1", subscriber);
+        serviceConfig.getLeafNodeStorageProvider().addMessage(creator, "news", "item1", payload("first"));
+        ((LeafNodeFileStorageProvider) serviceConfig.getLeafNodeStorageProvider()).snapshot();
+
+        node.subscribe("id2", subscriber);
+        serviceConfig.getLeafNodeStorageProvider().addMessage(creator, "news", "item2", payload("second"));
+        serviceConfig.getLeafNodeStorageProvider().addMessage(creator, "news", "item1", payload("again"));
+
+        LeafNode restored = createConfiguration().getRootNode().find("news");
+        assertEquals(2, restored.countSubscriptions(subscriber));
+        List<PayloadItem> items = items(restored);
+        assertEquals(2, items.size());
+        assertEquals("item2", items.get(0).getItemID());
+        assertEquals("again", items.get(1).getPayload().getAttributeValue("title"));
+    }
+
+    public void testDeletedNodeIsNotRestored() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        serviceConfig.getRootNode().add(new LeafNode(serviceConfig, "news", creator));
+        serviceConfig.getRootNode().add(new LeafNode(serviceConfig, "weather", creator));
+        serviceConfig.getRootNode().deleteNode("news");
+        close(serviceConfig);
+
+        CollectionNode root = createConfiguration().getRootNode();
+        assertNull(root.find("news"));
+        assertNotNull(root.find("weather"));
+    }
+
+    public void testTornRecordIsDropped() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        LeafNode node = new LeafNode(serviceConfig, "news", creator);
+        serviceConfig.getRootNode().add(node);
+        node.subscribe("id1", subscriber);
+
+        for (File file : directory.listFiles()) {
+            if (!file.getName().startsWith("leafnodes.")) continue;
+            FileOutputStream out = new FileOutputStream(file, true);
+            out.write(new byte[] { 0, 0, 1, 0, 42 });
+            out.close();
+        }
+
+        LeafNode restored = createConfiguration().getRootNode().find("news");
+        assertTrue(restored.isSubscribed("id1"));
+        restored.subscribe("id2", subscriber);
+
+        assertEquals(2, createConfiguration().getRootNode().find("news").countSubscriptions());
+    }
+
+    public void testReplayStopsAtCorruptJournal() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        LeafNode node = new LeafNode(serviceConfig, "news", creator);
+        serviceConfig.getRootNode().add(node);
+        node.subscribe("id1", subscriber);
+
+        // every start continues in a new journal
+        createConfiguration().getRootNode().find("news").subscribe("id2", subscriber);
+
+        FileOutputStream out = new FileOutputStream(new File(directory, "leafnodes.1.journal"), true);
+        out.write(new byte[] { 0, 0, 1, 0, 42 });
+        out.close();
+
+        LeafNode restored = createConfiguration().getRootNode().find("news");
+        assertTrue(restored.isSubscribed("id1"));
+        assertFalse(restored.isSubscribed("id2"));
+        assertTrue(new File(directory, "leafnodes.2.journal.discarded").exists());
+        restored.subscribe("id3", subscriber);
+
+        LeafNode restoredAgain = createConfiguration().getRootNode().find("news");
+        assertTrue(restoredAgain.isSubscribed("id3"));
+        assertFalse(restoredAgain.isSubscribed("id2"));
+    }
+
+    public void testChangeIsNotMadeWhenItCannotBeLogged() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        LeafNode node = new LeafNode(serviceConfig, "news", creator);
+        serviceConfig.getRootNode().add(node);
+        node.subscribe("id1", subscriber);
+        close(serviceConfig);
+
+        try {
+            node.subscribe("id2", subscriber);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // the journal is closed
+        }
+        try {
+            node.unsubscribe("id1", subscriber);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // the journal is closed
+        }
+        try {
+            serviceConfig.getRootNode().deleteNode("news");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // the journal is closed
+        }
+
+        assertTrue(node.isSubscribed("id1"));
+        assertFalse(node.isSubscribed("id2"));
+        assertNotNull(serviceConfig.getRootNode().find("news"));
+    }
+
+    public void testRecoveryIsMeasured() throws Exception {
+        PubSubServiceConfiguration serviceConfig = createConfiguration();
+        LeafNode node = new LeafNode(serviceConfig, "news", creator);
+        serviceConfig.getRootNode().add(node);
+        for (int i = 0; i < 100; i++) {
+            serviceConfig.getLeafNodeStorageProvider().addMessage(creator, "news", "item" + i, payload("item " + i));
+        }
+        close(serviceConfig);
+
+        LeafNodeFileStorageProvider storage = new LeafNodeFileStorageProvider(directory);
+        assertEquals(102, storage.getRecoveredRecords()); // the node, its owner and the items
+        assertTrue(storage.getRecoveryMillis() >= 0);
+    }
+
+    private PubSubServiceConfiguration createConfiguration() throws Exception {
+        PubSubServiceConfiguration serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        serviceConfig.setDomainJID(new EntityImpl(null, "pubsub.vysper.org", null));
+        serviceConfig.setLeafNodeStorageProvider(new LeafNodeFileStorageProvider(directory));
+        serviceConfig.setCollectionNodeStorageProvider(new CollectionNodeFileStorageProvider(directory));
+        serviceConfig.initialize();
+        return serviceConfig;
+    }
+
+    private void close(PubSubServiceConfiguration serviceConfig) throws Exception {
+        ((LeafNodeFileStorageProvider) serviceConfig.getLeafNodeStorageProvider()).close();
+        ((CollectionNodeFileStorageProvider) serviceConfig.getCollectionNodeStorageProvider()).close();
+    }
+
+    private XMLElement payload(String title) {
+        return new XMLElementBuilder("entry").addAttribute("title", title).build();
+    }
+
+    private List<PayloadItem> items(LeafNode node) {
+        final List<PayloadItem> items = new ArrayList<PayloadItem>();
+        node.acceptItems(new ItemVisitor() {
+            public void visit(String itemID, PayloadItem payload) {
+                items.add(payload);
+            }
+        });
+        return items;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLElementBuilder;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ *
+ */
+public class LeafNodeInMemoryStorageProviderTestCase extends TestCase {
+
+    protected LeafNodeInMemoryStorageProvider storage;
+
+    protected Entity publisher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        storage = new LeafNodeInMemoryStorageProvider(3, LeafNodeInMemoryStorageProvider.UNLIMITED);
+        PubSubServiceConfiguration serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        serviceConfig.setDomainJID(new EntityImpl(null, "pubsub.vysper.org", null));
+        serviceConfig.setLeafNodeStorageProvider(storage);
+        publisher = new EntityImpl("creator", "vysper.org", null);
+        new LeafNode(serviceConfig, "node", "Some test node", publisher);
+    }
+
+    public void testMaxItemsDropsOldest() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            storage.addMessage(publisher, "node", "item" + i, payload());
+        }
+        assertEquals("[item3, item4, item5]", itemIDs().toString());
+    }
+
+    public void testRepublishMakesItemNewest() throws Exception {
+        storage.addMessage(publisher, "node", "item1", payload());
+        storage.addMessage(publisher, "node", "item2", payload());
+        storage.addMessage(publisher, "node", "item3", payload());
+        storage.addMessage(publisher, "node", "item1", payload());
+        storage.addMessage(publisher, "node", "item4", payload());
+        assertEquals("[item3, item1, item4]", itemIDs().toString());
+    }
+
+    public void testItemExpiry() throws Exception {
+        storage.setItemRetention("node", LeafNodeInMemoryStorageProvider.UNLIMITED, 50);
+        storage.addMessage(publisher, "node", "item1", payload());
+        Thread.sleep(100);
+        storage.addMessage(publisher, "node", "item2", payload());
+        assertEquals("[item2]", itemIDs().toString());
+    }
+
+    public void testSubscriptions() throws Exception {
+        Entity me = EntityImpl.parse("me@vysper.org");
+        Entity you = EntityImpl.parse("you@vysper.org");
+        storage.addSubscriber("node", "id1", me);
+        storage.addSubscriber("node", "id2", me);
+        storage.addSubscriber("node", "id3", you);
+
+        assertEquals(2, storage.countSubscriptions("node", me));
+        assertEquals(3, storage.countSubscriptions("node"));
+        assertEquals(me, storage.getSubscriber("node", "id2"));
+
+        assertTrue(storage.removeSubscription("node", "id1"));
+        assertEquals(1, storage.countSubscriptions("node", me));
+        assertTrue(storage.containsSubscriber("node", me));
+
+        assertTrue(storage.removeSubscriber("node", me));
+        assertFalse(storage.containsSubscriber("node", me));
+        assertFalse(storage.containsSubscriber("node", "id2"));
+        assertEquals(1, storage.countSubscriptions("node"));
+    }
+
+    public void testReusedSubscriptionID() throws Exception {
+        Entity me = EntityImpl.parse("me@vysper.org");
+        Entity you = EntityImpl.parse("you@vysper.org");
+        storage.addSubscriber("node", "id1", me);
+        storage.addSubscriber("node", "id1", you);
+
+        assertFalse(storage.containsSubscriber("node", me));
+        assertEquals(1, storage.countSubscriptions("node", you));
+        assertEquals(1, storage.countSubscriptions("node"));
+    }
+
+    private XMLElement payload() {
+        return new XMLElementBuilder("entry").build();
+    }
+
+    private List<String> itemIDs() {
+        final List<String> itemIDs = new ArrayList<String>();
+        storage.acceptForEachItem("node", new ItemVisitor() {
+            public void visit(String itemID, PayloadItem payload) {
+                itemIDs.add(itemID);
+            }
+        });
+        return itemIDs;
+    }
+}
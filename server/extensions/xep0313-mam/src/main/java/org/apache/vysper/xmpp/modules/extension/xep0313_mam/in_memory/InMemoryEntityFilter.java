@@ -41,27 +41,28 @@ public class InMemoryEntityFilter implements Predicate<ArchivedMessage> {
 
     @Override
     public boolean test(ArchivedMessage message) {
+        MessageStanza stanza = message.stanza();
+        return test(stanza.getFrom(), stanza.getTo());
+    }
+
+    /**
+     * tests the addresses of a message without requiring the message itself, either address may be null
+     */
+    public boolean test(Entity from, Entity to) {
         EntityFilter.Type type = filter.type();
         if (type == EntityFilter.Type.TO_AND_FROM) {
-            return matchToAndFrom(message);
+            return entitiesEquals(filter.entity(), to) && entitiesEquals(filter.entity(), from);
         } else if (type == EntityFilter.Type.TO_OR_FROM) {
-            return matchToOrFrom(message);
+            return entitiesEquals(filter.entity(), to) || entitiesEquals(filter.entity(), from);
         } else {
             throw new IllegalArgumentException("Unexpected entity filter type '" + type + "'");
         }
     }
 
-    private boolean matchToAndFrom(ArchivedMessage message) {
-        MessageStanza stanza = message.stanza();
-        return entitiesEquals(filter.entity(), stanza.getTo()) && entitiesEquals(filter.entity(), stanza.getFrom());
-    }
-
-    private boolean matchToOrFrom(ArchivedMessage message) {
-        MessageStanza stanza = message.stanza();
-        return entitiesEquals(filter.entity(), stanza.getTo()) || entitiesEquals(filter.entity(), stanza.getFrom());
-    }
-
     private boolean entitiesEquals(Entity entity1, Entity entity2) {
+        if (entity2 == null) {
+            return false;
+        }
         if (filter.ignoreResource()) {
             return entity1.getBareJID().equals(entity2.getBareJID());
         } else {
@@ -22,7 +22,10 @@ package org.apache.vysper.xmpp.modules.extension.xep0313_mam.in_memory;
 import static java.util.Objects.requireNonNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 import java.util.UUID;
 import java.util.function.Predicate;
@@ -46,6 +49,9 @@ public class InMemoryMessageArchive implements MessageArchive {
 
     private final List<SimpleArchivedMessage> messages = new ArrayList<>();
 
+    // messages from or to a bare JID, in archive order
+    private final Map<Entity, List<SimpleArchivedMessage>> messagesByCounterpart = new HashMap<>();
+
     public InMemoryMessageArchive(Entity archiveId) {
         this.archiveId = requireNonNull(archiveId);
     }
@@ -54,23 +60,44 @@ public class InMemoryMessageArchive implements MessageArchive {
     public ArchivedMessage archive(Message message) {
         SimpleArchivedMessage archivedMessage = new SimpleArchivedMessage(UUID.randomUUID().toString(), message);
         messages.add(archivedMessage);
+        indexCounterpart(archivedMessage.stanza().getFrom(), archivedMessage);
+        indexCounterpart(archivedMessage.stanza().getTo(), archivedMessage);
         return archivedMessage;
     }
 
+    private void indexCounterpart(Entity entity, SimpleArchivedMessage archivedMessage) {
+        if (entity == null) {
+            return;
+        }
+        List<SimpleArchivedMessage> counterpartMessages = messagesByCounterpart.computeIfAbsent(entity.getBareJID(),
+                bareJid -> new ArrayList<>());
+        int size = counterpartMessages.size();
+        if (size == 0 || counterpartMessages.get(size - 1) != archivedMessage) {
+            // from and to may share the bare JID
+            counterpartMessages.add(archivedMessage);
+        }
+    }
+
     @Override
     public ArchivedMessages fetchSortedByOldestFirst(MessageFilter messageFilter, MessagePageRequest pageRequest) {
-        List<ArchivedMessage> filteredMessages = filterMessages(new InMemoryMessageFilter(messageFilter));
+        List<ArchivedMessage> filteredMessages = filterMessages(messageFilter);
         return new InMemoryArchivedMessagesPage(pageRequest, filteredMessages);
     }
 
     @Override
     public ArchivedMessages fetchLastPageSortedByOldestFirst(MessageFilter messageFilter, long pageSize) {
-        List<ArchivedMessage> filteredMessages = filterMessages(new InMemoryMessageFilter(messageFilter));
+        List<ArchivedMessage> filteredMessages = filterMessages(messageFilter);
         return new InMemoryArchivedMessagesLastPage(pageSize, filteredMessages);
     }
 
-    private List<ArchivedMessage> filterMessages(Predicate<ArchivedMessage> predicate) {
-        return messages.stream().filter(predicate).collect(Collectors.toList());
+    private List<ArchivedMessage> filterMessages(MessageFilter messageFilter) {
+        // only messages from or to the filtered bare JID can match an entity filter
+        List<SimpleArchivedMessage> candidates = messageFilter.entityFilter()
+                .map(entityFilter -> messagesByCounterpart.getOrDefault(entityFilter.entity().getBareJID(),
+                        Collections.emptyList()))
+                .orElse(messages);
+        Predicate<ArchivedMessage> predicate = new InMemoryMessageFilter(messageFilter);
+        return candidates.stream().filter(predicate).collect(Collectors.toList());
     }
 
     @Override
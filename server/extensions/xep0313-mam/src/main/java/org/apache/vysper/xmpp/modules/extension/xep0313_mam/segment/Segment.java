@@ -0,0 +1,252 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0313_mam.segment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped, append-only segment file of a {@link SegmentMessageArchive}.
+ * 
+ * Every record is laid out as
+ * 
+ * <pre>
+ * int   payload length
+ * int   CRC32 of the payload
+ * long  message id
+ * long  archive time, nanoseconds since the epoch
+ * short zone id length, zone id (UTF-8)
+ * short from length, from (UTF-8)
+ * short to length, to (UTF-8)
+ * int   stanza length, stanza (UTF-8)
+ * </pre>
+ * 
+ * The unused rest of a segment is zero, a zero payload length marks the end of the
+ * records.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+class Segment {
+
+    static final int HEADER_SIZE = 8;
+
+    private static final int ID_OFFSET = HEADER_SIZE;
+
+    private static final int TIME_OFFSET = ID_OFFSET + 8;
+
+    private static final int STRINGS_OFFSET = TIME_OFFSET + 8;
+
+    private final File file;
+
+    private final long firstOrdinal;
+
+    private final MappedByteBuffer buffer;
+
+    // end of the last valid record
+    private int end;
+
+    private Segment(File file, long firstOrdinal, MappedByteBuffer buffer) {
+        this.file = file;
+        this.firstOrdinal = firstOrdinal;
+        this.buffer = buffer;
+    }
+
+    static File fileFor(File directory, long firstOrdinal) {
+        return new File(directory, String.format("%020d.seg", firstOrdinal));
+    }
+
+    static long firstOrdinalOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - ".seg".length()));
+    }
+
+    static Segment create(File directory, long firstOrdinal, int size) throws IOException {
+        return map(fileFor(directory, firstOrdinal), firstOrdinal, size);
+    }
+
+    static Segment open(File file) throws IOException {
+        return map(file, firstOrdinalOf(file), (int) file.length());
+    }
+
+    private static Segment map(File file, long firstOrdinal, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(file, firstOrdinal, buffer);
+        }
+    }
+
+    File file() {
+        return file;
+    }
+
+    long firstOrdinal() {
+        return firstOrdinal;
+    }
+
+    int end() {
+        return end;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return the offset of the record following the valid record at the given offset, or -1 if there is no valid
+     *         record at that offset
+     */
+    int validRecordEnd(int offset, long expectedId) {
+        if (offset + HEADER_SIZE > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length < STRINGS_OFFSET - HEADER_SIZE || offset + HEADER_SIZE + length > buffer.capacity()) {
+            return -1;
+        }
+        if (buffer.getLong(offset + ID_OFFSET) != expectedId) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(slice(offset + HEADER_SIZE, length));
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            return -1;
+        }
+        return offset + HEADER_SIZE + length;
+    }
+
+    /**
+     * @return true if nothing has been written at the offset, that is the segment was not cut off by a torn or
+     *         corrupt record
+     */
+    boolean isCleanEnd(int offset) {
+        return offset + 4 > buffer.capacity() || buffer.getInt(offset) == 0;
+    }
+
+    /**
+     * marks the given offset as the end of the valid records, discarding what follows
+     */
+    void truncate(int offset) {
+        end = offset;
+        // clear a partially written record
+        int clearEnd = Math.min(buffer.capacity(), offset + HEADER_SIZE);
+        for (int i = offset; i < clearEnd; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    static int recordSize(byte[] zone, byte[] from, byte[] to, byte[] stanza) {
+        return STRINGS_OFFSET + 2 + zone.length + 2 + from.length + 2 + to.length + 4 + stanza.length;
+    }
+
+    boolean hasRoomFor(int recordSize) {
+        return end + recordSize <= buffer.capacity();
+    }
+
+    /**
+     * appends a record, the caller must have checked that there is enough room
+     * @return the offset of the appended record
+     */
+    int append(long id, long time, byte[] zone, byte[] from, byte[] to, byte[] stanza) {
+        int offset = end;
+        int length = recordSize(zone, from, to, stanza) - HEADER_SIZE;
+
+        ByteBuffer record = slice(offset, HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.putLong(id);
+        record.putLong(time);
+        putShortBytes(record, zone);
+        putShortBytes(record, from);
+        putShortBytes(record, to);
+        record.putInt(stanza.length);
+        record.put(stanza);
+
+        CRC32 crc = new CRC32();
+        crc.update(slice(offset + HEADER_SIZE, length));
+        buffer.putInt(offset + 4, (int) crc.getValue());
+
+        end = offset + HEADER_SIZE + length;
+        return offset;
+    }
+
+    private static void putShortBytes(ByteBuffer record, byte[] bytes) {
+        record.putShort((short) bytes.length);
+        record.put(bytes);
+    }
+
+    int nextRecord(int offset) {
+        return offset + HEADER_SIZE + buffer.getInt(offset);
+    }
+
+    long id(int offset) {
+        return buffer.getLong(offset + ID_OFFSET);
+    }
+
+    long time(int offset) {
+        return buffer.getLong(offset + TIME_OFFSET);
+    }
+
+    /**
+     * @return the zone id, from, to and stanza of the record
+     */
+    String[] strings(int offset) {
+        ByteBuffer record = slice(offset + STRINGS_OFFSET, buffer.getInt(offset) - (STRINGS_OFFSET - HEADER_SIZE));
+        String zone = getString(record, record.getShort() & 0xFFFF);
+        String from = getString(record, record.getShort() & 0xFFFF);
+        String to = getString(record, record.getShort() & 0xFFFF);
+        String stanza = getString(record, record.getInt());
+        return new String[] { zone, from, to, stanza };
+    }
+
+    /**
+     * @return from and to of the record, without decoding the stanza
+     */
+    String[] addresses(int offset) {
+        ByteBuffer record = slice(offset + STRINGS_OFFSET, buffer.getInt(offset) - (STRINGS_OFFSET - HEADER_SIZE));
+        int zoneLength = record.getShort() & 0xFFFF;
+        record.position(record.position() + zoneLength);
+        String from = getString(record, record.getShort() & 0xFFFF);
+        String to = getString(record, record.getShort() & 0xFFFF);
+        return new String[] { from, to };
+    }
+
+    private static String getString(ByteBuffer record, int length) {
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        return slice.slice();
+    }
+
+    void force() {
+        buffer.force();
+    }
+}
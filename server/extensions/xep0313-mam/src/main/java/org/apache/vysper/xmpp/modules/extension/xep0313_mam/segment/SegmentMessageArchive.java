@@ -0,0 +1,570 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0313_mam.segment;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.in_memory.InMemoryEntityFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.ArchivedMessage;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.ArchivedMessages;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.DateTimeFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.EntityFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.Message;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.MessageArchive;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.MessageFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.MessagePageRequest;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.SimpleArchivedMessage;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.SimpleArchivedMessages;
+import org.apache.vysper.xmpp.parser.XMLParserUtil;
+import org.apache.vysper.xmpp.stanza.MessageStanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * {@link MessageArchive} persisting messages in append-only, memory-mapped segment files (see {@link Segment}) in
+ * its own directory.
+ * 
+ * Message ids are the position of the message in the archive, starting with 1. Archive times never go backwards: a
+ * message dated before the previously archived one is archived with the previous message's time. Both allow
+ * locating messages by binary search over a sparse index holding the location and time of every
+ * {@value #BLOCK_SIZE}th message. The index is rebuilt when the archive is opened, records that were only partially
+ * written are discarded.
+ * 
+ * Date/time bounds and RSM after/before ids are resolved through the index. Without an entity filter, fetching a
+ * page only reads the messages on that page. With an entity filter, only the messages from or to the filtered bare
+ * JID are visited, as listed by a second index from bare JID to message ordinals.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class SegmentMessageArchive implements MessageArchive {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentMessageArchive.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    static final int BLOCK_SIZE = 32;
+
+    private final Entity archiveId;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private long count;
+
+    private long lastTime = Long.MIN_VALUE;
+
+    // location (segment index << 32 | offset) and archive time of the first message of every block
+    private long[] blockLocations = new long[16];
+
+    private long[] blockTimes = new long[16];
+
+    private int blocks;
+
+    // ordinals of the messages from or to a bare JID
+    private final Map<Entity, Postings> counterparts = new HashMap<>();
+
+    public SegmentMessageArchive(Entity archiveId, File directory) throws IOException {
+        this(archiveId, directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentMessageArchive(Entity archiveId, File directory, int segmentSize) throws IOException {
+        this.archiveId = requireNonNull(archiveId);
+        this.directory = requireNonNull(directory);
+        if (segmentSize <= Segment.HEADER_SIZE) throw new IllegalArgumentException("segment size too small");
+        this.segmentSize = segmentSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create archive directory " + directory);
+        }
+        recover();
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+
+        boolean discardRest = false;
+        for (File file : files) {
+            if (discardRest || Segment.firstOrdinalOf(file) != count) {
+                discard(file);
+                discardRest = true;
+                continue;
+            }
+
+            Segment segment = Segment.open(file);
+            segments.add(segment);
+            int offset = 0;
+            int next;
+            while ((next = segment.validRecordEnd(offset, count + 1)) != -1) {
+                String[] addresses = segment.addresses(offset);
+                indexRecord(segment, offset, entity(addresses[0]), entity(addresses[1]));
+                offset = next;
+            }
+            if (!segment.isCleanEnd(offset)) {
+                LOG.warn("archive {}: discarding corrupt or incomplete data at offset {} of {}",
+                        new Object[] { archiveId, offset, file });
+                discardRest = true;
+            }
+            segment.truncate(offset);
+        }
+    }
+
+    private void discard(File file) {
+        File discarded = new File(file.getPath() + ".discarded");
+        if (!file.renameTo(discarded)) {
+            LOG.warn("archive {}: could not discard segment {}", archiveId, file);
+        }
+    }
+
+    private void indexRecord(Segment segment, int offset, Entity from, Entity to) {
+        indexCounterpart(from);
+        indexCounterpart(to);
+        long time = segment.time(offset);
+        if (count % BLOCK_SIZE == 0) {
+            if (blocks == blockLocations.length) {
+                blockLocations = Arrays.copyOf(blockLocations, blocks * 2);
+                blockTimes = Arrays.copyOf(blockTimes, blocks * 2);
+            }
+            blockLocations[blocks] = location(segments.size() - 1, offset);
+            blockTimes[blocks] = time;
+            blocks++;
+        }
+        lastTime = time;
+        count++;
+    }
+
+    private void indexCounterpart(Entity entity) {
+        if (entity == null) {
+            return;
+        }
+        Postings postings = counterparts.computeIfAbsent(entity.getBareJID(), bareJid -> new Postings());
+        postings.add(count);
+    }
+
+    private static Entity entity(String address) {
+        return address.isEmpty() ? null : EntityImpl.parseUnchecked(address);
+    }
+
+    private static long location(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    @Override
+    public ArchivedMessage archive(Message message) {
+        MessageStanza stanza = message.stanza();
+        byte[] stanzaBytes = new Renderer(stanza).getComplete().getBytes(StandardCharsets.UTF_8);
+        byte[] from = addressBytes(stanza.getFrom());
+        byte[] to = addressBytes(stanza.getTo());
+        ZonedDateTime dateTime = message.dateTime();
+        byte[] zone = dateTime.getZone().getId().getBytes(StandardCharsets.UTF_8);
+        int recordSize = Segment.recordSize(zone, from, to, stanzaBytes);
+
+        lock.writeLock().lock();
+        try {
+            long time = Math.max(lastTime, toTime(dateTime));
+            long id = count + 1;
+
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || !segment.hasRoomFor(recordSize)) {
+                segment = roll(segment, recordSize);
+            }
+            int offset = segment.append(id, time, zone, from, to, stanzaBytes);
+            indexRecord(segment, offset, stanza.getFrom(), stanza.getTo());
+
+            return new SimpleArchivedMessage(Long.toString(id), toDateTime(time, dateTime.getZone()), stanza);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not archive message in " + this, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Segment roll(Segment current, int recordSize) throws IOException {
+        if (current != null && current.end() == 0) {
+            // never used, replace with a large enough one
+            segments.remove(segments.size() - 1);
+        } else if (current != null) {
+            current.force();
+        }
+        Segment segment = Segment.create(directory, count, Math.max(segmentSize, recordSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static byte[] addressBytes(Entity entity) {
+        return entity == null ? new byte[0] : entity.getFullQualifiedName().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long toTime(ZonedDateTime dateTime) {
+        Instant instant = dateTime.toInstant();
+        return instant.getEpochSecond() * 1000000000L + instant.getNano();
+    }
+
+    private static ZonedDateTime toDateTime(long time, ZoneId zone) {
+        return Instant.ofEpochSecond(Math.floorDiv(time, 1000000000L), Math.floorMod(time, 1000000000L)).atZone(zone);
+    }
+
+    @Override
+    public ArchivedMessages fetchSortedByOldestFirst(MessageFilter messageFilter, MessagePageRequest pageRequest) {
+        lock.readLock().lock();
+        try {
+            long[] range = range(messageFilter);
+            long lo = range[0];
+            long hi = range[1];
+            EntityFilter entityFilter = messageFilter.entityFilter().orElse(null);
+
+            long pageLo = lo;
+            long pageHi = hi;
+            if (pageRequest.firstMessageId().isPresent()) {
+                long after = ordinalOf(pageRequest.firstMessageId().get());
+                // messages after an unknown message can not be found
+                pageLo = (after == -1) ? hi : Math.max(lo, after + 1);
+            }
+            if (pageRequest.lastMessageId().isPresent()) {
+                long before = ordinalOf(pageRequest.lastMessageId().get());
+                if (before != -1) {
+                    pageHi = Math.min(hi, before);
+                }
+            }
+            long pageSize = pageRequest.pageSize().orElse(Long.MAX_VALUE);
+
+            if (entityFilter == null) {
+                long from = Math.min(pageLo, pageHi);
+                long to = from + Math.min(pageSize, pageHi - from);
+                List<ArchivedMessage> list = read(from, to);
+                return new SimpleArchivedMessages(list, list.isEmpty() ? null : from - lo, hi - lo);
+            }
+
+            Postings postings = counterparts.get(entityFilter.entity().getBareJID());
+            if (postings == null) {
+                return new SimpleArchivedMessages(Collections.emptyList(), null, 0L);
+            }
+            int first = postings.indexOf(lo);
+            int last = postings.indexOf(hi);
+
+            if (isExact(entityFilter)) {
+                int from = Math.min(postings.indexOf(pageLo), postings.indexOf(pageHi));
+                int to = (int) (from + Math.min(pageSize, postings.indexOf(pageHi) - from));
+                List<ArchivedMessage> list = read(postings, from, to);
+                return new SimpleArchivedMessages(list, list.isEmpty() ? null : (long) (from - first),
+                        (long) (last - first));
+            }
+
+            // check the counterpart's messages, counting all matches and keeping those on the page
+            InMemoryEntityFilter matcher = new InMemoryEntityFilter(entityFilter);
+            List<ArchivedMessage> list = new ArrayList<>();
+            Long firstIndex = null;
+            long matches = 0;
+            for (int i = first; i < last; i++) {
+                long ordinal = postings.get(i);
+                Cursor cursor = cursor(ordinal);
+                if (!cursor.matches(matcher)) {
+                    continue;
+                }
+                if (ordinal >= pageLo && ordinal < pageHi && list.size() < pageSize) {
+                    if (firstIndex == null) {
+                        firstIndex = matches;
+                    }
+                    list.add(cursor.read());
+                }
+                matches++;
+            }
+            return new SimpleArchivedMessages(list, firstIndex, matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ArchivedMessages fetchLastPageSortedByOldestFirst(MessageFilter messageFilter, long pageSize) {
+        lock.readLock().lock();
+        try {
+            long[] range = range(messageFilter);
+            long lo = range[0];
+            long hi = range[1];
+            EntityFilter entityFilter = messageFilter.entityFilter().orElse(null);
+
+            if (entityFilter == null) {
+                long from = Math.max(lo, hi - pageSize);
+                return new SimpleArchivedMessages(read(from, hi), from - lo, hi - lo);
+            }
+
+            Postings postings = counterparts.get(entityFilter.entity().getBareJID());
+            if (postings == null) {
+                return new SimpleArchivedMessages(Collections.emptyList(), null, 0L);
+            }
+            int first = postings.indexOf(lo);
+            int last = postings.indexOf(hi);
+
+            if (isExact(entityFilter)) {
+                int from = (int) Math.max(first, last - pageSize);
+                return new SimpleArchivedMessages(read(postings, from, last), (long) (from - first),
+                        (long) (last - first));
+            }
+
+            // check the counterpart's messages, remembering the ordinals of the last matches
+            InMemoryEntityFilter matcher = new InMemoryEntityFilter(entityFilter);
+            int size = (int) Math.min(pageSize, last - first);
+            long[] lastMatches = new long[Math.max(size, 1)];
+            long matches = 0;
+            for (int i = first; i < last; i++) {
+                long ordinal = postings.get(i);
+                if (cursor(ordinal).matches(matcher)) {
+                    lastMatches[(int) (matches % lastMatches.length)] = ordinal;
+                    matches++;
+                }
+            }
+            long kept = Math.min(matches, size);
+            List<ArchivedMessage> list = new ArrayList<>();
+            for (long i = matches - kept; i < matches; i++) {
+                list.add(cursor(lastMatches[(int) (i % lastMatches.length)]).read());
+            }
+            return new SimpleArchivedMessages(list, matches - kept, matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if all messages indexed for the filtered entity's bare JID match the filter
+     */
+    private static boolean isExact(EntityFilter entityFilter) {
+        return entityFilter.type() == EntityFilter.Type.TO_OR_FROM && entityFilter.ignoreResource();
+    }
+
+    /**
+     * @return the ordinals of the first message within and the first message after the date/time bounds
+     */
+    private long[] range(MessageFilter messageFilter) {
+        Optional<DateTimeFilter> dateTimeFilter = messageFilter.dateTimeFilter();
+        long lo = dateTimeFilter.flatMap(DateTimeFilter::start).map(start -> firstAtOrAfter(toTime(start)))
+                .orElse(0L);
+        long hi = dateTimeFilter.flatMap(DateTimeFilter::end).map(end -> firstAtOrAfter(toTime(end) + 1))
+                .orElse(count);
+        return new long[] { lo, Math.max(lo, hi) };
+    }
+
+    /**
+     * @return the ordinal of the first message archived at or after the given time
+     */
+    private long firstAtOrAfter(long time) {
+        // last block starting before the time, its messages are the only candidates
+        int low = 0;
+        int high = blocks - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockTimes[mid] < time) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block == -1) {
+            return 0;
+        }
+
+        long ordinal = (long) block * BLOCK_SIZE;
+        long blockEnd = Math.min(count, ordinal + BLOCK_SIZE);
+        Cursor cursor = cursor(ordinal);
+        while (ordinal < blockEnd && cursor.time() < time) {
+            ordinal++;
+            cursor.next();
+        }
+        return ordinal;
+    }
+
+    private long ordinalOf(String id) {
+        try {
+            long ordinal = Long.parseLong(id) - 1;
+            return (ordinal >= 0 && ordinal < count) ? ordinal : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private List<ArchivedMessage> read(long from, long to) {
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        List<ArchivedMessage> list = new ArrayList<>((int) Math.min(to - from, 1024));
+        Cursor cursor = cursor(from);
+        for (long ordinal = from; ordinal < to; ordinal++, cursor.next()) {
+            list.add(cursor.read());
+        }
+        return list;
+    }
+
+    private List<ArchivedMessage> read(Postings postings, int from, int to) {
+        List<ArchivedMessage> list = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            list.add(cursor(postings.get(i)).read());
+        }
+        return list;
+    }
+
+    private Cursor cursor(long ordinal) {
+        Cursor cursor = new Cursor();
+        if (ordinal < count) {
+            long location = blockLocations[(int) (ordinal / BLOCK_SIZE)];
+            cursor.segmentIndex = (int) (location >>> 32);
+            cursor.offset = (int) location;
+            for (long i = ordinal % BLOCK_SIZE; i > 0; i--) {
+                cursor.next();
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * moves over the records in archive order, must only be used while holding the lock
+     */
+    private class Cursor {
+
+        private int segmentIndex;
+
+        private int offset;
+
+        void next() {
+            Segment segment = segments.get(segmentIndex);
+            offset = segment.nextRecord(offset);
+            if (offset >= segment.end() && segmentIndex < segments.size() - 1) {
+                segmentIndex++;
+                offset = 0;
+            }
+        }
+
+        long time() {
+            return segments.get(segmentIndex).time(offset);
+        }
+
+        boolean matches(InMemoryEntityFilter entityFilter) {
+            String[] addresses = segments.get(segmentIndex).addresses(offset);
+            return entityFilter.test(entity(addresses[0]), entity(addresses[1]));
+        }
+
+
+        ArchivedMessage read() {
+            Segment segment = segments.get(segmentIndex);
+            String[] strings = segment.strings(offset);
+            ZonedDateTime dateTime = toDateTime(segment.time(offset), ZoneId.of(strings[0]));
+            try {
+                XMLElement element = XMLParserUtil.parseRequiredDocument(strings[3]);
+                MessageStanza stanza = new MessageStanza(StanzaBuilder.createClone(element, true, null).build());
+                return new SimpleArchivedMessage(Long.toString(segment.id(offset)), dateTime, stanza);
+            } catch (IOException | SAXException e) {
+                throw new IllegalStateException("Could not read archived message " + segment.id(offset) + " of "
+                        + archiveId, e);
+            }
+        }
+    }
+
+    /**
+     * ascending message ordinals
+     */
+    private static class Postings {
+
+        private long[] ordinals = new long[8];
+
+        private int size;
+
+        void add(long ordinal) {
+            if (size > 0 && ordinals[size - 1] == ordinal) {
+                // from and to share the bare JID
+                return;
+            }
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        long get(int index) {
+            return ordinals[index];
+        }
+
+        /**
+         * @return the index of the first ordinal not less than the given one
+         */
+        int indexOf(long ordinal) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ordinals[mid] < ordinal) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * forces all archived messages to disk
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", SegmentMessageArchive.class.getSimpleName() + "[", "]")
+                .add("archiveId=" + archiveId).add("directory=" + directory).toString();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0313_mam.segment;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.MessageArchives;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.UserMessageArchive;
+
+/**
+ * keeps one {@link SegmentUserMessageArchive} per user, each in its own sub directory of the given directory
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class SegmentMessageArchives implements MessageArchives {
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final Map<Entity, SegmentUserMessageArchive> userMessageArchiveById = new ConcurrentHashMap<>();
+
+    public SegmentMessageArchives(File directory) {
+        this(directory, SegmentMessageArchive.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentMessageArchives(File directory, int segmentSize) {
+        this.directory = requireNonNull(directory);
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public Optional<UserMessageArchive> retrieveUserMessageArchive(Entity userBareJid) {
+        UserMessageArchive messageArchive = userMessageArchiveById.computeIfAbsent(userBareJid, id -> {
+            try {
+                return new SegmentUserMessageArchive(id, new File(directory, directoryName(id)), segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open message archive of " + id, e);
+            }
+        });
+        return Optional.of(messageArchive);
+    }
+
+    /**
+     * forces all archived messages to disk
+     */
+    public void flush() {
+        userMessageArchiveById.values().forEach(SegmentUserMessageArchive::flush);
+    }
+
+    static String directoryName(Entity archiveId) {
+        try {
+            // '.' is encoded too, so that no name resolves to the current or parent directory
+            return URLEncoder.encode(archiveId.getFullQualifiedName(), "UTF-8").replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
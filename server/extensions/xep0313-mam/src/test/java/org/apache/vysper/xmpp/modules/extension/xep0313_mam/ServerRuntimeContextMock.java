@@ -31,6 +31,7 @@ import org.apache.vysper.event.EventBus;
 import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.authentication.UserAuthentication;
+import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
 import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.MessageArchives;
@@ -156,6 +157,11 @@ public class ServerRuntimeContextMock implements ServerRuntimeContext {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public StanzaRelay getStanzaRelay() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public List<StanzaHandlerInterceptor> getStanzaHandlerInterceptors() {
         return Collections.emptyList();
@@ -22,6 +22,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0313_mam;
 import java.util.Collection;
 
 import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage.MemoryOfflineStorageProvider;
 import org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage.OfflineStorageProvider;
 import org.apache.vysper.xmpp.stanza.Stanza;
@@ -49,7 +50,7 @@ public class ToggleableOfflineStorageProvider implements OfflineStorageProvider
     }
 
     @Override
-    public void receive(Stanza stanza) {
+    public void receive(Stanza stanza) throws DeliveryException {
         if (disabled) {
             return;
         }
@@ -0,0 +1,313 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0313_mam.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.ArchivedMessage;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.ArchivedMessages;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.DateTimeFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.EntityFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.Message;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.MessageFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.SimpleEntityFilter;
+import org.apache.vysper.xmpp.modules.extension.xep0313_mam.spi.SimpleMessagePageRequest;
+import org.apache.vysper.xmpp.stanza.MessageStanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class SegmentMessageArchiveTest {
+
+    private static final Entity ARCHIVE = EntityImpl.parseUnchecked("juliet@capulet.lit");
+
+    private static final Entity JULIET = EntityImpl.parseUnchecked("juliet@capulet.lit/balcony");
+
+    private static final Entity ROMEO = EntityImpl.parseUnchecked("romeo@montague.lit/orchard");
+
+    private static final Entity NURSE = EntityImpl.parseUnchecked("nurse@capulet.lit/chamber");
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2018, 5, 4, 10, 0, 0, 0, ZoneId.of("UTC"));
+
+    private static final MessageFilter ALL = filter(null, null, null);
+
+    private File directory;
+
+    private SegmentMessageArchive tested;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("mam-segments").toFile();
+        tested = new SegmentMessageArchive(ARCHIVE, directory, 512);
+    }
+
+    @After
+    public void after() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private void archive(int count) {
+        for (int i = 0; i < count; i++) {
+            Entity from = i % 3 == 0 ? NURSE : ROMEO;
+            tested.archive(message(from, JULIET, "message " + i, START.plusSeconds(i)));
+        }
+    }
+
+    private static Message message(Entity from, Entity to, String body, ZonedDateTime dateTime) {
+        MessageStanza stanza = new MessageStanza(StanzaBuilder.createMessageStanza(from, to, null, body).build());
+        return new Message() {
+            @Override
+            public MessageStanza stanza() {
+                return stanza;
+            }
+
+            @Override
+            public ZonedDateTime dateTime() {
+                return dateTime;
+            }
+        };
+    }
+
+    private static MessageFilter filter(EntityFilter entityFilter, ZonedDateTime start, ZonedDateTime end) {
+        DateTimeFilter dateTimeFilter = new DateTimeFilter() {
+            @Override
+            public Optional<ZonedDateTime> start() {
+                return Optional.ofNullable(start);
+            }
+
+            @Override
+            public Optional<ZonedDateTime> end() {
+                return Optional.ofNullable(end);
+            }
+        };
+        return new MessageFilter() {
+            @Override
+            public Optional<EntityFilter> entityFilter() {
+                return Optional.ofNullable(entityFilter);
+            }
+
+            @Override
+            public Optional<DateTimeFilter> dateTimeFilter() {
+                return Optional.of(dateTimeFilter);
+            }
+        };
+    }
+
+    private static List<String> ids(ArchivedMessages messages) {
+        return messages.list().stream().map(ArchivedMessage::id).collect(Collectors.toList());
+    }
+
+    @Test
+    public void archiveAndFetchAll() {
+        archive(100);
+        assertTrue(directory.listFiles().length > 1);
+
+        ArchivedMessages messages = tested.fetchSortedByOldestFirst(ALL, new SimpleMessagePageRequest(null, null, null));
+
+        assertTrue(messages.isComplete());
+        assertEquals(100, (long) messages.totalNumberOfMessages().get());
+        assertEquals(0, (long) messages.firstMessageIndex().get());
+        for (int i = 0; i < 100; i++) {
+            ArchivedMessage message = messages.list().get(i);
+            assertEquals(Integer.toString(i + 1), message.id());
+            assertEquals(START.plusSeconds(i), message.dateTime());
+            Entity from = i % 3 == 0 ? NURSE : ROMEO;
+            assertEquals(new Renderer(message(from, JULIET, "message " + i, START).stanza()).getComplete(),
+                    new Renderer(message.stanza()).getComplete());
+        }
+    }
+
+    @Test
+    public void page() {
+        archive(100);
+
+        ArchivedMessages first = tested.fetchSortedByOldestFirst(ALL, new SimpleMessagePageRequest(10L, null, null));
+        assertFalse(first.isComplete());
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10"), ids(first));
+
+        ArchivedMessages after = tested.fetchSortedByOldestFirst(ALL, new SimpleMessagePageRequest(3L, "41", null));
+        assertEquals(Arrays.asList("42", "43", "44"), ids(after));
+        assertEquals(41, (long) after.firstMessageIndex().get());
+        assertEquals(100, (long) after.totalNumberOfMessages().get());
+
+        ArchivedMessages between = tested.fetchSortedByOldestFirst(ALL, new SimpleMessagePageRequest(10L, "41", "45"));
+        assertEquals(Arrays.asList("42", "43", "44"), ids(between));
+
+        ArchivedMessages unknown = tested.fetchSortedByOldestFirst(ALL, new SimpleMessagePageRequest(10L, "foo", null));
+        assertTrue(unknown.isEmpty());
+    }
+
+    @Test
+    public void lastPage() {
+        archive(100);
+
+        ArchivedMessages last = tested.fetchLastPageSortedByOldestFirst(ALL, 3);
+        assertEquals(Arrays.asList("98", "99", "100"), ids(last));
+        assertEquals(97, (long) last.firstMessageIndex().get());
+
+        EntityFilter nurse = new SimpleEntityFilter(NURSE, EntityFilter.Type.TO_OR_FROM, false);
+        ArchivedMessages lastFromNurse = tested.fetchLastPageSortedByOldestFirst(filter(nurse, null, null), 2);
+        assertEquals(Arrays.asList("97", "100"), ids(lastFromNurse));
+        assertEquals(32, (long) lastFromNurse.firstMessageIndex().get());
+        assertEquals(34, (long) lastFromNurse.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void dateTimeBoundsAreInclusive() {
+        archive(100);
+
+        MessageFilter filter = filter(null, START.plusSeconds(40), START.plusSeconds(49));
+        ArchivedMessages messages = tested.fetchSortedByOldestFirst(filter,
+                new SimpleMessagePageRequest(null, null, null));
+
+        assertEquals(Arrays.asList("41", "42", "43", "44", "45", "46", "47", "48", "49", "50"), ids(messages));
+        assertEquals(0, (long) messages.firstMessageIndex().get());
+        assertEquals(10, (long) messages.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void entityFilter() {
+        archive(30);
+
+        EntityFilter nurse = new SimpleEntityFilter(NURSE.getBareJID(), EntityFilter.Type.TO_OR_FROM, true);
+        ArchivedMessages messages = tested.fetchSortedByOldestFirst(filter(nurse, null, null),
+                new SimpleMessagePageRequest(3L, "4", null));
+
+        assertEquals(Arrays.asList("7", "10", "13"), ids(messages));
+        assertEquals(2, (long) messages.firstMessageIndex().get());
+        assertEquals(10, (long) messages.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void entityFilterWithResource() {
+        archive(30);
+        tested.archive(message(JULIET, NURSE.getBareJID(), "to the bare JID", START.plusSeconds(30)));
+
+        EntityFilter nurse = new SimpleEntityFilter(NURSE, EntityFilter.Type.TO_OR_FROM, false);
+        ArchivedMessages messages = tested.fetchSortedByOldestFirst(filter(nurse, START.plusSeconds(3), null),
+                new SimpleMessagePageRequest(2L, null, null));
+
+        assertEquals(Arrays.asList("4", "7"), ids(messages));
+        assertEquals(0, (long) messages.firstMessageIndex().get());
+        assertEquals(9, (long) messages.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void entityFilterToAndFrom() {
+        archive(10);
+        tested.archive(message(ROMEO, ROMEO, "note to self", START.plusSeconds(10)));
+
+        EntityFilter romeo = new SimpleEntityFilter(ROMEO, EntityFilter.Type.TO_AND_FROM, true);
+        ArchivedMessages messages = tested.fetchLastPageSortedByOldestFirst(filter(romeo, null, null), 10);
+
+        assertEquals(Arrays.asList("11"), ids(messages));
+        assertEquals(1, (long) messages.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void entityFilterUnknownCounterpart() {
+        archive(10);
+
+        EntityFilter tybalt = new SimpleEntityFilter(EntityImpl.parseUnchecked("tybalt@capulet.lit"),
+                EntityFilter.Type.TO_OR_FROM, true);
+        ArchivedMessages messages = tested.fetchLastPageSortedByOldestFirst(filter(tybalt, null, null), 10);
+
+        assertTrue(messages.isEmpty());
+        assertEquals(0, (long) messages.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void archiveTimeNeverGoesBackwards() {
+        tested.archive(message(ROMEO, JULIET, "late", START.plusSeconds(10)));
+        ArchivedMessage early = tested.archive(message(ROMEO, JULIET, "early", START));
+
+        assertEquals(START.plusSeconds(10), early.dateTime());
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        archive(50);
+        tested.flush();
+
+        tested = new SegmentMessageArchive(ARCHIVE, directory, 512);
+        archive(1);
+
+        EntityFilter nurse = new SimpleEntityFilter(NURSE, EntityFilter.Type.TO_OR_FROM, true);
+        assertEquals(Arrays.asList("49", "51"),
+                ids(tested.fetchLastPageSortedByOldestFirst(filter(nurse, null, null), 2)));
+
+        ArchivedMessages messages = tested.fetchLastPageSortedByOldestFirst(ALL, 2);
+        assertEquals(Arrays.asList("50", "51"), ids(messages));
+        assertEquals(51, (long) messages.totalNumberOfMessages().get());
+    }
+
+    @Test
+    public void reopenDiscardsCorruptRecord() throws IOException {
+        archive(5);
+        tested.flush();
+
+        File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        try (RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            // damage the last byte of the last record
+            long offset = 0;
+            long lastByte = -1;
+            int length;
+            while ((length = file.readInt()) != 0) {
+                lastByte = offset + 8 + length - 1;
+                offset = lastByte + 1;
+                file.seek(offset);
+            }
+            file.seek(lastByte);
+            int damaged = file.readByte() ^ 0xff;
+            file.seek(lastByte);
+            file.writeByte(damaged);
+        }
+
+        tested = new SegmentMessageArchive(ARCHIVE, directory, 512);
+        ArchivedMessages messages = tested.fetchLastPageSortedByOldestFirst(ALL, 1);
+        assertEquals(Arrays.asList("4"), ids(messages));
+        ArchivedMessage archived = tested.archive(message(ROMEO, JULIET, "after recovery", START.plusSeconds(10)));
+        assertEquals("5", archived.id());
+    }
+}